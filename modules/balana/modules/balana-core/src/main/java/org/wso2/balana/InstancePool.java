@@ -0,0 +1,131 @@
+/*
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.balana;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of instances that aren't thread safe but are expensive to create, such as XPath
+ * compilers, document builders or message digests. At most <code>capacity</code> instances are
+ * created, once all of them are in use callers wait for one to be released. Instances are never
+ * dropped, so state they keep, e.g. compiled expressions, survives bursts of concurrent lookups.
+ * <p>
+ * A pool is used rather than a <code>ThreadLocal</code>, which would create an instance for every
+ * request when requests run on virtual threads.
+ *
+ * @param <T> pooled instance
+ */
+public class InstancePool<T> {
+
+    /**
+     * Work done with a pooled instance.
+     *
+     * @param <T> pooled instance
+     * @param <R> result
+     * @param <E> exception thrown by the work
+     */
+    public interface Work<T, R, E extends Exception> {
+        R apply(T instance) throws E;
+    }
+
+    private final BlockingQueue<T> idle;
+    private final Supplier<T> factory;
+    private final int capacity;
+    private final AtomicInteger created = new AtomicInteger();
+
+    /**
+     * @param factory creates the instances
+     * @param capacity maximum number of instances
+     */
+    public InstancePool(Supplier<T> factory, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.idle = new ArrayBlockingQueue<T>(capacity);
+        this.factory = factory;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Creates a pool of one instance per processor, but at least four.
+     *
+     * @param factory creates the instances
+     */
+    public InstancePool(Supplier<T> factory) {
+        this(factory, Math.max(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Does the given work with an instance of the pool and releases the instance afterwards.
+     *
+     * @param work work with the instance
+     * @return result of the work
+     * @throws E if the work fails
+     */
+    public <R, E extends Exception> R apply(Work<T, R, E> work) throws E {
+        T instance = acquire();
+        try {
+            return work.apply(instance);
+        } finally {
+            release(instance);
+        }
+    }
+
+    /**
+     * Takes an idle instance, creates one if the pool isn't exhausted, or waits for one to be
+     * released. An interrupted caller gets a new instance that isn't kept when it is released.
+     *
+     * @return instance, to be handed back by {@link #release(Object)}
+     */
+    public T acquire() {
+        T instance = idle.poll();
+        if (instance != null) {
+            return instance;
+        }
+
+        for (int count = created.get(); count < capacity; count = created.get()) {
+            if (created.compareAndSet(count, count + 1)) {
+                try {
+                    return factory.get();
+                } catch (RuntimeException e) {
+                    created.decrementAndGet();
+                    throw e;
+                }
+            }
+        }
+
+        try {
+            return idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return factory.get();
+        }
+    }
+
+    /**
+     * Hands an instance back to the pool.
+     *
+     * @param instance instance taken by {@link #acquire()}
+     */
+    public void release(T instance) {
+        // more instances than the capacity only exist for interrupted callers, the surplus is dropped
+        idle.offer(instance);
+    }
+}
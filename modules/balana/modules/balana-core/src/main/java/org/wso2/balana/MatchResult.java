@@ -41,6 +41,12 @@ import org.wso2.balana.ctx.Status;
  * This is used as the return value for the various target matching functions. It communicates that
  * either the target matches the input request, the target doesn't match the input request, or the
  * result is Indeterminate.
+ * <p>
+ * extension: <code>MATCH</code> and <code>NO_MATCH</code> results returned by
+ * <code>TargetMatch.match</code>, and the results of the sections built from them, may be shared
+ * instances that are reused across evaluations. Their setters throw an
+ * <code>UnsupportedOperationException</code>, callers that need to set policy values create a new
+ * <code>MatchResult</code> with the same result, as <code>xacml2.Target</code> does.
  * 
  * @since 1.0
  * @author Seth Proctor
@@ -62,9 +68,14 @@ public class MatchResult {
      */
     public static final int INDETERMINATE = 2;
 
+    // extension: shared results, these are never modified
+    private static final MatchResult matchInstance = new MatchResult(MATCH, null, true);
+    private static final MatchResult noMatchInstance = new MatchResult(NO_MATCH, null, true);
+
     //
     private int result;
     private Status status;
+    private boolean immutable;
     
     private String policyValue;
     private String subjectPolicyValue;
@@ -77,6 +88,7 @@ public class MatchResult {
     }
 
     public void setSubjectPolicyValue(String subjectPolicyValue) {
+        checkMutable();
         this.subjectPolicyValue = subjectPolicyValue;
     }
 
@@ -85,6 +97,7 @@ public class MatchResult {
     }
 
     public void setResourcePolicyValue(String resourcePolicyValue) {
+        checkMutable();
         this.resourcePolicyValue = resourcePolicyValue;
     }
 
@@ -93,6 +106,7 @@ public class MatchResult {
     }
 
     public void setActionPolicyValue(String actionPolicyValue) {
+        checkMutable();
         this.actionPolicyValue = actionPolicyValue;
     }
 
@@ -101,6 +115,7 @@ public class MatchResult {
     }
 
     public void setEnvPolicyValue(String envPolicyValue) {
+        checkMutable();
         this.envPolicyValue = envPolicyValue;
     }
 
@@ -109,6 +124,7 @@ public class MatchResult {
     }
 
     public void setPolicyValue(String policyValue) {
+        checkMutable();
         this.policyValue = policyValue;
     }
     
@@ -139,6 +155,44 @@ public class MatchResult {
         this.status = status;
     }
 
+    /**
+     * Constructor that creates an immutable <code>MatchResult</code> with the given policy value.
+     * Used for results that are shared between evaluations.
+     *
+     * @param result the applicable result
+     * @param policyValue the matched policy value or null
+     * @param immutable true if the setters must not be used
+     */
+    MatchResult(int result, String policyValue, boolean immutable) {
+        this(result, null);
+
+        this.policyValue = policyValue;
+        this.immutable = immutable;
+    }
+
+    /**
+     * Returns the shared, immutable <code>MatchResult</code> for a match without policy value
+     *
+     * @return a <code>MatchResult</code> with result <code>MATCH</code>
+     */
+    public static MatchResult getMatchInstance() {
+        return matchInstance;
+    }
+
+    /**
+     * Returns the shared, immutable <code>MatchResult</code> for a failed match
+     *
+     * @return a <code>MatchResult</code> with result <code>NO_MATCH</code>
+     */
+    public static MatchResult getNoMatchInstance() {
+        return noMatchInstance;
+    }
+
+    private void checkMutable() {
+        if (immutable)
+            throw new UnsupportedOperationException("shared MatchResult can't be modified");
+    }
+
     /**
      * Returns the applicable result
      * 
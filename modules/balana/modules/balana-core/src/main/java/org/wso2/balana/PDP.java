@@ -54,6 +54,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 /**
  * This is the core class for the XACML engine, providing the starting point for request evaluation.
@@ -79,6 +82,11 @@ public class PDP {
      */
 	private static Log logger = LogFactory.getLog(PDP.class);
 
+    /**
+     * executor evaluating the individual decisions of a multiple decision request, or null
+     */
+    private Executor executor;
+
 	/**
 	 * Constructs a new <code>PDP</code> object with the given configuration information.
 	 * 
@@ -97,6 +105,21 @@ public class PDP {
 		policyFinder.init();
 	}
 
+    // extension: parallel evaluation of multiple decision requests
+    /**
+     * Constructs a new <code>PDP</code> object that evaluates the individual decisions of a
+     * multiple decision request in parallel on the given executor. The policy finder and its
+     * modules must be thread safe.
+     *
+     * @param pdpConfig user configuration data defining how to find policies, resolve external
+     *            attributes, etc.
+     * @param executor executor for the individual decisions, or null to evaluate them sequentially
+     */
+    public PDP(PDPConfig pdpConfig, Executor executor) {
+        this(pdpConfig);
+        this.executor = executor;
+    }
+
     /**
      * Attempts to evaluate the request against the policies known to this PDP. This is really the
      * core method of the entire XACML specification, and for most people will provide what you
@@ -193,11 +216,15 @@ public class PDP {
             } else {
                 evaluationCtxSet = multipleCtxResult.getEvaluationCtxSet();                
                 HashSet<AbstractResult> results = new HashSet<AbstractResult>();
-                for(EvaluationCtx ctx : evaluationCtxSet){
-                    // do the evaluation, for all evaluate context
-                    AbstractResult result = evaluateContext(ctx);
-                    // add the result
-                    results.add(result);
+                if(executor != null && evaluationCtxSet.size() > 1){
+                    evaluateContexts(evaluationCtxSet, results);
+                } else {
+                    for(EvaluationCtx ctx : evaluationCtxSet){
+                        // do the evaluation, for all evaluate context
+                        AbstractResult result = evaluateContext(ctx);
+                        // add the result
+                        results.add(result);
+                    }
                 }
                 // XACML 3.0.version
                 return new ResponseCtx(results, XACMLConstants.XACML_VERSION_3_0);
@@ -230,6 +257,45 @@ public class PDP {
 
 	}
 
+    /**
+     * Evaluates the given contexts on the executor and waits for all of their results. If the
+     * waiting thread is interrupted, the missing decisions are Indeterminate.
+     *
+     * @param contexts individual decisions of a multiple decision request
+     * @param results set the results are added to
+     */
+    private void evaluateContexts(Set<EvaluationCtx> contexts, Set<AbstractResult> results) {
+        List<FutureTask<AbstractResult>> tasks = new ArrayList<FutureTask<AbstractResult>>();
+        for(final EvaluationCtx ctx : contexts){
+            FutureTask<AbstractResult> task = new FutureTask<AbstractResult>(() -> evaluateContext(ctx));
+            tasks.add(task);
+            executor.execute(task);
+        }
+
+        Iterator<EvaluationCtx> ctxIterator = contexts.iterator();
+        for(FutureTask<AbstractResult> task : tasks){
+            EvaluationCtx ctx = ctxIterator.next();
+            try {
+                results.add(task.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                task.cancel(true);
+                List<String> code = new ArrayList<String>();
+                code.add(Status.STATUS_PROCESSING_ERROR);
+                results.add(ResultFactory.getFactory().getResult(AbstractResult.DECISION_INDETERMINATE,
+                        new Status(code, "Evaluation was interrupted"), ctx));
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
 	/**
 	 * A private helper routine that resolves a policy for the given context, and then tries to
 	 * evaluate based on the policy
@@ -262,9 +328,56 @@ public class PDP {
         }
 
         // so we can do the evaluation
-		return finderResult.getPolicy().evaluate(context);
+		AbstractResult result = finderResult.getPolicy().evaluate(context);
+
+        // extension: keep the ids of the applicable policies with the result
+        result.setPolicyIds(getPolicyIds(finderResult));
+        return result;
 	}
 
+    /**
+     * Returns the ids of all policies and policy sets that were found applicable. Uses the ids
+     * supplied by the finder module if present, otherwise collects them from the policy tree.
+     *
+     * @param finderResult result of the policy finder
+     * @return list of policy ids
+     */
+    private List<String> getPolicyIds(PolicyFinderResult finderResult) {
+        if (finderResult.getPolicyIds() != null) {
+            return finderResult.getPolicyIds();
+        }
+
+        List<String> policyIds = new ArrayList<String>();
+        collectPolicyIds(finderResult.getPolicy(), policyIds);
+        return policyIds;
+    }
+
+    /**
+     * Collects the ids of the given policy and all of its children. References are not
+     * resolved, the referenced id is collected instead.
+     *
+     * @param policy policy, policy set or reference
+     * @param policyIds list the ids are added to
+     */
+    private void collectPolicyIds(AbstractPolicy policy, List<String> policyIds) {
+        if (policy instanceof PolicyReference) {
+            policyIds.add(((PolicyReference) policy).getReference().toString());
+            return;
+        }
+
+        if (policy.getId() != null) {
+            policyIds.add(policy.getId().toString());
+        }
+
+        if (policy instanceof PolicySet) {
+            for (CombinerElement element : policy.getChildElements()) {
+                if (element.getElement() instanceof AbstractPolicy) {
+                    collectPolicyIds((AbstractPolicy) element.getElement(), policyIds);
+                }
+            }
+        }
+    }
+
 	/**
 	 * A utility method that wraps the functionality of the other evaluate method with input and
 	 * output streams. This is useful if you've got a PDP that is taking inputs from some stream and
@@ -305,7 +418,7 @@ public class PDP {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 
         try {
-            out.write(response.encode().getBytes());
+            response.writeTo(out);
         } catch (IOException e) {
             logger.error("Error creating output stream of XACML response", e);    
         }
@@ -0,0 +1,299 @@
+/*
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.balana;
+
+import org.wso2.balana.attr.AttributeValue;
+import org.wso2.balana.attr.BagAttribute;
+import org.wso2.balana.attr.xacml3.AttributeDesignator;
+import org.wso2.balana.attr.xacml3.XPathAttribute;
+import org.wso2.balana.cond.Apply;
+import org.wso2.balana.cond.Evaluatable;
+import org.wso2.balana.cond.Expression;
+import org.wso2.balana.cond.Function;
+import org.wso2.balana.xacml3.AllOfSelection;
+import org.wso2.balana.xacml3.AnyOfSelection;
+import org.wso2.balana.xacml3.Target;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global table sharing structurally identical parts of parsed policies (hash-consing). Targets,
+ * their matches, attribute values, attribute designators and applies without variable references
+ * or selectors are immutable once parsed, so policies repeating the same targets or conditions can
+ * share a single instance of them. Parts are compared by the identity of their already shared
+ * children, so interning a tree walks it once.
+ * <p>
+ * Interning is disabled by default, it only applies to XACML 3.0 policies parsed after it is
+ * enabled. Like {@link URIInterner} the table is bounded, {@link #clear()} releases it once all
+ * policies are loaded, the loaded policies keep sharing their parts.
+ */
+public class PolicyInterner {
+
+    /**
+     * Maximum number of interned parts
+     */
+    public static final int MAX_SIZE = 1 << 20;
+
+    private static volatile boolean enabled = false;
+
+    private static final ConcurrentHashMap<Key, Object> table = new ConcurrentHashMap<Key, Object>();
+
+    /**
+     * Enables or disables interning for policies parsed afterwards.
+     *
+     * @param enabled true to share identical parts of policies
+     */
+    public static void setEnabled(boolean enabled) {
+        PolicyInterner.enabled = enabled;
+    }
+
+    /**
+     * @return true if parsed policies share identical parts
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the shared instance of the given target.
+     *
+     * @param target target of a policy, policy set or rule
+     * @return the shared <code>AbstractTarget</code>, or the given one if interning is disabled
+     */
+    public static AbstractTarget intern(AbstractTarget target) {
+        if (!enabled || target == null || target.getClass() != Target.class) {
+            return target;
+        }
+
+        List<AnyOfSelection> anyOfSelections = ((Target) target).getAnyOfSelections();
+        if (anyOfSelections == null) {
+            return target;
+        }
+
+        List<AnyOfSelection> shared = new ArrayList<AnyOfSelection>(anyOfSelections.size());
+        for (AnyOfSelection anyOf : anyOfSelections) {
+            shared.add(intern(anyOf));
+        }
+
+        Key key = new Key(Target.class, shared.toArray());
+        return intern(key, shared.equals(anyOfSelections) ? target : new Target(shared));
+    }
+
+    /**
+     * Returns the shared instance of the given expression. Only expressions built from attribute
+     * values, attribute designators, functions and applies of these are shared.
+     *
+     * @param expression expression of a condition
+     * @return the shared <code>Expression</code>, or the given one if it isn't shared
+     */
+    public static Expression intern(Expression expression) {
+        if (!enabled) {
+            return expression;
+        }
+
+        if (expression instanceof AttributeValue) {
+            return intern((AttributeValue) expression);
+        } else if (expression instanceof AttributeDesignator) {
+            return intern((AttributeDesignator) expression);
+        } else if (expression instanceof Apply && expression.getClass() == Apply.class) {
+            return intern((Apply) expression);
+        }
+        return expression;
+    }
+
+    static AnyOfSelection intern(AnyOfSelection anyOf) {
+        List<AllOfSelection> allOfSelections = anyOf.getAllOfSelections();
+        List<AllOfSelection> shared = new ArrayList<AllOfSelection>(allOfSelections.size());
+        for (AllOfSelection allOf : allOfSelections) {
+            shared.add(intern(allOf));
+        }
+
+        Key key = new Key(AnyOfSelection.class, shared.toArray());
+        return intern(key, shared.equals(allOfSelections) ? anyOf : new AnyOfSelection(shared));
+    }
+
+    static AllOfSelection intern(AllOfSelection allOf) {
+        List<TargetMatch> matches = allOf.getMatches();
+        List<TargetMatch> shared = new ArrayList<TargetMatch>(matches.size());
+        for (TargetMatch match : matches) {
+            shared.add(intern(match));
+        }
+
+        Key key = new Key(AllOfSelection.class, shared.toArray());
+        return intern(key, shared.equals(matches) ? allOf : new AllOfSelection(shared));
+    }
+
+    static TargetMatch intern(TargetMatch match) {
+        AttributeValue value = intern(match.getMatchValue());
+        Expression evaluatable = intern((Expression) match.getMatchEvaluatable());
+        if (value == null || !isShared(value) || !isShared(evaluatable)) {
+            return match;
+        }
+
+        Key key = new Key(TargetMatch.class, match.getMatchFunction(), evaluatable, value);
+        if (value == match.getMatchValue() && evaluatable == match.getMatchEvaluatable()) {
+            return intern(key, match);
+        }
+        return intern(key, new TargetMatch(match.getMatchFunction(), (Evaluatable) evaluatable, value));
+    }
+
+    static AttributeValue intern(AttributeValue value) {
+        // bags only occur at evaluation time, XPath values depend on their category
+        if (value == null || value instanceof BagAttribute || value instanceof XPathAttribute) {
+            return value;
+        }
+
+        String encoded;
+        try {
+            encoded = value.encode();
+        } catch (RuntimeException e) {
+            return value;
+        }
+        return intern(new Key(value.getClass(), value.getType().toString(), encoded), value);
+    }
+
+    static AttributeDesignator intern(AttributeDesignator designator) {
+        if (designator.getClass() != AttributeDesignator.class) {
+            return designator;
+        }
+
+        Key key = new Key(AttributeDesignator.class, designator.getType(), designator.getId(),
+                designator.getCategory(), String.valueOf(designator.getIssuer()),
+                String.valueOf(designator.mustBePresent()));
+        return intern(key, designator);
+    }
+
+    static Expression intern(Apply apply) {
+        List children = apply.getChildren();
+        Object[] parts = new Object[children.size() + 1];
+        parts[0] = apply.getFunction();
+
+        boolean changed = false;
+        for (int i = 0; i < children.size(); i++) {
+            Object child = children.get(i);
+            Object shared = (child instanceof Function) ? child : intern((Expression) child);
+            if (!isShared(shared)) {
+                return apply;
+            }
+            changed |= (shared != child);
+            parts[i + 1] = shared;
+        }
+
+        Key key = new Key(Apply.class, parts);
+        if (!changed) {
+            return intern(key, apply);
+        }
+        return intern(key, new Apply(apply.getFunction(), Arrays.asList(parts).subList(1, parts.length)));
+    }
+
+    /**
+     * Tells whether the part may be referenced from the key of its parent
+     */
+    private static boolean isShared(Object part) {
+        return part instanceof Function || part instanceof AttributeValue
+                || (part != null && part.getClass() == AttributeDesignator.class)
+                || (part != null && part.getClass() == Apply.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T intern(Key key, T value) {
+        Object interned = table.get(key);
+        if (interned != null) {
+            return (T) interned;
+        }
+
+        if (table.size() >= MAX_SIZE) {
+            return value;
+        }
+
+        Object previous = table.putIfAbsent(key, value);
+        return (previous != null) ? (T) previous : value;
+    }
+
+    /**
+     * Releases the table, policies parsed before keep sharing their parts with each other but
+     * not with policies parsed afterwards.
+     */
+    public static void clear() {
+        table.clear();
+    }
+
+    /**
+     * Returns the number of interned parts
+     *
+     * @return size of the table
+     */
+    public static int size() {
+        return table.size();
+    }
+
+    /**
+     * Structural key of a part. Strings and identifiers are compared by value, children by
+     * identity, as they are shared instances already.
+     */
+    private static final class Key {
+        private final Class<?> type;
+        private final Object[] parts;
+        private final int hash;
+
+        Key(Class<?> type, Object... parts) {
+            this.type = type;
+            this.parts = parts;
+
+            int hash = type.hashCode();
+            for (Object part : parts) {
+                hash = 31 * hash + (isValue(part) ? part.hashCode() : System.identityHashCode(part));
+            }
+            this.hash = hash;
+        }
+
+        private static boolean isValue(Object part) {
+            return part instanceof String || part instanceof java.net.URI;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+            if (hash != other.hash || type != other.type || parts.length != other.parts.length) {
+                return false;
+            }
+            for (int i = 0; i < parts.length; i++) {
+                Object part = parts[i];
+                Object otherPart = other.parts[i];
+                if (part != otherPart && !(isValue(part) && part.equals(otherPart))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
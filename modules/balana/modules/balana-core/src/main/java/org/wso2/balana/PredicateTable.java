@@ -0,0 +1,99 @@
+/*
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.balana;
+
+import org.wso2.balana.attr.AttributeValue;
+import org.wso2.balana.attr.xacml3.AttributeDesignator;
+import org.wso2.balana.attr.xacml3.XPathAttribute;
+import org.wso2.balana.cond.Evaluatable;
+import org.wso2.balana.cond.Function;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Global table of canonical ids for target match predicates. Matches comparing the same
+ * attribute designator to the same value with the same function get the same id, whichever
+ * policy they were loaded from and however often it is reloaded. The ids are dense, so the
+ * results of the predicates can be kept per request in a paged bitmap, see
+ * {@link org.wso2.balana.ctx.BasicEvaluationCtx#getMatchResult(int)}.
+ * <p>
+ * Only XACML 3.0 matches on attribute designators get ids. Like {@link URIInterner} the table is
+ * bounded, once it is full new predicates get no id and are evaluated on every use.
+ */
+public class PredicateTable {
+
+    /**
+     * Maximum number of predicates
+     */
+    public static final int MAX_SIZE = 1 << 20;
+
+    /**
+     * Id of predicates which aren't in the table
+     */
+    public static final int NO_ID = -1;
+
+    private static final ConcurrentHashMap<String, Integer> table = new ConcurrentHashMap<String, Integer>();
+
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * Returns the canonical id of the given predicate.
+     *
+     * @param function the match function
+     * @param eval the designator or selector
+     * @param value the policy value
+     * @return the id of the predicate, or <code>NO_ID</code>
+     */
+    public static int idOf(Function function, Evaluatable eval, AttributeValue value) {
+        // selectors and XPath values depend on the request content beyond the attributes
+        if (function == null || value == null || value instanceof XPathAttribute
+                || eval == null || eval.getClass() != AttributeDesignator.class) {
+            return NO_ID;
+        }
+
+        AttributeDesignator designator = (AttributeDesignator) eval;
+        String key;
+        try {
+            key = function.getIdentifier() + "\n" + designator.getCategory() + "\n" + designator.getId()
+                    + "\n" + designator.getType() + "\n" + designator.getIssuer()
+                    + "\n" + designator.mustBePresent() + "\n" + value.getType() + "\n" + value.encode();
+        } catch (RuntimeException e) {
+            return NO_ID;
+        }
+
+        Integer id = table.get(key);
+        if (id != null) {
+            return id;
+        }
+
+        if (table.size() >= MAX_SIZE) {
+            return NO_ID;
+        }
+
+        return table.computeIfAbsent(key, k -> nextId.getAndIncrement());
+    }
+
+    /**
+     * Returns the number of predicates, all ids are less than this
+     *
+     * @return size of the table
+     */
+    public static int size() {
+        return nextId.get();
+    }
+}
@@ -314,6 +314,24 @@ public class Rule implements PolicyTreeElement {
         return condition;
     }
 
+    /**
+     * Returns the obligation expressions of this <code>Rule</code>
+     *
+     * @return a <code>Set</code> of <code>AbstractObligation</code> or null if there are none
+     */
+    public Set<AbstractObligation> getObligationExpressions() {
+        return obligationExpressions;
+    }
+
+    /**
+     * Returns the advice expressions of this <code>Rule</code>
+     *
+     * @return a <code>Set</code> of <code>AdviceExpression</code> or null if there are none
+     */
+    public Set<AdviceExpression> getAdviceExpressions() {
+        return adviceExpressions;
+    }
+
     /**
      * Given the input context sees whether or not the request matches this <code>Rule</code>'s
      * <code>Target</code>. Note that unlike the matching done by the <code>evaluate</code> method,
@@ -37,12 +37,15 @@ package org.wso2.balana;
 
 import org.wso2.balana.attr.*;
 
+import org.wso2.balana.cond.EqualFunction;
 import org.wso2.balana.cond.Evaluatable;
 import org.wso2.balana.cond.EvaluationResult;
 import org.wso2.balana.cond.Function;
 import org.wso2.balana.cond.FunctionFactory;
 import org.wso2.balana.cond.FunctionTypeException;
+import org.wso2.balana.cond.MatchFunction;
 
+import org.wso2.balana.ctx.BasicEvaluationCtx;
 import org.wso2.balana.ctx.EvaluationCtx;
 import org.wso2.balana.ctx.Status;
 
@@ -53,8 +56,10 @@ import java.net.URI;
 import java.net.URISyntaxException;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -108,6 +113,25 @@ public class TargetMatch {
     // the value
     private AttributeValue attrValue;
 
+    // extension: kinds of the allocation free match path
+    private static final int GENERIC = 0;
+    private static final int EQUAL = 1;
+    private static final int EQUAL_CASE_IGNORE = 2;
+    private static final int STRING_REGEXP = 3;
+    private static final int ANYURI_REGEXP = 4;
+
+    // extension: how this match is evaluated, see initFastPath()
+    private int fastPath;
+    // the lower case policy value for EQUAL_CASE_IGNORE
+    private String lowerCaseValue;
+    // the compiled policy value of regexp match functions
+    private Pattern pattern;
+    // the shared result returned on every match
+    private MatchResult matchResult;
+
+    // extension: canonical id of this predicate, see PredicateTable
+    private int predicateId;
+
     /**
      * Constructor that creates a <code>TargetMatch</code> from components.
      * 
@@ -131,6 +155,9 @@ public class TargetMatch {
         this.function = function;
         this.eval = eval;
         this.attrValue = attrValue;
+
+        initFastPath();
+        predicateId = PredicateTable.idOf(function, eval, attrValue);
     }
 
 
@@ -150,6 +177,9 @@ public class TargetMatch {
         this.function = function;
         this.eval = eval;
         this.attrValue = attrValue;
+
+        initFastPath();
+        predicateId = PredicateTable.idOf(function, eval, attrValue);
     }
 
 
@@ -310,15 +340,122 @@ public class TargetMatch {
         return eval;
     }
 
+    /**
+     * extension: returns the canonical id of this predicate
+     *
+     * @return the id in the <code>PredicateTable</code>, or <code>PredicateTable.NO_ID</code>
+     */
+    public int getPredicateId() {
+        return predicateId;
+    }
+
+    /**
+     * Private helper that selects the match path. The common equality and regular expression match
+     * functions compare the policy value against the request values directly, without going through
+     * <code>Function.evaluate</code>.
+     */
+    private void initFastPath() {
+        matchResult = new MatchResult(MatchResult.MATCH,
+                (attrValue instanceof StringAttribute) ? ((StringAttribute) attrValue).getValue() : null, true);
+
+        if (function == null || attrValue == null)
+            return;
+
+        String functionId = function.getIdentifier().toString();
+        if (function.getClass() == EqualFunction.class) {
+            if (EqualFunction.NAME_STRING_EQUAL.equals(functionId)
+                    || EqualFunction.NAME_ANYURI_EQUAL.equals(functionId)
+                    || EqualFunction.NAME_INTEGER_EQUAL.equals(functionId)) {
+                fastPath = EQUAL;
+            } else if (EqualFunction.NAME_EQUAL_CASE_IGNORE.equals(functionId)) {
+                lowerCaseValue = attrValue.encode().toLowerCase();
+                fastPath = EQUAL_CASE_IGNORE;
+            }
+        } else if (function.getClass() == MatchFunction.class && attrValue instanceof StringAttribute) {
+            pattern = ((MatchFunction) function).precompile(Collections.singletonList(attrValue));
+            if (pattern == null)
+                return;
+
+            if (MatchFunction.NAME_STRING_REGEXP_MATCH.equals(functionId)
+                    || MatchFunction.NAME_REGEXP_STRING_MATCH.equals(functionId)) {
+                fastPath = STRING_REGEXP;
+            } else if (MatchFunction.NAME_ANYURI_REGEXP_MATCH.equals(functionId)) {
+                fastPath = ANYURI_REGEXP;
+            }
+        }
+    }
+
+    /**
+     * Private helper that evaluates an individual match on the fast path.
+     *
+     * @param value the request value
+     * @param context <code>EvaluationCtx</code>
+     * @return 1 on a match, 0 if there is no match or -1 if the value isn't supported
+     */
+    private int fastMatch(AttributeValue value, EvaluationCtx context) {
+        switch (fastPath) {
+            case EQUAL:
+                if (value instanceof StringAttribute
+                        && XACMLConstants.ANY.equals(((StringAttribute) value).getValue()))
+                    return 1;
+                return attrValue.equals(value) ? 1 : 0;
+            case EQUAL_CASE_IGNORE:
+                if (value instanceof StringAttribute
+                        && XACMLConstants.ANY.equals(((StringAttribute) value).getValue()))
+                    return 1;
+                return lowerCaseValue.equals(value.encode().toLowerCase()) ? 1 : 0;
+            case STRING_REGEXP:
+                if (!(value instanceof StringAttribute))
+                    return -1;
+                String string = ((StringAttribute) value).getValue();
+                if (context.isSearching() && string.equals(XACMLConstants.ANY))
+                    return 1;
+                return pattern.matcher(string).matches() ? 1 : 0;
+            case ANYURI_REGEXP:
+                if (!(value instanceof AnyURIAttribute))
+                    return -1;
+                return pattern.matcher(value.encode()).matches() ? 1 : 0;
+            default:
+                return -1;
+        }
+    }
+
     /**
      * Determines whether this <code>TargetMatch</code> matches the input request (whether it is
-     * applicable)
+     * applicable). extension: results other than <code>INDETERMINATE</code> may be shared and
+     * can't be modified, see {@link MatchResult}.
      * 
      * @param context the representation of the request
      * 
      * @return the result of trying to match the TargetMatch and the request
      */
     public MatchResult match(EvaluationCtx context) {
+        // extension: identical predicates of all policies are evaluated once per request
+        if (predicateId == PredicateTable.NO_ID || !(context instanceof BasicEvaluationCtx))
+            return matchRequest(context);
+
+        BasicEvaluationCtx ctx = (BasicEvaluationCtx) context;
+        switch (ctx.getMatchResult(predicateId)) {
+            case MatchResult.MATCH:
+                return matchResult;
+            case MatchResult.NO_MATCH:
+                return MatchResult.getNoMatchInstance();
+            case MatchResult.INDETERMINATE:
+                return ctx.getIndeterminateMatch(predicateId);
+        }
+
+        MatchResult result = matchRequest(context);
+        ctx.setMatchResult(predicateId, result);
+        return result;
+    }
+
+    /**
+     * Private helper that evaluates this match against the request values.
+     *
+     * @param context the representation of the request
+     * @return the result of trying to match the TargetMatch and the request
+     */
+    private MatchResult matchRequest(EvaluationCtx context) {
         // start by evaluating the AD/AS
         EvaluationResult result = eval.evaluate(context);
 
@@ -339,21 +476,26 @@ public class TargetMatch {
             Status firstIndeterminateStatus = null;
 
             while (it.hasNext()) {
+                AttributeValue value = (AttributeValue) it.next();
+
+                // extension: compare directly where possible
+                int fastMatch = fastMatch(value, context);
+                if (fastMatch == 1)
+                    return matchResult;
+                if (fastMatch == 0)
+                    continue;
+
                 ArrayList<Evaluatable> inputs = new ArrayList<Evaluatable>();
 
                 inputs.add(attrValue);
-                inputs.add((Evaluatable)it.next());
+                inputs.add(value);
 
                 // do the evaluation
                 MatchResult match = evaluateMatch(inputs, context);
 
                 // we only need one match for this whole thing to match
                 if (match.getResult() == MatchResult.MATCH) {
-                    if (attrValue instanceof StringAttribute) {
-                        match.setPolicyValue(((StringAttribute) attrValue).getValue());
-                    }
-                    return match;
-
+                    return matchResult;
                 }
 
                 // if it was INDETERMINATE, we want to remember for later
@@ -373,13 +515,13 @@ public class TargetMatch {
             if (atLeastOneError)
                 return new MatchResult(MatchResult.INDETERMINATE, firstIndeterminateStatus);
             else
-                return new MatchResult(MatchResult.NO_MATCH);
+                return MatchResult.getNoMatchInstance();
 
         } else {
             // this is just an optimization, since the loop above will
             // actually handle this case, but this is just a little
             // quicker way to handle an empty bag
-            return new MatchResult(MatchResult.NO_MATCH);
+            return MatchResult.getNoMatchInstance();
         }
     }
 
@@ -392,7 +534,9 @@ public class TargetMatch {
      */
     private MatchResult evaluateMatch(List inputs, EvaluationCtx context) {
         // first off, evaluate the function
-        EvaluationResult result = function.evaluate(inputs, context);
+        EvaluationResult result = (pattern != null)
+                ? ((MatchFunction) function).evaluate(inputs, context, pattern)
+                : function.evaluate(inputs, context);
 
         // if it was indeterminate, then that's what we return immediately
         if (result.indeterminate())
@@ -402,9 +546,9 @@ public class TargetMatch {
         BooleanAttribute bool = (BooleanAttribute) (result.getAttributeValue());
 
         if (bool.getValue())
-            return new MatchResult(MatchResult.MATCH);
+            return MatchResult.getMatchInstance();
         else
-            return new MatchResult(MatchResult.NO_MATCH);
+            return MatchResult.getNoMatchInstance();
     }
 
     /**
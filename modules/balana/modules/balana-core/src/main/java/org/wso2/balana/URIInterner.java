@@ -0,0 +1,126 @@
+/*
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.balana;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global intern table for the identifiers used in policies, such as categories, attribute ids and
+ * data types. Interned identifiers are shared, so they can be compared by reference, see
+ * {@link #equals(URI, URI)}. Policies intern their identifiers, requests only look them up with
+ * {@link #get(String)}, so arbitrary request identifiers never enter the table. The table is
+ * bounded, once it is full identifiers are no longer interned.
+ */
+public class URIInterner {
+
+    /**
+     * Maximum number of interned identifiers
+     */
+    public static final int MAX_SIZE = 16384;
+
+    private static final ConcurrentHashMap<String, URI> table = new ConcurrentHashMap<String, URI>();
+
+    /**
+     * Returns the interned <code>URI</code> of the given identifier.
+     *
+     * @param uri identifier
+     * @return the shared <code>URI</code>, or a new one if the table is full
+     * @throws URISyntaxException if the identifier isn't a valid URI
+     */
+    public static URI intern(String uri) throws URISyntaxException {
+        URI interned = table.get(uri);
+        if (interned != null) {
+            return interned;
+        }
+
+        interned = new URI(uri);
+        if (table.size() >= MAX_SIZE) {
+            return interned;
+        }
+
+        URI previous = table.putIfAbsent(uri, interned);
+        return (previous != null) ? previous : interned;
+    }
+
+    /**
+     * Returns the interned <code>URI</code> of the given identifier without adding it to the
+     * table, used for identifiers read from requests.
+     *
+     * @param uri identifier
+     * @return the shared <code>URI</code>, or a new one if the identifier isn't interned
+     * @throws URISyntaxException if the identifier isn't a valid URI
+     */
+    public static URI get(String uri) throws URISyntaxException {
+        URI interned = table.get(uri);
+        return (interned != null) ? interned : new URI(uri);
+    }
+
+    /**
+     * Returns the interned <code>URI</code> equal to the given one.
+     *
+     * @param uri identifier or null
+     * @return the shared <code>URI</code>, the given one if the table is full or null
+     */
+    public static URI intern(URI uri) {
+        if (uri == null) {
+            return null;
+        }
+
+        String key = uri.toString();
+        URI interned = table.get(key);
+        if (interned != null) {
+            return interned;
+        }
+
+        if (table.size() >= MAX_SIZE) {
+            return uri;
+        }
+
+        URI previous = table.putIfAbsent(key, uri);
+        return (previous != null) ? previous : uri;
+    }
+
+    /**
+     * Compares two identifiers by their string form, interned identifiers are compared by
+     * reference only.
+     *
+     * @param uri1 identifier or null
+     * @param uri2 identifier or null
+     * @return true if both identifiers are equal
+     */
+    public static boolean equals(URI uri1, URI uri2) {
+        if (uri1 == uri2) {
+            return true;
+        }
+        if (uri1 == null || uri2 == null) {
+            return false;
+        }
+
+        return uri1.toString().equals(uri2.toString());
+    }
+
+    /**
+     * Returns the number of interned identifiers
+     *
+     * @return size of the table
+     */
+    public static int size() {
+        return table.size();
+    }
+}
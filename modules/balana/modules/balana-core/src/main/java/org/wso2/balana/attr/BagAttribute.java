@@ -57,6 +57,12 @@ public class BagAttribute extends AttributeValue {
     // The List of AttributeValues that this object encapsulates
     private List<AttributeValue> bag;
 
+    // extension: bags of at least this size are searched through a hash index
+    static final int INDEX_THRESHOLD = 16;
+
+    // extension: the values of the bag, built on the first search of a large bag
+    private volatile Set<AttributeValue> index;
+
     /**
      * Creates a new <code>BagAttribute</code> that represents the <code>Collection</code> of
      * <code>AttributeValue</code>s supplied. If the set is null or empty, then the new bag is
@@ -148,6 +154,9 @@ public class BagAttribute extends AttributeValue {
      * @return true if the value is in the bag
      */
     public boolean contains(AttributeValue value) {
+        // extension: large bags are often searched many times, e.g. by the set functions
+        if (bag.size() >= INDEX_THRESHOLD)
+            return index().contains(value);
         return bag.contains(value);
     }
 
@@ -161,9 +170,25 @@ public class BagAttribute extends AttributeValue {
      * @return true if the input is a subset of this bag
      */
     public boolean containsAll(BagAttribute bag) {
+        // extension: search the index once per value instead of scanning the list
+        if (this.bag.size() >= INDEX_THRESHOLD)
+            return index().containsAll(bag.bag);
         return this.bag.containsAll(bag.bag);
     }
 
+    /**
+     * extension: returns the hash index of the values, building it if necessary. Values are
+     * compared by <code>equals</code> and <code>hashCode</code>, like the list does.
+     */
+    private Set<AttributeValue> index() {
+        Set<AttributeValue> index = this.index;
+        if (index == null) {
+            index = new HashSet<AttributeValue>(bag);
+            this.index = index;
+        }
+        return index;
+    }
+
     /**
      * Returns an iterator over te
      */
@@ -83,11 +83,12 @@ public class AttributeDesignator extends AbstractDesignator {
      */
     public AttributeDesignator(URI type, URI id, boolean mustBePresent, String issuer,
                                URI category) throws IllegalArgumentException {
-        this.type = type;
-        this.id = id;
+        // extension: identifiers are shared with the request attributes
+        this.type = URIInterner.intern(type);
+        this.id = URIInterner.intern(id);
         this.mustBePresent = mustBePresent;
         this.issuer = issuer;
-        this.category = category;
+        this.category = URIInterner.intern(category);
     }
 
 
@@ -116,13 +117,13 @@ public class AttributeDesignator extends AbstractDesignator {
         NamedNodeMap attrs = root.getAttributes();
 
         try {
-            id = new URI(attrs.getNamedItem("AttributeId").getNodeValue());
+            id = URIInterner.intern(attrs.getNamedItem("AttributeId").getNodeValue());
         } catch (Exception e) {
             throw new ParsingException("Required AttributeId missing in " + "AttributeDesignator", e);
         }
 
         try {
-            category = new URI(attrs.getNamedItem("Category").getNodeValue());
+            category = URIInterner.intern(attrs.getNamedItem("Category").getNodeValue());
         } catch (Exception e) {
             throw new ParsingException("Required Category missing in " + "AttributeDesignator", e);
         }
@@ -137,7 +138,7 @@ public class AttributeDesignator extends AbstractDesignator {
         }
 
         try {
-            type = new URI(attrs.getNamedItem("DataType").getNodeValue());
+            type = URIInterner.intern(attrs.getNamedItem("DataType").getNodeValue());
         } catch (Exception e) {
             throw new ParsingException("Required DataType missing in " + "AttributeDesignator", e);
         }
@@ -46,6 +46,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -74,6 +75,9 @@ public class Apply implements Evaluatable {
     // the paramaters to the function...ie, the contents of the apply
     private List xprs;
 
+    // extension: the compiled regular expression if the first parameter of a match is a literal
+    private Pattern pattern;
+
     /**
      * Constructs an <code>Apply</code> instance.
      * 
@@ -91,6 +95,11 @@ public class Apply implements Evaluatable {
         // if everything checks out, then store the inputs
         this.function = function;
         this.xprs = Collections.unmodifiableList(new ArrayList(xprs));
+
+        // extension: literal regular expressions are compiled once
+        if (function instanceof MatchFunction) {
+            pattern = ((MatchFunction) function).precompile(xprs);
+        }
     }
 
     /**
@@ -120,6 +129,11 @@ public class Apply implements Evaluatable {
         // if everything checks out, then store the inputs
         this.function = function;
         this.xprs = Collections.unmodifiableList(new ArrayList(xprs));
+
+        // extension: literal regular expressions are compiled once
+        if (function instanceof MatchFunction) {
+            pattern = ((MatchFunction) function).precompile(xprs);
+        }
     }
 
     /**
@@ -274,6 +288,9 @@ public class Apply implements Evaluatable {
         // function can only be at the start of an Apply), we no longer make
         // assumptions at this point, so the higher order functions are
         // left to evaluate their own parameters.
+        if (pattern != null) {
+            return ((MatchFunction) function).evaluate(xprs, context, pattern);
+        }
         return function.evaluate(xprs, context);
     }
 
@@ -179,7 +179,8 @@ public class Condition implements Evaluatable {
                 }
             }
 
-            return new Condition(xpr);
+            // extension: identical conditions of loaded policies share their expression
+            return new Condition(PolicyInterner.intern(xpr));
         }
     }
 
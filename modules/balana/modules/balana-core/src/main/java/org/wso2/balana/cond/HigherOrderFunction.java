@@ -37,10 +37,12 @@ package org.wso2.balana.cond;
 
 import org.wso2.balana.ctx.EvaluationCtx;
 import org.wso2.balana.Indenter;
+import org.wso2.balana.XACMLConstants;
 
 import org.wso2.balana.attr.AttributeValue;
 import org.wso2.balana.attr.BagAttribute;
 import org.wso2.balana.attr.BooleanAttribute;
+import org.wso2.balana.attr.StringAttribute;
 
 import java.io.OutputStream;
 import java.io.PrintStream;
@@ -104,6 +106,9 @@ public class HigherOrderFunction implements Function {
 	private static final int ID_ANY_OF_ALL = 4;
 	private static final int ID_ALL_OF_ALL = 5;
 
+	// extension: the value the equal functions treat as a wildcard
+	private static final StringAttribute WILDCARD = new StringAttribute(XACMLConstants.ANY);
+
 	// internal mapping of names to ids
 	private static HashMap<String, Integer> idMap;
 
@@ -271,6 +276,13 @@ public class HigherOrderFunction implements Function {
 			// of the bag elements matches the single value, return
 			// true, otherwise return false
 
+			// extension: equality is a lookup in the bag
+			if (isEquality(function)) {
+				BagAttribute bag = (BagAttribute) (args[1]);
+				result = EvaluationResult.getInstance(containsWildcard(bag) || bag.contains(args[0]));
+				break;
+			}
+
 			result = any(args[0], (BagAttribute) (args[1]), function, context, false);
 			break;
 		}
@@ -295,6 +307,13 @@ public class HigherOrderFunction implements Function {
 			// the first bag and a single value from the second bag, and if
 			// any evaluation is true return true, otherwise return false
 
+			// extension: equality is a hash join of the two bags
+			if (isEquality(function)) {
+				result = EvaluationResult.getInstance(intersects((BagAttribute) (args[0]),
+						(BagAttribute) (args[1])));
+				break;
+			}
+
 			result = new EvaluationResult(BooleanAttribute.getInstance(false));
 			Iterator it = ((BagAttribute) args[0]).iterator();
 			BagAttribute bag = (BagAttribute) (args[1]);
@@ -320,6 +339,14 @@ public class HigherOrderFunction implements Function {
 			// one of the values in the second bag matches then return true,
 			// otherwise return false
 
+			// extension: with equality every value of the first bag must be in the second
+			if (isEquality(function)) {
+				BagAttribute bag = (BagAttribute) (args[1]);
+				result = EvaluationResult.getInstance(containsWildcard(bag)
+						|| bag.containsAll((BagAttribute) (args[0])));
+				break;
+			}
+
 			result = allOfAny((BagAttribute) (args[1]), (BagAttribute) (args[0]), function, context);
 			break;
 		}
@@ -434,6 +461,40 @@ public class HigherOrderFunction implements Function {
 		throw new IllegalArgumentException("higher-order functions require " + "use of bags");
 	}
 
+	/**
+	 * extension: tells whether the function compares its arguments with <code>equals</code>, so it
+	 * can be replaced by lookups in the hash index of a bag
+	 */
+	private static boolean isEquality(Function function) {
+		return function.getClass() == EqualFunction.class
+				&& !EqualFunction.NAME_EQUAL_CASE_IGNORE.equals(function.getIdentifier().toString());
+	}
+
+	/**
+	 * extension: the equal functions match every value against a second argument of
+	 * <code>XACMLConstants.ANY</code>
+	 */
+	private static boolean containsWildcard(BagAttribute bag) {
+		return StringAttribute.identifier.equals(bag.getType().toString()) && bag.contains(WILDCARD);
+	}
+
+	/**
+	 * extension: tells whether any value of the first bag equals a value of the second bag
+	 */
+	private static boolean intersects(BagAttribute first, BagAttribute second) {
+		if (first.isEmpty())
+			return false;
+		if (containsWildcard(second))
+			return true;
+
+		Iterator it = first.iterator();
+		while (it.hasNext()) {
+			if (second.contains((AttributeValue) (it.next())))
+				return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Private helper function that performs the any function, but lets you swap the argument order
 	 * (so it can be used by any-of-all)
@@ -49,7 +49,9 @@ import org.wso2.balana.attr.X500NameAttribute;
 
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import java.util.regex.Pattern;
 
@@ -147,6 +149,16 @@ public class MatchFunction extends FunctionBase {
     // private mapping for bag input options
     private static final boolean bagParams[] = { false, false };
 
+    /**
+     * extension: maximum number of cached patterns
+     */
+    public static final int MAX_PATTERNS = 4096;
+
+    // extension: translated patterns of expressions that are not literals, literal expressions
+    // are compiled by the Apply or TargetMatch they belong to. Lookups don't lock, the cache is
+    // cleared when it is full rather than tracking the least recently used patterns.
+    private static final Map<String, Pattern> patterns = new ConcurrentHashMap<String, Pattern>();
+
     /**
      * Creates a new <code>MatchFunction</code> based on the given name.
      * 
@@ -244,6 +256,21 @@ public class MatchFunction extends FunctionBase {
      * @return an <code>EvaluationResult</code> representing the function's result
      */
     public EvaluationResult evaluate(List inputs, EvaluationCtx context) {
+        return evaluate(inputs, context, null);
+    }
+
+    /**
+     * extension: evaluates the function with the compiled regular expression of a literal
+     * argument, see {@link #precompile(List)}.
+     *
+     * @param inputs a <code>List</code> of <code>Evaluatable</code> objects representing the
+     *            arguments passed to the function
+     * @param context an <code>EvaluationCtx</code> so that the <code>Evaluatable</code> objects can
+     *            be evaluated
+     * @param pattern the compiled regular expression, or null to compile the first argument
+     * @return an <code>EvaluationResult</code> representing the function's result
+     */
+    public EvaluationResult evaluate(List inputs, EvaluationCtx context, Pattern pattern) {
 
         // Evaluate the arguments
         AttributeValue[] argValues = new AttributeValue[inputs.size()];
@@ -268,7 +295,7 @@ public class MatchFunction extends FunctionBase {
             if (context.isSearching() && arg1.equals(XACMLConstants.ANY)) {
                 boolResult = true;
             } else {
-                boolResult = regexpHelper(arg0, arg1);
+                boolResult = regexpHelper(pattern, arg0, arg1);
             }
 
             break;
@@ -309,7 +336,7 @@ public class MatchFunction extends FunctionBase {
             String arg0 = ((StringAttribute) (argValues[0])).getValue();
             String arg1 = ((AnyURIAttribute) (argValues[1])).encode();
 
-            boolResult = regexpHelper(arg0, arg1);
+            boolResult = regexpHelper(pattern, arg0, arg1);
 
             break;
         }
@@ -319,7 +346,7 @@ public class MatchFunction extends FunctionBase {
             String arg0 = ((StringAttribute) (argValues[0])).getValue();
             String arg1 = ((IPAddressAttribute) (argValues[1])).encode();
 
-            boolResult = regexpHelper(arg0, arg1);
+            boolResult = regexpHelper(pattern, arg0, arg1);
 
             break;
         }
@@ -329,7 +356,7 @@ public class MatchFunction extends FunctionBase {
             String arg0 = ((StringAttribute) (argValues[0])).getValue();
             String arg1 = ((DNSNameAttribute) (argValues[1])).encode();
 
-            boolResult = regexpHelper(arg0, arg1);
+            boolResult = regexpHelper(pattern, arg0, arg1);
 
             break;
         }
@@ -339,7 +366,7 @@ public class MatchFunction extends FunctionBase {
             String arg0 = ((StringAttribute) (argValues[0])).getValue();
             String arg1 = ((RFC822NameAttribute) (argValues[1])).encode();
 
-            boolResult = regexpHelper(arg0, arg1);
+            boolResult = regexpHelper(pattern, arg0, arg1);
 
             break;
         }
@@ -349,7 +376,7 @@ public class MatchFunction extends FunctionBase {
             String arg0 = ((StringAttribute) (argValues[0])).getValue();
             String arg1 = ((X500NameAttribute) (argValues[1])).encode();
 
-            boolResult = regexpHelper(arg0, arg1);
+            boolResult = regexpHelper(pattern, arg0, arg1);
 
             break;
         }
@@ -363,7 +390,62 @@ public class MatchFunction extends FunctionBase {
     /**
      *
      */
-    private boolean regexpHelper(String xpr, String str) {
+    private boolean regexpHelper(Pattern pattern, String xpr, String str) {
+        return ((pattern != null) ? pattern : getPattern(xpr)).matcher(str).matches();
+    }
+
+    /**
+     * Compiles the regular expression argument of this function if it is a literal value,
+     * called when an <code>Apply</code> or <code>TargetMatch</code> is created, which keeps the
+     * returned pattern. Invalid expressions are left to fail at evaluation time.
+     *
+     * @param inputs the arguments of the function
+     * @return the compiled <code>Pattern</code>, or null if there is no literal regular expression
+     */
+    public Pattern precompile(List inputs) {
+        if (getFunctionId() == ID_X500NAME_MATCH || getFunctionId() == ID_RFC822NAME_MATCH
+                || inputs.isEmpty() || !(inputs.get(0) instanceof StringAttribute)) {
+            return null;
+        }
+
+        try {
+            return compileRegexp(((StringAttribute) inputs.get(0)).getValue());
+        } catch (RuntimeException e) {
+            // invalid expressions keep failing at evaluation time
+            return null;
+        }
+    }
+
+    /**
+     * Returns the translated <code>Pattern</code> of the given XACML regular expression, see
+     * {@link #compileRegexp(String)}. Up to <code>MAX_PATTERNS</code> patterns are cached, the cache
+     * starts over once it is full.
+     *
+     * @param xpr XACML regular expression
+     * @return the compiled <code>Pattern</code>
+     */
+    public static Pattern getPattern(String xpr) {
+        Pattern pattern = patterns.get(xpr);
+        if (pattern != null) {
+            return pattern;
+        }
+
+        pattern = compileRegexp(xpr);
+        if (patterns.size() >= MAX_PATTERNS) {
+            patterns.clear();
+        }
+        patterns.put(xpr, pattern);
+        return pattern;
+    }
+
+    /**
+     * Translates the given XACML regular expression into a <code>Pattern</code>. The resulting
+     * pattern matches a string if the XACML regular expression matches any substring of it.
+     *
+     * @param xpr XACML regular expression
+     * @return the compiled <code>Pattern</code>
+     */
+    public static Pattern compileRegexp(String xpr) {
         // the regular expression syntax required by XACML differs
         // from the syntax supported by java.util.regex.Pattern
         // in several ways; the next several code blocks transform
@@ -412,7 +494,7 @@ public class MatchFunction extends FunctionBase {
             idx = buf.indexOf("-[", idx);
         }
 
-        return Pattern.matches(buf.toString(), str);
+        return Pattern.compile(buf.toString());
     }
 
 }
@@ -35,6 +35,7 @@
 
 package org.wso2.balana.cond;
 
+import org.wso2.balana.ctx.BasicEvaluationCtx;
 import org.wso2.balana.ctx.EvaluationCtx;
 import org.wso2.balana.Indenter;
 import org.wso2.balana.ParsingException;
@@ -60,7 +61,8 @@ import org.w3c.dom.Node;
  * @since 2.0
  * @author Seth Proctor
  */
-public class VariableReference implements Expression {
+// extension: Evaluatable, so references can be passed to functions like the expressions they reference
+public class VariableReference implements Evaluatable {
 
     // the identifier used to resolve the reference
     private String variableId;
@@ -169,6 +171,10 @@ public class VariableReference implements Expression {
      * @return the result of evaluation
      */
     public EvaluationResult evaluate(EvaluationCtx context) {
+        // extension: the value of a definition doesn't change during the evaluation of a request
+        if (context instanceof BasicEvaluationCtx)
+            return ((BasicEvaluationCtx) context).evaluateVariable(getReferencedDefinition());
+
         Expression xpr = getReferencedDefinition().getExpression();
 
         // Note that it's technically possible for this expression to
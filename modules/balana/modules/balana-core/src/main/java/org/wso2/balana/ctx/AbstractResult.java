@@ -22,6 +22,7 @@ package org.wso2.balana.ctx;
 import org.wso2.balana.*;
 import org.wso2.balana.xacml3.Advice;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
@@ -100,6 +101,9 @@ public abstract class AbstractResult {
      */
     protected int version;
 
+    // extension: ids of the policies this result was derived from, not encoded
+    protected List<String> policyIds;
+
     /**
      * Constructs a <code>AbstractResult</code> object with decision status data, obligations, advices
      *  and evaluation ctx
@@ -226,6 +230,25 @@ public abstract class AbstractResult {
         return version;
     }
 
+    /**
+     * Returns the ids of the policies and policy sets this result was derived from,
+     * or null if the result was not derived from any policy.
+     *
+     * @return list of policy ids or null
+     */
+    public List<String> getPolicyIds() {
+        return policyIds;
+    }
+
+    /**
+     * Sets the ids of the policies and policy sets this result was derived from.
+     *
+     * @param policyIds list of policy ids
+     */
+    public void setPolicyIds(List<String> policyIds) {
+        this.policyIds = policyIds;
+    }
+
     /**
      * Encodes this <code>AbstractResult</code> into its XML form
      *
@@ -245,4 +268,17 @@ public abstract class AbstractResult {
      */
     public abstract void encode(StringBuilder builder);
 
+    /**
+     * Writes the XML form of this <code>AbstractResult</code> as UTF-8 bytes. Results without a
+     * streaming encoder are encoded into the scratch builder of the writer.
+     *
+     * @param writer writer into which the XML-encoded data is written
+     * @throws IOException if the underlying stream fails
+     */
+    public void writeTo(ResponseWriter writer) throws IOException {
+        StringBuilder builder = writer.builder();
+        encode(builder);
+        writer.write(builder);
+    }
+
 }
@@ -176,7 +176,7 @@ public class Attribute {
         NamedNodeMap attrs = root.getAttributes();
 
         try {
-            id = new URI(attrs.getNamedItem("AttributeId").getNodeValue());
+            id = URIInterner.get(attrs.getNamedItem("AttributeId").getNodeValue());
         } catch (Exception e) {
             throw new ParsingException("Error parsing required attribute "
                     + "AttributeId in AttributeType", e);
@@ -184,7 +184,7 @@ public class Attribute {
 
         if(!(version == XACMLConstants.XACML_VERSION_3_0)){
             try {
-                type = new URI(attrs.getNamedItem("DataType").getNodeValue());
+                type = URIInterner.get(attrs.getNamedItem("DataType").getNodeValue());
             } catch (Exception e) {
                 throw new ParsingException("Error parsing required attribute "
                         + "DataType in AttributeType", e);
@@ -226,7 +226,7 @@ public class Attribute {
                 if(version == XACMLConstants.XACML_VERSION_3_0){
                     NamedNodeMap dataTypeAttribute = node.getAttributes();
                     try {
-                        type = new URI(dataTypeAttribute.getNamedItem("DataType").getNodeValue());
+                        type = URIInterner.get(dataTypeAttribute.getNamedItem("DataType").getNodeValue());
                     } catch (Exception e) {
                         throw new ParsingException("Error parsing required attribute "
                                 + "DataType in AttributeType", e);
@@ -28,6 +28,7 @@ import org.wso2.balana.attr.AttributeValue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.net.URI;
@@ -58,6 +59,17 @@ public class AttributeAssignment extends AttributeValue {
      */
     private String content;
 
+    /**
+     * extension: UTF-8 markup used by <code>writeTo</code>
+     */
+    private static final byte[] ASSIGNMENT_START = ResponseWriter.bytes("<AttributeAssignment  AttributeId=\"");
+    private static final byte[] DATA_TYPE = ResponseWriter.bytes("\" DataType=\"");
+    private static final byte[] CATEGORY = ResponseWriter.bytes("\" Category=\"");
+    // encode writes a stray quote before Issuer, kept so both forms are identical
+    private static final byte[] ISSUER = ResponseWriter.bytes("\"\" Issuer=\"");
+    private static final byte[] ATTRIBUTES_END = ResponseWriter.bytes("\">\n");
+    private static final byte[] ASSIGNMENT_END = ResponseWriter.bytes("</AttributeAssignment>\n");
+
     /**
      * Constructor that creates a new <code>AttributeAssignment</code> based on the given elements.
      * @param attributeId   attribute id of the AttributeAssignment  element
@@ -177,6 +189,39 @@ public class AttributeAssignment extends AttributeValue {
         builder.append("</AttributeAssignment>\n");
     }
 
+    /**
+     * Writes the XML form of this <code>AttributeAssignment</code> as UTF-8 bytes
+     *
+     * @param writer writer into which the XML-encoded data is written
+     * @throws IOException if the underlying stream fails
+     */
+    public void writeTo(ResponseWriter writer) throws IOException {
+
+        writer.write(ASSIGNMENT_START);
+        writer.write(attributeId);
+
+        writer.write(DATA_TYPE);
+        writer.write(getType());
+
+        if(category != null){
+            writer.write(CATEGORY);
+            writer.write(category);
+        }
+
+        if(issuer != null){
+            writer.write(ISSUER);
+            writer.write(issuer);
+        }
+
+        writer.write(ATTRIBUTES_END);
+
+        if(content != null){
+            writer.write(content);
+        }
+
+        writer.write(ASSIGNMENT_END);
+    }
+
     @Override
     /**
      * Encodes this <code>AttributeAssignment</code> into its XML form
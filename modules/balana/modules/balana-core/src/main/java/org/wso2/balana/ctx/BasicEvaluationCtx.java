@@ -22,15 +22,23 @@ package org.wso2.balana.ctx;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.w3c.dom.Node;
+import org.wso2.balana.MatchResult;
 import org.wso2.balana.PDPConfig;
+import org.wso2.balana.PredicateTable;
 import org.wso2.balana.attr.BagAttribute;
 import org.wso2.balana.attr.DateAttribute;
 import org.wso2.balana.attr.DateTimeAttribute;
 import org.wso2.balana.attr.TimeAttribute;
+import org.wso2.balana.cond.Evaluatable;
 import org.wso2.balana.cond.EvaluationResult;
+import org.wso2.balana.cond.VariableDefinition;
 
 import java.net.URI;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Implementation of <code>EvaluationCtx</code>.  This implements some generic methods that
@@ -66,11 +74,148 @@ public abstract class BasicEvaluationCtx implements EvaluationCtx {
      */
     protected PDPConfig pdpConfig;
 
+    /**
+     * extension: values of variable definitions for the lifetime of this context. Every policy
+     * has its own definitions, so they are keyed by identity and don't collide across policies
+     * using the same variable id.
+     *
+     * VariableDefinition --> Result
+     */
+    private final Map<VariableDefinition, EvaluationResult> variableResults =
+            new ConcurrentHashMap<VariableDefinition, EvaluationResult>();
+
+    /**
+     * extension: number of predicates per page of <code>matchResults</code>
+     */
+    private static final int PAGE_BITS = 10;
+
+    /**
+     * extension: results of the target match predicates evaluated for this context, two bits per
+     * canonical predicate id of the <code>PredicateTable</code>: 0 if not evaluated yet, else the
+     * <code>MatchResult</code> type plus one. The table is global, so the bits are kept in pages
+     * created on first use, a request only allocates the pages of the predicates it evaluates.
+     */
+    private volatile AtomicReferenceArray<AtomicLongArray> matchResults;
+
+    /**
+     * extension: the status of indeterminate predicates
+     *
+     * Integer --> MatchResult
+     */
+    private final Map<Integer, MatchResult> indeterminateMatches =
+            new ConcurrentHashMap<Integer, MatchResult>();
+
     /**
      * logger
      */
     private static Log logger = LogFactory.getLog(BasicEvaluationCtx.class);
 
+    /**
+     * extension: returns the PDP configuration this context resolves attributes with
+     *
+     * @return <code>PDPConfig</code>
+     */
+    public PDPConfig getPdpConfig() {
+        return pdpConfig;
+    }
+
+    /**
+     * extension: evaluates the expression of the given variable definition at most once for
+     * this context, all references to the definition share the result
+     *
+     * @param definition variable definition
+     * @return the result of evaluation
+     */
+    public EvaluationResult evaluateVariable(VariableDefinition definition) {
+        EvaluationResult result = variableResults.get(definition);
+        if (result == null) {
+            // definitions may reference other definitions, so the map isn't updated while evaluating
+            result = ((Evaluatable) definition.getExpression()).evaluate(this);
+            variableResults.put(definition, result);
+        }
+        return result;
+    }
+
+    /**
+     * extension: returns the result of a target match predicate already evaluated for this
+     * context.
+     *
+     * @param predicateId canonical id of the predicate
+     * @return the <code>MatchResult</code> type, or -1 if the predicate wasn't evaluated yet
+     */
+    public int getMatchResult(int predicateId) {
+        AtomicReferenceArray<AtomicLongArray> pages = matchResults;
+        if (pages == null || (predicateId >>> PAGE_BITS) >= pages.length()) {
+            return -1;
+        }
+
+        AtomicLongArray page = pages.get(predicateId >>> PAGE_BITS);
+        if (page == null) {
+            return -1;
+        }
+        int index = (predicateId & ((1 << PAGE_BITS) - 1)) >>> 5;
+        return (int) ((page.get(index) >>> ((predicateId & 31) << 1)) & 3) - 1;
+    }
+
+    /**
+     * extension: returns the result of an indeterminate predicate
+     *
+     * @param predicateId canonical id of the predicate
+     * @return the <code>MatchResult</code> with the status of the first evaluation
+     */
+    public MatchResult getIndeterminateMatch(int predicateId) {
+        return indeterminateMatches.get(predicateId);
+    }
+
+    /**
+     * extension: records the result of a target match predicate for this context. Predicates
+     * added to the <code>PredicateTable</code> after the first result was recorded aren't kept.
+     *
+     * @param predicateId canonical id of the predicate
+     * @param result result of the predicate
+     */
+    public void setMatchResult(int predicateId, MatchResult result) {
+        AtomicReferenceArray<AtomicLongArray> pages = matchResults;
+        if (pages == null) {
+            synchronized (this) {
+                pages = matchResults;
+                if (pages == null) {
+                    int size = (PredicateTable.size() + (1 << PAGE_BITS) - 1) >>> PAGE_BITS;
+                    pages = new AtomicReferenceArray<AtomicLongArray>(size);
+                    matchResults = pages;
+                }
+            }
+        }
+
+        int pageIndex = predicateId >>> PAGE_BITS;
+        if (pageIndex >= pages.length()) {
+            return;
+        }
+
+        AtomicLongArray results = pages.get(pageIndex);
+        if (results == null) {
+            pages.compareAndSet(pageIndex, null, new AtomicLongArray(1 << (PAGE_BITS - 5)));
+            results = pages.get(pageIndex);
+        }
+        int index = (predicateId & ((1 << PAGE_BITS) - 1)) >>> 5;
+
+        if (result.getResult() == MatchResult.INDETERMINATE) {
+            // published before the bits, so readers seeing the bits find the status
+            indeterminateMatches.putIfAbsent(predicateId, result);
+        }
+
+        int shift = (predicateId & 31) << 1;
+        long bits = (long) (result.getResult() + 1) << shift;
+        long word;
+        do {
+            word = results.get(index);
+            if (((word >>> shift) & 3) != 0) {
+                // the first result recorded by concurrent evaluations wins
+                return;
+            }
+        } while (!results.compareAndSet(index, word, word | bits));
+    }
+
     /**
      * Returns the DOM root of the original RequestType XML document.
      *
@@ -41,8 +41,10 @@ import org.wso2.balana.*;
 import org.wso2.balana.ctx.xacml2.Result;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
 
 import java.util.Collections;
 import java.util.HashSet;
@@ -65,6 +67,12 @@ public class ResponseCtx {
     // XACML version
     private int version;
 
+    // extension: UTF-8 markup used by writeTo
+    private static final byte[] RESPONSE_START = ResponseWriter.bytes("<Response>");
+    private static final byte[] RESPONSE_START_3_0 =
+            ResponseWriter.bytes("<Response xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\">");
+    private static final byte[] RESPONSE_END = ResponseWriter.bytes("</Response>");
+
     /**
      * Constructor that creates a new <code>ResponseCtx</code> with only a single
      * <code>Result</code> (a common case).
@@ -194,4 +202,51 @@ public class ResponseCtx {
 
     }
 
+    /**
+     * Writes the XML form of this <code>ResponseCtx</code> as UTF-8 bytes to the provided
+     * <code>OutputStream</code>, without building the encoded <code>String</code> first.
+     * The stream is flushed but not closed.
+     *
+     * @param output stream into which the XML-encoded data is written
+     * @throws IOException if the stream fails
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        ResponseWriter writer = new ResponseWriter(output);
+        writeTo(writer);
+        writer.flush();
+    }
+
+    /**
+     * Writes the XML form of this <code>ResponseCtx</code> as UTF-8 bytes into the provided
+     * <code>ByteBuffer</code>, starting at its current position.
+     *
+     * @param buffer buffer into which the XML-encoded data is written
+     * @throws java.nio.BufferOverflowException if the buffer has not enough space left
+     */
+    public void writeTo(ByteBuffer buffer) {
+        try {
+            writeTo(new ResponseWriter(buffer));
+        } catch (IOException e) {
+            // only streams fail with an IOException
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the XML form of this <code>ResponseCtx</code> to the provided writer
+     *
+     * @param writer writer into which the XML-encoded data is written
+     * @throws IOException if the underlying stream fails
+     */
+    public void writeTo(ResponseWriter writer) throws IOException {
+
+        writer.write(version == XACMLConstants.XACML_VERSION_3_0 ? RESPONSE_START_3_0 : RESPONSE_START);
+
+        for (AbstractResult result : results) {
+            result.writeTo(writer);
+        }
+
+        writer.write(RESPONSE_END);
+    }
+
 }
@@ -0,0 +1,183 @@
+/*
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.balana.ctx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the XML form of a response as UTF-8 bytes, either into an <code>OutputStream</code>
+ * or a <code>ByteBuffer</code>. Characters are encoded as they are written, so no intermediate
+ * <code>String</code> or byte array is created for the encoded response. Fixed markup should be
+ * written as precomputed byte arrays, see {@link #bytes(String)}.
+ *
+ * Writers are not thread safe, and output written to a stream is only complete after
+ * {@link #flush()}.
+ */
+public final class ResponseWriter {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream output;
+    private final ByteBuffer buffer;
+    private StringBuilder scratch;
+
+    /**
+     * Creates a writer buffering the bytes written to the given stream
+     *
+     * @param output stream into which the encoded response is written
+     */
+    public ResponseWriter(OutputStream output) {
+        this.output = output;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a writer putting the bytes directly into the given buffer. Writing fails with a
+     * <code>BufferOverflowException</code> if the buffer has not enough space left.
+     *
+     * @param buffer buffer into which the encoded response is written
+     */
+    public ResponseWriter(ByteBuffer buffer) {
+        this.output = null;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Returns the UTF-8 form of the given markup, to be written with {@link #write(byte[])}
+     *
+     * @param markup fixed markup
+     * @return <code>byte[]</code>
+     */
+    public static byte[] bytes(String markup) {
+        return markup.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes precomputed bytes
+     *
+     * @param bytes UTF-8 encoded markup
+     * @throws IOException if the underlying stream fails
+     */
+    public void write(byte[] bytes) throws IOException {
+        if (output != null && bytes.length > buffer.remaining()) {
+            flushBuffer();
+            if (bytes.length > buffer.capacity()) {
+                output.write(bytes);
+                return;
+            }
+        }
+        buffer.put(bytes);
+    }
+
+    /**
+     * Writes the given characters as UTF-8, null values are written as "null" like
+     * <code>StringBuilder</code> does
+     *
+     * @param chars characters to write
+     * @throws IOException if the underlying stream fails
+     */
+    public void write(CharSequence chars) throws IOException {
+        if (chars == null) {
+            chars = "null";
+        }
+
+        int length = chars.length();
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                ensure(1);
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                ensure(2);
+                buffer.put((byte) (0xc0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                ensure(4);
+                buffer.put((byte) (0xf0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogates are replaced, as String.getBytes does
+                ensure(1);
+                buffer.put((byte) '?');
+            } else {
+                ensure(3);
+                buffer.put((byte) (0xe0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+
+    /**
+     * Writes the string form of the given object, such as an identifier
+     *
+     * @param object object to write
+     * @throws IOException if the underlying stream fails
+     */
+    public void write(Object object) throws IOException {
+        write(object == null ? null : object.toString());
+    }
+
+    /**
+     * Returns an empty builder owned by this writer, for elements that are only available in
+     * their <code>StringBuilder</code> form. The builder is reused, it must be written before the
+     * next call.
+     *
+     * @return <code>StringBuilder</code>
+     */
+    public StringBuilder builder() {
+        if (scratch == null) {
+            scratch = new StringBuilder(256);
+        } else {
+            scratch.setLength(0);
+        }
+        return scratch;
+    }
+
+    /**
+     * Writes all buffered bytes to the underlying stream, does nothing when writing into a
+     * <code>ByteBuffer</code>
+     *
+     * @throws IOException if the underlying stream fails
+     */
+    public void flush() throws IOException {
+        if (output != null) {
+            flushBuffer();
+            output.flush();
+        }
+    }
+
+    private void ensure(int length) throws IOException {
+        if (output != null && buffer.remaining() < length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (buffer.position() > 0) {
+            output.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+}
@@ -39,6 +39,7 @@ import org.wso2.balana.DOMHelper;
 import org.wso2.balana.Indenter;
 import org.wso2.balana.ParsingException;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 
@@ -91,6 +92,18 @@ public class Status {
     // a single OK object we'll use most of the time
     private static Status okStatus;
 
+    /**
+     * extension: UTF-8 markup used by <code>writeTo</code>
+     */
+    private static final byte[] STATUS_START = ResponseWriter.bytes("<Status>");
+    private static final byte[] STATUS_END = ResponseWriter.bytes("</Status>");
+    private static final byte[] MESSAGE_START = ResponseWriter.bytes("<StatusMessage>");
+    private static final byte[] MESSAGE_END = ResponseWriter.bytes("</StatusMessage>");
+    private static final byte[] CODE_START = ResponseWriter.bytes("<StatusCode Value=\"");
+    private static final byte[] CODE_VALUE_END = ResponseWriter.bytes("\">");
+    private static final byte[] CODE_EMPTY_END = ResponseWriter.bytes("\"/>");
+    private static final byte[] CODE_END = ResponseWriter.bytes("</StatusCode>");
+
     // initialize the OK Status object
     static {
         List<String> code = new ArrayList<String>();
@@ -282,6 +295,48 @@ public class Status {
         builder.append("</Status>");
     }
 
+    /**
+     * Writes the XML form of this <code>Status</code> as UTF-8 bytes
+     *
+     * @param writer writer into which the XML-encoded data is written
+     * @throws IOException if the underlying stream fails
+     */
+    public void writeTo(ResponseWriter writer) throws IOException {
+
+        writer.write(STATUS_START);
+
+        writeStatusCode(code.iterator(), writer);
+
+        if (message != null){
+            writer.write(MESSAGE_START);
+            writer.write(message);
+            writer.write(MESSAGE_END);
+        }
+
+        if (detail != null) {
+            writer.write(detail.getEncoded());
+        }
+        writer.write(STATUS_END);
+    }
+
+    /**
+     * Writes the status codes as UTF-8 bytes, see <code>encodeStatusCode</code>
+     */
+    private void writeStatusCode(Iterator iterator, ResponseWriter writer) throws IOException {
+
+        String code = (String) (iterator.next());
+
+        writer.write(CODE_START);
+        writer.write(code);
+        if (iterator.hasNext()) {
+            writer.write(CODE_VALUE_END);
+            writeStatusCode(iterator, writer);
+            writer.write(CODE_END);
+        } else {
+            writer.write(CODE_EMPTY_END);
+        }
+    }
+
     /**
      * Encodes the object in XML
      * 
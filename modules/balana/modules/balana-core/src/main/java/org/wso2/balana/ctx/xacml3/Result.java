@@ -24,11 +24,13 @@ import org.wso2.balana.*;
 import org.wso2.balana.ctx.Attribute;
 import org.wso2.balana.ctx.EvaluationCtx;
 import org.wso2.balana.ctx.AbstractResult;
+import org.wso2.balana.ctx.ResponseWriter;
 import org.wso2.balana.ctx.Status;
 import org.wso2.balana.xacml3.Advice;
 import org.wso2.balana.xacml3.Attributes;
 import org.wso2.balana.xacml3.Obligation;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.*;
@@ -47,7 +49,26 @@ public class Result extends AbstractResult{
      * Set of attributes that returns to PEP. mainly used in multiple decision profile 
      */
     Set<Attributes> attributes;
-    
+
+    /**
+     * extension: UTF-8 markup used by <code>writeTo</code>
+     */
+    private static final byte[] RESULT_START = ResponseWriter.bytes("<Result>");
+    private static final byte[] RESULT_END = ResponseWriter.bytes("</Result>");
+    private static final byte[] OBLIGATIONS_START = ResponseWriter.bytes("<Obligations>");
+    private static final byte[] OBLIGATIONS_END = ResponseWriter.bytes("</Obligations>");
+    private static final byte[] ADVICE_START = ResponseWriter.bytes("<AssociatedAdvice>");
+    private static final byte[] ADVICE_END = ResponseWriter.bytes("</AssociatedAdvice>");
+    private static final byte[] POLICY_IDS_START = ResponseWriter.bytes("<PolicyIdentifierList>");
+    private static final byte[] POLICY_IDS_END = ResponseWriter.bytes("</PolicyIdentifierList>");
+    private static final byte[][] DECISION_BYTES = new byte[DECISIONS.length][];
+
+    static {
+        for (int i = 0; i < DECISIONS.length; i++) {
+            DECISION_BYTES[i] = ResponseWriter.bytes("<Decision>" + DECISIONS[i] + "</Decision>");
+        }
+    }
+
     public Result(int decision, Status status){
         super(decision, status, XACMLConstants.XACML_VERSION_3_0);
     }
@@ -88,6 +109,19 @@ public class Result extends AbstractResult{
         this.policyReferences = policyReferences;
         processAttributes(attributes);
     }
+
+    /**
+     * extension: creates a copy of the given result, so a response can contain the same
+     * result more than once. Responses keep their results in a set, which holds an instance only once.
+     *
+     * @param result result to copy
+     */
+    public Result(Result result) {
+        this(result.decision, result.status, result.obligations, result.advices,
+                result.policyReferences, result.attributes);
+        this.policyIds = result.policyIds;
+    }
+
     /**
      * Creates a new instance of a <code>Result</code> based on the given
      * DOM root node. A <code>ParsingException</code> is thrown if the DOM
@@ -344,4 +378,64 @@ public class Result extends AbstractResult{
         builder.append("</Result>");
     }
 
+    /**
+     * Writes the XML form of this <code>Result</code> as UTF-8 bytes, produces the same output as
+     * <code>encode</code>
+     *
+     * @param writer writer into which the XML-encoded data is written
+     * @throws IOException if the underlying stream fails
+     */
+    @Override
+    public void writeTo(ResponseWriter writer) throws IOException {
+
+        writer.write(RESULT_START);
+        // extended indeterminate values are written as "Indeterminate"
+        if(decision == 4 || decision == 5 || decision == 6){
+            writer.write(DECISION_BYTES[2]);
+        } else {
+            writer.write(DECISION_BYTES[decision]);
+        }
+
+        if (status != null){
+            status.writeTo(writer);
+        }
+
+        if (obligations != null  && obligations.size() != 0) {
+            writer.write(OBLIGATIONS_START);
+            for (ObligationResult obligation : obligations) {
+                ((Obligation) obligation).writeTo(writer);
+            }
+            writer.write(OBLIGATIONS_END);
+        }
+
+        if (advices != null  && advices.size() != 0) {
+            writer.write(ADVICE_START);
+            for (Advice advice : advices) {
+                advice.writeTo(writer);
+            }
+            writer.write(ADVICE_END);
+        }
+
+        // references and attributes are only available in their StringBuilder form
+        if (policyReferences != null  && policyReferences.size() != 0) {
+            writer.write(POLICY_IDS_START);
+            for(PolicyReference reference : policyReferences){
+                StringBuilder builder = writer.builder();
+                reference.encode(builder);
+                writer.write(builder);
+            }
+            writer.write(POLICY_IDS_END);
+        }
+
+        if (attributes != null  && attributes.size() != 0) {
+            for(Attributes attribute : attributes){
+                StringBuilder builder = writer.builder();
+                attribute.encode(builder);
+                writer.write(builder);
+            }
+        }
+
+        writer.write(RESULT_END);
+    }
+
 }
@@ -28,6 +28,7 @@ import org.wso2.balana.attr.*;
 import org.wso2.balana.attr.xacml3.XPathAttribute;
 import org.wso2.balana.cond.EvaluationResult;
 import org.wso2.balana.ctx.*;
+import org.wso2.balana.finder.AttributeRequest;
 import org.wso2.balana.finder.ResourceFinderResult;
 import org.wso2.balana.xacml3.*;
 
@@ -39,6 +40,7 @@ import javax.xml.xpath.XPathFactory;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This is implementation of XACML3 evaluation context
@@ -93,6 +95,34 @@ public class XACML3EvaluationCtx extends BasicEvaluationCtx {
      */
     private Attribute resourceId;
 
+    /**
+     * extension: attribute values of the request, built once in setupAttributes.
+     *
+     * (Category, AttributeId, DataType) --> Attribute List
+     */
+    private Map<AttributeKey, List<Attribute>> attributeIndex;
+
+    /**
+     * extension: results of lookups without issuer, for all attributes with values
+     *
+     * (Category, AttributeId, DataType) --> Bag
+     */
+    private Map<AttributeKey, EvaluationResult> bagIndex;
+
+    /**
+     * extension: results of the attribute finder for the lifetime of this context
+     *
+     * (Category, AttributeId, DataType, Issuer) --> Result
+     */
+    private Map<AttributeKey, EvaluationResult> helperResults;
+
+    /**
+     * extension: results of attribute selectors for the lifetime of this context
+     *
+     * (Category, ContextSelectorId, Path, DataType, XPath version) --> Result
+     */
+    private Map<List<Object>, EvaluationResult> selectorResults;
+
     /**
      * logger
      */
@@ -113,6 +143,8 @@ public class XACML3EvaluationCtx extends BasicEvaluationCtx {
         currentDateTime = null;
 
         mapAttributes = new HashMap<String, List<Attributes>> ();
+        helperResults = new ConcurrentHashMap<AttributeKey, EvaluationResult>();
+        selectorResults = new ConcurrentHashMap<List<Object>, EvaluationResult>();
 
         attributesSet = requestCtx.getAttributesSet();
         this.pdpConfig = pdpConfig;
@@ -123,34 +155,154 @@ public class XACML3EvaluationCtx extends BasicEvaluationCtx {
 
     public EvaluationResult getAttribute(URI type, URI id, String issuer, URI category) {
 
-        List<AttributeValue> attributeValues = new ArrayList<AttributeValue>();
-        List<Attributes> attributesSet = mapAttributes.get(category.toString());
-        if(attributesSet != null && attributesSet.size() > 0){
-            Set<Attribute> attributeSet  = attributesSet.get(0).getAttributes();
-            for(Attribute attribute : attributeSet) {
-                if(attribute.getId().toString().equals(id.toString())
-                        && attribute.getType().toString().equals(type.toString())
-                        && (issuer == null || issuer.equals(attribute.getIssuer()))
-                        && attribute.getValue() != null){
-                    List<AttributeValue> attributeValueList = attribute.getValues();
-                    for (AttributeValue attributeVal : attributeValueList) {
-                    	attributeValues.add(attributeVal);
-                    }
+        String categoryId = category.toString();
+        List<Attributes> attributesSet = mapAttributes.get(categoryId);
+        if(attributesSet == null || attributesSet.size() < 1){
+            return new EvaluationResult(BagAttribute.createEmptyBag(type));
+        }
+
+        // only the first Attributes element of the category is used, see setupAttributes
+        AttributeKey key = new AttributeKey(category, id, type, null);
+        EvaluationResult result = requestAttribute(key, issuer);
+        if(result != null){
+            return result;
+        }
+        if(issuer != null){
+            key = new AttributeKey(key.category, key.id, key.type, issuer);
+        }
+
+        // not in the request, ask the attribute finder once per context
+        result = helperResults.get(key);
+        if(result == null){
+            result = callHelper(type, id, issuer, category);
+            if(result != null){
+                helperResults.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * extension: looks up the values of an attribute in the request
+     *
+     * @param key key of the attribute without issuer
+     * @param issuer issuer of the attribute or null
+     * @return the values, or null if the request has none
+     */
+    private EvaluationResult requestAttribute(AttributeKey key, String issuer) {
+        if(issuer == null){
+            return bagIndex.get(key);
+        }
+
+        List<Attribute> attributes = attributeIndex.get(key);
+        if(attributes != null){
+            List<AttributeValue> attributeValues = new ArrayList<AttributeValue>();
+            for(Attribute attribute : attributes){
+                if(issuer.equals(attribute.getIssuer())){
+                    attributeValues.addAll(attribute.getValues());
                 }
             }
 
-            if(attributeValues.size() < 1){
-                return callHelper(type, id, issuer, category);
+            if(attributeValues.size() > 0){
+                return new EvaluationResult(new BagAttribute(key.type, attributeValues));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * extension: looks up the values of an attribute like <code>getAttribute</code>, but only in
+     * the request, the attribute finder is never asked. Attributes of categories missing in the
+     * request, and all missing attributes if there is no attribute finder module resolving
+     * designators, are empty bags.
+     *
+     * @param type the datatype of the attributes to find
+     * @param id the identifier of the attributes to find
+     * @param issuer the issuer of the attributes, or null if unspecified
+     * @param category the category of the attributes
+     * @return the values, or null if <code>getAttribute</code> would ask the attribute finder
+     */
+    public EvaluationResult getRequestAttribute(URI type, URI id, String issuer, URI category) {
+        List<Attributes> attributesSet = mapAttributes.get(category.toString());
+        if(attributesSet == null || attributesSet.size() < 1){
+            return new EvaluationResult(BagAttribute.createEmptyBag(type));
+        }
+        EvaluationResult result = requestAttribute(new AttributeKey(category, id, type, null), issuer);
+        if(result == null && !hasDesignatorModules()){
+            return new EvaluationResult(BagAttribute.createEmptyBag(type));
+        }
+        return result;
+    }
+
+    private boolean hasDesignatorModules() {
+        return pdpConfig != null && pdpConfig.getAttributeFinder() != null
+                && pdpConfig.getAttributeFinder().hasDesignatorModules();
+    }
+
+    /**
+     * extension: resolves the given attributes through the attribute finder at once, before they
+     * are referenced during evaluation. Attributes present in the request, of categories missing
+     * in the request or already resolved are skipped.
+     *
+     * @param requests designator data of the attributes the evaluation will reference
+     */
+    public void prefetchAttributes(Collection<AttributeRequest> requests) {
+        if(pdpConfig == null || pdpConfig.getAttributeFinder() == null){
+            return;
+        }
+
+        Map<AttributeRequest, AttributeKey> missing = new HashMap<AttributeRequest, AttributeKey>();
+        for(AttributeRequest request : requests){
+            List<Attributes> categoryAttributes = mapAttributes.get(request.getCategory().toString());
+            if(categoryAttributes == null || categoryAttributes.size() < 1){
+                continue;
+            }
+
+            AttributeKey key = new AttributeKey(request.getCategory(), request.getId(), request.getType(), null);
+            if(requestAttribute(key, request.getIssuer()) != null){
+                continue;
+            }
+            if(request.getIssuer() != null){
+                key = new AttributeKey(key.category, key.id, key.type, request.getIssuer());
+            }
+            if(!helperResults.containsKey(key)){
+                missing.put(request, key);
+            }
+        }
+
+        if(missing.isEmpty()){
+            return;
+        }
+
+        Map<AttributeRequest, EvaluationResult> results =
+                pdpConfig.getAttributeFinder().findAttributes(missing.keySet(), this);
+        for(Map.Entry<AttributeRequest, EvaluationResult> entry : results.entrySet()){
+            AttributeKey key = missing.get(entry.getKey());
+            if(key != null && entry.getValue() != null){
+                helperResults.putIfAbsent(key, entry.getValue());
             }
         }
-        // if we got here, then we found at least one useful AttributeValue
-        return new EvaluationResult(new BagAttribute(type, attributeValues));
     }
 
 
     public EvaluationResult getAttribute(String path, URI type, URI category,
                                          URI contextSelector, String xpathVersion){
 
+        // extension: the content of the request doesn't change, so each selector is evaluated once
+        List<Object> key = Arrays.<Object>asList(category, contextSelector, path, type, xpathVersion);
+        EvaluationResult result = selectorResults.get(key);
+        if(result == null){
+            result = evaluateSelector(path, type, category, contextSelector, xpathVersion);
+            if(result != null){
+                selectorResults.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    private EvaluationResult evaluateSelector(String path, URI type, URI category,
+                                              URI contextSelector, String xpathVersion){
+
         if(pdpConfig.getAttributeFinder() == null){
 
             logger.warn("Context tried to invoke AttributeFinder but was " +
@@ -258,6 +410,47 @@ public class XACML3EvaluationCtx extends BasicEvaluationCtx {
                 mapAttributes.put(category, set);
             }
         }
+
+        indexAttributes();
+    }
+
+    /**
+     * extension: builds the attribute lookup index over the first <code>Attributes</code> element
+     * of each category, as used by <code>getAttribute</code>
+     */
+    private void indexAttributes() {
+        Map<AttributeKey, List<Attribute>> attributeIndex = new HashMap<AttributeKey, List<Attribute>>();
+        Map<AttributeKey, List<AttributeValue>> values = new HashMap<AttributeKey, List<AttributeValue>>();
+
+        for (List<Attributes> categoryAttributes : mapAttributes.values()) {
+            URI category = categoryAttributes.get(0).getCategory();
+            for (Attribute attribute : categoryAttributes.get(0).getAttributes()) {
+                if (attribute.getValue() == null) {
+                    continue;
+                }
+
+                AttributeKey key = new AttributeKey(category, attribute.getId(), attribute.getType(), null);
+
+                List<Attribute> attributes = attributeIndex.get(key);
+                if (attributes == null) {
+                    attributes = new ArrayList<Attribute>(1);
+                    attributeIndex.put(key, attributes);
+                    values.put(key, new ArrayList<AttributeValue>());
+                }
+                attributes.add(attribute);
+                values.get(key).addAll(attribute.getValues());
+            }
+        }
+
+        Map<AttributeKey, EvaluationResult> bagIndex = new HashMap<AttributeKey, EvaluationResult>();
+        for (Map.Entry<AttributeKey, List<AttributeValue>> entry : values.entrySet()) {
+            // all indexed attributes share the type of the key
+            URI type = attributeIndex.get(entry.getKey()).get(0).getType();
+            bagIndex.put(entry.getKey(), new EvaluationResult(new BagAttribute(type, entry.getValue())));
+        }
+
+        this.attributeIndex = attributeIndex;
+        this.bagIndex = bagIndex;
     }
 
     public MultipleCtxResult getMultipleEvaluationCtx()  {
@@ -612,6 +805,11 @@ public class XACML3EvaluationCtx extends BasicEvaluationCtx {
             }
 
         }
+
+        // extension: the attributes may be the ones of this context
+        indexAttributes();
+        helperResults.clear();
+        selectorResults.clear();
     }
 
     private Set<String> getChildXPaths(Node root, String xPath){
@@ -747,4 +945,50 @@ public class XACML3EvaluationCtx extends BasicEvaluationCtx {
     public Attribute getResourceScopeAttribute() {
         return resourceScopeAttribute;
     }
+
+    /**
+     * extension: key of the attribute lookup index, identifiers interned by the parsers are
+     * compared by reference
+     */
+    private static final class AttributeKey {
+
+        private final URI category;
+        private final URI id;
+        private final URI type;
+        private final String issuer;
+        private final int hash;
+
+        AttributeKey(URI category, URI id, URI type, String issuer) {
+            this.category = category;
+            this.id = id;
+            this.type = type;
+            this.issuer = issuer;
+
+            int hash = category.toString().hashCode();
+            hash = 31 * hash + id.toString().hashCode();
+            hash = 31 * hash + type.toString().hashCode();
+            hash = 31 * hash + (issuer != null ? issuer.hashCode() : 0);
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof AttributeKey)) {
+                return false;
+            }
+
+            AttributeKey other = (AttributeKey) o;
+            return hash == other.hash && URIInterner.equals(category, other.category)
+                    && URIInterner.equals(id, other.id) && URIInterner.equals(type, other.type)
+                    && (issuer == null ? other.issuer == null : issuer.equals(other.issuer));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
 }
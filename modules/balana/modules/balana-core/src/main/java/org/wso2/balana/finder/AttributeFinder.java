@@ -46,8 +46,11 @@ import org.wso2.balana.cond.EvaluationResult;
 import java.net.URI;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.w3c.dom.Node;
 
@@ -100,6 +103,16 @@ public class AttributeFinder {
         return new ArrayList<AttributeFinderModule>(allModules);
     }
 
+    /**
+     * extension: tells whether any module resolves attribute designators, without copying the
+     * module list like <code>getModules</code>
+     *
+     * @return true if designators may be resolved by a module
+     */
+    public boolean hasDesignatorModules() {
+        return !designatorModules.isEmpty();
+    }
+
     /**
      * Sets the ordered <code>List</code> of <code>AttributeFinderModule</code>s used by this class
      * to find attribute values. The ordering will be maintained.
@@ -175,6 +188,70 @@ public class AttributeFinder {
         return new EvaluationResult(BagAttribute.createEmptyBag(attributeType));
     }
 
+    // extension: batched attribute resolution
+    /**
+     * Tries to find the values of several attributes based on the given designator data. Each
+     * attribute is resolved like in <code>findAttribute</code>, the modules are asked in order
+     * until one returns values or an error. Every module is asked once for all attributes that
+     * aren't resolved yet.
+     *
+     * @param requests the designator data of the attributes to find
+     * @param context the representation of the request data
+     *
+     * @return the result of attribute retrieval by request, bags of attributes or errors
+     */
+    public Map<AttributeRequest, EvaluationResult> findAttributes(Collection<AttributeRequest> requests,
+            EvaluationCtx context) {
+        Map<AttributeRequest, EvaluationResult> results = new HashMap<AttributeRequest, EvaluationResult>();
+        List<AttributeRequest> pending = new ArrayList<AttributeRequest>(requests);
+
+        for (AttributeFinderModule module : designatorModules) {
+            if (pending.isEmpty()) {
+                break;
+            }
+
+            Map<AttributeRequest, EvaluationResult> found = findAttributes(module, pending, context);
+            Iterator<AttributeRequest> it = pending.iterator();
+            while (it.hasNext()) {
+                AttributeRequest request = it.next();
+                EvaluationResult result = found.get(request);
+                if (result == null) {
+                    continue;
+                }
+
+                // errors and values end the search, empty bags are passed on to the next module
+                if (result.indeterminate()) {
+                    logger.error("Error while trying to resolve values: "
+                            + result.getStatus().getMessage());
+                } else if (((BagAttribute) result.getAttributeValue()).isEmpty()) {
+                    continue;
+                }
+                results.put(request, result);
+                it.remove();
+            }
+        }
+
+        for (AttributeRequest request : pending) {
+            results.put(request, new EvaluationResult(BagAttribute.createEmptyBag(request.getType())));
+        }
+        return results;
+    }
+
+    /**
+     * Asks a single module for the values of several attributes, subclasses may override this
+     * method to change how modules are invoked, e.g. to invoke them concurrently.
+     *
+     * @param module the module to ask
+     * @param requests the designator data of the attributes to find
+     * @param context the representation of the request data
+     *
+     * @return the results of the module by request
+     */
+    protected Map<AttributeRequest, EvaluationResult> findAttributes(AttributeFinderModule module,
+            Collection<AttributeRequest> requests, EvaluationCtx context) {
+        return module.findAttributes(requests, context);
+    }
+
     /**
      * Tries to find attribute values based on the given selector data. The result, if successful,
      * must always contain a <code>BagAttribute</code>, even if only one value was found. If no
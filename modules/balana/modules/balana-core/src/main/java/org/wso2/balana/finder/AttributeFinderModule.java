@@ -43,6 +43,9 @@ import org.wso2.balana.cond.EvaluationResult;
 
 import java.net.URI;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.w3c.dom.Node;
@@ -89,6 +92,18 @@ public abstract class AttributeFinderModule {
         return false;
     }
 
+    // extension: batched attribute resolution
+    /**
+     * Returns true if this module resolves several attributes at once in
+     * <code>findAttributes</code>, e.g. with a single call to the underlying store. By default
+     * this method returns false, and <code>findAttributes</code> resolves one attribute after another.
+     *
+     * @return true if batched resolution is supported
+     */
+    public boolean isBatchSupported() {
+        return false;
+    }
+
     /**
      * Returns a <code>Set</code> of <code>String</code>s that represent which AttributeDesignator
      * categories are supported (eg, Subject, Resource, etc.), or null meaning that no particular types
@@ -176,4 +191,27 @@ public abstract class AttributeFinderModule {
         return new EvaluationResult(BagAttribute.createEmptyBag(attributeType));
     }
 
+    // extension: batched attribute resolution
+    /**
+     * Tries to find the values of several attributes based on the given designator data. The
+     * results follow the rules of <code>findAttribute</code>, a result is returned for every
+     * request. The default implementation calls <code>findAttribute</code> for each request, modules
+     * able to resolve several attributes at once should override this method and
+     * <code>isBatchSupported</code>.
+     *
+     * @param requests the designator data of the attributes to find
+     * @param context the representation of the request data
+     *
+     * @return the result of attribute retrieval by request
+     */
+    public Map<AttributeRequest, EvaluationResult> findAttributes(Collection<AttributeRequest> requests,
+            EvaluationCtx context) {
+        Map<AttributeRequest, EvaluationResult> results = new HashMap<AttributeRequest, EvaluationResult>();
+        for (AttributeRequest request : requests) {
+            results.put(request, findAttribute(request.getType(), request.getId(), request.getIssuer(),
+                    request.getCategory(), context));
+        }
+        return results;
+    }
+
 }
@@ -0,0 +1,104 @@
+/*
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.balana.finder;
+
+import org.wso2.balana.URIInterner;
+
+import java.net.URI;
+
+/**
+ * The designator data of one attribute to find, used to resolve several attributes at once
+ * through {@link AttributeFinder#findAttributes(java.util.Collection, org.wso2.balana.ctx.EvaluationCtx)}.
+ */
+public class AttributeRequest {
+
+    private final URI type;
+    private final URI id;
+    private final String issuer;
+    private final URI category;
+
+    /**
+     * Creates a new <code>AttributeRequest</code>
+     *
+     * @param type the datatype of the attributes to find
+     * @param id the identifier of the attributes to find
+     * @param issuer the issuer of the attributes, or null if unspecified
+     * @param category the category of the attributes
+     */
+    public AttributeRequest(URI type, URI id, String issuer, URI category) {
+        this.type = type;
+        this.id = id;
+        this.issuer = issuer;
+        this.category = category;
+    }
+
+    /**
+     * @return the datatype of the attributes to find
+     */
+    public URI getType() {
+        return type;
+    }
+
+    /**
+     * @return the identifier of the attributes to find
+     */
+    public URI getId() {
+        return id;
+    }
+
+    /**
+     * @return the issuer of the attributes, or null if unspecified
+     */
+    public String getIssuer() {
+        return issuer;
+    }
+
+    /**
+     * @return the category of the attributes
+     */
+    public URI getCategory() {
+        return category;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AttributeRequest)) {
+            return false;
+        }
+
+        AttributeRequest other = (AttributeRequest) o;
+        return URIInterner.equals(id, other.id) && URIInterner.equals(category, other.category)
+                && URIInterner.equals(type, other.type)
+                && (issuer == null ? other.issuer == null : issuer.equals(other.issuer));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = id.toString().hashCode();
+        result = 31 * result + category.toString().hashCode();
+        result = 31 * result + type.toString().hashCode();
+        return 31 * result + (issuer != null ? issuer.hashCode() : 0);
+    }
+
+    @Override
+    public String toString() {
+        return category + " " + id + " " + type + (issuer != null ? " " + issuer : "");
+    }
+}
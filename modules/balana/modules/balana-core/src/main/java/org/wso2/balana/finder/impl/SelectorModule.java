@@ -54,15 +54,16 @@ import java.net.URI;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import javax.xml.XMLConstants;
-import javax.xml.namespace.NamespaceContext;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.xpath.*;
@@ -89,6 +90,21 @@ import javax.xml.xpath.*;
  */
 public class SelectorModule extends AttributeFinderModule {
 
+    /**
+     * extension: maximum number of compiled expressions kept per compiler, and of shared
+     * expression sources
+     */
+    public static final int MAX_EXPRESSIONS = 256;
+
+    // extension: neither XPath nor XPathExpression instances are thread safe, so both are kept in
+    // a pool of compilers instead of being created for every lookup
+    private static final InstancePool<XPathCompiler> compilers =
+            new InstancePool<XPathCompiler>(XPathCompiler::new);
+
+    // extension: paths with their namespace bindings, shared by all compilers
+    private static final Map<ExpressionKey, ExpressionKey> sources =
+            new ConcurrentHashMap<ExpressionKey, ExpressionKey>();
+
     /**
      * Returns true since this module supports retrieving attributes based on the data provided in
      * an AttributeSelectorType.
@@ -105,7 +121,7 @@ public class SelectorModule extends AttributeFinderModule {
                   String contextSelector, Node root, EvaluationCtx context, String xpathVersion) {
 
         Node contextNode = null;
-        NamespaceContext namespaceContext = null;
+        Map<String, String> nsMap = null;
 
         if(root == null){
             // root == null means there is not content element defined with the attributes element
@@ -118,44 +134,10 @@ public class SelectorModule extends AttributeFinderModule {
 
             // 1st assume context node as the root
             contextNode = root;
-
-            XPathFactory factory = XPathFactory.newInstance();
-            XPath xpath = factory.newXPath();
-
-            //see if the request root is in a namespace
-            String namespace = null;
-            if(contextNode != null){
-                namespace = contextNode.getNamespaceURI();
-            }
-            // name spaces are used, so we need to lookup the correct
-            // prefix to use in the search string
-            NamedNodeMap namedNodeMap = contextNode.getAttributes();
-
-            Map<String, String> nsMap = new HashMap<String, String>();
-
-            for (int i = 0; i < namedNodeMap.getLength(); i++) {
-                Node n = namedNodeMap.item(i);
-                // we found the matching namespace, so get the prefix
-                // and then break out
-                String prefix = DOMHelper.getLocalName(n);
-                String nodeValue= n.getNodeValue();
-                nsMap.put(prefix, nodeValue);
-            }
-
-            // if there is not any namespace is defined for content element, default XACML request
-            //  name space would be there.
-            if(XACMLConstants.REQUEST_CONTEXT_3_0_IDENTIFIER.equals(namespace) ||
-                    XACMLConstants.REQUEST_CONTEXT_2_0_IDENTIFIER.equals(namespace) ||
-                    XACMLConstants.REQUEST_CONTEXT_1_0_IDENTIFIER.equals(namespace)){
-                nsMap.put("xacml", namespace);
-            }
-
-            namespaceContext = new DefaultNamespaceContext(nsMap);
-            xpath.setNamespaceContext(namespaceContext);
+            nsMap = getNamespaces(contextNode);
 
             try{
-                XPathExpression expression = xpath.compile(contextSelector);
-                NodeList result = (NodeList) expression.evaluate(contextNode, XPathConstants.NODESET);                
+                NodeList result = evaluate(contextSelector, nsMap, contextNode);                
                 if(result == null || result.getLength() == 0){
                     throw new Exception("No node is found from context selector id evaluation");    
                 } else if(result.getLength() != 1){
@@ -186,50 +168,14 @@ public class SelectorModule extends AttributeFinderModule {
             contextNode = root;
         }
 
-
-        XPathFactory factory = XPathFactory.newInstance();
-        XPath xpath = factory.newXPath();
-
-        if(namespaceContext == null){
-
-            //see if the request root is in a namespace
-            String namespace = null;
-            if(contextNode != null){
-                namespace = contextNode.getNamespaceURI();
-            }
-            // name spaces are used, so we need to lookup the correct
-            // prefix to use in the search string
-            NamedNodeMap namedNodeMap = contextNode.getAttributes();
-
-            Map<String, String> nsMap = new HashMap<String, String>();
-
-            for (int i = 0; i < namedNodeMap.getLength(); i++) {
-                Node n = namedNodeMap.item(i);
-                // we found the matching namespace, so get the prefix
-                // and then break out
-                String prefix = DOMHelper.getLocalName(n);
-                String nodeValue= n.getNodeValue();
-                nsMap.put(prefix, nodeValue);
-            }
-            
-            // if there is not any namespace is defined for content element, default XACML request
-            //  name space would be there.
-            if(XACMLConstants.REQUEST_CONTEXT_3_0_IDENTIFIER.equals(namespace) ||
-                    XACMLConstants.REQUEST_CONTEXT_2_0_IDENTIFIER.equals(namespace) ||
-                    XACMLConstants.REQUEST_CONTEXT_1_0_IDENTIFIER.equals(namespace)){
-                nsMap.put("xacml", namespace);
-            }
-
-            namespaceContext = new DefaultNamespaceContext(nsMap);
+        if(nsMap == null){
+            nsMap = getNamespaces(contextNode);
         }
 
-        xpath.setNamespaceContext(namespaceContext);
-
         NodeList matches;
         
         try {
-            XPathExpression expression = xpath.compile(contextPath);
-            matches = (NodeList) expression.evaluate(contextNode, XPathConstants.NODESET);
+            matches = evaluate(contextPath, nsMap, contextNode);
             if(matches == null || matches.getLength() < 1){
                 throw new Exception("No node is found from xpath evaluation");                 
             }
@@ -286,4 +232,135 @@ public class SelectorModule extends AttributeFinderModule {
             return new EvaluationResult(new Status(code, "Unknown attribute type : " + attributeType));
         }
     }
+
+    /**
+     * extension: returns the namespace declarations of the given node by prefix, the default
+     * XACML request namespace is available as "xacml"
+     */
+    private static Map<String, String> getNamespaces(Node contextNode) {
+
+        //see if the request root is in a namespace
+        String namespace = null;
+        if(contextNode != null){
+            namespace = contextNode.getNamespaceURI();
+        }
+        // name spaces are used, so we need to lookup the correct
+        // prefix to use in the search string
+        NamedNodeMap namedNodeMap = contextNode.getAttributes();
+
+        Map<String, String> nsMap = new HashMap<String, String>();
+
+        for (int i = 0; i < namedNodeMap.getLength(); i++) {
+            Node n = namedNodeMap.item(i);
+            String prefix = DOMHelper.getLocalName(n);
+            String nodeValue= n.getNodeValue();
+            nsMap.put(prefix, nodeValue);
+        }
+
+        // if there is not any namespace is defined for content element, default XACML request
+        //  name space would be there.
+        if(XACMLConstants.REQUEST_CONTEXT_3_0_IDENTIFIER.equals(namespace) ||
+                XACMLConstants.REQUEST_CONTEXT_2_0_IDENTIFIER.equals(namespace) ||
+                XACMLConstants.REQUEST_CONTEXT_1_0_IDENTIFIER.equals(namespace)){
+            nsMap.put("xacml", namespace);
+        }
+
+        return nsMap;
+    }
+
+    /**
+     * extension: evaluates the given path for the given namespaces on the given node, expressions
+     * are compiled once per pooled compiler
+     */
+    private static NodeList evaluate(String path, Map<String, String> nsMap, Node node)
+            throws XPathExpressionException {
+
+        XPathCompiler compiler = compilers.acquire();
+        try {
+            return (NodeList) compiler.compile(source(path, nsMap)).evaluate(node, XPathConstants.NODESET);
+        } finally {
+            compilers.release(compiler);
+        }
+    }
+
+    /**
+     * extension: returns the shared source of the given path and namespaces, the cache starts
+     * over once it is full
+     */
+    private static ExpressionKey source(String path, Map<String, String> nsMap) {
+        ExpressionKey key = new ExpressionKey(path, nsMap);
+        ExpressionKey source = sources.get(key);
+        if (source != null) {
+            return source;
+        }
+
+        if (sources.size() >= MAX_EXPRESSIONS) {
+            sources.clear();
+        }
+        source = sources.putIfAbsent(key, key);
+        return (source != null) ? source : key;
+    }
+
+    /**
+     * extension: an XPath instance with its compiled expressions, used by one lookup at a time
+     */
+    private static final class XPathCompiler {
+
+        private final XPath xpath = XPathFactory.newInstance().newXPath();
+
+        // keyed by the shared sources, which are compared by identity first
+        private final Map<ExpressionKey, XPathExpression> expressions =
+                new LinkedHashMap<ExpressionKey, XPathExpression>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ExpressionKey, XPathExpression> eldest) {
+                return size() > MAX_EXPRESSIONS;
+            }
+        };
+
+        XPathExpression compile(ExpressionKey source) throws XPathExpressionException {
+            XPathExpression expression = expressions.get(source);
+            if (expression == null) {
+                xpath.setNamespaceContext(source.namespaceContext);
+                expression = xpath.compile(source.path);
+                expressions.put(source, expression);
+            }
+            return expression;
+        }
+    }
+
+    /**
+     * extension: source of a compiled expression, the namespace bindings are part of the expression
+     */
+    private static final class ExpressionKey {
+
+        private final String path;
+        private final Map<String, String> namespaces;
+        private final int hash;
+        private final DefaultNamespaceContext namespaceContext;
+
+        ExpressionKey(String path, Map<String, String> namespaces) {
+            this.path = path;
+            this.namespaces = namespaces;
+            this.hash = 31 * path.hashCode() + namespaces.hashCode();
+            this.namespaceContext = new DefaultNamespaceContext(namespaces);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ExpressionKey)) {
+                return false;
+            }
+
+            ExpressionKey other = (ExpressionKey) o;
+            return hash == other.hash && path.equals(other.path) && namespaces.equals(other.namespaces);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
 }
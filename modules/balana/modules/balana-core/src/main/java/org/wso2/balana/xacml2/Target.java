@@ -306,7 +306,10 @@ public class Target extends AbstractTarget {
         }
         
         envPolicyValue = result.getPolicyValue();
-        
+
+        // extension: match results may be shared, so the policy values go into a new one
+        result = new MatchResult(MatchResult.MATCH);
+        result.setPolicyValue(envPolicyValue);
         result.setActionPolicyValue(actionPolicyValue);
         result.setSubjectPolicyValue(subjectPolicyValue);
         result.setEnvPolicyValue(envPolicyValue);
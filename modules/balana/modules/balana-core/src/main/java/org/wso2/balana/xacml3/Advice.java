@@ -25,7 +25,9 @@ import org.wso2.balana.DOMHelper;
 import org.wso2.balana.Indenter;
 import org.wso2.balana.ParsingException;
 import org.wso2.balana.ctx.AttributeAssignment;
+import org.wso2.balana.ctx.ResponseWriter;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.net.URI;
@@ -48,6 +50,13 @@ public class Advice {
      */
     private List<AttributeAssignment> assignments;
 
+    /**
+     * extension: UTF-8 markup used by <code>writeTo</code>
+     */
+    private static final byte[] ADVICE_START = ResponseWriter.bytes("<Advice AdviceId=\"");
+    private static final byte[] ADVICE_ID_END = ResponseWriter.bytes("\" >");
+    private static final byte[] ADVICE_END = ResponseWriter.bytes("</Advice>");
+
     /**
      * Constructor that creates a new <code>Advice</code> based on
      * the given elements.
@@ -136,4 +145,25 @@ public class Advice {
         }
         builder.append("</Advice>");
     }
+
+    /**
+     * Writes the XML form of this <code>Advice</code> as UTF-8 bytes
+     *
+     * @param writer writer into which the XML-encoded data is written
+     * @throws IOException if the underlying stream fails
+     */
+    public void writeTo(ResponseWriter writer) throws IOException {
+
+        writer.write(ADVICE_START);
+        writer.write(adviceId);
+        writer.write(ADVICE_ID_END);
+
+        if(assignments != null && assignments.size() > 0){
+            for(AttributeAssignment assignment : assignments){
+                assignment.writeTo(writer);
+            }
+        }
+
+        writer.write(ADVICE_END);
+    }
 }
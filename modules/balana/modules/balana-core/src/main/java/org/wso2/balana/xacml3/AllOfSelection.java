@@ -115,6 +115,14 @@ public class AllOfSelection {
 
     }
 
+    /**
+     * Returns the <code>TargetMatch</code> elements of this <code>AllOfSelection</code>
+     *
+     * @return a <code>List</code> of <code>TargetMatch</code> elements
+     */
+    public List<TargetMatch> getMatches() {
+        return matches;
+    }
 
     /**
      * Encodes this <code>AnyOfSelection</code> into its XML form and writes this out to the provided
@@ -131,6 +131,15 @@ public class AnyOfSelection {
         }
     }
 
+    /**
+     * Returns the <code>AllOfSelection</code> elements of this <code>AnyOfSelection</code>
+     *
+     * @return a <code>List</code> of <code>AllOfSelection</code> elements
+     */
+    public List<AllOfSelection> getAllOfSelections() {
+        return allOfSelections;
+    }
+
     /**
      * Encodes this <code>AnyOfSelection</code> into its XML form and writes this out to the provided
      * <code>StringBuilder<code>
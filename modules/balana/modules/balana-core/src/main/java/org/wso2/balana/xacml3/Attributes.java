@@ -104,7 +104,7 @@ public class Attributes {
         NamedNodeMap attrs = root.getAttributes();
 
         try {
-            category = new URI(attrs.getNamedItem(XACMLConstants.ATTRIBUTES_CATEGORY).getNodeValue());
+            category = URIInterner.get(attrs.getNamedItem(XACMLConstants.ATTRIBUTES_CATEGORY).getNodeValue());
         } catch (Exception e) {
             throw new ParsingException("Error parsing required attribute "
                     + "AttributeId in AttributesType", e);
@@ -128,8 +128,12 @@ public class Attributes {
                 if (content != null){
                     throw new ParsingException("Too many content elements are defined.");
                 }
-                // now get the value
+                // now get the value, extension: skipping whitespace before the element
                 content = node.getFirstChild();
+                while (content != null && content.getNodeType() != Node.ELEMENT_NODE
+                        && content.getNextSibling() != null) {
+                    content = content.getNextSibling();
+                }
             } else if(DOMHelper.getLocalName(node).equals(XACMLConstants.ATTRIBUTE_ELEMENT)) {
                 attributes.add(Attribute.getInstance(node, XACMLConstants.XACML_VERSION_3_0));
             }
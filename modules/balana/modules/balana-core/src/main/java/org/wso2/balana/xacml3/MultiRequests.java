@@ -43,7 +43,8 @@ public class MultiRequests {
      *
      * @param requestReferences <code>Set</code> of <code>RequestReference</code>
      */
-    private MultiRequests(Set<RequestReference> requestReferences) {
+    // extension: public for the streaming request parser
+    public MultiRequests(Set<RequestReference> requestReferences) {
         this.requestReferences = requestReferences;
     }
 
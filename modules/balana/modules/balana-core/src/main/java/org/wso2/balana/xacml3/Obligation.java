@@ -26,7 +26,9 @@ import org.wso2.balana.Indenter;
 import org.wso2.balana.ObligationResult;
 import org.wso2.balana.ParsingException;
 import org.wso2.balana.ctx.AttributeAssignment;
+import org.wso2.balana.ctx.ResponseWriter;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.net.URI;
@@ -49,6 +51,13 @@ public class Obligation implements ObligationResult{
      */
     private List<AttributeAssignment> assignments;
 
+    /**
+     * extension: UTF-8 markup used by <code>writeTo</code>
+     */
+    private static final byte[] OBLIGATION_START = ResponseWriter.bytes("<Obligation ObligationId=\"");
+    private static final byte[] OBLIGATION_ID_END = ResponseWriter.bytes("\">");
+    private static final byte[] OBLIGATION_END = ResponseWriter.bytes("</Obligation>");
+
     /**
      * Constructor that creates a new <code>Obligation</code> based on
      * the given elements.
@@ -118,6 +127,27 @@ public class Obligation implements ObligationResult{
         builder.append("</Obligation>");
     }
 
+    /**
+     * Writes the XML form of this <code>Obligation</code> as UTF-8 bytes
+     *
+     * @param writer writer into which the XML-encoded data is written
+     * @throws IOException if the underlying stream fails
+     */
+    public void writeTo(ResponseWriter writer) throws IOException {
+
+        writer.write(OBLIGATION_START);
+        writer.write(obligationId);
+        writer.write(OBLIGATION_ID_END);
+
+        if(assignments != null && assignments.size() > 0){
+            for(AttributeAssignment assignment : assignments){
+                assignment.writeTo(writer);
+            }
+        }
+
+        writer.write(OBLIGATION_END);
+    }
+
     /**
      * Returns the attribute assignment data in this obligation. The <code>List</code> contains
      * objects of type <code>Attribute</code> with only the correct attribute fields being used.
@@ -79,7 +79,8 @@ public class Target extends AbstractTarget {
             }
         }
 
-        return new Target(anyOfSelections);
+        // extension: identical targets of loaded policies are shared
+        return (Target) PolicyInterner.intern(new Target(anyOfSelections));
     }
 
     /**
@@ -23,6 +23,7 @@ import org.wso2.balana.advance.AdvanceTestV3;
 import org.wso2.balana.basic.TestFunctionV3;
 import org.wso2.balana.basic.BasicTestV3;
 import org.wso2.balana.basic.TestMultipleRequestV3;
+import org.wso2.balana.basic.TestResponseEncodingV3;
 import org.wso2.balana.basic.TestXPathV3;
 import org.wso2.balana.conformance.ConformanceTestV2;
 import org.wso2.balana.conformance.ConformanceTestV3;
@@ -47,6 +48,8 @@ public class BaseTestCase extends TestSuite {
         testSuite.addTestSuite(TestMultipleRequestV3.class);
         // XPath test
         testSuite.addTestSuite(TestXPathV3.class);
+        // streamed response encoding
+        testSuite.addTestSuite(TestResponseEncodingV3.class);
 
         testSuite.addTestSuite(ConformanceTestV3.class);
         // test that has been written for jira issue
@@ -0,0 +1,141 @@
+/*
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.balana.basic;
+
+import junit.framework.TestCase;
+import org.wso2.balana.ObligationResult;
+import org.wso2.balana.PolicyReference;
+import org.wso2.balana.VersionConstraints;
+import org.wso2.balana.XACMLConstants;
+import org.wso2.balana.attr.StringAttribute;
+import org.wso2.balana.ctx.AbstractResult;
+import org.wso2.balana.ctx.Attribute;
+import org.wso2.balana.ctx.AttributeAssignment;
+import org.wso2.balana.ctx.ResponseCtx;
+import org.wso2.balana.ctx.Status;
+import org.wso2.balana.ctx.StatusDetail;
+import org.wso2.balana.ctx.xacml3.Result;
+import org.wso2.balana.xacml3.Advice;
+import org.wso2.balana.xacml3.Attributes;
+import org.wso2.balana.xacml3.Obligation;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that responses streamed by <code>ResponseCtx.writeTo</code> are byte-identical to the
+ * UTF-8 encoding of <code>ResponseCtx.encode</code>
+ */
+public class TestResponseEncodingV3 extends TestCase {
+
+    private static final URI STRING = URI.create(StringAttribute.identifier);
+
+    private static final URI SUBJECT =
+            URI.create("urn:oasis:names:tc:xacml:1.0:subject-category:access-subject");
+
+    /**
+     * non-ASCII text: two and three byte characters, a surrogate pair and characters escaped in XML
+     */
+    private static final String TEXT = "caf\u00e9 \u20ac \ud83d\ude00 <&\"'>";
+
+    private static List<AttributeAssignment> assignments(String content) {
+        List<AttributeAssignment> assignments = new ArrayList<AttributeAssignment>();
+        assignments.add(new AttributeAssignment(URI.create("urn:test:plain"), STRING, null, content, null));
+        assignments.add(new AttributeAssignment(URI.create("urn:test:qualified"), STRING, SUBJECT, content,
+                "issuer \u00e9"));
+        return assignments;
+    }
+
+    private static Result result(String content) throws Exception {
+        Status status = new Status(Collections.singletonList(Status.STATUS_MISSING_ATTRIBUTE), "missing " + content,
+                new StatusDetail("<MissingAttributeDetail AttributeId=\"urn:test:plain\" Category=\"" + SUBJECT
+                        + "\" DataType=\"" + STRING + "\"/>"));
+
+        List<ObligationResult> obligations = new ArrayList<ObligationResult>();
+        obligations.add(new Obligation(assignments(content), URI.create("urn:test:obligation")));
+        obligations.add(new Obligation(new ArrayList<AttributeAssignment>(), URI.create("urn:test:empty")));
+        List<Advice> advices = new ArrayList<Advice>();
+        advices.add(new Advice(URI.create("urn:test:advice"), assignments(content)));
+
+        Set<PolicyReference> references = new LinkedHashSet<PolicyReference>();
+        references.add(new PolicyReference(URI.create("urn:test:policy"), PolicyReference.POLICY_REFERENCE,
+                new VersionConstraints("1.0", null, null), null, null));
+        references.add(new PolicyReference(URI.create("urn:test:policy-set"), PolicyReference.POLICYSET_REFERENCE,
+                null, null));
+
+        Set<Attribute> attributes = new HashSet<Attribute>();
+        attributes.add(new Attribute(URI.create("urn:test:name"), "issuer", null, new StringAttribute(content),
+                true, XACMLConstants.XACML_VERSION_3_0));
+        Set<Attributes> categories = Collections.singleton(new Attributes(SUBJECT, attributes));
+
+        return new Result(AbstractResult.DECISION_INDETERMINATE, status, obligations, advices, references,
+                categories);
+    }
+
+    private static void assertEncodings(ResponseCtx response) throws Exception {
+        byte[] expected = response.encode().getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.writeTo(output);
+        assertTrue("writeTo(OutputStream) differs from encode()", Arrays.equals(expected, output.toByteArray()));
+
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length + 16);
+        buffer.position(16);
+        response.writeTo(buffer);
+        assertEquals(expected.length + 16, buffer.position());
+        byte[] written = new byte[expected.length];
+        buffer.position(16);
+        buffer.get(written);
+        assertTrue("writeTo(ByteBuffer) differs from encode()", Arrays.equals(expected, written));
+    }
+
+    public void testResultWithAllElements() throws Exception {
+        assertEncodings(new ResponseCtx(result(TEXT)));
+    }
+
+    public void testResultsOfEveryDecision() throws Exception {
+        Set<AbstractResult> results = new LinkedHashSet<AbstractResult>();
+        for (int decision = 0; decision <= 6; decision++) {
+            results.add(new Result(decision, null));
+        }
+        results.add(result(TEXT));
+        assertEncodings(new ResponseCtx(results, XACMLConstants.XACML_VERSION_3_0));
+    }
+
+    public void testUnpairedSurrogates() throws Exception {
+        // replaced by '?' as String.getBytes does
+        assertEncodings(new ResponseCtx(result("\ud83d \ude00 end\ud83d")));
+    }
+
+    public void testContentLargerThanTheStreamBuffer() throws Exception {
+        // surrogate pairs and multi byte characters spanning the buffer boundaries
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            content.append(TEXT, 0, 1 + i % TEXT.length());
+        }
+        assertEncodings(new ResponseCtx(result(content.toString())));
+    }
+}
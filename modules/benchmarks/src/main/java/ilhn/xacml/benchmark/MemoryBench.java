@@ -16,6 +16,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class MemoryBench {
     private static Logger log = LoggerFactory.getLogger(MemoryBench.class);
@@ -47,9 +50,47 @@ public class MemoryBench {
         log.info("(ProxyPolicy|StreamParser): measure: {} | measureDeep: {} | countChildren: {}",
                 proxyPolicyMeasurements[0], proxyPolicyMeasurements[1], proxyPolicyMeasurements[2]);
 
+        for (String directory : new String[]{ BenchmarkUtil.POLICIES_100, BenchmarkUtil.POLICIES_1k, BenchmarkUtil.POLICIES_10k })
+            measureDataset(meter, directory);
+
         log.info("Finished.");
     }
 
+    /**
+     * Measures all policies of a dataset loaded by the stream parser, with and without sharing
+     * identical targets and conditions through the <code>PolicyInterner</code>.
+     */
+    private static void measureDataset(MemoryMeter meter, String directory) throws IOException, ParsingException, XMLStreamException {
+        File[] files = new File(directory).listFiles((dir, name) -> name.endsWith(".xml"));
+        if (files == null) {
+            log.warn("Dataset {} not found", directory);
+            return;
+        }
+        Arrays.sort(files);
+
+        List<AbstractPolicy> policies = loadPolicies(files);
+
+        PolicyInterner.clear();
+        PolicyInterner.setEnabled(true);
+        List<AbstractPolicy> internedPolicies = loadPolicies(files);
+        int internedCount = PolicyInterner.size();
+        PolicyInterner.setEnabled(false);
+        PolicyInterner.clear();
+
+        log.info("Dataset: {}, {} policies", directory, files.length);
+        log.info("(AbstractPolicy|StreamParser): measureDeep: {} | countChildren: {}",
+                meter.measureDeep(policies), meter.countChildren(policies));
+        log.info("(AbstractPolicy|StreamParser|PolicyInterner): measureDeep: {} | countChildren: {} | interned: {}",
+                meter.measureDeep(internedPolicies), meter.countChildren(internedPolicies), internedCount);
+    }
+
+    private static List<AbstractPolicy> loadPolicies(File[] files) throws IOException, ParsingException, XMLStreamException {
+        List<AbstractPolicy> policies = new ArrayList<>(files.length);
+        for (File file : files)
+            policies.add(XACML3StreamParser.readPolicyOrPolicySet(file, null));
+        return policies;
+    }
+
     private static AbstractPolicy loadPolicy(String policyFile) {
         AbstractPolicy policy = null;
         try (InputStream inputStream = new FileInputStream(new File(policyFile))){
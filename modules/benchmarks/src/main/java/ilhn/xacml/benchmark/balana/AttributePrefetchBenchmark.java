@@ -0,0 +1,206 @@
+package ilhn.xacml.benchmark.balana;
+
+import ilhn.xacml.finder.ParallelAttributeFinder;
+import ilhn.xacml.util.PolicyAttributes;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.balana.*;
+import org.wso2.balana.attr.BagAttribute;
+import org.wso2.balana.attr.StringAttribute;
+import org.wso2.balana.cond.EvaluationResult;
+import org.wso2.balana.ctx.AbstractRequestCtx;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.ctx.RequestCtxFactory;
+import org.wso2.balana.ctx.ResponseCtx;
+import org.wso2.balana.ctx.xacml3.XACML3EvaluationCtx;
+import org.wso2.balana.finder.*;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for policies referencing attributes that are only available from a slow attribute
+ * finder module, standing in for a remote PIP. Compares resolving the attributes one after another
+ * while the policy is evaluated against prefetching all attributes of the policy concurrently.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AttributePrefetchBenchmark {
+    private static Logger log = LoggerFactory.getLogger(AttributePrefetchBenchmark.class);
+
+    static final String SUBJECT_CATEGORY = "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject";
+
+    @Param({"1", "5"})
+    int attributeCount;
+
+    @Param({"2"})
+    long latency;
+
+    PDP sequentialPdp;
+    PDP prefetchingPdp;
+    AbstractRequestCtx request;
+    ExecutorService executor;
+
+    @Setup
+    public void setup() throws Exception {
+        AbstractPolicy policy = Policy.getInstance(XPathSelectorBenchmark.parse(policy(attributeCount)).getDocumentElement());
+        executor = Executors.newCachedThreadPool();
+
+        AttributeFinder attributeFinder = new AttributeFinder();
+        attributeFinder.setModules(Collections.singletonList(new SlowAttributeFinderModule(latency)));
+        sequentialPdp = new PDP(pdpConfig(policy, attributeFinder, false));
+
+        ParallelAttributeFinder parallelAttributeFinder = new ParallelAttributeFinder(executor, 1000);
+        parallelAttributeFinder.setModules(Collections.singletonList(new SlowAttributeFinderModule(latency)));
+        prefetchingPdp = new PDP(pdpConfig(policy, parallelAttributeFinder, true));
+
+        request = RequestCtxFactory.getFactory().getRequestCtx(REQUEST);
+        log.info("{} attributes, sequential {}, prefetching {}", attributeCount,
+                sequentialPdp.evaluate(request).encode(), prefetchingPdp.evaluate(request).encode());
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Attributes are resolved when the evaluation references them.
+     */
+    @Benchmark
+    public ResponseCtx evaluateSequential() {
+        return sequentialPdp.evaluate(request);
+    }
+
+    /**
+     * Attributes of the applicable policy are resolved concurrently before the evaluation.
+     */
+    @Benchmark
+    public ResponseCtx evaluatePrefetching() {
+        return prefetchingPdp.evaluate(request);
+    }
+
+    static PDPConfig pdpConfig(AbstractPolicy policy, AttributeFinder attributeFinder, boolean prefetch) {
+        PolicyFinder policyFinder = new PolicyFinder();
+        Set<PolicyFinderModule> policyFinderModules = new HashSet<>();
+        policyFinderModules.add(new PrefetchingPolicyFinderModule(policy, prefetch));
+        policyFinder.setModules(policyFinderModules);
+
+        ResourceFinder resourceFinder = new ResourceFinder();
+        resourceFinder.setModules(new ArrayList<>());
+        return new PDPConfig(attributeFinder, policyFinder, resourceFinder);
+    }
+
+    /**
+     * Builds a policy with one rule requiring all attributes to have their expected value.
+     */
+    static String policy(int attributeCount) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<Policy xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" PolicyId=\"attribute-prefetch\"")
+                .append(" RuleCombiningAlgId=\"urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:deny-unless-permit\"")
+                .append(" Version=\"1.0\"><Target/><Rule RuleId=\"rule\" Effect=\"Permit\"><Target/><Condition>")
+                .append("<Apply FunctionId=\"urn:oasis:names:tc:xacml:1.0:function:and\">");
+
+        for (int i = 0; i < attributeCount; i++) {
+            builder.append("<Apply FunctionId=\"urn:oasis:names:tc:xacml:1.0:function:string-is-in\">")
+                    .append("<AttributeValue DataType=\"").append(StringAttribute.identifier).append("\">")
+                    .append("value-").append(i).append("</AttributeValue>")
+                    .append("<AttributeDesignator MustBePresent=\"false\" Category=\"").append(SUBJECT_CATEGORY)
+                    .append("\" AttributeId=\"pip-").append(i)
+                    .append("\" DataType=\"").append(StringAttribute.identifier).append("\"/>")
+                    .append("</Apply>");
+        }
+
+        return builder.append("</Apply></Condition></Rule></Policy>").toString();
+    }
+
+    static final String REQUEST =
+            "<Request xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" CombinedDecision=\"false\" ReturnPolicyIdList=\"false\">" +
+            "<Attributes Category=\"" + SUBJECT_CATEGORY + "\">" +
+            "<Attribute AttributeId=\"urn:oasis:names:tc:xacml:1.0:subject:subject-id\" IncludeInResult=\"false\">" +
+            "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">alice</AttributeValue>" +
+            "</Attribute></Attributes>" +
+            "</Request>";
+
+    /**
+     * Stand-in for a remote PIP, answers every attribute "pip-n" with "value-n" after a fixed latency.
+     */
+    public static class SlowAttributeFinderModule extends AttributeFinderModule {
+        private final long latency;
+
+        public SlowAttributeFinderModule(long latency) {
+            this.latency = latency;
+        }
+
+        @Override
+        public boolean isDesignatorSupported() {
+            return true;
+        }
+
+        @Override
+        public EvaluationResult findAttribute(URI attributeType, URI attributeId, String issuer,
+                                              URI category, EvaluationCtx context) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            String id = attributeId.toString();
+            if (!id.startsWith("pip-"))
+                return new EvaluationResult(BagAttribute.createEmptyBag(attributeType));
+
+            StringAttribute value = new StringAttribute("value-" + id.substring(4));
+            return new EvaluationResult(new BagAttribute(attributeType, Collections.singletonList(value)));
+        }
+    }
+
+    /**
+     * Finder module always returning the single benchmark policy, optionally prefetching its attributes.
+     */
+    static class PrefetchingPolicyFinderModule extends PolicyFinderModule {
+        private final AbstractPolicy policy;
+        private final Set<AttributeRequest> attributes;
+
+        PrefetchingPolicyFinderModule(AbstractPolicy policy, boolean prefetch) {
+            this.policy = policy;
+            this.attributes = prefetch ? PolicyAttributes.designators(policy) : Collections.emptySet();
+        }
+
+        @Override
+        public void init(PolicyFinder finder) {
+        }
+
+        @Override
+        public boolean isRequestSupported() {
+            return true;
+        }
+
+        @Override
+        public PolicyFinderResult findPolicy(EvaluationCtx context) {
+            if (!attributes.isEmpty() && context instanceof XACML3EvaluationCtx)
+                ((XACML3EvaluationCtx) context).prefetchAttributes(attributes);
+            return new PolicyFinderResult(policy);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .warmupIterations(10)
+                .measurementIterations(10)
+                .forks(1)
+                .include(AttributePrefetchBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -1,6 +1,7 @@
 package ilhn.xacml.benchmark.balana;
 
 import ilhn.xacml.benchmark.BenchmarkUtil;
+import ilhn.xacml.finder.BitsetPolicyFinderModule;
 import ilhn.xacml.finder.ProxyFilebasedPolicyFinderModule;
 import ilhn.xacml.util.XACML3StreamParser;
 import org.openjdk.jmh.annotations.*;
@@ -8,6 +9,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wso2.balana.ctx.EvaluationCtx;
 import org.wso2.balana.ctx.EvaluationCtxFactory;
+import org.wso2.balana.ctx.xacml3.RequestCtx;
 import org.wso2.balana.finder.PolicyFinder;
 import org.wso2.balana.finder.PolicyFinderModule;
 import org.wso2.balana.finder.PolicyFinderResult;
@@ -20,15 +22,16 @@ import java.util.stream.Collectors;
  * Benchmark solely for finding matching policies and policy sets for a particular request
  * under different conditions and configurations.
  * Includes the whole policy finding process, e.g. target matching and loading the policy.
- * Tests only PolicyFinderModule Type 2, ProxyFilebasedPolicyFinderModule from ExtendedPDP,
+ * Tests PolicyFinderModule Type 2, ProxyFilebasedPolicyFinderModule from ExtendedPDP,
  * which provides functionalities such as caching of policies, policy finder results
- * and loading policies on-demand.
+ * and loading policies on-demand, and Type 3, BitsetPolicyFinderModule, which evaluates all
+ * policy targets at once through bitsets and caches policies only.
  */
 @State(Scope.Benchmark)
 public class CacheFinderBenchmark {
     private static Logger log = LoggerFactory.getLogger(CacheFinderBenchmark.class);
 
-    @Param({ "2" })
+    @Param({ "2", "3" })
     int policyFinderType;
 
     @Param({ "10000" })
@@ -43,7 +46,7 @@ public class CacheFinderBenchmark {
     @Param({ "0.5", "1" })
     float finderPolicyCacheFraction;
 
-    List<EvaluationCtx> requests;
+    List<RequestCtx> requests;
     PolicyFinder finder;
     Random random;
 
@@ -63,13 +66,16 @@ public class CacheFinderBenchmark {
         int policyCacheSize = Math.round(finderPolicyCacheFraction * policyCount);
         log.info("ResultCache size is {} | PolicyCache size is {}", resultCacheSize, policyCacheSize);
 
-        PolicyFinderModule pfm = new ProxyFilebasedPolicyFinderModule(policyLocation, resultCacheSize, policyCacheSize);
+        // BitsetPolicyFinderModule has no result cache
+        PolicyFinderModule pfm = (policyFinderType == 3)
+                ? new BitsetPolicyFinderModule(policyLocation, policyCacheSize)
+                : new ProxyFilebasedPolicyFinderModule(policyLocation, resultCacheSize, policyCacheSize);
         log.info("PolicyFinderModule is {}", pfm.getClass().getSimpleName());
 
         log.info("Loading {} requests", requestCount);
         requests = BenchmarkUtil.loadStrings(BenchmarkUtil.REQUESTS, requestCount).stream()
                 .collect(Collectors.mapping(s -> {
-                    try { return EvaluationCtxFactory.getFactory().getEvaluationCtx(XACML3StreamParser.readRequest(s), null); }
+                    try { return XACML3StreamParser.readRequest(s); }
                     catch (Exception e) { throw new RuntimeException(e); }
                 }, Collectors.toList()));
         log.info("Loaded {} requests", requests.size());
@@ -85,7 +91,8 @@ public class CacheFinderBenchmark {
 
     @Benchmark
     public PolicyFinderResult findPolicyRandomRequest() {
-        return finder.findPolicy(requests.get(random.nextInt(requests.size())));
+        // a new context per request, contexts keep the results of target matches
+        return finder.findPolicy(NoCacheFinderBenchmark.context(requests.get(random.nextInt(requests.size()))));
     }
 
 }
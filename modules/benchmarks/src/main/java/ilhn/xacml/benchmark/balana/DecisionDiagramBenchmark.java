@@ -0,0 +1,86 @@
+package ilhn.xacml.benchmark.balana;
+
+import ilhn.xacml.benchmark.BenchmarkUtil;
+import ilhn.xacml.util.XACML3StreamParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.balana.AbstractPolicy;
+import org.wso2.balana.MatchResult;
+import org.wso2.balana.ctx.AbstractResult;
+import org.wso2.balana.ctx.xacml3.RequestCtx;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark for evaluating policies with 1000 rules against requests they match. The rules are
+ * dispatched either through an index of the rule targets, see XACML3StreamParser.setRuleDispatch, or through
+ * a decision diagram over the rule targets. Excludes policy finding, the context is created for
+ * every invocation as it keeps the results of target matches.
+ */
+@State(Scope.Benchmark)
+public class DecisionDiagramBenchmark {
+    private static Logger log = LoggerFactory.getLogger(DecisionDiagramBenchmark.class);
+
+    @Param({ "index", "diagram" })
+    String compilation;
+
+    List<AbstractPolicy> policies;
+    List<RequestCtx> requests;
+    Random random;
+
+    @Setup
+    public void setup() throws Exception {
+        XACML3StreamParser.setDecisionDiagrams(compilation.equals("diagram"));
+        XACML3StreamParser.setRuleDispatch(true);
+        List<AbstractPolicy> loaded = new ArrayList<>();
+        try {
+            for (File file : new File(BenchmarkUtil.POLICIES_100).listFiles())
+                loaded.add(XACML3StreamParser.readPolicy(file));
+        } finally {
+            XACML3StreamParser.setDecisionDiagrams(false);
+            XACML3StreamParser.setRuleDispatch(false);
+        }
+        log.info("Loaded {} policies, rules compiled by {}", loaded.size(), compilation);
+
+        // pairs of requests and the policy they match
+        policies = new ArrayList<>();
+        requests = new ArrayList<>();
+        for (String s : BenchmarkUtil.loadStrings(BenchmarkUtil.REQUESTS, 10000)) {
+            RequestCtx request = XACML3StreamParser.readRequest(s);
+            for (AbstractPolicy policy : loaded) {
+                if (policy.match(NoCacheFinderBenchmark.context(request)).getResult() == MatchResult.MATCH) {
+                    policies.add(policy);
+                    requests.add(request);
+                    break;
+                }
+            }
+        }
+        log.info("{} requests match a policy", requests.size());
+        random = new Random();
+    }
+
+    @Benchmark
+    public AbstractResult evaluateRandomRequest() {
+        int i = random.nextInt(requests.size());
+        return policies.get(i).evaluate(NoCacheFinderBenchmark.context(requests.get(i)));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .warmupIterations(10)
+                .measurementIterations(10)
+                .forks(1)
+                .include(DecisionDiagramBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -1,12 +1,14 @@
 package ilhn.xacml.benchmark.balana;
 
 import ilhn.xacml.benchmark.BenchmarkUtil;
+import ilhn.xacml.finder.BitsetPolicyFinderModule;
 import ilhn.xacml.util.XACML3StreamParser;
 import org.openjdk.jmh.annotations.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wso2.balana.ctx.EvaluationCtx;
 import org.wso2.balana.ctx.EvaluationCtxFactory;
+import org.wso2.balana.ctx.xacml3.RequestCtx;
 import org.wso2.balana.finder.PolicyFinder;
 import org.wso2.balana.finder.PolicyFinderModule;
 import org.wso2.balana.finder.PolicyFinderResult;
@@ -23,20 +25,21 @@ import java.util.stream.Collectors;
  * Benchmark solely for finding matching policies and policy sets for a particular request
  * under different conditions and configurations.
  * Includes the whole policy finding process, e.g. target matching and loading the policy.
- * Tests only PolicyFinderModule Type 1, FilebasedPolicyFinderModule, which provides no
- * functionalities like caching of policies or policy finder results.
+ * Tests PolicyFinderModule Type 1, FilebasedPolicyFinderModule, which provides no
+ * functionalities like caching of policies or policy finder results, and Type 3,
+ * BitsetPolicyFinderModule, which evaluates all policy targets at once through bitsets.
  */
 @State(Scope.Benchmark)
 public class NoCacheFinderBenchmark {
     private static Logger log = LoggerFactory.getLogger(NoCacheFinderBenchmark.class);
 
-    @Param({ "1" })
+    @Param({ "1", "3" })
     int policyFinderModule;
 
     @Param({ "100", "1000", "1010", "10000" })
     int policyCount;
 
-    List<EvaluationCtx> requests;
+    List<RequestCtx> requests;
     PolicyFinder finder;
     Random random;
 
@@ -53,13 +56,15 @@ public class NoCacheFinderBenchmark {
         }
         log.info("{} policies at path {}", policyCount, policyLocation);
 
-        PolicyFinderModule pfm = new FileBasedPolicyFinderModule(policyLocation);
+        PolicyFinderModule pfm = (policyFinderModule == 3)
+                ? new BitsetPolicyFinderModule(policyLocation, policyCount)
+                : new FileBasedPolicyFinderModule(policyLocation);
         log.info("PolicyFinderModule is {}", pfm.getClass().getSimpleName());
 
         log.info("Loading requests");
         requests = BenchmarkUtil.loadStrings(BenchmarkUtil.REQUESTS, 10000).stream()
                 .collect(Collectors.mapping(s -> {
-                    try { return EvaluationCtxFactory.getFactory().getEvaluationCtx(XACML3StreamParser.readRequest(s), null); }
+                    try { return XACML3StreamParser.readRequest(s); }
                     catch (Exception e) { throw new RuntimeException(e); }
                 }, Collectors.toList()));
         log.info("Loaded {} requests", requests.size());
@@ -75,7 +80,12 @@ public class NoCacheFinderBenchmark {
 
     @Benchmark
     public PolicyFinderResult findPolicyRandomRequest() {
-        return finder.findPolicy(requests.get(random.nextInt(requests.size())));
+        // a new context per request, contexts keep the results of target matches
+        return finder.findPolicy(context(requests.get(random.nextInt(requests.size()))));
     }
 
+    static EvaluationCtx context(RequestCtx request) {
+        try { return EvaluationCtxFactory.getFactory().getEvaluationCtx(request, null); }
+        catch (Exception e) { throw new RuntimeException(e); }
+    }
 }
@@ -0,0 +1,140 @@
+package ilhn.xacml.benchmark.balana;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.wso2.balana.attr.AttributeValue;
+import org.wso2.balana.attr.BagAttribute;
+import org.wso2.balana.attr.StringAttribute;
+import org.wso2.balana.cond.*;
+
+import java.net.URI;
+import java.util.*;
+
+/**
+ * Benchmark for the set and higher-order functions on subjects with many group memberships, as
+ * returned by directory PIPs. A policy bag of required groups is compared to the group bag of the
+ * subject, which is created for every invocation like the bag of a new request, so building the
+ * hash index of the bag is part of the measurement. The nested scan the functions used before is
+ * measured for comparison.
+ */
+@State(Scope.Benchmark)
+public class SetFunctionBenchmark {
+
+    static final String FUNCTION_NS = "urn:oasis:names:tc:xacml:1.0:function:";
+    static final int REQUIRED_COUNT = 100;
+
+    @Param({"1000", "10000", "100000"})
+    int groupCount;
+
+    URI stringType;
+    List<AttributeValue> groups;
+    List<AttributeValue> lastRequiredValues;
+    BagAttribute required;
+    BagAttribute lastRequired;
+    Function atLeastOneMemberOf;
+    Function subset;
+    Function intersection;
+    Function anyOfAny;
+    Function stringEqual;
+
+    @Setup
+    public void setup() throws Exception {
+        stringType = new URI(StringAttribute.identifier);
+
+        groups = new ArrayList<>(groupCount);
+        for (int i = 0; i < groupCount; i++)
+            groups.add(new StringAttribute("group-" + i));
+
+        // the required groups the subject is a member of are at the end of its groups
+        List<AttributeValue> requiredValues = new ArrayList<>(REQUIRED_COUNT);
+        for (int i = 0; i < REQUIRED_COUNT; i++)
+            requiredValues.add(new StringAttribute("group-" + (groupCount - REQUIRED_COUNT + i)));
+        required = new BagAttribute(stringType, requiredValues);
+
+        // only the last of these required groups is held by the subject
+        lastRequiredValues = new ArrayList<>(REQUIRED_COUNT);
+        for (int i = 0; i < REQUIRED_COUNT - 1; i++)
+            lastRequiredValues.add(new StringAttribute("other-" + i));
+        lastRequiredValues.add(new StringAttribute("group-" + (groupCount - 1)));
+        lastRequired = new BagAttribute(stringType, lastRequiredValues);
+
+        FunctionFactory factory = FunctionFactory.getGeneralInstance();
+        atLeastOneMemberOf = factory.createFunction(FUNCTION_NS + "string-at-least-one-member-of");
+        subset = factory.createFunction(FUNCTION_NS + "string-subset");
+        intersection = factory.createFunction(FUNCTION_NS + "string-intersection");
+        anyOfAny = factory.createFunction(FUNCTION_NS + "any-of-any");
+        stringEqual = factory.createFunction(FUNCTION_NS + "string-equal");
+    }
+
+    @Benchmark
+    public EvaluationResult atLeastOneMemberOf() {
+        return atLeastOneMemberOf.evaluate(inputs(lastRequired, groups()), null);
+    }
+
+    @Benchmark
+    public EvaluationResult subset() {
+        return subset.evaluate(inputs(required, groups()), null);
+    }
+
+    @Benchmark
+    public EvaluationResult intersection() {
+        return intersection.evaluate(inputs(required, groups()), null);
+    }
+
+    @Benchmark
+    public EvaluationResult anyOfAny() {
+        List<Expression> inputs = new ArrayList<>(3);
+        inputs.add(stringEqual);
+        inputs.addAll(inputs(lastRequired, groups()));
+        return anyOfAny.evaluate(evaluatables(inputs), null);
+    }
+
+    /**
+     * Higher-order functions take their function argument, which isn't Evaluatable, in the list of
+     * Evaluatables, as <code>Apply</code> passes its raw expression list.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static List<Evaluatable> evaluatables(List<Expression> inputs) {
+        return (List) inputs;
+    }
+
+    /**
+     * <code>at-least-one-member-of</code> scanning the group list for every required group.
+     */
+    @Benchmark
+    public boolean atLeastOneMemberOfScan() {
+        BagAttribute groups = groups();
+        for (AttributeValue value : lastRequiredValues) {
+            for (Iterator<?> it = groups.iterator(); it.hasNext(); ) {
+                if (value.equals(it.next()))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    BagAttribute groups() {
+        return new BagAttribute(stringType, groups);
+    }
+
+    static List<Evaluatable> inputs(BagAttribute first, BagAttribute second) {
+        List<Evaluatable> inputs = new ArrayList<>(2);
+        inputs.add(first);
+        inputs.add(second);
+        return inputs;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .warmupIterations(10)
+                .measurementIterations(10)
+                .forks(1)
+                .include(SetFunctionBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(options).run();
+    }
+}
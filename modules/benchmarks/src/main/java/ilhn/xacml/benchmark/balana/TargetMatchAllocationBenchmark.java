@@ -0,0 +1,137 @@
+package ilhn.xacml.benchmark.balana;
+
+import ilhn.xacml.benchmark.BenchmarkUtil;
+import ilhn.xacml.util.XACML3StreamParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.balana.AbstractPolicy;
+import org.wso2.balana.MatchResult;
+import org.wso2.balana.TargetMatch;
+import org.wso2.balana.attr.BagAttribute;
+import org.wso2.balana.attr.BooleanAttribute;
+import org.wso2.balana.cond.Evaluatable;
+import org.wso2.balana.cond.EvaluationResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.ctx.EvaluationCtxFactory;
+import org.wso2.balana.xacml3.AllOfSelection;
+import org.wso2.balana.xacml3.AnyOfSelection;
+import org.wso2.balana.xacml3.Target;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Allocation benchmark for single target matches, run with the GC profiler.
+ * Compares <code>TargetMatch.match</code> against the generic evaluation through
+ * <code>Function.evaluate</code>, which every match went through before the direct comparison path.
+ */
+@State(Scope.Benchmark)
+public class TargetMatchAllocationBenchmark {
+    private static Logger log = LoggerFactory.getLogger(TargetMatchAllocationBenchmark.class);
+
+    @Param({"100", "1000", "10000"})
+    int policyCount;
+
+    List<EvaluationCtx> requests;
+    List<TargetMatch> matches;
+    Random random;
+
+    @Setup
+    public void setup() throws FileNotFoundException {
+        String policyLocation;
+        switch (policyCount) {
+            case 100:
+                policyLocation = BenchmarkUtil.POLICIES_100;
+                break;
+            case 1000:
+                policyLocation = BenchmarkUtil.POLICIES_1k;
+                break;
+            case 10000:
+                policyLocation = BenchmarkUtil.POLICIES_10k;
+                break;
+            default:
+                throw new IllegalArgumentException("Illegal Policycount " + policyCount);
+        }
+
+        log.info("Loading requests");
+        requests = BenchmarkUtil.loadStrings(BenchmarkUtil.REQUESTS, 1000).stream()
+                .map(s -> { try { return EvaluationCtxFactory.getFactory().getEvaluationCtx(XACML3StreamParser.readRequest(s), null); }
+                catch (Exception e) { throw new RuntimeException(e); } })
+                .collect(ArrayList::new, ArrayList::add, ArrayList::addAll);
+        log.info("Loaded {} requests", requests.size());
+
+        log.info("Loading policies");
+        List<AbstractPolicy> policies = BenchmarkUtil.loadStrings(policyLocation).stream()
+                .map(s -> { try { return XACML3StreamParser.readPolicyOrPolicySet(s, null); }
+                catch (Exception e) { throw new RuntimeException(e); } })
+                .collect(ArrayList::new, ArrayList::add, ArrayList::addAll);
+
+        matches = new ArrayList<>();
+        for (AbstractPolicy policy : policies) {
+            if (!(policy.getTarget() instanceof Target))
+                continue;
+
+            for (AnyOfSelection anyOf : ((Target) policy.getTarget()).getAnyOfSelections())
+                for (AllOfSelection allOf : anyOf.getAllOfSelections())
+                    matches.addAll(allOf.getMatches());
+        }
+        log.info("Loaded {} matches from {} policies", matches.size(), policies.size());
+
+        random = new Random();
+    }
+
+    @Benchmark
+    public MatchResult matchDirect() {
+        return matches.get(random.nextInt(matches.size())).match(requests.get(random.nextInt(requests.size())));
+    }
+
+    @Benchmark
+    public MatchResult matchGeneric() {
+        return genericMatch(matches.get(random.nextInt(matches.size())), requests.get(random.nextInt(requests.size())));
+    }
+
+    /**
+     * The generic match path: one argument list, function evaluation and result per bag value.
+     */
+    static MatchResult genericMatch(TargetMatch match, EvaluationCtx context) {
+        EvaluationResult result = match.getMatchEvaluatable().evaluate(context);
+        if (result.indeterminate())
+            return new MatchResult(MatchResult.INDETERMINATE, result.getStatus());
+
+        Iterator<?> it = ((BagAttribute) result.getAttributeValue()).iterator();
+        while (it.hasNext()) {
+            List<Evaluatable> inputs = new ArrayList<>();
+            inputs.add(match.getMatchValue());
+            inputs.add((Evaluatable) it.next());
+
+            EvaluationResult evaluationResult = match.getMatchFunction().evaluate(inputs, context);
+            if (evaluationResult.indeterminate())
+                return new MatchResult(MatchResult.INDETERMINATE, evaluationResult.getStatus());
+            if (((BooleanAttribute) evaluationResult.getAttributeValue()).getValue())
+                return new MatchResult(MatchResult.MATCH);
+        }
+        return new MatchResult(MatchResult.NO_MATCH);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .warmupIterations(20)
+                .measurementIterations(20)
+                .forks(2)
+                .threads(2)
+                .include(TargetMatchAllocationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
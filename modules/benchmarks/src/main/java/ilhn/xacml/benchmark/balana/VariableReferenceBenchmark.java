@@ -0,0 +1,154 @@
+package ilhn.xacml.benchmark.balana;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.balana.*;
+import org.wso2.balana.attr.StringAttribute;
+import org.wso2.balana.ctx.AbstractRequestCtx;
+import org.wso2.balana.ctx.RequestCtxFactory;
+import org.wso2.balana.ctx.ResponseCtx;
+import org.wso2.balana.finder.*;
+
+import java.util.*;
+
+/**
+ * Benchmark for policies whose rules share an expensive <code>VariableDefinition</code>.
+ * Compares a policy referencing the variable in every rule, where the definition is evaluated once
+ * per request, against the same policy with the expression inlined into every rule.
+ */
+@State(Scope.Benchmark)
+public class VariableReferenceBenchmark {
+    private static Logger log = LoggerFactory.getLogger(VariableReferenceBenchmark.class);
+
+    static final String SUBJECT_CATEGORY = "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject";
+    static final String ACTION_CATEGORY = "urn:oasis:names:tc:xacml:3.0:attribute-category:action";
+    static final int ROLE_COUNT = 100;
+
+    @Param({"10", "200"})
+    int ruleCount;
+
+    PDP variablePdp;
+    PDP inlinedPdp;
+    AbstractRequestCtx request;
+
+    @Setup
+    public void setup() throws Exception {
+        variablePdp = pdp(policy(ruleCount, true));
+        inlinedPdp = pdp(policy(ruleCount, false));
+        request = RequestCtxFactory.getFactory().getRequestCtx(request());
+
+        log.info("{} rules, variable {}, inlined {}", ruleCount,
+                variablePdp.evaluate(request).encode(), inlinedPdp.evaluate(request).encode());
+    }
+
+    /**
+     * All rules reference the same variable definition.
+     */
+    @Benchmark
+    public ResponseCtx evaluateVariable() {
+        return variablePdp.evaluate(request);
+    }
+
+    /**
+     * All rules contain their own copy of the expression.
+     */
+    @Benchmark
+    public ResponseCtx evaluateInlined() {
+        return inlinedPdp.evaluate(request);
+    }
+
+    static PDP pdp(String policy) throws Exception {
+        PolicyFinder policyFinder = new PolicyFinder();
+        Set<PolicyFinderModule> policyFinderModules = new HashSet<>();
+        policyFinderModules.add(new XPathSelectorBenchmark.StaticPolicyFinderModule(
+                Policy.getInstance(XPathSelectorBenchmark.parse(policy).getDocumentElement())));
+        policyFinder.setModules(policyFinderModules);
+
+        AttributeFinder attributeFinder = new AttributeFinder();
+        attributeFinder.setModules(new ArrayList<>());
+        ResourceFinder resourceFinder = new ResourceFinder();
+        resourceFinder.setModules(new ArrayList<>());
+        return new PDP(new PDPConfig(attributeFinder, policyFinder, resourceFinder));
+    }
+
+    /**
+     * Builds a permit-overrides policy whose rules each require the subject to hold one of the
+     * privileged roles and the action to be the one of the rule, only the last rule matches.
+     */
+    static String policy(int ruleCount, boolean variable) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<Policy xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" PolicyId=\"variable-reference\"")
+                .append(" RuleCombiningAlgId=\"urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:permit-overrides\"")
+                .append(" Version=\"1.0\"><Target/>");
+
+        if (variable)
+            builder.append("<VariableDefinition VariableId=\"privileged\">").append(privileged()).append("</VariableDefinition>");
+
+        for (int i = 0; i < ruleCount; i++) {
+            String action = (i == ruleCount - 1) ? "read" : "action-" + i;
+            builder.append("<Rule RuleId=\"rule-").append(i).append("\" Effect=\"Permit\"><Target/><Condition>")
+                    .append("<Apply FunctionId=\"urn:oasis:names:tc:xacml:1.0:function:and\">")
+                    .append(variable ? "<VariableReference VariableId=\"privileged\"/>" : privileged())
+                    .append("<Apply FunctionId=\"urn:oasis:names:tc:xacml:1.0:function:string-is-in\">")
+                    .append("<AttributeValue DataType=\"").append(StringAttribute.identifier).append("\">")
+                    .append(action).append("</AttributeValue>")
+                    .append("<AttributeDesignator MustBePresent=\"false\" Category=\"").append(ACTION_CATEGORY)
+                    .append("\" AttributeId=\"urn:oasis:names:tc:xacml:1.0:action:action-id\" DataType=\"")
+                    .append(StringAttribute.identifier).append("\"/>")
+                    .append("</Apply></Apply></Condition></Rule>");
+        }
+
+        return builder.append("</Policy>").toString();
+    }
+
+    /**
+     * Expression comparing the roles of the subject to a bag of privileged roles
+     */
+    static String privileged() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<Apply FunctionId=\"urn:oasis:names:tc:xacml:1.0:function:string-at-least-one-member-of\">")
+                .append("<AttributeDesignator MustBePresent=\"false\" Category=\"").append(SUBJECT_CATEGORY)
+                .append("\" AttributeId=\"role\" DataType=\"").append(StringAttribute.identifier).append("\"/>")
+                .append("<Apply FunctionId=\"urn:oasis:names:tc:xacml:1.0:function:string-bag\">");
+        for (int i = 0; i < ROLE_COUNT; i++) {
+            builder.append("<AttributeValue DataType=\"").append(StringAttribute.identifier).append("\">")
+                    .append("privileged-").append(i).append("</AttributeValue>");
+        }
+        return builder.append("</Apply></Apply>").toString();
+    }
+
+    /**
+     * Builds a request whose subject holds many roles, only the last one is privileged.
+     */
+    static String request() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<Request xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" CombinedDecision=\"false\" ReturnPolicyIdList=\"false\">")
+                .append("<Attributes Category=\"").append(SUBJECT_CATEGORY).append("\">")
+                .append("<Attribute AttributeId=\"role\" IncludeInResult=\"false\">");
+        for (int i = 0; i < ROLE_COUNT; i++) {
+            builder.append("<AttributeValue DataType=\"").append(StringAttribute.identifier).append("\">")
+                    .append(i == ROLE_COUNT - 1 ? "privileged-" + i : "role-" + i).append("</AttributeValue>");
+        }
+        return builder.append("</Attribute></Attributes>")
+                .append("<Attributes Category=\"").append(ACTION_CATEGORY).append("\">")
+                .append("<Attribute AttributeId=\"urn:oasis:names:tc:xacml:1.0:action:action-id\" IncludeInResult=\"false\">")
+                .append("<AttributeValue DataType=\"").append(StringAttribute.identifier).append("\">read</AttributeValue>")
+                .append("</Attribute></Attributes></Request>").toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .warmupIterations(10)
+                .measurementIterations(10)
+                .forks(1)
+                .include(VariableReferenceBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,217 @@
+package ilhn.xacml.benchmark.balana;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.wso2.balana.*;
+import org.wso2.balana.attr.StringAttribute;
+import org.wso2.balana.cond.EvaluationResult;
+import org.wso2.balana.ctx.AbstractRequestCtx;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.ctx.EvaluationCtxFactory;
+import org.wso2.balana.ctx.RequestCtxFactory;
+import org.wso2.balana.ctx.ResponseCtx;
+import org.wso2.balana.finder.*;
+import org.wso2.balana.finder.impl.SelectorModule;
+import org.wso2.balana.xacml3.Attributes;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Benchmark for policies using <code>AttributeSelector</code>s on the <code>Content</code> of a request,
+ * modelled after the medical record policies of the balana XPath tests. Compares the selector lookup
+ * of the <code>SelectorModule</code> against compiling the expression for every lookup, and measures
+ * the evaluation of a policy whose rules share the same selectors.
+ */
+@State(Scope.Benchmark)
+public class XPathSelectorBenchmark {
+    private static Logger log = LoggerFactory.getLogger(XPathSelectorBenchmark.class);
+
+    static final String RESOURCE_CATEGORY = "urn:oasis:names:tc:xacml:3.0:attribute-category:resource";
+    static final String[] PATHS = {
+            "//md:record/md:patient/md:patientDoB/text()",
+            "//md:record/md:patient/md:patient-number/text()",
+            "//md:record/md:primaryCarePhysician/md:registrationID/text()"
+    };
+
+    @Param({"4", "16"})
+    int ruleCount;
+
+    PDP pdp;
+    AbstractRequestCtx request;
+    EvaluationCtx context;
+    Node content;
+    SelectorModule selectorModule;
+    URI stringType;
+
+    @Setup
+    public void setup() throws Exception {
+        Document policyDocument = parse(policy(ruleCount));
+        AbstractPolicy policy = Policy.getInstance(policyDocument.getDocumentElement());
+
+        PolicyFinder policyFinder = new PolicyFinder();
+        Set<PolicyFinderModule> policyFinderModules = new HashSet<>();
+        policyFinderModules.add(new StaticPolicyFinderModule(policy));
+        policyFinder.setModules(policyFinderModules);
+
+        selectorModule = new SelectorModule();
+        AttributeFinder attributeFinder = new AttributeFinder();
+        List<AttributeFinderModule> attributeFinderModules = new ArrayList<>();
+        attributeFinderModules.add(selectorModule);
+        attributeFinder.setModules(attributeFinderModules);
+
+        ResourceFinder resourceFinder = new ResourceFinder();
+        resourceFinder.setModules(new ArrayList<>());
+
+        PDPConfig pdpConfig = new PDPConfig(attributeFinder, policyFinder, resourceFinder);
+        pdp = new PDP(pdpConfig);
+
+        request = RequestCtxFactory.getFactory().getRequestCtx(REQUEST);
+        context = EvaluationCtxFactory.getFactory().getEvaluationCtx(request, pdpConfig);
+        stringType = new URI(StringAttribute.identifier);
+        for (Attributes attributes : request.getAttributesSet()) {
+            if (RESOURCE_CATEGORY.equals(attributes.getCategory().toString()))
+                content = attributes.getContent();
+        }
+
+        ResponseCtx response = pdp.evaluate(request);
+        log.info("Loaded policy with {} rules, decision {}", ruleCount, response.encode());
+    }
+
+    /**
+     * Selector lookup through the <code>SelectorModule</code>.
+     */
+    @Benchmark
+    public EvaluationResult findAttribute() {
+        return selectorModule.findAttribute(PATHS[0], stringType, null, content, context,
+                PolicyMetaData.XPATH_1_0_IDENTIFIER);
+    }
+
+    /**
+     * Selector lookup creating and compiling the XPath for every lookup.
+     */
+    @Benchmark
+    public NodeList findAttributeUncompiled() throws Exception {
+        Map<String, String> namespaces = new HashMap<>();
+        NamedNodeMap attributes = content.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++)
+            namespaces.put(DOMHelper.getLocalName(attributes.item(i)), attributes.item(i).getNodeValue());
+
+        XPath xpath = XPathFactory.newInstance().newXPath();
+        xpath.setNamespaceContext(new DefaultNamespaceContext(namespaces));
+        return (NodeList) xpath.compile(PATHS[0]).evaluate(content, XPathConstants.NODESET);
+    }
+
+    /**
+     * Evaluation of the whole policy, all rules share the same selectors.
+     */
+    @Benchmark
+    public ResponseCtx evaluate() {
+        return pdp.evaluate(request);
+    }
+
+    static Document parse(String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Builds a permit-overrides policy whose rules each compare one selector to a literal,
+     * only the last rule matches the request.
+     */
+    static String policy(int ruleCount) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<Policy xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" PolicyId=\"xpath-selector\"")
+                .append(" RuleCombiningAlgId=\"urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:permit-overrides\"")
+                .append(" Version=\"1.0\">")
+                .append("<PolicyDefaults><XPathVersion>")
+                .append(PolicyMetaData.XPATH_1_0_IDENTIFIER).append("</XPathVersion></PolicyDefaults>")
+                .append("<Target/>");
+
+        for (int i = 0; i < ruleCount; i++) {
+            String value = (i == ruleCount - 1) ? "555555" : "rule-" + i;
+            builder.append("<Rule RuleId=\"rule-").append(i).append("\" Effect=\"Permit\"><Target/><Condition>")
+                    .append("<Apply FunctionId=\"urn:oasis:names:tc:xacml:1.0:function:string-is-in\">")
+                    .append("<AttributeValue DataType=\"").append(StringAttribute.identifier).append("\">")
+                    .append(value).append("</AttributeValue>")
+                    .append("<AttributeSelector MustBePresent=\"false\" Category=\"").append(RESOURCE_CATEGORY)
+                    .append("\" Path=\"").append(PATHS[(i + 1) % PATHS.length])
+                    .append("\" DataType=\"").append(StringAttribute.identifier).append("\"/>")
+                    .append("</Apply></Condition></Rule>");
+        }
+
+        return builder.append("</Policy>").toString();
+    }
+
+    static final String REQUEST =
+            "<Request xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" CombinedDecision=\"false\" ReturnPolicyIdList=\"false\">" +
+            "<Attributes Category=\"urn:oasis:names:tc:xacml:1.0:subject-category:access-subject\">" +
+            "<Attribute AttributeId=\"urn:oasis:names:tc:xacml:1.0:subject:subject-id\" IncludeInResult=\"false\">" +
+            "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">bs@simpsons.com</AttributeValue>" +
+            "</Attribute></Attributes>" +
+            "<Attributes Category=\"" + RESOURCE_CATEGORY + "\">" +
+            "<Content><md:record xmlns:md=\"urn:example:med:schemas:record\">" +
+            "<md:patient><md:patientDoB>1992-03-21</md:patientDoB><md:patient-number>555555</md:patient-number></md:patient>" +
+            "<md:primaryCarePhysician><md:registrationID>ABC123</md:registrationID></md:primaryCarePhysician>" +
+            "</md:record></Content>" +
+            "<Attribute AttributeId=\"urn:oasis:names:tc:xacml:1.0:resource:resource-id\" IncludeInResult=\"false\">" +
+            "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">medical-record</AttributeValue>" +
+            "</Attribute></Attributes>" +
+            "<Attributes Category=\"urn:oasis:names:tc:xacml:3.0:attribute-category:action\">" +
+            "<Attribute AttributeId=\"urn:oasis:names:tc:xacml:1.0:action:action-id\" IncludeInResult=\"false\">" +
+            "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">read</AttributeValue>" +
+            "</Attribute></Attributes>" +
+            "</Request>";
+
+    /**
+     * Finder module always returning the single benchmark policy.
+     */
+    static class StaticPolicyFinderModule extends PolicyFinderModule {
+        private final AbstractPolicy policy;
+
+        StaticPolicyFinderModule(AbstractPolicy policy) {
+            this.policy = policy;
+        }
+
+        @Override
+        public void init(PolicyFinder finder) {
+        }
+
+        @Override
+        public boolean isRequestSupported() {
+            return true;
+        }
+
+        @Override
+        public PolicyFinderResult findPolicy(EvaluationCtx context) {
+            return new PolicyFinderResult(policy);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .warmupIterations(20)
+                .measurementIterations(20)
+                .forks(2)
+                .include(XPathSelectorBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(options).run();
+    }
+}
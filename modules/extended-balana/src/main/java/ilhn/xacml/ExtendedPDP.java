@@ -2,7 +2,10 @@ package ilhn.xacml;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.RemovalNotification;
+import ilhn.xacml.util.CacheabilityAnalyzer;
+import ilhn.xacml.util.PDPExecutors;
+import ilhn.xacml.util.RequestKey;
 import ilhn.xacml.util.XACML3StreamParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,16 +13,55 @@ import org.wso2.balana.PDP;
 import org.wso2.balana.PDPConfig;
 import org.wso2.balana.ParsingException;
 import org.wso2.balana.ctx.AbstractRequestCtx;
+import org.wso2.balana.XACMLConstants;
+import org.wso2.balana.ctx.AbstractResult;
+import org.wso2.balana.ctx.EvaluationCtx;
 import org.wso2.balana.ctx.ResponseCtx;
+import org.wso2.balana.ctx.xacml3.RequestCtx;
+import org.wso2.balana.ctx.xacml3.Result;
+import org.wso2.balana.ctx.xacml3.XACML3EvaluationCtx;
 import org.wso2.balana.finder.PolicyFinder;
 import org.wso2.balana.finder.PolicyFinderResult;
+import org.wso2.balana.xacml3.Attributes;
+import org.wso2.balana.xacml3.MultipleCtxResult;
 
 import javax.xml.stream.XMLStreamException;
-import java.util.LinkedList;
-import java.util.List;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * PDP employing decision caching techniques, uses balana PDP as back end
+ * PDP employing decision caching techniques, uses balana PDP as back end.
+ * Decisions are cached by the canonical <code>RequestKey</code> of the parsed request,
+ * not by the raw request string. Every cached decision is indexed by the ids of the policies
+ * it was derived from, so updating a policy only evicts the decisions depending on it.
+ * Optionally decisions are cached in their UTF-8 encoded form, so cache hits can be written
+ * to a stream without encoding the response again.
+ * If the configuration handles multiple decision requests, the individual decisions of such a
+ * request are cached on their own, and with an executor the missing ones are evaluated in parallel.
+ * Batches of requests are deduplicated by their keys before they are looked up in the cache.
+ * Asynchronous evaluations complete cache hits on the calling thread.
+ * With a <code>CacheabilityAnalyzer</code> every decision expires on its own, depending on the
+ * time and PIP attributes its policies read, and decisions that must not be cached are returned
+ * without being added to the cache. Caffeine 1.3.1 has no per-entry expiration, expired decisions
+ * stay in the cache until they are looked up or purged by {@link #schedulePurge}.
+ * Every invalidation advances an epoch; a decision whose evaluation started in an earlier epoch
+ * is returned but dropped from the cache, it may have been derived from the replaced policies.
  */
 public class ExtendedPDP {
     private static Logger log = LoggerFactory.getLogger(ExtendedPDP.class);
@@ -27,38 +69,528 @@ public class ExtendedPDP {
     PDP pdp;
     PDPConfig pdpConfig;
     PolicyFinder policyFinder;
-    LoadingCache<String, PDPDecision> cache;
+    Cache<RequestKey, PDPDecision> cache;
     Cache<String, PolicyFinderResult> resultCache;
+    Map<String, Set<RequestKey>> policyIndex;
+    final AtomicLong epoch = new AtomicLong();
+    boolean cacheEncoded;
+    Executor executor;
+    volatile Semaphore inFlight;
+    volatile CacheabilityAnalyzer cacheability;
 
     public ExtendedPDP(PDPConfig pdpConfig, int cacheSize) {
-        pdp = new PDP(pdpConfig);
+        this(pdpConfig, cacheSize, false);
+    }
+
+    public ExtendedPDP(PDPConfig pdpConfig, int cacheSize, boolean cacheEncoded) {
+        this(pdpConfig, cacheSize, cacheEncoded, null);
+    }
+
+    /**
+     * @param pdpConfig configuration of the balana PDP
+     * @param cacheSize maximum number of cached decisions
+     * @param cacheEncoded cache the UTF-8 encoded responses instead of strings
+     * @param executor executor evaluating the individual decisions of multiple decision requests
+     *                 in parallel, or null to evaluate them sequentially
+     */
+    public ExtendedPDP(PDPConfig pdpConfig, int cacheSize, boolean cacheEncoded, Executor executor) {
+        this.cacheEncoded = cacheEncoded;
+        this.executor = executor;
+        pdp = new PDP(pdpConfig, executor);
         this.pdpConfig = pdpConfig;
         policyFinder = this.pdpConfig.getPolicyFinder();
-        cache = Caffeine.newBuilder().maximumSize(cacheSize).build(this::evaluateWithCache);
+        policyIndex = new ConcurrentHashMap<>();
+        cache = Caffeine.newBuilder().maximumSize(cacheSize)
+                .removalListener((RemovalNotification<RequestKey, PDPDecision> notification) ->
+                        unindex(notification.getKey(), notification.getValue()))
+                .build();
     }
 
     public String evaluate(String request) {
-        log.trace("Cached decision is available: {}", cache.getIfPresent(request) != null );
-        PDPDecision decision = cache.get(request);
-        /*log.debug("Permit: {}, Deny: {}, Indeterminate: {}, NotApplicable: {}", decision.response.contains("Permit"),
-                decision.response.contains("Deny"), decision.response.contains("Indeterminate"),
-                decision.response.contains("NotApplicable"));*/
-        return decision.response;
+        return decide(request).getDecision();
+    }
+
+    /**
+     * Evaluates the request and writes the UTF-8 encoded response to the given stream.
+     * Decisions cached in their encoded form are written as is.
+     *
+     * @param request XACML request
+     * @param output stream the response is written to, it is flushed but not closed
+     * @throws IOException if the stream fails
+     */
+    public void evaluate(String request, OutputStream output) throws IOException {
+        decide(request).writeTo(output);
+        output.flush();
+    }
+
+    /**
+     * Evaluates the request and returns the UTF-8 encoded response. The returned array is
+     * shared with the cache if decisions are cached in their encoded form and must not be modified.
+     *
+     * @param request XACML request
+     * @return encoded response
+     */
+    public byte[] evaluateEncoded(String request) {
+        return decide(request).getEncoded();
+    }
+
+    /**
+     * Evaluates a batch of requests. Identical requests are evaluated once, all of them are
+     * looked up in the cache at once and the missing decisions are evaluated on the executor.
+     *
+     * @param requests XACML requests
+     * @return responses in the order of the requests
+     */
+    public List<String> evaluateBatch(List<String> requests) {
+        List<RequestCtx> requestCtxs = new ArrayList<>(requests.size());
+        for (String request : requests)
+            requestCtxs.add(readRequest(request));
+
+        List<String> responses = new ArrayList<>(requests.size());
+        for (PDPDecision decision : decideBatch(requestCtxs))
+            responses.add(decision.getDecision());
+        return responses;
+    }
+
+    /**
+     * Evaluates a batch of UTF-8 encoded requests, see {@link #evaluateBatch(List)}. The returned
+     * arrays are shared with the cache if decisions are cached in their encoded form and must not
+     * be modified.
+     *
+     * @param requests UTF-8 encoded XACML requests
+     * @return encoded responses in the order of the requests
+     */
+    public List<byte[]> evaluateBatchEncoded(List<byte[]> requests) {
+        List<RequestCtx> requestCtxs = new ArrayList<>(requests.size());
+        for (byte[] request : requests)
+            requestCtxs.add(readRequest(request));
+
+        List<byte[]> responses = new ArrayList<>(requests.size());
+        for (PDPDecision decision : decideBatch(requestCtxs))
+            responses.add(decision.getEncoded());
+        return responses;
+    }
+
+    /**
+     * Evaluates the request without blocking on the evaluation. The request is parsed on the
+     * calling thread, cached decisions are returned as completed futures, all other requests are
+     * evaluated on the executor of this PDP, or the common pool if it has none.
+     *
+     * @param request XACML request
+     * @return future of the response
+     */
+    public CompletableFuture<String> evaluateAsync(String request) {
+        return evaluateAsync(request, executor != null ? executor : ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Evaluates the request without blocking on the evaluation, see {@link #evaluateAsync(String)}.
+     * If the maximum number of evaluations in flight is reached, the future fails with a
+     * <code>RejectedExecutionException</code>.
+     *
+     * @param request XACML request
+     * @param executor executor evaluating the request, e.g. from {@link PDPExecutors}
+     * @return future of the response
+     */
+    public CompletableFuture<String> evaluateAsync(String request, Executor executor) {
+        return decideAsync(request, executor).thenApply(PDPDecision::getDecision);
+    }
+
+    /**
+     * Limits the number of asynchronous evaluations in flight, cache hits are not counted.
+     *
+     * @param maxInFlight maximum number of evaluations, or 0 for no limit
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        inFlight = (maxInFlight > 0) ? new Semaphore(maxInFlight) : null;
+    }
+
+    /**
+     * Lets decisions expire according to the cacheability of the policies they were derived
+     * from. Without an analyzer decisions are cached until they are evicted or invalidated.
+     *
+     * @param cacheability analyzer knowing all policies of the policy finder, or null
+     */
+    public void setCacheability(CacheabilityAnalyzer cacheability) {
+        this.cacheability = cacheability;
+    }
+
+    /**
+     * Removes all expired decisions from the cache. Expired decisions are otherwise only removed
+     * when they are looked up, until then they count against the maximum size of the cache.
+     */
+    public void purgeExpired() {
+        cache.asMap().values().removeIf(PDPDecision::isExpired);
+    }
+
+    /**
+     * Periodically removes expired decisions, see {@link #purgeExpired()}. The scheduler is owned
+     * by the caller, the purge stops when the returned future is cancelled or the scheduler is shut down.
+     *
+     * @param scheduler scheduler running the purge
+     * @param period time between two purges
+     * @param unit unit of the period
+     * @return future of the scheduled purge
+     */
+    public ScheduledFuture<?> schedulePurge(ScheduledExecutorService scheduler, long period, TimeUnit unit) {
+        return scheduler.scheduleWithFixedDelay(this::purgeExpired, period, period, unit);
+    }
+
+    CompletableFuture<PDPDecision> decideAsync(String request, Executor executor) {
+        RequestCtx requestCtx;
+        try {
+            requestCtx = readRequest(request);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+
+        boolean multiple = pdpConfig.isMultipleRequestHandle() && isMultiple(requestCtx);
+        RequestKey key = multiple ? null : RequestKey.of(requestCtx);
+        if (!multiple) {
+            PDPDecision cached = cached(key);
+            if (cached != null)
+                return CompletableFuture.completedFuture(cached);
+        }
+
+        Semaphore permits = inFlight;
+        if (permits != null && !permits.tryAcquire())
+            return failed(new RejectedExecutionException("Too many evaluations in flight"));
+
+        CompletableFuture<PDPDecision> decision;
+        try {
+            decision = multiple ? decideMultipleAsync(requestCtx, executor)
+                    : CompletableFuture.supplyAsync(() -> decide(key, requestCtx), executor);
+        } catch (RuntimeException e) {
+            decision = failed(e);
+        }
+
+        // released before the caller sees the decision, which may be followed by the next request
+        if (permits != null)
+            decision = decision.whenComplete((d, e) -> permits.release());
+        return decision;
+    }
+
+    static CompletableFuture<PDPDecision> failed(Throwable throwable) {
+        CompletableFuture<PDPDecision> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+
+    PDPDecision decide(String request) {
+        RequestCtx requestCtx = readRequest(request);
+        if (pdpConfig.isMultipleRequestHandle() && isMultiple(requestCtx))
+            return decideMultiple(requestCtx);
+
+        return decide(requestCtx);
+    }
+
+    List<PDPDecision> decideBatch(List<RequestCtx> requestCtxs) {
+        PDPDecision[] decisions = new PDPDecision[requestCtxs.size()];
+        RequestKey[] keys = new RequestKey[requestCtxs.size()];
+        Map<RequestKey, RequestCtx> unique = new LinkedHashMap<>();
+        for (int i = 0; i < decisions.length; i++) {
+            RequestCtx requestCtx = requestCtxs.get(i);
+            if (pdpConfig.isMultipleRequestHandle() && isMultiple(requestCtx)) {
+                decisions[i] = decideMultiple(requestCtx);
+            } else {
+                keys[i] = RequestKey.of(requestCtx);
+                unique.putIfAbsent(keys[i], requestCtx);
+            }
+        }
+
+        Map<RequestKey, PDPDecision> decided = new HashMap<>(cache.getAllPresent(unique.keySet()));
+        log.trace("Cached decisions available: {} of {}", decided.size(), unique.size());
+        for (Iterator<Map.Entry<RequestKey, PDPDecision>> it = decided.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<RequestKey, PDPDecision> entry = it.next();
+            if (entry.getValue().isExpired())
+                it.remove();
+            else if (!entry.getValue().indexed && !index(entry.getKey(), entry.getValue()))
+                it.remove();
+        }
+
+        List<RequestKey> misses = new ArrayList<>(unique.size() - decided.size());
+        for (RequestKey key : unique.keySet()) {
+            if (!decided.containsKey(key))
+                misses.add(key);
+        }
+
+        if (executor == null || misses.size() < 2) {
+            for (RequestKey key : misses)
+                decided.put(key, decide(key, unique.get(key)));
+        } else {
+            List<CompletableFuture<PDPDecision>> futures = new ArrayList<>(misses.size());
+            for (RequestKey key : misses) {
+                RequestCtx requestCtx = unique.get(key);
+                futures.add(CompletableFuture.supplyAsync(() -> decide(key, requestCtx), executor));
+            }
+            for (int i = 0; i < misses.size(); i++)
+                decided.put(misses.get(i), join(futures.get(i)));
+        }
+
+        for (int i = 0; i < decisions.length; i++) {
+            if (decisions[i] == null)
+                decisions[i] = decided.get(keys[i]);
+        }
+        return Arrays.asList(decisions);
+    }
+
+    PDPDecision decide(RequestCtx requestCtx) {
+        return decide(RequestKey.of(requestCtx), requestCtx);
+    }
+
+    PDPDecision decide(RequestKey key, RequestCtx requestCtx) {
+        log.trace("Cached decision is available: {}", cache.getIfPresent(key) != null );
+        if (cacheability == null) {
+            // nothing expires, concurrent calls for the same key wait for a single evaluation
+            PDPDecision decision = cache.get(key, k -> evaluateWithCache(requestCtx));
+            if (!decision.indexed)
+                index(key, decision);
+            return decision;
+        }
+
+        PDPDecision decision = cached(key);
+        if (decision != null)
+            return decision;
+        // evaluated outside of the cache, so uncacheable decisions are never inserted
+        PDPDecision evaluated = evaluateWithCache(requestCtx);
+        if (!evaluated.isCacheable())
+            return evaluated;
+        decision = cache.asMap().merge(key, evaluated,
+                (current, update) -> current.isExpired() ? update : current);
+        if (!decision.indexed)
+            index(key, decision);
+        return decision;
+    }
+
+    /**
+     * Decides a multiple decision request by its individual decisions, each of them is looked up
+     * in and added to the cache on its own. The combined response itself isn't cached.
+     */
+    PDPDecision decideMultiple(RequestCtx requestCtx) {
+        return join(decideMultipleAsync(requestCtx, executor));
+    }
+
+    /**
+     * Decides a multiple decision request without waiting for its individual decisions.
+     * Cached decisions are taken inline, the missing ones are evaluated on the given executor,
+     * or inline if it is null.
+     */
+    CompletableFuture<PDPDecision> decideMultipleAsync(RequestCtx requestCtx, Executor executor) {
+        MultipleCtxResult multipleCtxResult = new XACML3EvaluationCtx(requestCtx, pdpConfig).getMultipleEvaluationCtx();
+        if (multipleCtxResult.isIndeterminate())
+            return CompletableFuture.completedFuture(evaluateWithCache(requestCtx));
+
+        Set<EvaluationCtx> contexts = multipleCtxResult.getEvaluationCtxSet();
+        List<CompletableFuture<PDPDecision>> futures = new ArrayList<>(contexts.size());
+        for (EvaluationCtx context : contexts) {
+            RequestCtx child = (RequestCtx) context.getRequestCtx();
+            RequestKey key = RequestKey.of(child);
+            PDPDecision cached = cached(key);
+            if (cached != null)
+                futures.add(CompletableFuture.completedFuture(cached));
+            else if (executor == null || contexts.size() < 2)
+                futures.add(CompletableFuture.completedFuture(decide(key, child)));
+            else
+                futures.add(CompletableFuture.supplyAsync(() -> decide(key, child), executor));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+                .thenApply(v -> combine(requestCtx, futures));
+    }
+
+    PDPDecision combine(RequestCtx requestCtx, List<CompletableFuture<PDPDecision>> decisions) {
+        Set<AbstractResult> results = new LinkedHashSet<>();
+        Set<String> matchedPolicies = new LinkedHashSet<>();
+        for (CompletableFuture<PDPDecision> future : decisions) {
+            PDPDecision decision = future.join();
+            if (decision.result == null)
+                return evaluateWithCache(requestCtx);
+            // identical individual requests share their cached result, each of them needs its own
+            if (!results.add(decision.result))
+                results.add(new Result((Result) decision.result));
+            matchedPolicies.addAll(decision.matchedPolicies);
+        }
+        return new PDPDecision(new ArrayList<>(matchedPolicies), new ResponseCtx(results, XACMLConstants.XACML_VERSION_3_0));
+    }
+
+    /**
+     * Returns the cached decision of the key, or null if there is none, it has expired or it
+     * was dropped by a concurrent invalidation
+     */
+    PDPDecision cached(RequestKey key) {
+        PDPDecision decision = cache.getIfPresent(key);
+        if (decision == null || decision.isExpired())
+            return null;
+        if (!decision.indexed && !index(key, decision))
+            return null;
+        return decision;
+    }
+
+    /**
+     * Waits for a decision evaluated on the executor, rethrowing its runtime exception
+     */
+    static PDPDecision join(CompletableFuture<PDPDecision> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
     }
 
-    PDPDecision evaluateWithCache(String request) {
+    /**
+     * Checks for a <code>MultiRequests</code> element or repeated categories, without creating
+     * an evaluation context.
+     */
+    static boolean isMultiple(RequestCtx requestCtx) {
+        if (requestCtx.getMultiRequests() != null)
+            return true;
+
+        Set<URI> categories = new HashSet<>();
+        for (Attributes attributes : requestCtx.getAttributesSet()) {
+            if (!categories.add(attributes.getCategory()))
+                return true;
+        }
+        return false;
+    }
+
+    RequestCtx readRequest(String request) {
         try {
-            AbstractRequestCtx requestCtx = XACML3StreamParser.readRequest(request);
-            ResponseCtx responseCtx = pdp.evaluate(requestCtx);
-            return new PDPDecision(new LinkedList<>(), responseCtx.encode());
+            return XACML3StreamParser.readRequest(request);
         } catch (XMLStreamException | ParsingException e) {
             throw new RuntimeException(e);
         }
     }
 
+    RequestCtx readRequest(byte[] request) {
+        try {
+            return XACML3StreamParser.readRequest(new ByteArrayInputStream(request));
+        } catch (XMLStreamException | ParsingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    PDPDecision evaluateWithCache(AbstractRequestCtx requestCtx) {
+        // read before evaluating, a time bucket may end or a policy be invalidated while the policies are evaluated
+        long now = System.currentTimeMillis();
+        long evaluatedIn = epoch.get();
+        ResponseCtx responseCtx = pdp.evaluate(requestCtx);
+        PDPDecision decision;
+        if (!cacheEncoded) {
+            decision = new PDPDecision(matchedPolicies(responseCtx), responseCtx.encode());
+        } else {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(256);
+            try {
+                responseCtx.writeTo(output);
+            } catch (IOException e) {
+                // ByteArrayOutputStream doesn't fail
+                throw new IllegalStateException(e);
+            }
+            decision = new PDPDecision(matchedPolicies(responseCtx), output.toByteArray());
+        }
+        decision.epoch = evaluatedIn;
+
+        CacheabilityAnalyzer analyzer = cacheability;
+        if (analyzer != null)
+            decision.expiresAt = analyzer.of(decision.matchedPolicies).expiresAt(now);
+
+        // single results are kept to combine the responses of multiple decision requests
+        if (responseCtx.getResults().size() == 1)
+            decision.result = responseCtx.getResults().iterator().next();
+        return decision;
+    }
+
+    /**
+     * Evicts all cached decisions that were derived from the given policy.
+     * Decisions the policy did not apply to are kept, if an update widens the target
+     * of a policy use {@link #invalidateAll()} instead.
+     *
+     * @param policyId id of the updated or removed policy
+     */
+    public void invalidatePolicy(String policyId) {
+        // advanced first, decisions indexed after the removal below see the new epoch and drop themselves
+        epoch.incrementAndGet();
+        Set<RequestKey> keys = policyIndex.remove(policyId);
+        if (keys != null)
+            cache.invalidateAll(keys);
+    }
+
+    /**
+     * Evicts all cached decisions that were derived from any of the given policies.
+     *
+     * @param policyIds ids of the updated or removed policies
+     */
+    public void invalidatePolicies(Collection<String> policyIds) {
+        for (String policyId : policyIds)
+            invalidatePolicy(policyId);
+    }
+
+    /**
+     * Evicts all cached decisions.
+     */
+    public void invalidateAll() {
+        epoch.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    LinkedList<String> matchedPolicies(ResponseCtx responseCtx) {
+        Set<String> matchedPolicies = new LinkedHashSet<>();
+        for (AbstractResult result : responseCtx.getResults()) {
+            if (result.getPolicyIds() != null)
+                matchedPolicies.addAll(result.getPolicyIds());
+        }
+        return new LinkedList<>(matchedPolicies);
+    }
+
+    /**
+     * Registers the key with all policies the decision depends on. Called after the
+     * decision is visible in the cache, so a concurrent removal of an older entry for the
+     * same key can't drop the registration.
+     * If a policy was invalidated since the evaluation started, the registration may have come
+     * too late for the invalidation, so the decision is removed from the cache instead.
+     *
+     * @return false if the decision was dropped
+     */
+    boolean index(RequestKey key, PDPDecision decision) {
+        for (String policyId : decision.matchedPolicies)
+            policyIndex.computeIfAbsent(policyId, id -> ConcurrentHashMap.newKeySet()).add(key);
+
+        if (epoch.get() != decision.epoch) {
+            cache.asMap().remove(key, decision);
+            unindex(key, decision);
+            return false;
+        }
+        decision.indexed = true;
+
+        // the entry may have been evicted before it was registered
+        if (cache.getIfPresent(key) != decision)
+            unindex(key, decision);
+        return true;
+    }
+
+    void unindex(RequestKey key, PDPDecision decision) {
+        if (key == null || decision == null)
+            return;
+
+        for (String policyId : decision.matchedPolicies) {
+            policyIndex.computeIfPresent(policyId, (id, keys) -> {
+                PDPDecision current = cache.getIfPresent(key);
+                if (current == null || !current.dependsOn(id))
+                    keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+    }
+
     class PDPDecision {
         List<String> matchedPolicies;
         String response;
+        byte[] encoded;
+        AbstractResult result;
+        long expiresAt = Long.MAX_VALUE;
+        long epoch;
+        volatile boolean indexed;
 
         public PDPDecision(List<String> matchedPolicies, ResponseCtx decision) {
             this.matchedPolicies = matchedPolicies;
@@ -70,14 +602,41 @@ public class ExtendedPDP {
             this.response = responseCtx;
         }
 
-        public String getDecision() { return this.response; }
+        public PDPDecision(LinkedList<String> matchedPolicies, byte[] encoded) {
+            this.matchedPolicies = matchedPolicies;
+            this.encoded = encoded;
+        }
+
+        public String getDecision() {
+            return response != null ? response : new String(encoded, StandardCharsets.UTF_8);
+        }
+
+        public byte[] getEncoded() {
+            return encoded != null ? encoded : response.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public void writeTo(OutputStream output) throws IOException {
+            output.write(getEncoded());
+        }
+
+        public boolean isCacheable() {
+            return expiresAt != Long.MIN_VALUE;
+        }
+
+        public boolean isExpired() {
+            return expiresAt != Long.MAX_VALUE && System.currentTimeMillis() >= expiresAt;
+        }
 
         public boolean dependsOn(String policyId) {
             return matchedPolicies.contains(policyId);
         }
 
-        public boolean dependsOnAny(List<String> policyIds) {
-            return matchedPolicies.contains(policyIds);
+        public boolean dependsOnAny(Collection<String> policyIds) {
+            for (String policyId : policyIds) {
+                if (matchedPolicies.contains(policyId))
+                    return true;
+            }
+            return false;
         }
 
         public boolean policiesMatch(List<String> ids) {
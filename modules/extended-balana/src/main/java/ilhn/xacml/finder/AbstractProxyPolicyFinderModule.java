@@ -0,0 +1,170 @@
+package ilhn.xacml.finder;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import ilhn.xacml.util.ProxyPolicy;
+import ilhn.xacml.util.XACML3StreamParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.balana.*;
+import org.wso2.balana.combine.PolicyCombiningAlgorithm;
+import org.wso2.balana.combine.xacml2.DenyOverridesPolicyAlg;
+import org.wso2.balana.ctx.Status;
+import org.wso2.balana.finder.PolicyFinder;
+import org.wso2.balana.finder.PolicyFinderModule;
+import org.wso2.balana.finder.PolicyFinderResult;
+
+import java.io.File;
+import java.net.URI;
+import java.util.*;
+
+/**
+ * Base of the PolicyFinderModules selecting policies of a directory by their proxy policies (policy
+ * header and target only). Each file holds one policy named after its id. Subclasses index the
+ * proxy policies for selection, full policies are loaded on demand and cached up to the given size.
+ * Selected policies are combined by deny-overrides. A selected or referenced policy failing to load
+ * makes the finder result indeterminate, leaving it out could turn a deny into a permit.
+ */
+public abstract class AbstractProxyPolicyFinderModule extends PolicyFinderModule {
+    private static Logger log = LoggerFactory.getLogger(AbstractProxyPolicyFinderModule.class);
+
+    String policyDir;
+    PolicyFinder finder = null;
+    PolicyCombiningAlgorithm combiningAlg;
+
+    Map<String, ProxyPolicy> policyMap;
+    LoadingCache<String, AbstractPolicy> policyCache;
+
+    protected AbstractProxyPolicyFinderModule(String policyLocation, int policyCacheSize) {
+        policyMap = new HashMap<>();
+        policyDir = (policyLocation.endsWith(File.separator)) ? policyLocation : policyLocation + File.separator;
+        policyCache = Caffeine.newBuilder().maximumSize(policyCacheSize).build(s -> loadPolicy(s, finder));
+    }
+
+    @Override
+    public void init(PolicyFinder finder) {
+        this.finder = finder;
+        populatePolicies();
+        combiningAlg = new DenyOverridesPolicyAlg();
+    }
+
+    /**
+     * Adds a proxy policy to the index the policies are selected by.
+     *
+     * @param proxyPolicy proxy policy read from the policy directory
+     */
+    abstract void index(ProxyPolicy proxyPolicy);
+
+    /**
+     * Logs the statistics of the index once all policies are added
+     */
+    abstract void indexed();
+
+    @Override
+    public PolicyFinderResult findPolicy(URI idReference, int type, VersionConstraints constraints,
+                                         PolicyMetaData parentMetaData) {
+
+        ProxyPolicy proxyPolicy = policyMap.get(idReference.toString());
+        AbstractPolicy policy = (proxyPolicy != null && type == proxyPolicy.getType())
+                ? policyCache.get(proxyPolicy.getId()) : null;
+        if (policy != null)
+            return new PolicyFinderResult(policy);
+
+        // if there was an error loading the policy, return the error
+        return loadError("couldn't load referenced policy");
+    }
+
+    /**
+     * Creates the finder result of the given policies.
+     *
+     * @param selectedIds ids of the selected policies
+     * @return the policy, a deny-overrides policy set of the policies, or an error if one of them fails to load
+     */
+    PolicyFinderResult policyFinderResult(List<String> selectedIds) {
+        List<AbstractPolicy> selectedPolicies = new ArrayList<>(selectedIds.size());
+        for (String policyId : selectedIds) {
+            AbstractPolicy policy = policyCache.get(policyId);
+            if (policy == null)
+                return loadError("couldn't load policy " + policyId);
+            selectedPolicies.add(policy);
+        }
+
+        switch (selectedPolicies.size()) {
+            case 0:
+                return new PolicyFinderResult();
+            case 1:
+                return new PolicyFinderResult(selectedPolicies.get(0), selectedIds);
+            default:
+                return new PolicyFinderResult(new PolicySet(null, combiningAlg, null, selectedPolicies), selectedIds);
+        }
+    }
+
+    static PolicyFinderResult loadError(String message) {
+        ArrayList<String> code = new ArrayList<>();
+        code.add(Status.STATUS_PROCESSING_ERROR);
+        return new PolicyFinderResult(new Status(code, message));
+    }
+
+    /**
+     * Returns all policies by the ids this module reports for them in finder results, e.g. to
+     * register them with a <code>CacheabilityAnalyzer</code>. Policies failing to load are left out.
+     *
+     * @return policies by id
+     */
+    public Map<String, AbstractPolicy> getPolicies() {
+        Map<String, AbstractPolicy> policies = new HashMap<>();
+        for (String policyId : policyMap.keySet()) {
+            AbstractPolicy policy = policyCache.get(policyId);
+            if (policy != null)
+                policies.put(policyId, policy);
+        }
+        return policies;
+    }
+
+    @Override
+    public boolean isIdReferenceSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean isRequestSupported() {
+        return true;
+    }
+
+    void populatePolicies() {
+        File basedir = new File(policyDir);
+        if (!basedir.isDirectory())
+            throw new RuntimeException("Invalid path given, not a directory. " + policyDir);
+
+        try {
+            for (File f : basedir.listFiles()) {
+                ProxyPolicy proxyPolicy = XACML3StreamParser.readProxyPolicy(f);
+                policyMap.put(proxyPolicy.getId(), proxyPolicy);
+                index(proxyPolicy);
+                policyCache.get(proxyPolicy.getId());
+            }
+            indexed();
+        } catch (Exception e) {
+            log.error("Fatal error, failed to populate policies", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Private helper that tries to load the given file-based policy, and
+     * returns null if any error occurs.
+     *
+     * @param policyId id and filename of the policy
+     * @param finder policy finder
+     * @return  <code>AbstractPolicy</code>
+     */
+    AbstractPolicy loadPolicy(String policyId, PolicyFinder finder) {
+        AbstractPolicy policy = null;
+        try {
+            policy = XACML3StreamParser.readPolicyOrPolicySet(new File(policyDir + policyId), finder);
+        } catch (Exception e) {
+            log.error("Failed to load/parse policy {}", policyId, e);
+        }
+        return policy;
+    }
+}
@@ -0,0 +1,65 @@
+package ilhn.xacml.finder;
+
+import ilhn.xacml.util.ApplicabilityIndex;
+import ilhn.xacml.util.ProxyPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.balana.MatchResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.finder.PolicyFinderResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PolicyFinderModule for policy sets whose applicability is decided by the policy targets only.
+ * The targets of all proxy policies are compiled into an <code>ApplicabilityIndex</code>, which
+ * evaluates them for a request at once through bitsets and counters instead of matching every
+ * candidate policy. Only policies whose target may be indeterminate for the request are matched
+ * against it. Full policies are cached up to the given size, finder results aren't cached.
+ * Selects the same policies as <code>ProxyFilebasedPolicyFinderModule</code>.
+ */
+public class BitsetPolicyFinderModule extends AbstractProxyPolicyFinderModule {
+    private static Logger log = LoggerFactory.getLogger(BitsetPolicyFinderModule.class);
+
+    ApplicabilityIndex<ProxyPolicy> applicabilityIndex;
+
+    public BitsetPolicyFinderModule(String policyLocation, int policyCacheSize) {
+        super(policyLocation, policyCacheSize);
+        applicabilityIndex = new ApplicabilityIndex<>();
+
+        log.info("initialized BitsetPolicyFinder, policyCache: {}, path: {}", policyCacheSize, policyDir);
+    }
+
+    @Override
+    public PolicyFinderResult findPolicy(EvaluationCtx context) {
+        ApplicabilityIndex.Selection selection = applicabilityIndex.select(context);
+
+        List<String> selectedIds = new ArrayList<>();
+        for (int i = selection.next(0); i >= 0; i = selection.next(i + 1)) {
+            ProxyPolicy proxyPolicy = applicabilityIndex.get(i);
+
+            if (selection.isUncertain(i)) {
+                MatchResult match = proxyPolicy.match(context);
+                if (match.getResult() == MatchResult.INDETERMINATE)
+                    return new PolicyFinderResult(match.getStatus());
+                if (match.getResult() == MatchResult.NO_MATCH)
+                    continue;
+            }
+
+            selectedIds.add(proxyPolicy.getId());
+        }
+        return policyFinderResult(selectedIds);
+    }
+
+    @Override
+    void index(ProxyPolicy proxyPolicy) {
+        applicabilityIndex.add(proxyPolicy, proxyPolicy.getTarget());
+    }
+
+    @Override
+    void indexed() {
+        log.info("compiled {} policies, {} predicates, {} evaluated per request",
+                applicabilityIndex.size(), applicabilityIndex.predicateCount(), applicabilityIndex.genericPredicateCount());
+    }
+}
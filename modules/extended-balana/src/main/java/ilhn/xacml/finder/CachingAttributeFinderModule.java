@@ -0,0 +1,254 @@
+package ilhn.xacml.finder;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import ilhn.xacml.util.RequestKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Node;
+import org.wso2.balana.attr.BagAttribute;
+import org.wso2.balana.cond.EvaluationResult;
+import org.wso2.balana.ctx.AbstractRequestCtx;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.ctx.xacml3.RequestCtx;
+import org.wso2.balana.finder.AttributeFinderModule;
+import org.wso2.balana.finder.AttributeRequest;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AttributeFinderModule caching the designator results of another module across requests.
+ * Results are keyed by category, attribute id, type and issuer of the designator, together with
+ * the identifying attributes of the request the module looks up its values by (e.g. the subject id).
+ * Values expire after the time to live of their attribute id, empty bags are cached for the
+ * negative time to live only. Indeterminate results and selectors are never cached.
+ */
+public class CachingAttributeFinderModule extends AttributeFinderModule {
+    private static Logger log = LoggerFactory.getLogger(CachingAttributeFinderModule.class);
+
+    AttributeFinderModule module;
+    Map<URI, Set<URI>> identifyingAttributes;
+    Cache<List<Object>, CachedAttribute> cache;
+    Map<URI, Long> ttls;
+    long ttl;
+    long negativeTtl;
+
+    LongAdder hits = new LongAdder();
+    LongAdder negativeHits = new LongAdder();
+    LongAdder misses = new LongAdder();
+    LongAdder expirations = new LongAdder();
+
+    /**
+     * @param module module the values are looked up with
+     * @param identifyingAttributes request attribute ids the values of the module depend on, by category
+     * @param ttl time to live of found values in milliseconds
+     * @param negativeTtl time to live of empty bags in milliseconds, 0 to not cache them
+     * @param cacheSize maximum number of cached results
+     */
+    public CachingAttributeFinderModule(AttributeFinderModule module, Map<URI, Set<URI>> identifyingAttributes,
+                                        long ttl, long negativeTtl, int cacheSize) {
+        this.module = module;
+        this.identifyingAttributes = identifyingAttributes;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        ttls = new ConcurrentHashMap<>();
+        cache = Caffeine.newBuilder().maximumSize(cacheSize).build();
+
+        log.info("initialized CachingAttributeFinder for {}, ttl: {}ms, negative ttl: {}ms, size: {}",
+                module.getClass().getSimpleName(), ttl, negativeTtl, cacheSize);
+    }
+
+    /**
+     * Overrides the time to live of the values of one attribute.
+     *
+     * @param attributeId attribute id
+     * @param ttl time to live in milliseconds, 0 to not cache the attribute
+     */
+    public void setTtl(URI attributeId, long ttl) {
+        ttls.put(attributeId, ttl);
+    }
+
+    @Override
+    public EvaluationResult findAttribute(URI attributeType, URI attributeId, String issuer,
+                                          URI category, EvaluationCtx context) {
+        List<Object> key = key(attributeType, attributeId, issuer, category, context);
+        if (key == null)
+            return module.findAttribute(attributeType, attributeId, issuer, category, context);
+
+        long now = System.nanoTime();
+        EvaluationResult cached = cached(key, now);
+        if (cached != null)
+            return cached;
+
+        EvaluationResult result = module.findAttribute(attributeType, attributeId, issuer, category, context);
+        store(key, attributeId, result, now);
+        return result;
+    }
+
+    /**
+     * Looks up the cached attributes, only the attributes missing from the cache are resolved by the module,
+     * with a single call if it supports batches.
+     */
+    @Override
+    public Map<AttributeRequest, EvaluationResult> findAttributes(Collection<AttributeRequest> requests,
+                                                                  EvaluationCtx context) {
+        long now = System.nanoTime();
+        Map<AttributeRequest, EvaluationResult> results = new HashMap<>();
+        Map<AttributeRequest, List<Object>> missing = new HashMap<>();
+        for (AttributeRequest request : requests) {
+            List<Object> key = key(request.getType(), request.getId(), request.getIssuer(), request.getCategory(),
+                    context);
+            EvaluationResult cached = (key == null) ? null : cached(key, now);
+            if (cached != null)
+                results.put(request, cached);
+            else
+                missing.put(request, key);
+        }
+        if (missing.isEmpty())
+            return results;
+
+        Map<AttributeRequest, EvaluationResult> found = module.findAttributes(missing.keySet(), context);
+        for (Map.Entry<AttributeRequest, List<Object>> entry : missing.entrySet()) {
+            EvaluationResult result = found.get(entry.getKey());
+            if (entry.getValue() != null)
+                store(entry.getValue(), entry.getKey().getId(), result, now);
+            results.put(entry.getKey(), result);
+        }
+        return results;
+    }
+
+    /**
+     * Returns the cached result if it didn't expire, or null after counting the miss
+     */
+    EvaluationResult cached(List<Object> key, long now) {
+        CachedAttribute cached = cache.getIfPresent(key);
+        if (cached != null) {
+            if (now - cached.expiresAt < 0) {
+                (cached.isEmpty() ? negativeHits : hits).increment();
+                return cached.result;
+            }
+            expirations.increment();
+            cache.asMap().remove(key, cached);
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches the result for the time to live of its attribute id, unless it is indeterminate
+     */
+    void store(List<Object> key, URI attributeId, EvaluationResult result, long now) {
+        if (result == null || result.indeterminate() || !result.getAttributeValue().isBag())
+            return;
+
+        boolean empty = ((BagAttribute) result.getAttributeValue()).isEmpty();
+        long timeToLive = empty ? negativeTtl : ttls.getOrDefault(attributeId, ttl);
+        if (timeToLive > 0)
+            cache.put(key, new CachedAttribute(result, empty, now + TimeUnit.MILLISECONDS.toNanos(timeToLive)));
+    }
+
+    /**
+     * Returns the cache key, or null if the request isn't a XACML 3.0 request
+     */
+    List<Object> key(URI attributeType, URI attributeId, String issuer, URI category, EvaluationCtx context) {
+        AbstractRequestCtx requestCtx = context.getRequestCtx();
+        if (!(requestCtx instanceof RequestCtx))
+            return null;
+
+        RequestKey request = RequestKey.of((RequestCtx) requestCtx, identifyingAttributes);
+        return Arrays.<Object>asList(category, attributeId, attributeType, issuer, request);
+    }
+
+    @Override
+    public EvaluationResult findAttribute(String contextPath, URI attributeType, String contextSelector,
+                                          Node root, EvaluationCtx context, String xpathVersion) {
+        return module.findAttribute(contextPath, attributeType, contextSelector, root, context, xpathVersion);
+    }
+
+    @Override
+    public String getIdentifier() {
+        return module.getIdentifier();
+    }
+
+    @Override
+    public boolean isDesignatorSupported() {
+        return module.isDesignatorSupported();
+    }
+
+    @Override
+    public boolean isBatchSupported() {
+        return module.isBatchSupported();
+    }
+
+    @Override
+    public boolean isSelectorSupported() {
+        return module.isSelectorSupported();
+    }
+
+    @Override
+    public Set<String> getSupportedCategories() {
+        return module.getSupportedCategories();
+    }
+
+    @Override
+    public Set<?> getSupportedIds() {
+        return module.getSupportedIds();
+    }
+
+    @Override
+    public void invalidateCache() {
+        cache.invalidateAll();
+        module.invalidateCache();
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long negativeHitCount() {
+        return negativeHits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long expirationCount() {
+        return expirations.sum();
+    }
+
+    public long estimatedSize() {
+        return cache.estimatedSize();
+    }
+
+    @Override
+    public String toString() {
+        return "CachingAttributeFinderModule{hits=" + hitCount() + ", negativeHits=" + negativeHitCount()
+                + ", misses=" + missCount() + ", expirations=" + expirationCount() + ", size=" + estimatedSize() + "}";
+    }
+
+    static class CachedAttribute {
+        final EvaluationResult result;
+        final boolean empty;
+        final long expiresAt;
+
+        CachedAttribute(EvaluationResult result, boolean empty, long expiresAt) {
+            this.result = result;
+            this.empty = empty;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isEmpty() {
+            return empty;
+        }
+    }
+}
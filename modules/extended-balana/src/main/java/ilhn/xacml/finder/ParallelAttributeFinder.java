@@ -0,0 +1,129 @@
+package ilhn.xacml.finder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.balana.cond.EvaluationResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.ctx.Status;
+import org.wso2.balana.finder.AttributeFinder;
+import org.wso2.balana.finder.AttributeFinderModule;
+import org.wso2.balana.finder.AttributeRequest;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * AttributeFinder resolving attributes concurrently. Modules supporting batches are asked once for
+ * all attributes, other modules once per attribute. All lookups of a module are run on the given
+ * executor, each module has a timeout and attributes not resolved in time are Indeterminate.
+ * Optionally a single lookup, i.e. one batch or one attribute, is run on the calling thread, see
+ * {@link #setInlineSingleLookups(boolean)}.
+ */
+public class ParallelAttributeFinder extends AttributeFinder {
+    private static Logger log = LoggerFactory.getLogger(ParallelAttributeFinder.class);
+
+    Executor executor;
+    long timeout;
+    Map<AttributeFinderModule, Long> timeouts;
+    volatile boolean inlineSingleLookups;
+
+    /**
+     * @param executor executor the modules are invoked on
+     * @param timeout default timeout of a module in milliseconds
+     */
+    public ParallelAttributeFinder(Executor executor, long timeout) {
+        this.executor = executor;
+        this.timeout = timeout;
+        timeouts = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Overrides the timeout of one module.
+     *
+     * @param module attribute finder module
+     * @param timeout timeout in milliseconds
+     */
+    public void setTimeout(AttributeFinderModule module, long timeout) {
+        timeouts.put(module, timeout);
+    }
+
+    /**
+     * Runs a single lookup on the calling thread instead of the executor. This saves a thread hop
+     * and can't exhaust a bounded executor the caller runs on itself, but the lookup has no timeout,
+     * a hanging module blocks the evaluation.
+     *
+     * @param inlineSingleLookups true to run single lookups on the calling thread
+     */
+    public void setInlineSingleLookups(boolean inlineSingleLookups) {
+        this.inlineSingleLookups = inlineSingleLookups;
+    }
+
+    @Override
+    public EvaluationResult findAttribute(URI attributeType, URI attributeId, String issuer,
+                                          URI category, EvaluationCtx context) {
+        AttributeRequest request = new AttributeRequest(attributeType, attributeId, issuer, category);
+        return findAttributes(Collections.singletonList(request), context).get(request);
+    }
+
+    @Override
+    protected Map<AttributeRequest, EvaluationResult> findAttributes(AttributeFinderModule module,
+            Collection<AttributeRequest> requests, EvaluationCtx context) {
+        Map<AttributeRequest, Future<Map<AttributeRequest, EvaluationResult>>> futures = new LinkedHashMap<>();
+        List<FutureTask<Map<AttributeRequest, EvaluationResult>>> tasks = new ArrayList<>();
+        if (module.isBatchSupported() || requests.size() == 1) {
+            Collection<AttributeRequest> batch = new ArrayList<>(requests);
+            FutureTask<Map<AttributeRequest, EvaluationResult>> task =
+                    new FutureTask<>(() -> module.findAttributes(batch, context));
+            tasks.add(task);
+            for (AttributeRequest request : requests)
+                futures.put(request, task);
+        } else {
+            for (AttributeRequest request : requests) {
+                FutureTask<Map<AttributeRequest, EvaluationResult>> task = new FutureTask<>(() ->
+                        Collections.singletonMap(request, module.findAttribute(request.getType(), request.getId(),
+                                request.getIssuer(), request.getCategory(), context)));
+                tasks.add(task);
+                futures.put(request, task);
+            }
+        }
+
+        if (tasks.size() == 1 && inlineSingleLookups) {
+            tasks.get(0).run();
+        } else {
+            for (FutureTask<Map<AttributeRequest, EvaluationResult>> task : tasks)
+                executor.execute(task);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeouts.getOrDefault(module, timeout));
+        Map<AttributeRequest, EvaluationResult> results = new HashMap<>();
+        for (Map.Entry<AttributeRequest, Future<Map<AttributeRequest, EvaluationResult>>> entry : futures.entrySet()) {
+            AttributeRequest request = entry.getKey();
+            Future<Map<AttributeRequest, EvaluationResult>> future = entry.getValue();
+            try {
+                EvaluationResult result = future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS).get(request);
+                if (result != null)
+                    results.put(request, result);
+            } catch (TimeoutException | CancellationException e) {
+                // batches are shared by their requests, they may be cancelled already
+                future.cancel(true);
+                log.warn("{} timed out resolving {}", module.getClass().getSimpleName(), request);
+                results.put(request, error(request, "Timed out resolving attribute"));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                results.put(request, error(request, "Interrupted resolving attribute"));
+            } catch (ExecutionException e) {
+                log.error("{} failed resolving {}", module.getClass().getSimpleName(), request, e.getCause());
+                results.put(request, error(request, "Failed resolving attribute: " + e.getCause()));
+            }
+        }
+        return results;
+    }
+
+    static EvaluationResult error(AttributeRequest request, String message) {
+        List<String> code = new ArrayList<>();
+        code.add(Status.STATUS_PROCESSING_ERROR);
+        return new EvaluationResult(new Status(code, message + " " + request.getId()));
+    }
+}
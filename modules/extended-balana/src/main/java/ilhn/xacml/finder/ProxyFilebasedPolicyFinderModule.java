@@ -2,76 +2,122 @@ package ilhn.xacml.finder;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.LoadingCache;
+import ilhn.xacml.util.PolicyAttributes;
 import ilhn.xacml.util.ProxyPolicy;
-import ilhn.xacml.util.XACML3StreamParser;
+import ilhn.xacml.util.RequestKey;
+import ilhn.xacml.util.TargetIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wso2.balana.*;
-import org.wso2.balana.combine.PolicyCombiningAlgorithm;
-import org.wso2.balana.combine.xacml2.DenyOverridesPolicyAlg;
+import org.wso2.balana.attr.xacml3.AttributeDesignator;
+import org.wso2.balana.ctx.BasicEvaluationCtx;
 import org.wso2.balana.ctx.EvaluationCtx;
 import org.wso2.balana.ctx.Status;
-import org.wso2.balana.finder.PolicyFinder;
-import org.wso2.balana.finder.PolicyFinderModule;
+import org.wso2.balana.ctx.xacml3.RequestCtx;
+import org.wso2.balana.ctx.xacml3.XACML3EvaluationCtx;
+import org.wso2.balana.finder.AttributeFinder;
+import org.wso2.balana.finder.AttributeFinderModule;
+import org.wso2.balana.finder.AttributeRequest;
 import org.wso2.balana.finder.PolicyFinderResult;
+import org.wso2.balana.xacml3.AllOfSelection;
+import org.wso2.balana.xacml3.AnyOfSelection;
+import org.wso2.balana.xacml3.Target;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * PolicyFinderModule using proxy policies (excludes rules, etc. Only policy header and target)
- * and caching.
+ * and caching. Candidate policies are selected through an inverted index over the equality matches
+ * of the policy targets, only the candidates are matched against the request.
+ * Optionally the attributes referenced by the applicable policies are resolved at once through the
+ * attribute finder, before the policies are evaluated.
  */
-public class ProxyFilebasedPolicyFinderModule extends PolicyFinderModule {
+public class ProxyFilebasedPolicyFinderModule extends AbstractProxyPolicyFinderModule {
     private static Logger log = LoggerFactory.getLogger(ProxyFilebasedPolicyFinderModule.class);
 
-    String policyDir;
-    PolicyFinder finder = null;
-    PolicyCombiningAlgorithm combiningAlg;
-
-    Map<String, ProxyPolicy> policyMap;
-    Cache<String, CachedFinderResult> resultCache;
-    LoadingCache<String, AbstractPolicy> policyCache;
+    TargetIndex<ProxyPolicy> targetIndex;
+    Map<URI, Set<URI>> targetAttributes;
+    Map<URI, Set<URI>> resolverAttributes;
+    volatile KeyProjection keyProjection;
+    Cache<RequestKey, CachedFinderResult> resultCache;
+    Map<String, Set<AttributeRequest>> policyAttributes;
+    boolean prefetchAttributes;
 
     public ProxyFilebasedPolicyFinderModule(String policyLocation, int resultCacheSize, int policyCacheSize) {
-        policyMap = new HashMap<>();
-        policyDir = (policyLocation.endsWith(File.separator)) ? policyLocation : policyLocation + File.separator;
+        super(policyLocation, policyCacheSize);
+        targetIndex = new TargetIndex<>();
+        targetAttributes = new HashMap<>();
 
         resultCache = Caffeine.newBuilder().maximumSize(resultCacheSize).build();
-        policyCache = Caffeine.newBuilder().maximumSize(policyCacheSize).build(s -> loadPolicy(s, finder));
+        policyAttributes = new ConcurrentHashMap<>();
 
         log.info("initialized ProxyPolicyFinder, resultCache: {}, policyCache: {}, path: {}", resultCacheSize, policyCacheSize, policyDir);
     }
 
-    @Override
-    public void init(PolicyFinder finder) {
-        this.finder = finder;
-        populatePolicies();
-        combiningAlg = new DenyOverridesPolicyAlg();
+    /**
+     * Enables resolving the attributes referenced by the applicable policies through
+     * <code>XACML3EvaluationCtx.prefetchAttributes</code> before evaluation. This pays off with
+     * attribute finders resolving attributes concurrently, but may resolve attributes the
+     * evaluation doesn't reach.
+     *
+     * @param prefetchAttributes true to prefetch attributes
+     */
+    public void setPrefetchAttributes(boolean prefetchAttributes) {
+        this.prefetchAttributes = prefetchAttributes;
+    }
+
+    /**
+     * Sets the request attributes which the attributes resolved by attribute finder modules are
+     * derived from, e.g. the subject id a PIP looks up the roles of the subject by. Targets
+     * referencing attributes an attribute finder module may resolve make the finder cache key
+     * cover the whole request, given these attributes the key covers the target attributes and
+     * these attributes instead.
+     *
+     * @param resolverAttributes attribute ids by category
+     */
+    public void setResolverAttributes(Map<URI, Set<URI>> resolverAttributes) {
+        this.resolverAttributes = resolverAttributes;
+        keyProjection = null;
     }
 
     @Override
     public PolicyFinderResult findPolicy(EvaluationCtx context) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        context.getRequestCtx().encode(out);
-        String request = new String(out.toByteArray());
+        PolicyFinderResult finderResult = findApplicablePolicies(context);
+        if (prefetchAttributes && finderResult.getPolicyIds() != null && context instanceof XACML3EvaluationCtx)
+            prefetch((XACML3EvaluationCtx) context, finderResult.getPolicyIds());
+        return finderResult;
+    }
 
-        CachedFinderResult cachedFinderResult = resultCache.getIfPresent(request);
+    /**
+     * Resolves the attributes referenced by the given policies
+     */
+    void prefetch(XACML3EvaluationCtx context, List<String> policyIds) {
+        Set<AttributeRequest> requests = new HashSet<>();
+        for (String policyId : policyIds)
+            requests.addAll(policyAttributes.computeIfAbsent(policyId, this::policyAttributes));
+
+        if (!requests.isEmpty())
+            context.prefetchAttributes(requests);
+    }
+
+    Set<AttributeRequest> policyAttributes(String policyId) {
+        AbstractPolicy policy = policyCache.get(policyId);
+        return (policy != null) ? PolicyAttributes.designators(policy) : Collections.emptySet();
+    }
+
+    PolicyFinderResult findApplicablePolicies(EvaluationCtx context) {
+        RequestKey request = resultKey(context);
+
+        CachedFinderResult cachedFinderResult = (request != null) ? resultCache.getIfPresent(request) : null;
         if (cachedFinderResult != null) {
             log.debug("Returning from finder cache");
             return createPolicyFinderResult(cachedFinderResult);
         }
 
-        List<AbstractPolicy> selectedPolicies = new ArrayList<>();
-
-        for (Map.Entry<String, ProxyPolicy> entry: policyMap.entrySet()) {
-            ProxyPolicy proxyPolicy = entry.getValue();
+        List<String> selectedIds = new ArrayList<>();
+        for (ProxyPolicy proxyPolicy : targetIndex.candidates(context)) {
             MatchResult match = proxyPolicy.match(context);
             int result = match.getResult();
 
@@ -80,110 +126,147 @@ public class ProxyFilebasedPolicyFinderModule extends PolicyFinderModule {
 
             if (result == MatchResult.INDETERMINATE) {
                 PolicyFinderResult finderResult = new PolicyFinderResult(match.getStatus());
-                resultCache.put(request, new CachedFinderResult(finderResult));
+                if (request != null)
+                    resultCache.put(request, new CachedFinderResult(finderResult));
                 return finderResult;
             }
 
             if (result == MatchResult.MATCH)
-                selectedPolicies.add(policyCache.get(proxyPolicy.getId()));
+                selectedIds.add(proxyPolicy.getId());
+        }
+
+        // the selection is cached rather than the result, policies failing to load are retried
+        if (request != null)
+            resultCache.put(request, new CachedFinderResult(selectedIds));
+        return policyFinderResult(selectedIds);
+    }
+
+    /**
+     * Builds the finder cache key of the request. The key only covers the attributes referenced by
+     * any proxy policy target, unless a target can't be projected (e.g. uses an attribute selector)
+     * or references attributes an attribute finder module may resolve, then the whole request is
+     * used, see {@link #setResolverAttributes(Map)}. Returns null for requests that can't be cached.
+     */
+    RequestKey resultKey(EvaluationCtx context) {
+        if (!(context.getRequestCtx() instanceof RequestCtx))
+            return null;
+
+        RequestCtx requestCtx = (RequestCtx) context.getRequestCtx();
+        if (requestCtx.getMultiRequests() != null)
+            return null;
+
+        Map<URI, Set<URI>> attributes = keyAttributes(context);
+        return (attributes != null) ? RequestKey.of(requestCtx, attributes) : RequestKey.of(requestCtx);
+    }
+
+    /**
+     * Returns the attributes the finder cache key of requests evaluated with the attribute finder
+     * of the given context covers, or null for the whole request. Computed once per attribute finder.
+     */
+    Map<URI, Set<URI>> keyAttributes(EvaluationCtx context) {
+        if (targetAttributes == null || !(context instanceof BasicEvaluationCtx))
+            return null;
+
+        PDPConfig pdpConfig = ((BasicEvaluationCtx) context).getPdpConfig();
+        AttributeFinder attributeFinder = (pdpConfig != null) ? pdpConfig.getAttributeFinder() : null;
+        KeyProjection projection = keyProjection;
+        if (projection == null || projection.attributeFinder != attributeFinder) {
+            projection = new KeyProjection(attributeFinder, keyAttributes(attributeFinder));
+            keyProjection = projection;
+        }
+        return projection.attributes;
+    }
+
+    Map<URI, Set<URI>> keyAttributes(AttributeFinder attributeFinder) {
+        if (attributeFinder == null)
+            return targetAttributes;
+
+        boolean resolvable = false;
+        for (AttributeFinderModule module : attributeFinder.getModules())
+            resolvable |= module.isDesignatorSupported() && resolves(module, targetAttributes);
+        if (!resolvable)
+            return targetAttributes;
+
+        if (resolverAttributes == null) {
+            log.info("target attributes may be resolved by attribute finder modules, finder cache keyed on whole request");
+            return null;
         }
 
-        PolicyFinderResult finderResult;
-        switch (selectedPolicies.size()) {
-            case 0:
-                finderResult = new PolicyFinderResult();
-                break;
-            case 1:
-                finderResult = new PolicyFinderResult(selectedPolicies.get(0));
-                break;
-            default:
-                finderResult = new PolicyFinderResult(new PolicySet(null, combiningAlg, null, selectedPolicies));
-                break;
+        Map<URI, Set<URI>> attributes = new HashMap<>();
+        for (Map<URI, Set<URI>> source : Arrays.asList(targetAttributes, resolverAttributes)) {
+            for (Map.Entry<URI, Set<URI>> entry : source.entrySet())
+                attributes.computeIfAbsent(entry.getKey(), c -> new HashSet<>()).addAll(entry.getValue());
         }
-        resultCache.put(request, new CachedFinderResult(finderResult));
-        return finderResult;
+        return attributes;
     }
 
-    @Override
-    public PolicyFinderResult findPolicy(URI idReference, int type, VersionConstraints constraints,
-                                         PolicyMetaData parentMetaData) {
-
-        ProxyPolicy proxyPolicy = policyMap.get(idReference.toString());
-        if (proxyPolicy != null && type == proxyPolicy.getType())
-            return new PolicyFinderResult(policyCache.get(proxyPolicy.getId()));
-
-        // if there was an error loading the policy, return the error
-        ArrayList<String> code = new ArrayList<>();
-        code.add(Status.STATUS_PROCESSING_ERROR);
-        Status status = new Status(code,
-                "couldn't load referenced policy");
-        return new PolicyFinderResult(status);
+    /**
+     * @return true if the module may resolve one of the given attributes
+     */
+    static boolean resolves(AttributeFinderModule module, Map<URI, Set<URI>> attributes) {
+        Set<String> categories = module.getSupportedCategories();
+        Set<?> ids = module.getSupportedIds();
+        for (Map.Entry<URI, Set<URI>> entry : attributes.entrySet()) {
+            if (categories != null && !categories.contains(entry.getKey().toString()))
+                continue;
+            if (ids == null)
+                return true;
+            for (URI id : entry.getValue()) {
+                if (ids.contains(id) || ids.contains(id.toString()))
+                    return true;
+            }
+        }
+        return false;
     }
 
     private PolicyFinderResult createPolicyFinderResult(CachedFinderResult cachedFinderResult) {
         if (cachedFinderResult.status != null)
             return new PolicyFinderResult(cachedFinderResult.status);
 
-        if (cachedFinderResult.selectIds != null) {
-            switch (cachedFinderResult.selectIds.size()) {
-                case 0 : return new PolicyFinderResult();
-                case 1 :
-                    AbstractPolicy policy = loadPolicy(cachedFinderResult.selectIds.get(0), finder);
-                    return new PolicyFinderResult(policy);
-                default :
-                    List<AbstractPolicy> policies = new ArrayList<>(cachedFinderResult.selectIds.size());
-                    for (String id : cachedFinderResult.selectIds)
-                        policies.add(policyCache.get(id));
-                    return new PolicyFinderResult(new PolicySet(null, combiningAlg, null, policies), cachedFinderResult.selectIds);
-            }
-        }
+        if (cachedFinderResult.selectIds != null)
+            return policyFinderResult(cachedFinderResult.selectIds);
 
         return new PolicyFinderResult();
     }
 
     @Override
-    public boolean isIdReferenceSupported() {
-        return true;
+    void index(ProxyPolicy proxyPolicy) {
+        targetIndex.add(proxyPolicy, proxyPolicy.getTarget());
+        if (targetAttributes != null && !collectAttributes(proxyPolicy.getTarget(), targetAttributes))
+            targetAttributes = null;
     }
 
     @Override
-    public boolean isRequestSupported() {
-        return true;
-    }
-
-    void populatePolicies() {
-        File basedir = new File(policyDir);
-        if (!basedir.isDirectory())
-            throw new RuntimeException("Invalid path given, not a directory. " + policyDir);
-
-        try {
-            for (File f : basedir.listFiles()) {
-                ProxyPolicy proxyPolicy = XACML3StreamParser.readProxyPolicy(f);
-                policyMap.put(proxyPolicy.getId(), proxyPolicy);
-                policyCache.get(proxyPolicy.getId());
-            }
-        } catch (Exception e) {
-            log.error("Fatal error, failed to populate policies", e);
-            throw new RuntimeException(e);
-        }
+    void indexed() {
+        log.info("indexed {} policies, {} not indexable", targetIndex.size(), targetIndex.residualSize());
+        log.info("finder cache keyed on {}", (targetAttributes != null) ? targetAttributes : "whole request");
     }
 
     /**
-     * Private helper that tries to load the given file-based policy, and
-     * returns null if any error occurs.
+     * Adds the attributes referenced by the target to the given map.
      *
-     * @param policyId id and filename of the policy
-     * @param finder policy finder
-     * @return  <code>AbstractPolicy</code>
+     * @param target target of a proxy policy
+     * @param attributes attribute ids by category
+     * @return false if the target references values not covered by attribute ids
      */
-    AbstractPolicy loadPolicy(String policyId, PolicyFinder finder) {
-        AbstractPolicy policy = null;
-        try {
-            policy = XACML3StreamParser.readPolicyOrPolicySet(new File(policyDir + policyId), finder);
-        } catch (Exception e) {
-            log.error("Failed to load/parse policy!", e);
+    static boolean collectAttributes(AbstractTarget target, Map<URI, Set<URI>> attributes) {
+        if (!(target instanceof Target))
+            return false;
+        if (((Target) target).getAnyOfSelections() == null)
+            return true;
+
+        for (AnyOfSelection anyOf : ((Target) target).getAnyOfSelections()) {
+            for (AllOfSelection allOf : anyOf.getAllOfSelections()) {
+                for (TargetMatch match : allOf.getMatches()) {
+                    if (!(match.getMatchEvaluatable() instanceof AttributeDesignator))
+                        return false;
+
+                    AttributeDesignator designator = (AttributeDesignator) match.getMatchEvaluatable();
+                    attributes.computeIfAbsent(designator.getCategory(), c -> new HashSet<>()).add(designator.getId());
+                }
+            }
         }
-        return policy;
+        return true;
     }
 
     MatchInfo combineMatches(MatchInfo m1, MatchInfo m2) {
@@ -244,6 +327,16 @@ public class ProxyFilebasedPolicyFinderModule extends PolicyFinderModule {
         }
     }
 
+    static class KeyProjection {
+        final AttributeFinder attributeFinder;
+        final Map<URI, Set<URI>> attributes;
+
+        KeyProjection(AttributeFinder attributeFinder, Map<URI, Set<URI>> attributes) {
+            this.attributeFinder = attributeFinder;
+            this.attributes = attributes;
+        }
+    }
+
     class CachedFinderResult {
         Status status;
         List<String> selectIds;
@@ -252,5 +345,9 @@ public class ProxyFilebasedPolicyFinderModule extends PolicyFinderModule {
             status = finderResult.getStatus();
             selectIds = finderResult.getPolicyIds();
         }
+
+        public CachedFinderResult(List<String> selectIds) {
+            this.selectIds = selectIds;
+        }
     }
 }
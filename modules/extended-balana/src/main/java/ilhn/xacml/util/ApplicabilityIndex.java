@@ -0,0 +1,527 @@
+package ilhn.xacml.util;
+
+import org.wso2.balana.AbstractTarget;
+import org.wso2.balana.MatchResult;
+import org.wso2.balana.InstancePool;
+import org.wso2.balana.PredicateTable;
+import org.wso2.balana.TargetMatch;
+import org.wso2.balana.XACMLConstants;
+import org.wso2.balana.attr.AttributeValue;
+import org.wso2.balana.attr.BagAttribute;
+import org.wso2.balana.attr.StringAttribute;
+import org.wso2.balana.attr.xacml3.AttributeDesignator;
+import org.wso2.balana.cond.EqualFunction;
+import org.wso2.balana.cond.EvaluationResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.xacml3.AllOfSelection;
+import org.wso2.balana.xacml3.AnyOfSelection;
+import org.wso2.balana.xacml3.Target;
+
+import java.net.URI;
+import java.util.*;
+
+/**
+ * Compiles XACML 3.0 targets into boolean formulas over predicates and evaluates all of them at
+ * once for a request. A target is the conjunction of its <code>AnyOf</code> elements, each a
+ * disjunction of <code>AllOf</code> elements, each a conjunction of matches (predicates).
+ * <ul>
+ * <li>Equality matches on attribute designators are looked up by (attribute, value), every request
+ * value yields the predicates it satisfies.</li>
+ * <li>Every satisfied predicate increments the counters of the <code>AllOf</code> elements containing
+ * it, an <code>AllOf</code> is satisfied once all its predicates are. <code>AnyOf</code> elements and
+ * targets are counted likewise.</li>
+ * <li>Other matches (regular expressions, comparisons, selectors) are only evaluated for
+ * <code>AllOf</code> elements whose equality matches are all satisfied, or which have none.</li>
+ * </ul>
+ * Items whose targets may be indeterminate for the request, because one of their predicates is,
+ * are reported as uncertain and have to be matched against the request.
+ *
+ * @param <T> indexed item
+ */
+public class ApplicabilityIndex<T> {
+
+    private static final Set<String> EQUAL_FUNCTIONS = new HashSet<>(Arrays.asList(
+            EqualFunction.NAME_STRING_EQUAL,
+            EqualFunction.NAME_EQUAL_CASE_IGNORE,
+            EqualFunction.NAME_ANYURI_EQUAL,
+            EqualFunction.NAME_INTEGER_EQUAL,
+            EqualFunction.NAME_BOOLEAN_EQUAL));
+
+    private final List<T> items = new ArrayList<>();
+    private final Map<Slot, Slot> slots = new LinkedHashMap<>();
+
+    // predicates: indexed equality matches first get a slot, all get postings of AllOf ids
+    private final List<IntArray> postings = new ArrayList<>();
+    private final List<TargetMatch> genericMatches = new ArrayList<>();
+    private final Map<Integer, Integer> genericIds = new HashMap<>();
+
+    // AllOf elements: number of indexed predicates, generic predicates, enclosing AnyOf
+    private final IntArray allOfIndexed = new IntArray();
+    private final List<int[]> allOfGeneric = new ArrayList<>();
+    private final IntArray allOfAnyOf = new IntArray();
+    private final IntArray unindexedAllOfs = new IntArray();
+
+    // AnyOf elements: enclosing item, items: number of AnyOf elements
+    private final IntArray anyOfItem = new IntArray();
+    private final IntArray itemAnyOfs = new IntArray();
+    private final IntArray emptyItems = new IntArray();
+    private final IntArray unsupportedItems = new IntArray();
+
+    // counters are reused, only the touched ones are reset
+    private final InstancePool<Evaluation> evaluations = new InstancePool<>(Evaluation::new);
+
+    /**
+     * Adds an item with the given target. Items are returned in the order they were added.
+     *
+     * @param item item to index
+     * @param target target of the item
+     */
+    public void add(T item, AbstractTarget target) {
+        int ordinal = items.size();
+        items.add(item);
+
+        if (!(target instanceof Target)) {
+            // XACML 2.0 targets are always matched against the request
+            unsupportedItems.add(ordinal);
+            itemAnyOfs.add(-1);
+            return;
+        }
+
+        List<AnyOfSelection> anyOfs = ((Target) target).getAnyOfSelections();
+        int anyOfCount = (anyOfs == null) ? 0 : anyOfs.size();
+        itemAnyOfs.add(anyOfCount);
+        if (anyOfCount == 0) {
+            emptyItems.add(ordinal);
+            return;
+        }
+
+        for (AnyOfSelection anyOf : anyOfs) {
+            int anyOfId = anyOfItem.size();
+            anyOfItem.add(ordinal);
+
+            for (AllOfSelection allOf : anyOf.getAllOfSelections())
+                addAllOf(anyOfId, allOf);
+        }
+    }
+
+    private void addAllOf(int anyOfId, AllOfSelection allOf) {
+        int allOfId = allOfAnyOf.size();
+        allOfAnyOf.add(anyOfId);
+
+        Set<Integer> indexed = new LinkedHashSet<>();
+        Set<Integer> generic = new LinkedHashSet<>();
+        if (allOf.getMatches() != null) {
+            for (TargetMatch match : allOf.getMatches()) {
+                if (isIndexable(match))
+                    indexed.add(indexedPredicate(match));
+                else
+                    generic.add(genericPredicate(match));
+            }
+        }
+
+        for (int predicate : indexed)
+            postings.get(predicate).add(allOfId);
+        allOfIndexed.add(indexed.size());
+
+        int[] genericArray = new int[generic.size()];
+        int i = 0;
+        for (int predicate : generic)
+            genericArray[i++] = predicate;
+        allOfGeneric.add(genericArray);
+
+        if (indexed.isEmpty())
+            unindexedAllOfs.add(allOfId);
+    }
+
+    private int indexedPredicate(TargetMatch match) {
+        AttributeDesignator designator = (AttributeDesignator) match.getMatchEvaluatable();
+        Slot slot = slot(designator);
+
+        Map<Object, Integer> predicates = ignoreCase(match) ? slot.ignoreCase : slot.exact;
+        Object value = ignoreCase(match) ? match.getMatchValue().encode().toLowerCase() : match.getMatchValue();
+        Integer predicate = predicates.get(value);
+        if (predicate == null) {
+            predicate = newPredicate();
+            predicates.put(value, predicate);
+            slot.all.add(predicate);
+        }
+        return predicate;
+    }
+
+    private int genericPredicate(TargetMatch match) {
+        // matches with the same canonical id are evaluated once
+        int predicateId = match.getPredicateId();
+        Integer generic = (predicateId != PredicateTable.NO_ID) ? genericIds.get(predicateId) : null;
+        if (generic == null) {
+            generic = genericMatches.size();
+            genericMatches.add(match);
+            if (predicateId != PredicateTable.NO_ID)
+                genericIds.put(predicateId, generic);
+        }
+        return generic;
+    }
+
+    private int newPredicate() {
+        postings.add(new IntArray());
+        return postings.size() - 1;
+    }
+
+    /**
+     * Evaluates the targets of all items for the given request.
+     *
+     * @param context evaluation context of the request
+     * @return the applicable and the uncertain items
+     */
+    public Selection select(EvaluationCtx context) {
+        Evaluation evaluation = evaluations.acquire();
+        // items were added since the counters were sized, the new ones take their place in the pool
+        if (!evaluation.fits())
+            evaluation = new Evaluation();
+
+        evaluation.start(context);
+        try {
+            for (int i = 0; i < emptyItems.size(); i++)
+                evaluation.applicable[emptyItems.get(i) >>> 6] |= 1L << emptyItems.get(i);
+            for (int i = 0; i < unsupportedItems.size(); i++)
+                evaluation.uncertain(unsupportedItems.get(i));
+
+            for (Slot slot : slots.values())
+                evaluation.slot(slot);
+            for (int i = 0; i < unindexedAllOfs.size(); i++)
+                evaluation.indexedSatisfied(unindexedAllOfs.get(i));
+
+            return new Selection(evaluation.applicable, evaluation.uncertain);
+        } finally {
+            evaluation.reset();
+            evaluations.release(evaluation);
+        }
+    }
+
+    /**
+     * Returns the item at the given position
+     *
+     * @param ordinal position in the order the items were added
+     * @return item
+     */
+    public T get(int ordinal) {
+        return items.get(ordinal);
+    }
+
+    /**
+     * @return number of indexed items
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * @return number of distinct predicates, indexed and evaluated ones
+     */
+    public int predicateCount() {
+        return postings.size() + genericMatches.size();
+    }
+
+    /**
+     * @return number of distinct predicates which are evaluated instead of looked up
+     */
+    public int genericPredicateCount() {
+        return genericMatches.size();
+    }
+
+    private static boolean isIndexable(TargetMatch match) {
+        if (match.getMatchValue() == null || match.getMatchFunction() == null)
+            return false;
+        if (!EQUAL_FUNCTIONS.contains(match.getMatchFunction().getIdentifier().toString()))
+            return false;
+        if (!(match.getMatchEvaluatable() instanceof AttributeDesignator))
+            return false;
+
+        AttributeDesignator designator = (AttributeDesignator) match.getMatchEvaluatable();
+        // issuer matching is not covered by the index
+        return designator.getIssuer() == null && designator.getCategory() != null;
+    }
+
+    private static boolean ignoreCase(TargetMatch match) {
+        return EqualFunction.NAME_EQUAL_CASE_IGNORE.equals(match.getMatchFunction().getIdentifier().toString());
+    }
+
+    private Slot slot(AttributeDesignator designator) {
+        Slot key = new Slot(designator.getCategory(), designator.getId(), designator.getType(), designator.mustBePresent());
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            slots.put(key, key);
+            slot = key;
+        }
+        return slot;
+    }
+
+    /**
+     * State of the evaluation of all targets for one request. The counters are sized for all
+     * predicates, <code>AllOf</code> elements and items, so they are cleared by the recorded
+     * changes instead of being allocated for every request.
+     */
+    private class Evaluation {
+        final long[] satisfiedPredicates = new long[(postings.size() + 63) >>> 6];
+        final byte[] genericResults = new byte[genericMatches.size()];
+        final int[] allOfCounts = new int[allOfAnyOf.size()];
+        final long[] satisfiedAnyOfs = new long[(anyOfItem.size() + 63) >>> 6];
+        final int[] itemCounts = new int[items.size()];
+        final IntArray touchedPredicates = new IntArray();
+        final IntArray touchedGeneric = new IntArray();
+        final IntArray touchedAllOfs = new IntArray();
+        final IntArray touchedAnyOfs = new IntArray();
+
+        EvaluationCtx context;
+        long[] applicable;
+        long[] uncertain;
+
+        boolean fits() {
+            return allOfCounts.length == allOfAnyOf.size() && itemCounts.length == items.size()
+                    && genericResults.length == genericMatches.size()
+                    && satisfiedPredicates.length == (postings.size() + 63) >>> 6;
+        }
+
+        void start(EvaluationCtx context) {
+            this.context = context;
+            applicable = new long[(items.size() + 63) >>> 6];
+            uncertain = new long[(items.size() + 63) >>> 6];
+        }
+
+        void reset() {
+            for (int i = 0; i < touchedPredicates.size(); i++)
+                satisfiedPredicates[touchedPredicates.get(i) >>> 6] = 0;
+            for (int i = 0; i < touchedGeneric.size(); i++)
+                genericResults[touchedGeneric.get(i)] = 0;
+            for (int i = 0; i < touchedAllOfs.size(); i++)
+                allOfCounts[touchedAllOfs.get(i)] = 0;
+            for (int i = 0; i < touchedAnyOfs.size(); i++) {
+                int anyOf = touchedAnyOfs.get(i);
+                satisfiedAnyOfs[anyOf >>> 6] = 0;
+                itemCounts[anyOfItem.get(anyOf)] = 0;
+            }
+            touchedPredicates.clear();
+            touchedGeneric.clear();
+            touchedAllOfs.clear();
+            touchedAnyOfs.clear();
+
+            context = null;
+        }
+
+        void slot(Slot slot) {
+            EvaluationResult result = context.getAttribute(slot.type, slot.id, null, slot.category);
+            if (result.indeterminate()) {
+                indeterminate(slot.all);
+                return;
+            }
+
+            BagAttribute bag = (BagAttribute) result.getAttributeValue();
+            if (bag.isEmpty()) {
+                // mandatory attributes lead to indeterminate matches
+                if (slot.mustBePresent)
+                    indeterminate(slot.all);
+                return;
+            }
+
+            Iterator<?> it = bag.iterator();
+            while (it.hasNext()) {
+                AttributeValue value = (AttributeValue) it.next();
+                if (value instanceof StringAttribute
+                        && XACMLConstants.ANY.equals(((StringAttribute) value).getValue())) {
+                    // EqualFunction matches any policy value in this case
+                    for (int i = 0; i < slot.all.size(); i++)
+                        satisfied(slot.all.get(i));
+                    return;
+                }
+
+                Integer exact = slot.exact.get(value);
+                if (exact != null)
+                    satisfied(exact);
+                if (!slot.ignoreCase.isEmpty()) {
+                    Integer ignoreCase = slot.ignoreCase.get(value.encode().toLowerCase());
+                    if (ignoreCase != null)
+                        satisfied(ignoreCase);
+                }
+            }
+        }
+
+        void satisfied(int predicate) {
+            long bit = 1L << predicate;
+            if ((satisfiedPredicates[predicate >>> 6] & bit) != 0)
+                return;
+            satisfiedPredicates[predicate >>> 6] |= bit;
+            touchedPredicates.add(predicate);
+
+            IntArray allOfs = postings.get(predicate);
+            for (int i = 0; i < allOfs.size(); i++) {
+                int allOf = allOfs.get(i);
+                if (allOfCounts[allOf] == 0)
+                    touchedAllOfs.add(allOf);
+                if (++allOfCounts[allOf] == allOfIndexed.get(allOf))
+                    indexedSatisfied(allOf);
+            }
+        }
+
+        void indeterminate(IntArray predicates) {
+            for (int i = 0; i < predicates.size(); i++) {
+                IntArray allOfs = postings.get(predicates.get(i));
+                for (int j = 0; j < allOfs.size(); j++)
+                    uncertain(anyOfItem.get(allOfAnyOf.get(allOfs.get(j))));
+            }
+        }
+
+        /**
+         * Evaluates the other matches of an <code>AllOf</code> whose equality matches are satisfied
+         */
+        void indexedSatisfied(int allOf) {
+            boolean indeterminate = false;
+            for (int generic : allOfGeneric.get(allOf)) {
+                int result = generic(generic);
+                if (result == MatchResult.NO_MATCH)
+                    return;
+                indeterminate |= (result == MatchResult.INDETERMINATE);
+            }
+
+            int anyOf = allOfAnyOf.get(allOf);
+            if (indeterminate) {
+                uncertain(anyOfItem.get(anyOf));
+                return;
+            }
+
+            long bit = 1L << anyOf;
+            if ((satisfiedAnyOfs[anyOf >>> 6] & bit) != 0)
+                return;
+            satisfiedAnyOfs[anyOf >>> 6] |= bit;
+            touchedAnyOfs.add(anyOf);
+
+            int item = anyOfItem.get(anyOf);
+            if (++itemCounts[item] == itemAnyOfs.get(item))
+                applicable[item >>> 6] |= 1L << item;
+        }
+
+        int generic(int generic) {
+            if (genericResults[generic] == 0) {
+                genericResults[generic] = (byte) (genericMatches.get(generic).match(context).getResult() + 1);
+                touchedGeneric.add(generic);
+            }
+            return genericResults[generic] - 1;
+        }
+
+        void uncertain(int item) {
+            uncertain[item >>> 6] |= 1L << item;
+        }
+    }
+
+    /**
+     * Result of evaluating all targets for a request, as bitsets over the positions of the items.
+     */
+    public static class Selection {
+        final long[] applicable;
+        final long[] uncertain;
+
+        Selection(long[] applicable, long[] uncertain) {
+            this.applicable = applicable;
+            this.uncertain = uncertain;
+        }
+
+        /**
+         * @param ordinal position of the item
+         * @return true if the target of the item matches
+         */
+        public boolean isApplicable(int ordinal) {
+            return (applicable[ordinal >>> 6] & (1L << ordinal)) != 0;
+        }
+
+        /**
+         * @param ordinal position of the item
+         * @return true if the target of the item may be indeterminate and has to be matched
+         */
+        public boolean isUncertain(int ordinal) {
+            return !isApplicable(ordinal) && (uncertain[ordinal >>> 6] & (1L << ordinal)) != 0;
+        }
+
+        /**
+         * Returns the next applicable or uncertain position
+         *
+         * @param from position to start from
+         * @return the position, or -1 if there is none
+         */
+        public int next(int from) {
+            int word = from >>> 6;
+            if (word >= applicable.length)
+                return -1;
+
+            long bits = (applicable[word] | uncertain[word]) & (-1L << from);
+            while (true) {
+                if (bits != 0)
+                    return (word << 6) + Long.numberOfTrailingZeros(bits);
+                if (++word == applicable.length)
+                    return -1;
+                bits = applicable[word] | uncertain[word];
+            }
+        }
+    }
+
+    /**
+     * Equality predicates on one (category, attribute id, data type) combination.
+     */
+    private static class Slot {
+        final URI category;
+        final URI id;
+        final URI type;
+        final boolean mustBePresent;
+        final int hash;
+
+        final IntArray all = new IntArray();
+        final Map<Object, Integer> exact = new HashMap<>();
+        final Map<Object, Integer> ignoreCase = new HashMap<>();
+
+        Slot(URI category, URI id, URI type, boolean mustBePresent) {
+            this.category = category;
+            this.id = id;
+            this.type = type;
+            this.mustBePresent = mustBePresent;
+            this.hash = Objects.hash(category, id, type, mustBePresent);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Slot)) return false;
+
+            Slot other = (Slot) o;
+            return category.equals(other.category) && id.equals(other.id) && type.equals(other.type)
+                    && mustBePresent == other.mustBePresent;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Growable array of ints
+     */
+    private static class IntArray {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
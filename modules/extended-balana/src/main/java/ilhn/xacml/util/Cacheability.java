@@ -0,0 +1,104 @@
+package ilhn.xacml.util;
+
+/**
+ * How long a decision may be cached. Decisions are either cacheable until invalidated, cacheable
+ * until the next boundary of a time bucket (e.g. the next full minute, for policies comparing the
+ * current time to minute-aligned values), cacheable for a fixed time to live, or not cacheable.
+ */
+public final class Cacheability {
+
+    public static final long SECOND = 1000;
+    public static final long MINUTE = 60 * SECOND;
+    public static final long HOUR = 60 * MINUTE;
+    public static final long DAY = 24 * HOUR;
+
+    public static final Cacheability FOREVER = new Cacheability(true, 0, 0);
+    public static final Cacheability UNCACHEABLE = new Cacheability(false, 0, 0);
+
+    private final boolean cacheable;
+    private final long bucket;
+    private final long ttl;
+
+    private Cacheability(boolean cacheable, long bucket, long ttl) {
+        this.cacheable = cacheable;
+        this.bucket = bucket;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param bucket length of the time bucket in milliseconds, buckets are aligned to the epoch
+     * @return decisions expiring at the end of the current bucket
+     */
+    public static Cacheability bucket(long bucket) {
+        return new Cacheability(true, bucket, 0);
+    }
+
+    /**
+     * @param ttl time to live in milliseconds
+     * @return decisions expiring after the time to live
+     */
+    public static Cacheability ttl(long ttl) {
+        return new Cacheability(true, 0, ttl);
+    }
+
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    public long getBucket() {
+        return bucket;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Returns the cacheability of a decision depending on both this and the given dependencies.
+     *
+     * @param other cacheability of further dependencies
+     * @return <code>Cacheability</code>
+     */
+    public Cacheability combine(Cacheability other) {
+        if (!cacheable || !other.cacheable)
+            return UNCACHEABLE;
+        if (other == FOREVER)
+            return this;
+        if (this == FOREVER)
+            return other;
+
+        return new Cacheability(true, minPositive(bucket, other.bucket), minPositive(ttl, other.ttl));
+    }
+
+    /**
+     * Returns when a decision made at the given time expires.
+     *
+     * @param now time of the decision in milliseconds since the epoch
+     * @return expiry in milliseconds since the epoch, <code>Long.MAX_VALUE</code> if it never
+     *         expires and <code>Long.MIN_VALUE</code> if it must not be cached
+     */
+    public long expiresAt(long now) {
+        if (!cacheable)
+            return Long.MIN_VALUE;
+
+        long expiresAt = Long.MAX_VALUE;
+        if (ttl > 0)
+            expiresAt = now + ttl;
+        if (bucket > 0)
+            expiresAt = Math.min(expiresAt, (Math.floorDiv(now, bucket) + 1) * bucket);
+        return expiresAt;
+    }
+
+    private static long minPositive(long a, long b) {
+        if (a <= 0) return b;
+        if (b <= 0) return a;
+        return Math.min(a, b);
+    }
+
+    @Override
+    public String toString() {
+        if (!cacheable)
+            return "Cacheability{uncacheable}";
+        return "Cacheability{bucket=" + bucket + "ms, ttl=" + ttl + "ms}";
+    }
+}
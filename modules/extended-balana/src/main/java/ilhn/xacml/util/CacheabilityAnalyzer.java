@@ -0,0 +1,253 @@
+package ilhn.xacml.util;
+
+import org.wso2.balana.*;
+import org.wso2.balana.attr.*;
+import org.wso2.balana.attr.xacml3.AttributeDesignator;
+import org.wso2.balana.cond.Evaluatable;
+import org.wso2.balana.cond.Expression;
+import org.wso2.balana.cond.VariableDefinition;
+import org.wso2.balana.cond.VariableReference;
+import org.wso2.balana.finder.AttributeFinder;
+import org.wso2.balana.finder.AttributeFinderModule;
+import org.wso2.balana.finder.AttributeRequest;
+import org.wso2.balana.finder.impl.CurrentEnvModule;
+import org.wso2.balana.xacml3.AllOfSelection;
+import org.wso2.balana.xacml3.AnyOfSelection;
+import org.wso2.balana.xacml3.Target;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Static analysis of how long decisions of a set of policies may be cached.
+ * <ul>
+ * <li>Policies reading <code>current-time</code>, <code>current-date</code> or
+ * <code>current-dateTime</code> are cacheable until the next boundary of the largest time bucket
+ * (day, hour, minute, second) all their date and time literals are aligned to, as the decision can
+ * only change when the current time passes one of these literals. Policies comparing the current
+ * time to anything but literals (other time attributes, durations) or to no literals at all are
+ * not cacheable.</li>
+ * <li>Policies reading attributes resolved by attribute finder modules are cacheable for the
+ * given time to live, or not at all if it is 0.</li>
+ * <li>Selectors only read the request content, which is part of the decision cache key.</li>
+ * </ul>
+ * A decision depends on the policies it was derived from and the targets of all policies, which
+ * decide whether a policy applies.
+ */
+public class CacheabilityAnalyzer {
+
+    static final Set<String> CURRENT_TIME_IDS = new HashSet<>(Arrays.asList(
+            CurrentEnvModule.ENVIRONMENT_CURRENT_TIME,
+            CurrentEnvModule.ENVIRONMENT_CURRENT_DATE,
+            CurrentEnvModule.ENVIRONMENT_CURRENT_DATETIME));
+
+    static final Set<String> TIME_TYPES = new HashSet<>(Arrays.asList(
+            TimeAttribute.identifier, DateAttribute.identifier, DateTimeAttribute.identifier));
+
+    static final long[] BUCKETS = { Cacheability.DAY, Cacheability.HOUR, Cacheability.MINUTE, Cacheability.SECOND };
+
+    final Predicate<AttributeRequest> pipAttributes;
+    final long pipTtl;
+    final Map<String, Cacheability> policies = new ConcurrentHashMap<>();
+    volatile Cacheability targets = Cacheability.FOREVER;
+
+    /**
+     * @param pipAttributes tells which attributes are resolved by attribute finder modules
+     * @param pipTtl time to live of decisions depending on these attributes in milliseconds, 0 to not cache them
+     */
+    public CacheabilityAnalyzer(Predicate<AttributeRequest> pipAttributes, long pipTtl) {
+        this.pipAttributes = pipAttributes;
+        this.pipTtl = pipTtl;
+    }
+
+    /**
+     * Treats all attributes the designator modules of the attribute finder may resolve as PIP
+     * attributes, except for the current time attributes.
+     *
+     * @param attributeFinder attribute finder of the PDP
+     * @param pipTtl time to live of decisions depending on PIP attributes in milliseconds, 0 to not cache them
+     */
+    public CacheabilityAnalyzer(AttributeFinder attributeFinder, long pipTtl) {
+        this(pipAttributes(attributeFinder), pipTtl);
+    }
+
+    static Predicate<AttributeRequest> pipAttributes(AttributeFinder attributeFinder) {
+        List<AttributeFinderModule> modules = new ArrayList<>();
+        for (AttributeFinderModule module : attributeFinder.getModules()) {
+            if (module.isDesignatorSupported() && !(module instanceof CurrentEnvModule))
+                modules.add(module);
+        }
+
+        return request -> {
+            for (AttributeFinderModule module : modules) {
+                Set<String> categories = module.getSupportedCategories();
+                Set<?> ids = module.getSupportedIds();
+                if ((categories == null || categories.contains(request.getCategory().toString()))
+                        && (ids == null || ids.contains(request.getId()) || ids.contains(request.getId().toString())))
+                    return true;
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Registers a policy under the id the policy finder reports for decisions derived from it.
+     *
+     * @param policyId id of the policy in <code>PolicyFinderResult.getPolicyIds</code>
+     * @param policy the policy
+     */
+    public void addPolicy(String policyId, AbstractPolicy policy) {
+        policies.put(policyId, analyze(policy));
+
+        Dependencies target = new Dependencies();
+        collect(policy.getTarget(), target);
+        synchronized (this) {
+            targets = targets.combine(target.cacheability());
+        }
+    }
+
+    /**
+     * @param policies policies by the id the policy finder reports for them
+     */
+    public void addPolicies(Map<String, ? extends AbstractPolicy> policies) {
+        for (Map.Entry<String, ? extends AbstractPolicy> entry : policies.entrySet())
+            addPolicy(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Returns the cacheability of a decision derived from the given policies, decisions derived from
+     * unknown policies are not cacheable.
+     *
+     * @param policyIds ids of the applicable policies
+     * @return <code>Cacheability</code>
+     */
+    public Cacheability of(Collection<String> policyIds) {
+        Cacheability cacheability = targets;
+        for (String policyId : policyIds) {
+            Cacheability policy = policies.get(policyId);
+            if (policy == null)
+                return Cacheability.UNCACHEABLE;
+            cacheability = cacheability.combine(policy);
+        }
+        return cacheability;
+    }
+
+    /**
+     * Analyzes a whole policy tree, referenced policies are not followed.
+     *
+     * @param element policy, policy set or rule
+     * @return <code>Cacheability</code>
+     */
+    public Cacheability analyze(PolicyTreeElement element) {
+        Dependencies dependencies = new Dependencies();
+        collect(element, dependencies);
+        return dependencies.cacheability();
+    }
+
+    void collect(PolicyTreeElement element, Dependencies dependencies) {
+        if (element instanceof PolicyReference)
+            return;
+
+        if (element instanceof AbstractPolicy) {
+            collect(((AbstractPolicy) element).getTarget(), dependencies);
+        } else if (element instanceof Rule) {
+            Rule rule = (Rule) element;
+            collect(rule.getTarget(), dependencies);
+            if (rule.getCondition() != null)
+                collect(rule.getCondition(), dependencies);
+        }
+
+        for (Object child : element.getChildren()) {
+            if (child instanceof PolicyTreeElement)
+                collect((PolicyTreeElement) child, dependencies);
+        }
+    }
+
+    void collect(AbstractTarget target, Dependencies dependencies) {
+        if (!(target instanceof Target) || ((Target) target).getAnyOfSelections() == null)
+            return;
+
+        for (AnyOfSelection anyOf : ((Target) target).getAnyOfSelections()) {
+            for (AllOfSelection allOf : anyOf.getAllOfSelections()) {
+                for (TargetMatch match : allOf.getMatches()) {
+                    collect(match.getMatchValue(), dependencies);
+                    collect(match.getMatchEvaluatable(), dependencies);
+                }
+            }
+        }
+    }
+
+    void collect(Expression expression, Dependencies dependencies) {
+        if (expression instanceof AttributeDesignator) {
+            AttributeDesignator designator = (AttributeDesignator) expression;
+            if (CURRENT_TIME_IDS.contains(designator.getId().toString())) {
+                dependencies.currentTime = true;
+            } else {
+                if (TIME_TYPES.contains(designator.getType().toString()))
+                    dependencies.otherTime = true;
+                if (pipAttributes.test(new AttributeRequest(designator.getType(), designator.getId(),
+                        designator.getIssuer(), designator.getCategory())))
+                    dependencies.pip = true;
+            }
+        } else if (expression instanceof AttributeValue) {
+            dependencies.literal((AttributeValue) expression);
+        } else if (expression instanceof VariableReference) {
+            VariableDefinition definition = ((VariableReference) expression).getReferencedDefinition();
+            if (definition != null && dependencies.visited.add(definition))
+                collect(definition.getExpression(), dependencies);
+        } else if (expression instanceof Evaluatable) {
+            for (Object child : ((Evaluatable) expression).getChildren()) {
+                if (child instanceof Expression)
+                    collect((Expression) child, dependencies);
+            }
+        }
+    }
+
+    /**
+     * Returns the largest bucket the given instant is aligned to, or 0
+     */
+    static long alignment(long millis) {
+        for (long bucket : BUCKETS) {
+            if (Math.floorMod(millis, bucket) == 0)
+                return bucket;
+        }
+        return 0;
+    }
+
+    class Dependencies {
+        boolean currentTime;
+        boolean otherTime;
+        boolean pip;
+        boolean timeLiterals;
+        long bucket = Cacheability.DAY;
+        Set<VariableDefinition> visited = new HashSet<>();
+
+        void literal(AttributeValue value) {
+            if (value instanceof DateAttribute) {
+                align(((DateAttribute) value).getValue().getTime(), 0);
+            } else if (value instanceof TimeAttribute) {
+                align(((TimeAttribute) value).getMilliseconds(), ((TimeAttribute) value).getNanoseconds());
+            } else if (value instanceof DateTimeAttribute) {
+                align(((DateTimeAttribute) value).getValue().getTime(), ((DateTimeAttribute) value).getNanoseconds());
+            } else if (value instanceof DayTimeDurationAttribute || value instanceof YearMonthDurationAttribute) {
+                otherTime = true;
+            }
+        }
+
+        void align(long millis, int nanoseconds) {
+            timeLiterals = true;
+            long alignment = (nanoseconds == 0) ? alignment(millis) : 0;
+            bucket = (alignment == 0) ? 0 : Math.min(bucket, alignment);
+        }
+
+        Cacheability cacheability() {
+            Cacheability cacheability = Cacheability.FOREVER;
+            if (currentTime)
+                cacheability = (otherTime || !timeLiterals || bucket == 0) ? Cacheability.UNCACHEABLE : Cacheability.bucket(bucket);
+            if (pip)
+                cacheability = cacheability.combine(pipTtl > 0 ? Cacheability.ttl(pipTtl) : Cacheability.UNCACHEABLE);
+            return cacheability;
+        }
+    }
+}
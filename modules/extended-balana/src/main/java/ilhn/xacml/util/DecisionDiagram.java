@@ -0,0 +1,639 @@
+package ilhn.xacml.util;
+
+import org.wso2.balana.AbstractTarget;
+import org.wso2.balana.TargetMatch;
+import org.wso2.balana.XACMLConstants;
+import org.wso2.balana.attr.AttributeValue;
+import org.wso2.balana.attr.BagAttribute;
+import org.wso2.balana.attr.StringAttribute;
+import org.wso2.balana.attr.xacml3.AttributeDesignator;
+import org.wso2.balana.cond.EqualFunction;
+import org.wso2.balana.cond.EvaluationResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.xacml3.AllOfSelection;
+import org.wso2.balana.xacml3.AnyOfSelection;
+import org.wso2.balana.xacml3.Target;
+
+import java.net.URI;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Compiles the targets of the children of a policy or policy set into a reduced multi-valued
+ * decision diagram over request attributes. Every inner node tests one attribute and branches on
+ * its value: one branch per value compared in the targets, one for any other value, one for an
+ * absent attribute and one for attributes whose value isn't known to be single. Every leaf holds the
+ * children whose targets may match on the path to it, so a request is dispatched by one attribute
+ * lookup per tested attribute, however many children there are.
+ * <ul>
+ * <li>Only equality matches on attribute designators are compiled, like in {@link TargetIndex}. A
+ * target is known not to match once all <code>AllOf</code> elements of one of its <code>AnyOf</code>
+ * elements contain a compiled match that fails on the path.</li>
+ * <li>Attributes are tested in the order of how many matches refer to them. Nodes whose branches all
+ * lead to the same node are left out and equal nodes are shared.</li>
+ * <li>Multi-valued and indeterminate attributes and the <code>Any</code> value take the unknown
+ * branch, on which no match fails. A bag may satisfy matches that no single value does.</li>
+ * </ul>
+ * The diagram only drops children whose targets don't match, all other matches, conditions and the
+ * combining algorithm are left to the regular evaluation of the selected children.
+ *
+ * @param <T> compiled item, a rule or policy
+ */
+public class DecisionDiagram<T> {
+
+    /**
+     * Maximum number of nodes per compiled item, further nodes are replaced by leaves. Targets
+     * over many attributes may need exponentially many nodes.
+     */
+    public static final int MAX_NODES_PER_ITEM = 16;
+
+    private static final Set<String> EQUAL_FUNCTIONS = new HashSet<>(Arrays.asList(
+            EqualFunction.NAME_STRING_EQUAL,
+            EqualFunction.NAME_EQUAL_CASE_IGNORE,
+            EqualFunction.NAME_ANYURI_EQUAL,
+            EqualFunction.NAME_INTEGER_EQUAL,
+            EqualFunction.NAME_BOOLEAN_EQUAL));
+
+    private final List<T> items;
+    private final List<Variable> variables;
+    private final Node root;
+    private final int nodeCount;
+
+    private DecisionDiagram(List<T> items, List<Variable> variables, Node root, int nodeCount) {
+        this.items = items;
+        this.variables = variables;
+        this.root = root;
+        this.nodeCount = nodeCount;
+    }
+
+    /**
+     * Compiles the targets of the given items. Items without a XACML 3.0 target are always selected.
+     *
+     * @param items rules or policies, in order
+     * @param targetOf target of an item, may return null
+     * @param <T> compiled item
+     * @return <code>DecisionDiagram</code>
+     */
+    public static <T> DecisionDiagram<T> compile(List<T> items, Function<T, AbstractTarget> targetOf) {
+        Compiler compiler = new Compiler(items.size());
+        for (T item : items)
+            compiler.add(targetOf.apply(item));
+
+        Node root = compiler.compile();
+        return new DecisionDiagram<>(new ArrayList<>(items), compiler.variables(), root, compiler.nodeCount());
+    }
+
+    /**
+     * Walks the diagram for the request.
+     *
+     * @param context the representation of the request
+     * @return ordinals of the items whose targets may match, in ascending order
+     */
+    public int[] select(EvaluationCtx context) {
+        Node node = root;
+        while (node.variable >= 0) {
+            Variable variable = variables.get(node.variable);
+            node = node.branches[branch(variable, context)];
+        }
+        return node.selection;
+    }
+
+    private static int branch(Variable variable, EvaluationCtx context) {
+        EvaluationResult result = context.getAttribute(variable.type, variable.id, null, variable.category);
+        if (result.indeterminate())
+            return variable.unknown();
+
+        BagAttribute bag = (BagAttribute) result.getAttributeValue();
+        if (bag.isEmpty())
+            return variable.absent();
+        if (bag.size() > 1)
+            return variable.unknown();
+
+        AttributeValue value = (AttributeValue) bag.iterator().next();
+        if (value instanceof StringAttribute && XACMLConstants.ANY.equals(((StringAttribute) value).getValue())) {
+            // EqualFunction matches any policy value in this case
+            return variable.unknown();
+        }
+
+        Integer literal = variable.literals.get(variable.ignoreCase ? value.encode().toLowerCase() : value);
+        return (literal != null) ? literal : variable.other();
+    }
+
+    public T get(int ordinal) {
+        return items.get(ordinal);
+    }
+
+    /**
+     * @return number of compiled items
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * @return number of tested attributes
+     */
+    public int variableCount() {
+        return variables.size();
+    }
+
+    /**
+     * @return number of distinct nodes, including the leaves
+     */
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return true if the diagram never drops any item
+     */
+    public boolean isTrivial() {
+        return root.variable < 0 && root.selection.length == items.size();
+    }
+
+    private static boolean isCompilable(TargetMatch match) {
+        if (match.getMatchValue() == null || match.getMatchFunction() == null)
+            return false;
+        if (!EQUAL_FUNCTIONS.contains(match.getMatchFunction().getIdentifier().toString()))
+            return false;
+        if (match.getMatchEvaluatable() == null || match.getMatchEvaluatable().getClass() != AttributeDesignator.class)
+            return false;
+
+        AttributeDesignator designator = (AttributeDesignator) match.getMatchEvaluatable();
+        // issuer matching is not covered by the diagram
+        return designator.getIssuer() == null && designator.getCategory() != null;
+    }
+
+    private static boolean ignoreCase(TargetMatch match) {
+        return EqualFunction.NAME_EQUAL_CASE_IGNORE.equals(match.getMatchFunction().getIdentifier().toString());
+    }
+
+    /**
+     * Tested attribute, exact and case-insensitive comparisons of the same attribute are separate
+     * variables. Branches are numbered by the compared values, followed by the branches for other
+     * values, for an absent attribute and for unknown values.
+     */
+    private static class Variable {
+        final URI category;
+        final URI id;
+        final URI type;
+        final boolean ignoreCase;
+        final int hash;
+
+        final Map<Object, Integer> literals = new HashMap<>();
+        int index;
+        int references;
+
+        Variable(URI category, URI id, URI type, boolean ignoreCase) {
+            this.category = category;
+            this.id = id;
+            this.type = type;
+            this.ignoreCase = ignoreCase;
+            this.hash = Objects.hash(category, id, type, ignoreCase);
+        }
+
+        int literal(Object value) {
+            Integer literal = literals.get(value);
+            if (literal == null) {
+                literal = literals.size();
+                literals.put(value, literal);
+            }
+            return literal;
+        }
+
+        int other() {
+            return literals.size();
+        }
+
+        int absent() {
+            return literals.size() + 1;
+        }
+
+        int unknown() {
+            return literals.size() + 2;
+        }
+
+        int branchCount() {
+            return literals.size() + 3;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Variable)) return false;
+
+            Variable other = (Variable) o;
+            return category.equals(other.category) && id.equals(other.id) && type.equals(other.type)
+                    && ignoreCase == other.ignoreCase;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Node of the diagram, leaves test no variable and hold the selected items.
+     */
+    private static class Node {
+        final int variable;
+        final Node[] branches;
+        final int[] selection;
+
+        Node(int variable, Node[] branches, int[] selection) {
+            this.variable = variable;
+            this.branches = branches;
+            this.selection = selection;
+        }
+    }
+
+    /**
+     * Builds the diagram by expanding the variables in order. The state of a path is the set of
+     * items still selected and the set of their <code>AllOf</code> elements which failed, equal
+     * states lead to the same node.
+     */
+    private static class Compiler {
+        final Map<Variable, Variable> variableMap = new LinkedHashMap<>();
+        final int itemCount;
+        final int maxNodes;
+
+        // compiled matches of every AllOf, as variable, literal and mustBePresent
+        final List<int[]> allOfVariables = new ArrayList<>();
+        final List<int[]> allOfLiterals = new ArrayList<>();
+        final List<boolean[]> allOfMustBePresent = new ArrayList<>();
+        final List<Integer> allOfItem = new ArrayList<>();
+        final List<Integer> allOfAnyOf = new ArrayList<>();
+        int[] allOfLastLevel;
+
+        // AnyOf elements which may fail, as their AllOf ids, and their ids per item
+        final List<int[]> anyOfAllOfs = new ArrayList<>();
+        final List<int[]> itemAnyOfs = new ArrayList<>();
+        final List<int[]> itemAllOfRange = new ArrayList<>();
+
+        List<Variable> variables;
+        List<List<Integer>> variableAllOfs;
+
+        final Map<State, Node> states = new HashMap<>();
+        final Map<NodeKey, Node> nodes = new HashMap<>();
+        final Map<BitSet, Node> leaves = new HashMap<>();
+
+        Compiler(int itemCount) {
+            this.itemCount = itemCount;
+            this.maxNodes = MAX_NODES_PER_ITEM * (itemCount + 1);
+        }
+
+        void add(AbstractTarget target) {
+            int item = itemAnyOfs.size();
+            int firstAllOf = allOfItem.size();
+            List<Integer> anyOfs = new ArrayList<>();
+
+            if (target instanceof Target && ((Target) target).getAnyOfSelections() != null) {
+                for (AnyOfSelection anyOf : ((Target) target).getAnyOfSelections()) {
+                    if (isFailable(anyOf))
+                        anyOfs.add(addAnyOf(item, anyOf));
+                }
+            }
+
+            itemAnyOfs.add(toArray(anyOfs));
+            itemAllOfRange.add(new int[]{ firstAllOf, allOfItem.size() });
+        }
+
+        /**
+         * An AnyOf can only fail if all its AllOf elements contain a compiled match
+         */
+        private static boolean isFailable(AnyOfSelection anyOf) {
+            for (AllOfSelection allOf : anyOf.getAllOfSelections()) {
+                boolean compilable = false;
+                for (TargetMatch match : allOf.getMatches())
+                    compilable |= isCompilable(match);
+                if (!compilable)
+                    return false;
+            }
+            return true;
+        }
+
+        private int addAnyOf(int item, AnyOfSelection anyOf) {
+            int anyOfId = anyOfAllOfs.size();
+            List<AllOfSelection> allOfs = anyOf.getAllOfSelections();
+            int[] allOfIds = new int[allOfs.size()];
+
+            for (int i = 0; i < allOfs.size(); i++) {
+                List<Integer> variables = new ArrayList<>();
+                List<Integer> literals = new ArrayList<>();
+                List<Boolean> mustBePresent = new ArrayList<>();
+
+                for (TargetMatch match : allOfs.get(i).getMatches()) {
+                    if (!isCompilable(match))
+                        continue;
+
+                    AttributeDesignator designator = (AttributeDesignator) match.getMatchEvaluatable();
+                    boolean ignoreCase = ignoreCase(match);
+                    Variable variable = variable(new Variable(designator.getCategory(), designator.getId(),
+                            designator.getType(), ignoreCase));
+                    variable.references++;
+
+                    Object value = ignoreCase ? match.getMatchValue().encode().toLowerCase() : match.getMatchValue();
+                    variables.add(variable.index);
+                    literals.add(variable.literal(value));
+                    mustBePresent.add(designator.mustBePresent());
+                }
+
+                allOfIds[i] = allOfItem.size();
+                allOfVariables.add(toArray(variables));
+                allOfLiterals.add(toArray(literals));
+                boolean[] present = new boolean[mustBePresent.size()];
+                for (int j = 0; j < present.length; j++)
+                    present[j] = mustBePresent.get(j);
+                allOfMustBePresent.add(present);
+                allOfItem.add(item);
+                allOfAnyOf.add(anyOfId);
+            }
+
+            anyOfAllOfs.add(allOfIds);
+            return anyOfId;
+        }
+
+        private Variable variable(Variable key) {
+            Variable variable = variableMap.get(key);
+            if (variable == null) {
+                key.index = variableMap.size();
+                variableMap.put(key, key);
+                variable = key;
+            }
+            return variable;
+        }
+
+        Node compile() {
+            List<Variable> declared = new ArrayList<>(variableMap.keySet());
+
+            // most referenced attributes first, they split the items the most
+            Integer[] byReferences = new Integer[declared.size()];
+            for (int i = 0; i < byReferences.length; i++)
+                byReferences[i] = i;
+            Arrays.sort(byReferences, (a, b) -> Integer.compare(declared.get(b).references, declared.get(a).references));
+
+            int[] position = new int[declared.size()];
+            variables = new ArrayList<>(declared.size());
+            for (int i = 0; i < byReferences.length; i++) {
+                position[byReferences[i]] = i;
+                variables.add(declared.get(byReferences[i]));
+            }
+
+            variableAllOfs = new ArrayList<>(variables.size());
+            for (int i = 0; i < variables.size(); i++)
+                variableAllOfs.add(new ArrayList<>());
+
+            allOfLastLevel = new int[allOfVariables.size()];
+            for (int allOf = 0; allOf < allOfVariables.size(); allOf++) {
+                int[] allOfVars = allOfVariables.get(allOf);
+                for (int i = 0; i < allOfVars.length; i++) {
+                    allOfVars[i] = position[allOfVars[i]];
+                    allOfLastLevel[allOf] = Math.max(allOfLastLevel[allOf], allOfVars[i]);
+
+                    List<Integer> allOfs = variableAllOfs.get(allOfVars[i]);
+                    if (!allOfs.contains(allOf))
+                        allOfs.add(allOf);
+                }
+            }
+
+            BitSet selected = new BitSet(itemCount);
+            selected.set(0, itemCount);
+            return build(0, selected, new BitSet());
+        }
+
+        private Node build(int level, BitSet selected, BitSet failed) {
+            State state = new State(level, selected, failed);
+            Node node = states.get(state);
+            if (node != null)
+                return node;
+
+            node = expand(level, selected, failed);
+            states.put(state, node);
+            return node;
+        }
+
+        private Node expand(int level, BitSet selected, BitSet failed) {
+            // skip variables none of the open AllOf elements refers to
+            List<Integer> open = null;
+            while (level < variables.size()) {
+                open = openAllOfs(level, selected, failed);
+                if (!open.isEmpty())
+                    break;
+                level++;
+            }
+
+            if (level == variables.size() || nodeCount() >= maxNodes)
+                return leaf(selected);
+
+            Variable variable = variables.get(level);
+            Node[] branches = new Node[variable.branchCount()];
+            boolean reduced = true;
+            for (int branch = 0; branch < branches.length; branch++) {
+                BitSet branchSelected = (BitSet) selected.clone();
+                BitSet branchFailed = (BitSet) failed.clone();
+
+                for (int allOf : open) {
+                    if (fails(allOf, level, branch, variable))
+                        branchFailed.set(allOf);
+                }
+                for (int allOf : open) {
+                    int item = allOfItem.get(allOf);
+                    if (branchSelected.get(item))
+                        settle(item, level + 1, branchSelected, branchFailed);
+                }
+
+                branches[branch] = build(level + 1, branchSelected, branchFailed);
+                reduced &= (branches[branch] == branches[0]);
+            }
+
+            if (reduced)
+                return branches[0];
+
+            NodeKey key = new NodeKey(level, branches);
+            Node node = nodes.get(key);
+            if (node == null) {
+                node = new Node(level, branches, null);
+                nodes.put(key, node);
+            }
+            return node;
+        }
+
+        /**
+         * Returns the AllOf elements with matches on the variable, which haven't failed yet and
+         * whose AnyOf may still fail
+         */
+        private List<Integer> openAllOfs(int level, BitSet selected, BitSet failed) {
+            List<Integer> open = new ArrayList<>();
+            for (int allOf : variableAllOfs.get(level)) {
+                if (selected.get(allOfItem.get(allOf)) && !failed.get(allOf)
+                        && isFailable(allOfAnyOf.get(allOf), level, failed))
+                    open.add(allOf);
+            }
+            return open;
+        }
+
+        /**
+         * Tells whether a compiled match of the AllOf on the variable fails on the branch. Absent
+         * attributes fail matches unless they have to be present, which are indeterminate, unknown
+         * values fail none.
+         */
+        private boolean fails(int allOf, int level, int branch, Variable variable) {
+            int[] allOfVars = allOfVariables.get(allOf);
+            int[] literals = allOfLiterals.get(allOf);
+            boolean[] mustBePresent = allOfMustBePresent.get(allOf);
+
+            for (int i = 0; i < allOfVars.length; i++) {
+                if (allOfVars[i] != level)
+                    continue;
+                if (branch == variable.unknown()) {
+                    return false;
+                } else if (branch == variable.absent()) {
+                    if (!mustBePresent[i])
+                        return true;
+                } else if (branch != literals[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Drops the item once all AllOf elements of one of its AnyOf elements failed. Otherwise
+         * forgets the failed AllOf elements of AnyOf elements which can't fail from the given level
+         * on, so paths differing only in these lead to the same state.
+         */
+        private void settle(int item, int level, BitSet selected, BitSet failed) {
+            int[] anyOfs = itemAnyOfs.get(item);
+            for (int anyOf : anyOfs) {
+                boolean anyOfFailed = true;
+                for (int allOf : anyOfAllOfs.get(anyOf))
+                    anyOfFailed &= failed.get(allOf);
+                if (anyOfFailed) {
+                    selected.clear(item);
+                    int[] range = itemAllOfRange.get(item);
+                    failed.clear(range[0], range[1]);
+                    return;
+                }
+            }
+
+            for (int anyOf : anyOfs) {
+                if (!isFailable(anyOf, level, failed)) {
+                    for (int allOf : anyOfAllOfs.get(anyOf))
+                        failed.clear(allOf);
+                }
+            }
+        }
+
+        /**
+         * An AnyOf may still fail if all its AllOf elements failed or have matches on the variables
+         * from the given level on
+         */
+        private boolean isFailable(int anyOf, int level, BitSet failed) {
+            for (int allOf : anyOfAllOfs.get(anyOf)) {
+                if (!failed.get(allOf) && allOfLastLevel[allOf] < level)
+                    return false;
+            }
+            return true;
+        }
+
+        private Node leaf(BitSet selected) {
+            Node leaf = leaves.get(selected);
+            if (leaf == null) {
+                leaf = new Node(-1, null, toArray(selected));
+                leaves.put((BitSet) selected.clone(), leaf);
+            }
+            return leaf;
+        }
+
+        List<Variable> variables() {
+            return variables;
+        }
+
+        int nodeCount() {
+            return nodes.size() + leaves.size();
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++)
+                array[i] = list.get(i);
+            return array;
+        }
+
+        private static int[] toArray(BitSet bitSet) {
+            return bitSet.stream().toArray();
+        }
+    }
+
+    /**
+     * State of a path during compilation.
+     */
+    private static final class State {
+        final int level;
+        final BitSet selected;
+        final BitSet failed;
+        final int hash;
+
+        State(int level, BitSet selected, BitSet failed) {
+            this.level = level;
+            this.selected = selected;
+            this.failed = failed;
+            this.hash = Objects.hash(level, selected, failed);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof State)) return false;
+
+            State other = (State) o;
+            return level == other.level && selected.equals(other.selected) && failed.equals(other.failed);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Structural key of an inner node, its branches are compared by identity as they are shared
+     * already.
+     */
+    private static final class NodeKey {
+        final int variable;
+        final Node[] branches;
+        final int hash;
+
+        NodeKey(int variable, Node[] branches) {
+            this.variable = variable;
+            this.branches = branches;
+
+            int hash = variable;
+            for (Node branch : branches)
+                hash = 31 * hash + System.identityHashCode(branch);
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof NodeKey)) return false;
+
+            NodeKey other = (NodeKey) o;
+            if (hash != other.hash || variable != other.variable || branches.length != other.branches.length)
+                return false;
+            for (int i = 0; i < branches.length; i++) {
+                if (branches[i] != other.branches[i])
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package ilhn.xacml.util;
+
+import org.wso2.balana.AbstractPolicy;
+import org.wso2.balana.Policy;
+import org.wso2.balana.PolicySet;
+import org.wso2.balana.combine.PolicyCombiningAlgorithm;
+import org.wso2.balana.ctx.AbstractResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+
+import java.util.*;
+
+/**
+ * Policy combining algorithm walking a decision diagram compiled from the targets of the policies
+ * of a policy set, see {@link DecisionDiagram}. Only the policies whose target may match the
+ * request are handed to the wrapped algorithm, in their original order. Policies left out don't
+ * match, which all standard policy combining algorithms skip, so the combined result is unchanged.
+ * Policy references are always handed over, as their targets are only known once resolved.
+ */
+public class DecisionDiagramPolicyCombiningAlg extends PolicyCombiningAlgorithm {
+
+    /**
+     * Minimum number of policies for which the diagram pays off.
+     */
+    public static final int MIN_POLICIES = 8;
+
+    private static final Set<String> SUPPORTED_ALGORITHMS = new HashSet<>(Arrays.asList(
+            org.wso2.balana.combine.xacml2.DenyOverridesPolicyAlg.class.getName(),
+            org.wso2.balana.combine.xacml2.OrderedDenyOverridesPolicyAlg.class.getName(),
+            org.wso2.balana.combine.xacml2.PermitOverridesPolicyAlg.class.getName(),
+            org.wso2.balana.combine.xacml2.OrderedPermitOverridesPolicyAlg.class.getName(),
+            org.wso2.balana.combine.xacml2.FirstApplicablePolicyAlg.class.getName(),
+            org.wso2.balana.combine.xacml2.OnlyOneApplicablePolicyAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.DenyOverridesPolicyAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.OrderedDenyOverridesPolicyAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.PermitOverridesPolicyAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.OrderedPermitOverridesPolicyAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.DenyUnlessPermitPolicyAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.PermitUnlessDenyPolicyAlg.class.getName()));
+
+    private final PolicyCombiningAlgorithm combiningAlg;
+    private final DecisionDiagram<AbstractPolicy> diagram;
+
+    /**
+     * Creates the algorithm, see {@link #compile(PolicyCombiningAlgorithm, List)}.
+     *
+     * @param combiningAlg combining algorithm of the policy set
+     * @param diagram diagram over the policy targets, in policy order
+     */
+    private DecisionDiagramPolicyCombiningAlg(PolicyCombiningAlgorithm combiningAlg,
+                                              DecisionDiagram<AbstractPolicy> diagram) {
+        super(combiningAlg.getIdentifier());
+
+        this.combiningAlg = combiningAlg;
+        this.diagram = diagram;
+    }
+
+    /**
+     * Wraps the given algorithm if it is safe and the policy targets are compilable, otherwise the
+     * algorithm is returned as is.
+     *
+     * @param combiningAlg combining algorithm of the policy set
+     * @param policies policies, policy sets and references of the policy set, in order
+     * @return <code>PolicyCombiningAlgorithm</code>
+     */
+    public static PolicyCombiningAlgorithm compile(PolicyCombiningAlgorithm combiningAlg,
+                                                   List<AbstractPolicy> policies) {
+        if (policies.size() < MIN_POLICIES || !SUPPORTED_ALGORITHMS.contains(combiningAlg.getClass().getName()))
+            return combiningAlg;
+
+        DecisionDiagram<AbstractPolicy> diagram = DecisionDiagram.compile(policies,
+                policy -> (policy instanceof Policy || policy instanceof PolicySet) ? policy.getTarget() : null);
+        if (diagram.isTrivial())
+            return combiningAlg;
+
+        return new DecisionDiagramPolicyCombiningAlg(combiningAlg, diagram);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes") // signature of the balana algorithms
+    public AbstractResult combine(EvaluationCtx context, List parameters, List policyElements) {
+        if (policyElements.size() != diagram.size())
+            return combiningAlg.combine(context, parameters, policyElements);
+
+        int[] selected = diagram.select(context);
+        List<Object> dispatched = new ArrayList<>(selected.length);
+        for (int ordinal : selected)
+            dispatched.add(policyElements.get(ordinal));
+
+        return combiningAlg.combine(context, parameters, dispatched);
+    }
+
+    /**
+     * @return the wrapped combining algorithm
+     */
+    public PolicyCombiningAlgorithm getCombiningAlg() {
+        return combiningAlg;
+    }
+
+    /**
+     * @return the diagram over the policy targets
+     */
+    public DecisionDiagram<AbstractPolicy> getDiagram() {
+        return diagram;
+    }
+}
@@ -0,0 +1,99 @@
+package ilhn.xacml.util;
+
+import org.wso2.balana.Rule;
+import org.wso2.balana.combine.RuleCombiningAlgorithm;
+import org.wso2.balana.ctx.AbstractResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+
+import java.util.*;
+
+/**
+ * Rule combining algorithm walking a decision diagram compiled from the rule targets, see
+ * {@link DecisionDiagram}. Only the rules whose target may match the request are handed to the
+ * wrapped algorithm, in their original order. Rules left out would evaluate to NotApplicable, which
+ * all standard rule combining algorithms ignore, so the combined result is unchanged. Custom
+ * algorithms are never wrapped.
+ */
+public class DecisionDiagramRuleCombiningAlg extends RuleCombiningAlgorithm {
+
+    /**
+     * Minimum number of rules for which the diagram pays off.
+     */
+    public static final int MIN_RULES = 8;
+
+    private static final Set<String> SUPPORTED_ALGORITHMS = new HashSet<>(Arrays.asList(
+            org.wso2.balana.combine.xacml2.DenyOverridesRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml2.OrderedDenyOverridesRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml2.PermitOverridesRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml2.OrderedPermitOverridesRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml2.FirstApplicableRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.DenyOverridesRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.OrderedDenyOverridesRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.PermitOverridesRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.OrderedPermitOverridesRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.DenyUnlessPermitRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.PermitUnlessDenyRuleAlg.class.getName()));
+
+    private final RuleCombiningAlgorithm combiningAlg;
+    private final DecisionDiagram<Rule> diagram;
+
+    /**
+     * Creates the algorithm, see {@link #compile(RuleCombiningAlgorithm, List)}.
+     *
+     * @param combiningAlg combining algorithm of the policy
+     * @param diagram diagram over the rule targets, in rule order
+     */
+    private DecisionDiagramRuleCombiningAlg(RuleCombiningAlgorithm combiningAlg, DecisionDiagram<Rule> diagram) {
+        super(combiningAlg.getIdentifier());
+
+        this.combiningAlg = combiningAlg;
+        this.diagram = diagram;
+    }
+
+    /**
+     * Wraps the given algorithm if it is safe and the rule targets are compilable, otherwise the
+     * algorithm is returned as is.
+     *
+     * @param combiningAlg combining algorithm of the policy
+     * @param rules rules of the policy, in order
+     * @return <code>RuleCombiningAlgorithm</code>
+     */
+    public static RuleCombiningAlgorithm compile(RuleCombiningAlgorithm combiningAlg, List<Rule> rules) {
+        if (rules.size() < MIN_RULES || !SUPPORTED_ALGORITHMS.contains(combiningAlg.getClass().getName()))
+            return combiningAlg;
+
+        DecisionDiagram<Rule> diagram = DecisionDiagram.compile(rules, Rule::getTarget);
+        if (diagram.isTrivial())
+            return combiningAlg;
+
+        return new DecisionDiagramRuleCombiningAlg(combiningAlg, diagram);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes") // signature of the balana algorithms
+    public AbstractResult combine(EvaluationCtx context, List parameters, List ruleElements) {
+        if (ruleElements.size() != diagram.size())
+            return combiningAlg.combine(context, parameters, ruleElements);
+
+        int[] selected = diagram.select(context);
+        List<Object> dispatched = new ArrayList<>(selected.length);
+        for (int ordinal : selected)
+            dispatched.add(ruleElements.get(ordinal));
+
+        return combiningAlg.combine(context, parameters, dispatched);
+    }
+
+    /**
+     * @return the wrapped combining algorithm
+     */
+    public RuleCombiningAlgorithm getCombiningAlg() {
+        return combiningAlg;
+    }
+
+    /**
+     * @return the diagram over the rule targets
+     */
+    public DecisionDiagram<Rule> getDiagram() {
+        return diagram;
+    }
+}
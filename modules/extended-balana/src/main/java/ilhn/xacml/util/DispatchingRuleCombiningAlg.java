@@ -0,0 +1,94 @@
+package ilhn.xacml.util;
+
+import org.wso2.balana.Rule;
+import org.wso2.balana.combine.RuleCombiningAlgorithm;
+import org.wso2.balana.ctx.AbstractResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+
+import java.util.*;
+
+/**
+ * Rule combining algorithm dispatching on a precompiled index of the rule targets. Only the rules
+ * whose target may match the request are handed to the wrapped algorithm, in their original order.
+ * Rules left out would evaluate to NotApplicable, which all standard rule combining algorithms
+ * ignore, so the combined result is unchanged. Custom algorithms are never wrapped.
+ */
+public class DispatchingRuleCombiningAlg extends RuleCombiningAlgorithm {
+
+    /**
+     * Minimum number of rules for which dispatching pays off.
+     */
+    public static final int MIN_RULES = 8;
+
+    private static final Set<String> SUPPORTED_ALGORITHMS = new HashSet<>(Arrays.asList(
+            org.wso2.balana.combine.xacml2.DenyOverridesRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml2.OrderedDenyOverridesRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml2.PermitOverridesRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml2.OrderedPermitOverridesRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml2.FirstApplicableRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.DenyOverridesRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.OrderedDenyOverridesRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.PermitOverridesRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.OrderedPermitOverridesRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.DenyUnlessPermitRuleAlg.class.getName(),
+            org.wso2.balana.combine.xacml3.PermitUnlessDenyRuleAlg.class.getName()));
+
+    private final RuleCombiningAlgorithm combiningAlg;
+    private final TargetIndex<Rule> ruleIndex;
+
+    /**
+     * Creates the dispatching algorithm, see {@link #compile(RuleCombiningAlgorithm, List)}.
+     *
+     * @param combiningAlg combining algorithm of the policy
+     * @param ruleIndex index over the rule targets, in rule order
+     */
+    private DispatchingRuleCombiningAlg(RuleCombiningAlgorithm combiningAlg, TargetIndex<Rule> ruleIndex) {
+        super(combiningAlg.getIdentifier());
+
+        this.combiningAlg = combiningAlg;
+        this.ruleIndex = ruleIndex;
+    }
+
+    /**
+     * Wraps the given algorithm if it is safe and the rules are indexable, otherwise the algorithm
+     * is returned as is.
+     *
+     * @param combiningAlg combining algorithm of the policy
+     * @param rules rules of the policy, in order
+     * @return <code>RuleCombiningAlgorithm</code>
+     */
+    public static RuleCombiningAlgorithm compile(RuleCombiningAlgorithm combiningAlg, List<Rule> rules) {
+        if (rules.size() < MIN_RULES || !SUPPORTED_ALGORITHMS.contains(combiningAlg.getClass().getName()))
+            return combiningAlg;
+
+        TargetIndex<Rule> ruleIndex = new TargetIndex<>();
+        for (Rule rule : rules)
+            ruleIndex.add(rule, rule.getTarget());
+
+        if (ruleIndex.residualSize() == ruleIndex.size())
+            return combiningAlg;
+
+        return new DispatchingRuleCombiningAlg(combiningAlg, ruleIndex);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes") // signature of the balana algorithms
+    public AbstractResult combine(EvaluationCtx context, List parameters, List ruleElements) {
+        if (ruleElements.size() != ruleIndex.size())
+            return combiningAlg.combine(context, parameters, ruleElements);
+
+        BitSet selected = ruleIndex.select(context);
+        List<Object> dispatched = new ArrayList<>(selected.cardinality());
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1))
+            dispatched.add(ruleElements.get(i));
+
+        return combiningAlg.combine(context, parameters, dispatched);
+    }
+
+    /**
+     * @return the wrapped combining algorithm
+     */
+    public RuleCombiningAlgorithm getCombiningAlg() {
+        return combiningAlg;
+    }
+}
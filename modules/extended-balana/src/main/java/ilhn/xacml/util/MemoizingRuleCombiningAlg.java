@@ -0,0 +1,206 @@
+package ilhn.xacml.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.wso2.balana.AbstractTarget;
+import org.wso2.balana.Rule;
+import org.wso2.balana.TargetMatch;
+import org.wso2.balana.attr.AttributeValue;
+import org.wso2.balana.attr.BagAttribute;
+import org.wso2.balana.attr.xacml3.AttributeDesignator;
+import org.wso2.balana.combine.RuleCombiningAlgorithm;
+import org.wso2.balana.cond.*;
+import org.wso2.balana.ctx.AbstractResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.ctx.ResultFactory;
+import org.wso2.balana.ctx.Status;
+import org.wso2.balana.ctx.xacml3.XACML3EvaluationCtx;
+import org.wso2.balana.xacml3.AllOfSelection;
+import org.wso2.balana.xacml3.AnyOfSelection;
+import org.wso2.balana.xacml3.Target;
+
+import java.net.URI;
+import java.util.*;
+
+/**
+ * Rule combining algorithm memoizing the combined result of the rules of one policy.
+ * The memo is keyed by the values of all attributes the rules reference (targets and conditions),
+ * as given in the request, so repeated evaluations with the same projection skip the rule
+ * iteration entirely. Requests lacking a referenced attribute the attribute finder would be asked
+ * for are evaluated without the memo, building the key must not call PIPs the rules may never reach.
+ * Only used for rules consisting of targets and conditions built from designators, values,
+ * functions and variables, see {@link #isMemoizable(List)}.
+ */
+public class MemoizingRuleCombiningAlg extends RuleCombiningAlgorithm {
+
+    private final RuleCombiningAlgorithm combiningAlg;
+    private final List<AttributeDesignator> designators;
+    private final Cache<String, MemoizedResult> memo;
+
+    /**
+     * Creates the memo for the given rules, the rules must be memoizable.
+     *
+     * @param combiningAlg combining algorithm of the policy
+     * @param rules rules of the policy
+     * @param memoSize maximum number of memoized results
+     */
+    public MemoizingRuleCombiningAlg(RuleCombiningAlgorithm combiningAlg, List<Rule> rules, int memoSize) {
+        super(combiningAlg.getIdentifier());
+
+        Map<String, AttributeDesignator> designatorMap = new TreeMap<>();
+        for (Rule rule : rules) {
+            if (!collectDesignators(rule, designatorMap))
+                throw new IllegalArgumentException("Rule " + rule.getId() + " can't be memoized");
+        }
+
+        this.combiningAlg = combiningAlg;
+        this.designators = new ArrayList<>(designatorMap.values());
+        this.memo = Caffeine.newBuilder().maximumSize(memoSize).recordStats().build();
+    }
+
+    /**
+     * Checks whether the combined result of the given rules only depends on attribute designators.
+     * Rules with obligations, advices or attribute selectors are not memoizable.
+     *
+     * @param rules rules of a policy
+     * @return true if the rules can be memoized
+     */
+    public static boolean isMemoizable(List<Rule> rules) {
+        Map<String, AttributeDesignator> designatorMap = new HashMap<>();
+        for (Rule rule : rules) {
+            if (!collectDesignators(rule, designatorMap))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes") // signature of the balana algorithms
+    public AbstractResult combine(EvaluationCtx context, List parameters, List ruleElements) {
+        String key = projection(context);
+        if (key == null)
+            return combiningAlg.combine(context, parameters, ruleElements);
+
+        MemoizedResult memoized = memo.getIfPresent(key);
+        if (memoized != null)
+            return ResultFactory.getFactory().getResult(memoized.decision, memoized.status, context);
+
+        AbstractResult result = combiningAlg.combine(context, parameters, ruleElements);
+        memo.put(key, new MemoizedResult(result));
+        return result;
+    }
+
+    /**
+     * @return hit and miss statistics of the memo
+     */
+    public CacheStats stats() {
+        return memo.stats();
+    }
+
+    /**
+     * @return the memoized combining algorithm
+     */
+    public RuleCombiningAlgorithm getCombiningAlg() {
+        return combiningAlg;
+    }
+
+    /**
+     * Builds the memo key from the values of all referenced attributes in the request, returns
+     * null if an attribute is missing in the request and would be resolved by the attribute finder.
+     */
+    private String projection(EvaluationCtx context) {
+        if (!(context instanceof XACML3EvaluationCtx))
+            return null;
+
+        XACML3EvaluationCtx requestContext = (XACML3EvaluationCtx) context;
+        StringBuilder builder = new StringBuilder(64 * designators.size());
+        List<String> values = new ArrayList<>();
+
+        for (AttributeDesignator designator : designators) {
+            EvaluationResult result = requestContext.getRequestAttribute(designator.getType(), designator.getId(),
+                    designator.getIssuer(), designator.getCategory());
+            if (result == null)
+                return null;
+
+            values.clear();
+            Iterator<?> it = ((BagAttribute) result.getAttributeValue()).iterator();
+            while (it.hasNext())
+                values.add(((AttributeValue) it.next()).encode());
+            Collections.sort(values);
+
+            builder.append(values.size()).append(';');
+            for (String value : values)
+                builder.append(value.length()).append(':').append(value);
+        }
+
+        return builder.toString();
+    }
+
+    private static boolean collectDesignators(Rule rule, Map<String, AttributeDesignator> designatorMap) {
+        if (rule.getObligationExpressions() != null && !rule.getObligationExpressions().isEmpty())
+            return false;
+        if (rule.getAdviceExpressions() != null && !rule.getAdviceExpressions().isEmpty())
+            return false;
+
+        return collectDesignators(rule.getTarget(), designatorMap)
+                && (rule.getCondition() == null || collectDesignators(rule.getCondition(), designatorMap));
+    }
+
+    private static boolean collectDesignators(AbstractTarget target, Map<String, AttributeDesignator> designatorMap) {
+        if (target == null)
+            return true;
+        if (!(target instanceof Target))
+            return false;
+        if (((Target) target).getAnyOfSelections() == null)
+            return true;
+
+        for (AnyOfSelection anyOf : ((Target) target).getAnyOfSelections()) {
+            for (AllOfSelection allOf : anyOf.getAllOfSelections()) {
+                for (TargetMatch match : allOf.getMatches()) {
+                    if (!collectDesignators(match.getMatchEvaluatable(), designatorMap))
+                        return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean collectDesignators(Object expression, Map<String, AttributeDesignator> designatorMap) {
+        if (expression instanceof AttributeValue || expression instanceof Function)
+            return true;
+
+        if (expression instanceof AttributeDesignator) {
+            AttributeDesignator designator = (AttributeDesignator) expression;
+            designatorMap.putIfAbsent(designator.getCategory() + " " + designator.getId() + " "
+                    + designator.getType() + " " + designator.getIssuer(), designator);
+            return true;
+        }
+
+        if (expression instanceof VariableReference) {
+            VariableDefinition definition = ((VariableReference) expression).getReferencedDefinition();
+            return definition != null && collectDesignators(definition.getExpression(), designatorMap);
+        }
+
+        if (expression instanceof Apply || expression instanceof Condition) {
+            for (Object child : ((Evaluatable) expression).getChildren()) {
+                if (!collectDesignators(child, designatorMap))
+                    return false;
+            }
+            return true;
+        }
+
+        // selectors and unknown expressions
+        return false;
+    }
+
+    class MemoizedResult {
+        int decision;
+        Status status;
+
+        MemoizedResult(AbstractResult result) {
+            decision = result.getDecision();
+            status = result.getStatus();
+        }
+    }
+}
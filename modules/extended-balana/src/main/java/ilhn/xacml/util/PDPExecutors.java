@@ -0,0 +1,85 @@
+package ilhn.xacml.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors for the asynchronous and parallel evaluation of the PDP.
+ * Virtual threads are looked up reflectively, the project is built for Java 8 but may run on a
+ * JDK providing <code>Executors.newVirtualThreadPerTaskExecutor()</code>. On JDKs offering them as
+ * preview feature only, they are used if preview features are enabled.
+ * <p>
+ * A virtual thread runs a single request, so state kept in a <code>ThreadLocal</code> is created
+ * anew for every request. Reusable helpers of the evaluation (index counters, XPath compilers,
+ * document builders, digests) are therefore kept in {@link org.wso2.balana.InstancePool}s instead;
+ * attribute and policy finder modules used with these executors should do likewise.
+ */
+public final class PDPExecutors {
+
+    private static final Method VIRTUAL_THREAD_PER_TASK = virtualThreadPerTask();
+
+    private PDPExecutors() {
+    }
+
+    /**
+     * @return true if the running JDK supports virtual threads
+     */
+    public static boolean virtualThreadsAvailable() {
+        return VIRTUAL_THREAD_PER_TASK != null;
+    }
+
+    /**
+     * Creates an executor starting a new virtual thread for each task.
+     *
+     * @return <code>ExecutorService</code>
+     * @throws UnsupportedOperationException if the running JDK has no virtual threads
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (VIRTUAL_THREAD_PER_TASK == null)
+            throw new UnsupportedOperationException("Virtual threads are not available");
+
+        try {
+            return (ExecutorService) VIRTUAL_THREAD_PER_TASK.invoke(null);
+        } catch (InvocationTargetException e) {
+            // JDK 19 and 20 only provide virtual threads as preview feature
+            if (e.getCause() instanceof UnsupportedOperationException)
+                throw (UnsupportedOperationException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates an executor using virtual threads if available, a fixed pool of the given size otherwise.
+     *
+     * @param threads number of threads of the fallback pool
+     * @return <code>ExecutorService</code>
+     */
+    public static ExecutorService newExecutor(int threads) {
+        if (virtualThreadsAvailable()) {
+            try {
+                return newVirtualThreadPerTaskExecutor();
+            } catch (UnsupportedOperationException e) {
+                // preview feature not enabled
+            }
+        }
+        return Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Looks up the factory of virtual thread executors, and checks it works: on JDK 19 and 20 it
+     * throws unless preview features are enabled.
+     */
+    private static Method virtualThreadPerTask() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ((ExecutorService) method.invoke(null)).shutdown();
+            return method;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package ilhn.xacml.util;
+
+import org.wso2.balana.*;
+import org.wso2.balana.attr.xacml3.AttributeDesignator;
+import org.wso2.balana.cond.Evaluatable;
+import org.wso2.balana.cond.Expression;
+import org.wso2.balana.cond.VariableDefinition;
+import org.wso2.balana.cond.VariableReference;
+import org.wso2.balana.finder.AttributeRequest;
+import org.wso2.balana.xacml3.AllOfSelection;
+import org.wso2.balana.xacml3.AnyOfSelection;
+import org.wso2.balana.xacml3.Target;
+
+import java.util.*;
+
+/**
+ * Static analysis of the attributes a policy references.
+ * Collects the <code>AttributeDesignator</code>s of the targets, rules, conditions and variable
+ * definitions of a policy tree, so the attributes an evaluation may need can be resolved before it
+ * starts. Referenced policies, obligations and advice are not followed.
+ */
+public final class PolicyAttributes {
+
+    private PolicyAttributes() {
+    }
+
+    /**
+     * Returns the designator data of all attributes the given policy tree references.
+     *
+     * @param element policy, policy set or rule
+     * @return attribute requests, in the order they are found
+     */
+    public static Set<AttributeRequest> designators(PolicyTreeElement element) {
+        Set<AttributeRequest> requests = new LinkedHashSet<>();
+        collect(element, requests, new HashSet<>());
+        return requests;
+    }
+
+    static void collect(PolicyTreeElement element, Set<AttributeRequest> requests, Set<VariableDefinition> visited) {
+        if (element instanceof PolicyReference)
+            return;
+
+        if (element instanceof AbstractPolicy) {
+            collect(((AbstractPolicy) element).getTarget(), requests);
+        } else if (element instanceof Rule) {
+            Rule rule = (Rule) element;
+            collect(rule.getTarget(), requests);
+            if (rule.getCondition() != null)
+                collect(rule.getCondition(), requests, visited);
+        }
+
+        for (Object child : element.getChildren()) {
+            if (child instanceof PolicyTreeElement)
+                collect((PolicyTreeElement) child, requests, visited);
+        }
+    }
+
+    static void collect(AbstractTarget target, Set<AttributeRequest> requests) {
+        if (!(target instanceof Target) || ((Target) target).getAnyOfSelections() == null)
+            return;
+
+        for (AnyOfSelection anyOf : ((Target) target).getAnyOfSelections()) {
+            for (AllOfSelection allOf : anyOf.getAllOfSelections()) {
+                for (TargetMatch match : allOf.getMatches()) {
+                    if (match.getMatchEvaluatable() instanceof AttributeDesignator)
+                        add((AttributeDesignator) match.getMatchEvaluatable(), requests);
+                }
+            }
+        }
+    }
+
+    static void collect(Expression expression, Set<AttributeRequest> requests, Set<VariableDefinition> visited) {
+        if (expression instanceof AttributeDesignator) {
+            add((AttributeDesignator) expression, requests);
+        } else if (expression instanceof VariableReference) {
+            VariableDefinition definition = ((VariableReference) expression).getReferencedDefinition();
+            if (definition != null && visited.add(definition))
+                collect(definition.getExpression(), requests, visited);
+        } else if (expression instanceof Evaluatable) {
+            for (Object child : ((Evaluatable) expression).getChildren()) {
+                if (child instanceof Expression)
+                    collect((Expression) child, requests, visited);
+            }
+        }
+    }
+
+    static void add(AttributeDesignator designator, Set<AttributeRequest> requests) {
+        requests.add(new AttributeRequest(designator.getType(), designator.getId(), designator.getIssuer(),
+                designator.getCategory()));
+    }
+}
@@ -43,6 +43,10 @@ public class ProxyPolicy {
         return id;
     }
 
+    public AbstractTarget getTarget() {
+        return target;
+    }
+
     public boolean isPolicy() {
         return refType == PolicyReference.POLICY_REFERENCE;
     }
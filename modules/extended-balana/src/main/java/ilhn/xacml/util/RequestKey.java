@@ -0,0 +1,235 @@
+package ilhn.xacml.util;
+
+import org.w3c.dom.Node;
+import org.wso2.balana.InstancePool;
+import org.wso2.balana.attr.AttributeValue;
+import org.wso2.balana.ctx.Attribute;
+import org.wso2.balana.ctx.xacml3.RequestCtx;
+import org.wso2.balana.xacml3.Attributes;
+import org.wso2.balana.xacml3.AttributesReference;
+import org.wso2.balana.xacml3.RequestReference;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Canonical key of a XACML 3.0 request, used for decision caching.
+ * The request is normalized to category -> attribute id -> type -> sorted values, so requests
+ * differing only in serialization (whitespace, element/attribute order, namespace prefixes) map to
+ * the same key. Only the SHA-256 digest of the canonical form is retained.
+ */
+public final class RequestKey {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final InstancePool<MessageDigest> DIGESTS = new InstancePool<>(() -> {
+        try { return MessageDigest.getInstance("SHA-256"); }
+        catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+    });
+
+    private final byte[] digest;
+    private final int hash;
+
+    private RequestKey(byte[] digest) {
+        this.digest = digest;
+        this.hash = Arrays.hashCode(digest);
+    }
+
+    /**
+     * Creates the key of the given request.
+     *
+     * @param requestCtx parsed XACML 3.0 request
+     * @return <code>RequestKey</code>
+     */
+    public static RequestKey of(RequestCtx requestCtx) {
+        return digest(canonicalize(requestCtx));
+    }
+
+    /**
+     * Creates the key of the projection of the given request onto the given attributes. Attribute
+     * content is not part of the projection.
+     *
+     * @param requestCtx parsed XACML 3.0 request
+     * @param attributes attribute ids to keep, by category
+     * @return <code>RequestKey</code>
+     */
+    public static RequestKey of(RequestCtx requestCtx, Map<URI, Set<URI>> attributes) {
+        List<String> categories = new ArrayList<>(attributes.size());
+        for (Attributes category : requestCtx.getAttributesSet()) {
+            Set<URI> ids = attributes.get(category.getCategory());
+            if (ids != null)
+                categories.add(canonicalize(category, ids));
+        }
+        Collections.sort(categories);
+
+        StringBuilder builder = new StringBuilder(128);
+        for (String category : categories)
+            builder.append(category);
+
+        return digest(builder.toString());
+    }
+
+    private static RequestKey digest(String canonical) {
+        byte[] bytes = canonical.getBytes(StandardCharsets.UTF_8);
+        // digest() resets it for the next request
+        return new RequestKey(DIGESTS.apply(digest -> digest.digest(bytes)));
+    }
+
+    /**
+     * Builds the canonical string form of the given request. Every token is length prefixed,
+     * so values containing separator characters can't produce colliding encodings.
+     *
+     * @param requestCtx parsed XACML 3.0 request
+     * @return canonical form
+     */
+    public static String canonicalize(RequestCtx requestCtx) {
+        boolean multiRequests = requestCtx.getMultiRequests() != null;
+
+        List<String> categories = new ArrayList<>(requestCtx.getAttributesSet().size());
+        for (Attributes attributes : requestCtx.getAttributesSet())
+            categories.add(canonicalize(attributes, multiRequests));
+        Collections.sort(categories);
+
+        StringBuilder builder = new StringBuilder(256);
+        builder.append(requestCtx.isReturnPolicyIdList() ? 'R' : 'r')
+                .append(requestCtx.isCombinedDecision() ? 'C' : 'c');
+        if (requestCtx.getDefaults() != null)
+            token(builder.append('D'), requestCtx.getDefaults().getXPathVersion());
+
+        for (String category : categories)
+            builder.append(category);
+
+        if (multiRequests) {
+            List<String> references = new ArrayList<>();
+            for (RequestReference reference : requestCtx.getMultiRequests().getRequestReferences()) {
+                List<String> ids = new ArrayList<>();
+                for (AttributesReference attributesReference : reference.getReferences())
+                    ids.add(attributesReference.getId());
+                Collections.sort(ids);
+
+                StringBuilder referenceBuilder = new StringBuilder();
+                for (String id : ids)
+                    token(referenceBuilder, id);
+                references.add(referenceBuilder.toString());
+            }
+            Collections.sort(references);
+
+            builder.append('M');
+            for (String reference : references)
+                token(builder, reference);
+        }
+
+        return builder.toString();
+    }
+
+    private static String canonicalize(Attributes attributes, boolean includeId) {
+        StringBuilder builder = new StringBuilder(128);
+        token(builder.append('A'), attributes.getCategory().toString());
+        if (includeId)
+            token(builder.append('I'), attributes.getId());
+        if (attributes.getContent() != null)
+            token(builder.append('X'), serialize(attributes.getContent()));
+
+        return appendAttributes(builder, attributes, null).toString();
+    }
+
+    private static String canonicalize(Attributes attributes, Set<URI> ids) {
+        StringBuilder builder = new StringBuilder(128);
+        token(builder.append('A'), attributes.getCategory().toString());
+
+        return appendAttributes(builder, attributes, ids).toString();
+    }
+
+    private static StringBuilder appendAttributes(StringBuilder builder, Attributes attributes, Set<URI> ids) {
+        List<String> attributeList = new ArrayList<>(attributes.getAttributes().size());
+        for (Attribute attribute : attributes.getAttributes()) {
+            if (ids == null || ids.contains(attribute.getId()))
+                attributeList.add(canonicalize(attribute));
+        }
+        Collections.sort(attributeList);
+
+        for (String attribute : attributeList)
+            builder.append(attribute);
+
+        return builder;
+    }
+
+    private static String canonicalize(Attribute attribute) {
+        List<String> values = new ArrayList<>(attribute.getValues().size());
+        for (AttributeValue value : attribute.getValues())
+            values.add(value.encode());
+        Collections.sort(values);
+
+        StringBuilder builder = new StringBuilder(64);
+        token(builder.append('a'), attribute.getId().toString());
+        token(builder, attribute.getType().toString());
+        token(builder, attribute.getIssuer());
+        // only included attributes alter the response, the flag is noise otherwise
+        if (attribute.isIncludeInResult())
+            builder.append('+');
+
+        // bags may contain a value more than once, e.g. for bag-size functions, duplicates are kept
+        for (String value : values)
+            token(builder, value);
+
+        return builder.toString();
+    }
+
+    private static StringBuilder token(StringBuilder builder, String token) {
+        if (token == null)
+            return builder.append('-');
+
+        return builder.append(token.length()).append(':').append(token);
+    }
+
+    private static String serialize(Node node) {
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            StringWriter writer = new StringWriter();
+            transformer.transform(new DOMSource(node), new StreamResult(writer));
+            return writer.toString();
+        } catch (TransformerException e) {
+            throw new IllegalArgumentException("Failed to serialize attributes content", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RequestKey)) return false;
+
+        RequestKey other = (RequestKey) o;
+        return hash == other.hash && Arrays.equals(digest, other.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,261 @@
+package ilhn.xacml.util;
+
+import org.wso2.balana.AbstractTarget;
+import org.wso2.balana.TargetMatch;
+import org.wso2.balana.XACMLConstants;
+import org.wso2.balana.attr.AttributeValue;
+import org.wso2.balana.attr.BagAttribute;
+import org.wso2.balana.attr.StringAttribute;
+import org.wso2.balana.attr.xacml3.AttributeDesignator;
+import org.wso2.balana.cond.EqualFunction;
+import org.wso2.balana.cond.EvaluationResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.ctx.xacml3.XACML3EvaluationCtx;
+import org.wso2.balana.xacml3.AllOfSelection;
+import org.wso2.balana.xacml3.AnyOfSelection;
+import org.wso2.balana.xacml3.Target;
+
+import java.net.URI;
+import java.util.*;
+
+/**
+ * Inverted index over the equality matches of XACML 3.0 targets.
+ * For every item one <code>AnyOf</code> is indexed, provided each of its <code>AllOf</code> elements
+ * contains an equality match on an attribute designator. The item is registered under
+ * (category, attribute id, data type, literal value) of one such match per <code>AllOf</code>.
+ * Items without an indexable <code>AnyOf</code> (regex, comparisons, selectors, empty targets)
+ * are kept in a residual list and are always returned as candidates.
+ * Only attributes given in the request are looked up, the attribute finder is never asked; items
+ * indexed under an attribute missing in the request are returned as candidates like residual items.
+ *
+ * The index is a sound filter only: every item not returned by {@link #candidates(EvaluationCtx)}
+ * is guaranteed to not match, candidates still have to be matched against the request.
+ *
+ * @param <T> indexed item
+ */
+public class TargetIndex<T> {
+
+    private static final Set<String> EQUAL_FUNCTIONS = new HashSet<>(Arrays.asList(
+            EqualFunction.NAME_STRING_EQUAL,
+            EqualFunction.NAME_EQUAL_CASE_IGNORE,
+            EqualFunction.NAME_ANYURI_EQUAL,
+            EqualFunction.NAME_INTEGER_EQUAL,
+            EqualFunction.NAME_BOOLEAN_EQUAL));
+
+    private final List<T> items = new ArrayList<>();
+    private final Map<Slot, Slot> slots = new LinkedHashMap<>();
+    private final BitSet residual = new BitSet();
+
+    /**
+     * Adds an item with the given target. Items are returned in the order they were added.
+     *
+     * @param item item to index
+     * @param target target of the item
+     */
+    public void add(T item, AbstractTarget target) {
+        int ordinal = items.size();
+        items.add(item);
+
+        List<TargetMatch> matches = indexableMatches(target);
+        if (matches == null) {
+            residual.set(ordinal);
+            return;
+        }
+
+        for (TargetMatch match : matches) {
+            AttributeDesignator designator = (AttributeDesignator) match.getMatchEvaluatable();
+            Slot slot = slot(designator);
+            slot.all.set(ordinal);
+            slot.mustBePresent |= designator.mustBePresent();
+
+            if (ignoreCase(match))
+                slot.post(slot.ignoreCase, match.getMatchValue().encode().toLowerCase(), ordinal);
+            else
+                slot.post(slot.exact, match.getMatchValue(), ordinal);
+        }
+    }
+
+    /**
+     * Returns all items whose target may match the given request, in the order they were added.
+     *
+     * @param context evaluation context of the request
+     * @return candidate items
+     */
+    public List<T> candidates(EvaluationCtx context) {
+        BitSet selected = select(context);
+
+        List<T> candidates = new ArrayList<>(selected.cardinality());
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1))
+            candidates.add(items.get(i));
+        return candidates;
+    }
+
+    /**
+     * Returns the positions of all items whose target may match the given request, positions
+     * refer to the order the items were added in.
+     *
+     * @param context evaluation context of the request
+     * @return positions of the candidate items
+     */
+    public BitSet select(EvaluationCtx context) {
+        BitSet selected = (BitSet) residual.clone();
+        if (!(context instanceof XACML3EvaluationCtx)) {
+            selected.set(0, items.size());
+            return selected;
+        }
+
+        XACML3EvaluationCtx requestContext = (XACML3EvaluationCtx) context;
+        for (Slot slot : slots.values()) {
+            EvaluationResult result = requestContext.getRequestAttribute(slot.type, slot.id, null, slot.category);
+            if (result == null || result.indeterminate()) {
+                // the attribute finder may resolve any value
+                selected.or(slot.all);
+                continue;
+            }
+
+            BagAttribute bag = (BagAttribute) result.getAttributeValue();
+            if (bag.isEmpty()) {
+                // mandatory attributes lead to indeterminate matches
+                if (slot.mustBePresent)
+                    selected.or(slot.all);
+                continue;
+            }
+
+            Iterator<?> it = bag.iterator();
+            while (it.hasNext()) {
+                AttributeValue value = (AttributeValue) it.next();
+                if (value instanceof StringAttribute
+                        && XACMLConstants.ANY.equals(((StringAttribute) value).getValue())) {
+                    // EqualFunction matches any policy value in this case
+                    selected.or(slot.all);
+                    break;
+                }
+
+                BitSet exact = slot.exact.get(value);
+                if (exact != null)
+                    selected.or(exact);
+                if (!slot.ignoreCase.isEmpty()) {
+                    BitSet ignoreCase = slot.ignoreCase.get(value.encode().toLowerCase());
+                    if (ignoreCase != null)
+                        selected.or(ignoreCase);
+                }
+            }
+        }
+
+        return selected;
+    }
+
+    /**
+     * @return number of indexed items
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * @return number of items which are not indexed and always returned as candidates
+     */
+    public int residualSize() {
+        return residual.cardinality();
+    }
+
+    /**
+     * Picks the <code>AnyOf</code> with the fewest <code>AllOf</code> elements, where every
+     * <code>AllOf</code> contains an indexable match, and returns one match per <code>AllOf</code>.
+     */
+    private List<TargetMatch> indexableMatches(AbstractTarget target) {
+        if (!(target instanceof Target) || ((Target) target).getAnyOfSelections() == null)
+            return null;
+
+        List<TargetMatch> best = null;
+        for (AnyOfSelection anyOf : ((Target) target).getAnyOfSelections()) {
+            List<AllOfSelection> allOfs = anyOf.getAllOfSelections();
+            if (allOfs == null || allOfs.isEmpty() || (best != null && allOfs.size() >= best.size()))
+                continue;
+
+            List<TargetMatch> matches = new ArrayList<>(allOfs.size());
+            for (AllOfSelection allOf : allOfs) {
+                TargetMatch match = indexableMatch(allOf);
+                if (match == null)
+                    break;
+                matches.add(match);
+            }
+
+            if (matches.size() == allOfs.size())
+                best = matches;
+        }
+        return best;
+    }
+
+    private TargetMatch indexableMatch(AllOfSelection allOf) {
+        if (allOf.getMatches() == null)
+            return null;
+
+        for (TargetMatch match : allOf.getMatches()) {
+            if (!EQUAL_FUNCTIONS.contains(match.getMatchFunction().getIdentifier().toString()))
+                continue;
+            if (!(match.getMatchEvaluatable() instanceof AttributeDesignator))
+                continue;
+
+            AttributeDesignator designator = (AttributeDesignator) match.getMatchEvaluatable();
+            // issuer matching is not covered by the index
+            if (designator.getIssuer() == null && designator.getCategory() != null)
+                return match;
+        }
+        return null;
+    }
+
+    private static boolean ignoreCase(TargetMatch match) {
+        return EqualFunction.NAME_EQUAL_CASE_IGNORE.equals(match.getMatchFunction().getIdentifier().toString());
+    }
+
+    private Slot slot(AttributeDesignator designator) {
+        Slot key = new Slot(designator.getCategory(), designator.getId(), designator.getType());
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            slots.put(key, key);
+            slot = key;
+        }
+        return slot;
+    }
+
+    /**
+     * Postings of one (category, attribute id, data type) combination.
+     */
+    private static class Slot {
+        final URI category;
+        final URI id;
+        final URI type;
+        final int hash;
+
+        final BitSet all = new BitSet();
+        final Map<AttributeValue, BitSet> exact = new HashMap<>();
+        final Map<String, BitSet> ignoreCase = new HashMap<>();
+        boolean mustBePresent;
+
+        Slot(URI category, URI id, URI type) {
+            this.category = category;
+            this.id = id;
+            this.type = type;
+            this.hash = Objects.hash(category, id, type);
+        }
+
+        <K> void post(Map<K, BitSet> postings, K value, int ordinal) {
+            postings.computeIfAbsent(value, v -> new BitSet()).set(ordinal);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Slot)) return false;
+
+            Slot other = (Slot) o;
+            return category.equals(other.category) && id.equals(other.id) && type.equals(other.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
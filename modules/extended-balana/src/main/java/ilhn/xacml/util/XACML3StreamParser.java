@@ -2,11 +2,14 @@ package ilhn.xacml.util;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.wso2.balana.*;
 import org.wso2.balana.attr.AttributeValue;
 import org.wso2.balana.attr.xacml3.AttributeDesignator;
 import org.wso2.balana.attr.xacml3.AttributeSelector;
+import org.wso2.balana.attr.xacml3.XPathAttribute;
 import org.wso2.balana.combine.CombiningAlgorithm;
 import org.wso2.balana.combine.PolicyCombiningAlgorithm;
 import org.wso2.balana.combine.RuleCombiningAlgorithm;
@@ -17,7 +20,13 @@ import org.wso2.balana.ctx.xacml3.Result;
 import org.wso2.balana.finder.PolicyFinder;
 import org.wso2.balana.xacml3.*;
 
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.StreamFilter;
 import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import java.io.*;
@@ -33,6 +42,27 @@ public class XACML3StreamParser {
             "Comment", "Space", "Start Document", "End Document", "Entity Reference", "Attribute", "DTD", "CDATA",
             "Namespace", "Notation Declaration", "Entity Declaration"};
 
+    private static volatile int ruleMemoSize = 0;
+    private static volatile boolean decisionDiagrams = false;
+    private static volatile boolean ruleDispatch = false;
+
+    // document builders aren't thread safe
+    private static final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+    private static final InstancePool<DocumentBuilder> documentBuilders = new InstancePool<>(() -> {
+        try {
+            // the factory isn't thread safe either
+            synchronized (documentBuilderFactory) {
+                return documentBuilderFactory.newDocumentBuilder();
+            }
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    static {
+        documentBuilderFactory.setNamespaceAware(true);
+    }
+
     private interface ParseFunction<T, R> {
         R apply(T t) throws ParsingException, XMLStreamException;
     }
@@ -41,6 +71,40 @@ public class XACML3StreamParser {
         R apply(T t, U u) throws ParsingException, XMLStreamException;
     }
 
+    /**
+     * Enables memoization of the combined rule results for policies parsed afterwards, see
+     * {@link MemoizingRuleCombiningAlg}.
+     *
+     * @param memoSize maximum number of memoized results per policy, 0 disables memoization
+     */
+    public static void setRuleMemoSize(int memoSize) {
+        if (memoSize < 0)
+            throw new IllegalArgumentException("memoSize may not be negative");
+        ruleMemoSize = memoSize;
+    }
+
+    /**
+     * Enables compiling the targets of the rules of policies and of the policies of policy sets
+     * parsed afterwards into decision diagrams, see {@link DecisionDiagram}. Policies whose rules
+     * aren't compilable are dispatched through a {@link TargetIndex} if enabled by
+     * {@link #setRuleDispatch(boolean)}.
+     *
+     * @param enabled true to compile decision diagrams
+     */
+    public static void setDecisionDiagrams(boolean enabled) {
+        decisionDiagrams = enabled;
+    }
+
+    /**
+     * Enables dispatching the rules of policies parsed afterwards through an index of their
+     * targets, see {@link DispatchingRuleCombiningAlg}.
+     *
+     * @param enabled true to dispatch rules
+     */
+    public static void setRuleDispatch(boolean enabled) {
+        ruleDispatch = enabled;
+    }
+
     public static RequestCtx readRequest(InputStream inputStream) throws XMLStreamException, ParsingException {
         return readRequest(createReader(inputStream));
     }
@@ -156,16 +220,14 @@ public class XACML3StreamParser {
 
     private static XMLStreamReader createReader(InputStream inputStream) throws XMLStreamException {
         XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(inputStream);
-        xmlStreamReader = xmlInputFactory.createFilteredReader(xmlStreamReader, event -> (
-                event.isStartElement() || event.isEndElement()));
+        xmlStreamReader = xmlInputFactory.createFilteredReader(xmlStreamReader, new ElementFilter());
 
         return xmlStreamReader;
     }
 
     private static XMLStreamReader createReader(Reader reader) throws XMLStreamException {
         XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(reader);
-        xmlStreamReader = xmlInputFactory.createFilteredReader(xmlStreamReader, event -> (
-                event.isStartElement() || event.isEndElement()));
+        xmlStreamReader = xmlInputFactory.createFilteredReader(xmlStreamReader, new ElementFilter());
 
         return xmlStreamReader;
     }
@@ -185,9 +247,10 @@ public class XACML3StreamParser {
             throw failedToParseRequiredAttribute("CombinedDecision", null);
         boolean combinedDecision = Boolean.parseBoolean(combinedDecisionValue);
         if (combinedDecision)
-            throw new ParsingException("MultipleDecisionProfile is not supported!");
+            throw new ParsingException("CombinedDecision is not supported!");
 
         RequestDefaults requestDefaults = null;
+        MultiRequests multiRequests = null;
         Set<Attributes> attributes = new LinkedHashSet<>();
 
         while (reader.hasNext()) {
@@ -206,7 +269,11 @@ public class XACML3StreamParser {
                 case "Attributes":
                     attributes.add(parseAttributes(reader));
                     break;
-                case "MultiRequests": throw new ParsingException("MultiRequests element is unsupported!");
+                case "MultiRequests":
+                    if (multiRequests != null)
+                        throw failedToCreate("Request. Too many MultiRequests.", null);
+                    multiRequests = parseMultiRequests(reader);
+                    break;
                 default: throw unexpectedElement("Request", name);
             }
         }
@@ -214,7 +281,55 @@ public class XACML3StreamParser {
         if (attributes.isEmpty())
             throw failedToParseRequiredAttribute("Attributes", null);
 
-        return new RequestCtx(null, attributes, returnPolicyIdList, combinedDecision, null, requestDefaults);
+        return new RequestCtx(null, attributes, returnPolicyIdList, combinedDecision, multiRequests, requestDefaults);
+    }
+
+    private static MultiRequests parseMultiRequests(XMLStreamReader reader) throws ParsingException, XMLStreamException {
+        checkProperStart("MultiRequests", reader);
+        Set<RequestReference> requestReferences = new LinkedHashSet<>();
+
+        while (reader.hasNext()) {
+            reader.next();
+
+            if (reader.isEndElement())
+                break;
+
+            requestReferences.add(parseRequestReference(reader));
+        }
+
+        if (requestReferences.isEmpty())
+            throw mustContain("MultiRequests", "RequestReference");
+
+        return new MultiRequests(requestReferences);
+    }
+
+    private static RequestReference parseRequestReference(XMLStreamReader reader) throws ParsingException, XMLStreamException {
+        checkProperStart("RequestReference", reader);
+        Set<AttributesReference> attributesReferences = new LinkedHashSet<>();
+
+        while (reader.hasNext()) {
+            reader.next();
+
+            if (reader.isEndElement())
+                break;
+
+            checkProperStart("AttributesReference", reader);
+            String referenceId = reader.getAttributeValue(null, "ReferenceId");
+            if (referenceId == null)
+                throw failedToParseRequiredAttribute("ReferenceId", null);
+
+            AttributesReference attributesReference = new AttributesReference();
+            attributesReference.setId(referenceId);
+            attributesReferences.add(attributesReference);
+            reader.next();
+        }
+
+        if (attributesReferences.isEmpty())
+            throw mustContain("RequestReference", "AttributesReference");
+
+        RequestReference requestReference = new RequestReference();
+        requestReference.setReferences(attributesReferences);
+        return requestReference;
     }
 
     private static Attributes parseAttributes(XMLStreamReader reader) throws ParsingException, XMLStreamException {
@@ -222,7 +337,7 @@ public class XACML3StreamParser {
 
         URI category;
         try {
-            category = new URI(reader.getAttributeValue(null, "Category"));
+            category = URIInterner.get(reader.getAttributeValue(null, "Category"));
         } catch (URISyntaxException e) {
             throw failedToParseRequiredAttribute("Category", e);
         }
@@ -239,7 +354,11 @@ public class XACML3StreamParser {
 
             String name = reader.getLocalName();
             switch (name) {
-                case "Content": throw new ParsingException("Unsupported Element: XPath Content");
+                case "Content":
+                    if (content != null)
+                        throw failedToCreate("Attributes. Too many Content elements.", null);
+                    content = parseContent(reader);
+                    break;
                 case "Attribute":
                     attributes.add(parseAttribute(reader));
                     break;
@@ -250,12 +369,88 @@ public class XACML3StreamParser {
         return new Attributes(category, content, attributes, id);
     }
 
+    /**
+     * Creates an empty document with a pooled builder.
+     */
+    private static Document newDocument() throws ParsingException {
+        try {
+            return documentBuilders.apply(DocumentBuilder::newDocument);
+        } catch (IllegalStateException e) {
+            throw failedToCreate("Content", e);
+        }
+    }
+
+    /**
+     * Builds a DOM fragment of the Content element, only the element inside Content is
+     * materialized, as child of its own document.
+     */
+    private static Node parseContent(XMLStreamReader reader) throws ParsingException, XMLStreamException {
+        checkProperStart("Content", reader);
+
+        Document document = newDocument();
+        Node parent = document;
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (parent == document && document.getDocumentElement() != null)
+                        throw failedToCreate("Content. Too many elements.", null);
+                    parent = parent.appendChild(createElement(document, reader));
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (parent == document)
+                        return document.getDocumentElement();
+                    parent = parent.getParentNode();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    if (parent != document)
+                        parent.appendChild(document.createTextNode(reader.getText()));
+                    break;
+                case XMLStreamConstants.CDATA:
+                    if (parent != document)
+                        parent.appendChild(document.createCDATASection(reader.getText()));
+                    break;
+            }
+        }
+
+        throw failedToCreate("Content", null);
+    }
+
+    private static Element createElement(Document document, XMLStreamReader reader) {
+        Element element = document.createElementNS(emptyToNull(reader.getNamespaceURI()),
+                qualifiedName(reader.getPrefix(), reader.getLocalName()));
+
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                    (prefix == null || prefix.isEmpty()) ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix,
+                    reader.getNamespaceURI(i));
+        }
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+                    qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                    reader.getAttributeValue(i));
+        }
+
+        return element;
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return (prefix == null || prefix.isEmpty()) ? localName : prefix + ":" + localName;
+    }
+
+    private static String emptyToNull(String value) {
+        return (value == null || value.isEmpty()) ? null : value;
+    }
+
     private static Attribute parseAttribute(XMLStreamReader reader) throws ParsingException, XMLStreamException {
         checkProperStart("Attribute", reader);
 
         URI id;
         try {
-            id = new URI(reader.getAttributeValue(null, "AttributeId"));
+            id = URIInterner.get(reader.getAttributeValue(null, "AttributeId"));
         } catch (URISyntaxException e) {
             throw failedToParseRequiredAttribute("Attributeid", e);
         }
@@ -267,7 +462,7 @@ public class XACML3StreamParser {
         boolean includeInResult = Boolean.parseBoolean(includeInResultValue);
 
         List<AttributeValue> attributeValues = parseLoop(reader, null,
-                (streamReader, xpathVersion) -> parseAttributeValue(streamReader));
+                (streamReader, xpathVersion) -> parseAttributeValue(streamReader, false));
 
         if (attributeValues.isEmpty())
             throw failedToParseRequiredAttribute("AttributeValue", null);
@@ -401,6 +596,9 @@ public class XACML3StreamParser {
         if (target == null)
             throw failedToParseRequiredAttribute("Target", null);
 
+        if (decisionDiagrams)
+            combiningAlg = DecisionDiagramPolicyCombiningAlg.compile(combiningAlg, policies);
+
         return new PolicySet(id, version, combiningAlg,
                 new PolicyMetaData(XACMLConstants.XACML_3_0_IDENTIFIER, defaultVersion),
                 description, target, policies, defaultVersion, obligations, advices, null);
@@ -482,6 +680,15 @@ public class XACML3StreamParser {
 
         Set<VariableDefinition> variableDefinitions = new LinkedHashSet<>(variableMap.values());
 
+        if (decisionDiagrams)
+            combiningAlg = DecisionDiagramRuleCombiningAlg.compile(combiningAlg, rules);
+        if (ruleDispatch && !(combiningAlg instanceof DecisionDiagramRuleCombiningAlg))
+            combiningAlg = DispatchingRuleCombiningAlg.compile(combiningAlg, rules);
+
+        int memoSize = ruleMemoSize;
+        if (memoSize > 0 && MemoizingRuleCombiningAlg.isMemoizable(rules))
+            combiningAlg = new MemoizingRuleCombiningAlg(combiningAlg, rules, memoSize);
+
         return new Policy(id, version, combiningAlg, description,
                 new PolicyMetaData(XACMLConstants.XACML_3_0_IDENTIFIER, defaultVersion),
                 target, defaultVersion, rules, obligations, advices, variableDefinitions);
@@ -527,7 +734,7 @@ public class XACML3StreamParser {
         checkProperStart("Target", reader);
         List<AnyOfSelection> anyOfSelections = parseLoop(reader, defaultVersion, XACML3StreamParser::parseAnyOfSelection);
 
-        return new Target(anyOfSelections);
+        return PolicyInterner.intern(new Target(anyOfSelections));
     }
 
     private static AnyOfSelection parseAnyOfSelection(XMLStreamReader reader, String defaultVersion) throws ParsingException, XMLStreamException {
@@ -566,7 +773,7 @@ public class XACML3StreamParser {
 
         reader.next();
         checkProperStart("AttributeValue", reader);
-        AttributeValue attributeValue = parseAttributeValue(reader);
+        AttributeValue attributeValue = parseAttributeValue(reader, true);
 
         reader.next();
         switch (reader.getLocalName()) {
@@ -586,10 +793,19 @@ public class XACML3StreamParser {
         return new TargetMatch(function, evaluatable, attributeValue);
     }
 
-    private static AttributeValue parseAttributeValue(XMLStreamReader reader) throws ParsingException, XMLStreamException {
+    /**
+     * @param policy true for values of policies, their data types are interned, the data types of
+     *               request values are only looked up
+     */
+    private static AttributeValue parseAttributeValue(XMLStreamReader reader, boolean policy) throws ParsingException, XMLStreamException {
         checkProperStart("AttributeValue", reader);
         try {
-            URI datatype = new URI(reader.getAttributeValue(null, "DataType"));
+            String datatypeValue = reader.getAttributeValue(null, "DataType");
+            URI datatype = policy ? URIInterner.intern(datatypeValue) : URIInterner.get(datatypeValue);
+            if (XPathAttribute.identifier.equals(datatype.toString())) {
+                String xpathCategory = reader.getAttributeValue(null, "XPathCategory");
+                return XPathAttribute.getInstance(reader.getElementText(), xpathCategory);
+            }
             String value = reader.getElementText();
 
             return Balana.getInstance().getAttributeFactory().createValue(datatype, value);
@@ -601,9 +817,10 @@ public class XACML3StreamParser {
     private static AttributeDesignator parseAttributeDesignator(XMLStreamReader reader) throws ParsingException, XMLStreamException {
         checkProperStart("AttributeDesignator", reader);
         try {
-            URI datatype = new URI(reader.getAttributeValue(null, "DataType"));
-            URI attributeId = new URI(reader.getAttributeValue(null, "AttributeId"));
-            URI category = new URI(reader.getAttributeValue(null, "Category"));
+            URI datatype = URIInterner.intern(reader.getAttributeValue(null, "DataType"));
+            URI attributeId = URIInterner.intern(reader.getAttributeValue(null, "AttributeId"));
+            URI category = URIInterner.intern(reader.getAttributeValue(null, "Category"));
+            String issuer = reader.getAttributeValue(null, "Issuer");
 
             String mustBePresentValue = reader.getAttributeValue(null, "MustBePresent");
             if (mustBePresentValue == null || (!mustBePresentValue.equalsIgnoreCase("true") && !mustBePresentValue.equalsIgnoreCase("false")))
@@ -611,7 +828,7 @@ public class XACML3StreamParser {
             boolean mustBePresent = Boolean.parseBoolean(mustBePresentValue);
 
             reader.next();
-            return new AttributeDesignator(datatype, attributeId, mustBePresent, category);
+            return new AttributeDesignator(datatype, attributeId, mustBePresent, issuer, category);
         } catch (URISyntaxException e) {
             throw failedToCreate("AttributeDesignator", e);
         }
@@ -621,15 +838,13 @@ public class XACML3StreamParser {
         checkProperStart("AttributeSelector", reader);
         if (defaultVersion == null)
             throw failedToParseRequiredAttribute("AttributeSelector. Missing XPathVersion.", null);
-        // TODO remove once/if xPath is supported
-        throw new ParsingException("Unsupported Element: AttributeSelector");
 
-        /*try {
-            URI category = new URI(reader.getAttributeValue(null, "Category"));
-            URI datatype = new URI(reader.getAttributeValue(null, "DataType"));
+        try {
+            URI category = URIInterner.intern(reader.getAttributeValue(null, "Category"));
+            URI datatype = URIInterner.intern(reader.getAttributeValue(null, "DataType"));
 
             String contextSelectorIdValue = reader.getAttributeValue(null, "ContextSelectorId");
-            URI contextSelectorId = (contextSelectorIdValue == null) ? null : new URI(contextSelectorIdValue);
+            URI contextSelectorId = (contextSelectorIdValue == null) ? null : URIInterner.intern(contextSelectorIdValue);
 
             String path = reader.getAttributeValue(null, "Path");
             if (path == null)
@@ -644,7 +859,7 @@ public class XACML3StreamParser {
             return new AttributeSelector(category, datatype, contextSelectorId, path, mustBePresent, defaultVersion);
         } catch (URISyntaxException e) {
             throw failedToCreate("AttributeSelector", e);
-        }*/
+        }
     }
 
     private static VariableDefinition parseVariableDefinition(XMLStreamReader reader, Map<String,
@@ -672,7 +887,7 @@ public class XACML3StreamParser {
         String name = reader.getLocalName();
         switch (name) {
             case "Apply": return parseApply(reader, variableMap, defaultVersion);
-            case "AttributeValue": return parseAttributeValue(reader);
+            case "AttributeValue": return parseAttributeValue(reader, true);
             case "AttributeDesignator": return parseAttributeDesignator(reader);
             case "AttributeSelector": return parseAttributeSelector(reader, defaultVersion);
             case "Function": return parseFunction(reader);
@@ -783,7 +998,7 @@ public class XACML3StreamParser {
         Expression expression = parseExpression(reader, variableMap, defaultVersion);
 
         reader.next();
-        return new Condition(expression);
+        return new Condition(PolicyInterner.intern(expression));
     }
 
     private static Set<AbstractObligation> parseObligationExpressions(XMLStreamReader reader,
@@ -947,4 +1162,30 @@ public class XACML3StreamParser {
     private static ParsingException cantCreateFrom(String elementToCreate, String nameFound) {
         return new ParsingException("Can't create " + elementToCreate + " from " + nameFound);
     }
+
+    /**
+     * Passes only start and end elements, except inside Content, where text is kept for the
+     * DOM fragment. Keeps state, so every reader needs its own filter.
+     */
+    private static class ElementFilter implements StreamFilter {
+        int contentDepth;
+
+        @Override
+        public boolean accept(XMLStreamReader reader) {
+            if (reader.isStartElement()) {
+                if (contentDepth > 0 || reader.getLocalName().equals("Content"))
+                    contentDepth++;
+                return true;
+            }
+            if (reader.isEndElement()) {
+                if (contentDepth > 0)
+                    contentDepth--;
+                return true;
+            }
+
+            int event = reader.getEventType();
+            return contentDepth > 0 && (event == XMLStreamConstants.CHARACTERS
+                    || event == XMLStreamConstants.SPACE || event == XMLStreamConstants.CDATA);
+        }
+    }
 }
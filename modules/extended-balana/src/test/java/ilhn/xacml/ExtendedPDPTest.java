@@ -0,0 +1,323 @@
+package ilhn.xacml;
+
+import ilhn.xacml.finder.ProxyFilebasedPolicyFinderModule;
+import ilhn.xacml.util.Cacheability;
+import ilhn.xacml.util.CacheabilityAnalyzer;
+import ilhn.xacml.util.RandomPolicies;
+import ilhn.xacml.util.RequestKey;
+import ilhn.xacml.util.XACML3StreamParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wso2.balana.PDPConfig;
+import org.wso2.balana.attr.StringAttribute;
+import org.wso2.balana.ctx.AbstractRequestCtx;
+import org.wso2.balana.finder.AttributeFinder;
+import org.wso2.balana.finder.PolicyFinder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ExtendedPDPTest {
+
+    static final String ACTION = "urn:oasis:names:tc:xacml:3.0:attribute-category:action";
+    static final String ACTION_ID = "urn:oasis:names:tc:xacml:1.0:action:action-id";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static String request(String action) {
+        return "<Request xmlns=\"" + RandomPolicies.NAMESPACE + "\" CombinedDecision=\"false\""
+                + " ReturnPolicyIdList=\"false\"><Attributes Category=\"" + ACTION + "\"><Attribute AttributeId=\""
+                + ACTION_ID + "\" IncludeInResult=\"false\"><AttributeValue DataType=\"" + StringAttribute.identifier
+                + "\">" + action + "</AttributeValue></Attribute></Attributes></Request>";
+    }
+
+    static RequestKey key(String request) throws Exception {
+        return RequestKey.of(XACML3StreamParser.readRequest(request));
+    }
+
+    /**
+     * @return policy applying to the given action, named after it, with the given rule
+     */
+    static String policy(String action, String rule) {
+        return "<Policy xmlns=\"" + RandomPolicies.NAMESPACE + "\" PolicyId=\"" + action
+                + "\" Version=\"1.0\" RuleCombiningAlgId=\""
+                + "urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:deny-overrides\"><Target><AnyOf><AllOf>"
+                + "<Match MatchId=\"urn:oasis:names:tc:xacml:1.0:function:string-equal\"><AttributeValue DataType=\""
+                + StringAttribute.identifier + "\">" + action + "</AttributeValue><AttributeDesignator AttributeId=\""
+                + ACTION_ID + "\" Category=\"" + ACTION + "\" DataType=\"" + StringAttribute.identifier
+                + "\" MustBePresent=\"false\"/></Match></AllOf></AnyOf></Target>" + rule + "</Policy>";
+    }
+
+    static final String PERMIT = "<Rule RuleId=\"r\" Effect=\"Permit\"/>";
+
+    PDPConfig pdpConfig(String rule) throws Exception {
+        File policyDir = folder.newFolder();
+        for (String action : new String[] { "read", "write" })
+            Files.write(new File(policyDir, action).toPath(), policy(action, rule).getBytes(StandardCharsets.UTF_8));
+
+        PolicyFinder policyFinder = new PolicyFinder();
+        policyFinder.setModules(Collections.singleton(new ProxyFilebasedPolicyFinderModule(policyDir.getPath(), 0, 100)));
+        policyFinder.init();
+        AttributeFinder attributeFinder = new AttributeFinder();
+        attributeFinder.setModules(new ArrayList<>());
+        return new PDPConfig(attributeFinder, policyFinder, null);
+    }
+
+    PDPConfig pdpConfig() throws Exception {
+        return pdpConfig(PERMIT);
+    }
+
+    /**
+     * @return analyzer treating the action id as PIP attribute, which all targets read
+     */
+    static CacheabilityAnalyzer cacheability(long pipTtl) throws Exception {
+        CacheabilityAnalyzer analyzer = new CacheabilityAnalyzer(
+                request -> ACTION_ID.equals(request.getId().toString()), pipTtl);
+        for (String action : new String[] { "read", "write" })
+            analyzer.addPolicy(action, XACML3StreamParser.readPolicy(policy(action, PERMIT)));
+        return analyzer;
+    }
+
+    /**
+     * PDP blocking the first evaluation after the policies were evaluated, until released
+     */
+    static class BlockingPDP extends ExtendedPDP {
+        final CountDownLatch evaluated = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        final AtomicInteger evaluations = new AtomicInteger();
+
+        BlockingPDP(PDPConfig pdpConfig) {
+            super(pdpConfig, 100);
+        }
+
+        @Override
+        PDPDecision evaluateWithCache(AbstractRequestCtx requestCtx) {
+            PDPDecision decision = super.evaluateWithCache(requestCtx);
+            if (evaluations.getAndIncrement() == 0)
+                await(evaluated, released);
+            return decision;
+        }
+
+        static void await(CountDownLatch reached, CountDownLatch released) {
+            reached.countDown();
+            try {
+                assertTrue(released.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Test
+    public void invalidationDuringEvaluationDropsTheDecision() throws Exception {
+        BlockingPDP pdp = new BlockingPDP(pdpConfig());
+        CompletableFuture<String> response = CompletableFuture.supplyAsync(() -> pdp.evaluate(request("read")));
+        assertTrue(pdp.evaluated.await(10, TimeUnit.SECONDS));
+        pdp.invalidatePolicy("read");
+        pdp.released.countDown();
+
+        assertTrue(response.get(10, TimeUnit.SECONDS).contains("Permit"));
+        assertNull(pdp.cache.getIfPresent(key(request("read"))));
+        pdp.evaluate(request("read"));
+        assertEquals(2, pdp.evaluations.get());
+        assertNotNull(pdp.cache.getIfPresent(key(request("read"))));
+    }
+
+    @Test
+    public void invalidationBeforeIndexingDropsTheDecision() throws Exception {
+        CountDownLatch inserted = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        ExtendedPDP pdp = new ExtendedPDP(pdpConfig(), 100) {
+            final AtomicInteger indexed = new AtomicInteger();
+
+            @Override
+            boolean index(RequestKey key, PDPDecision decision) {
+                if (indexed.getAndIncrement() == 0)
+                    BlockingPDP.await(inserted, released);
+                return super.index(key, decision);
+            }
+        };
+        CompletableFuture<String> response = CompletableFuture.supplyAsync(() -> pdp.evaluate(request("read")));
+        assertTrue(inserted.await(10, TimeUnit.SECONDS));
+        // the decision is in the cache but not yet registered with its policy
+        assertNotNull(pdp.cache.getIfPresent(key(request("read"))));
+        pdp.invalidatePolicy("read");
+        released.countDown();
+
+        response.get(10, TimeUnit.SECONDS);
+        assertNull(pdp.cache.getIfPresent(key(request("read"))));
+        assertNull(pdp.policyIndex.get("read"));
+    }
+
+    @Test
+    public void invalidationEvictsTheDecisionsOfThePolicy() throws Exception {
+        ExtendedPDP pdp = new ExtendedPDP(pdpConfig(), 100);
+        pdp.evaluate(request("read"));
+        pdp.evaluate(request("write"));
+        pdp.invalidatePolicy("read");
+
+        assertNull(pdp.cache.getIfPresent(key(request("read"))));
+        assertNotNull(pdp.cache.getIfPresent(key(request("write"))));
+    }
+
+    @Test
+    public void expiredDecisionIsReplaced() throws Exception {
+        ExtendedPDP pdp = new ExtendedPDP(pdpConfig(), 100);
+        pdp.setCacheability(cacheability(Cacheability.HOUR));
+        RequestKey key = key(request("read"));
+        long now = System.currentTimeMillis();
+
+        pdp.evaluate(request("read"));
+        ExtendedPDP.PDPDecision first = pdp.cache.getIfPresent(key);
+        assertNotNull(first);
+        assertTrue(first.expiresAt >= now + Cacheability.HOUR && first.expiresAt <= System.currentTimeMillis()
+                + Cacheability.HOUR);
+
+        first.expiresAt = now - 1;
+        assertNull(pdp.cached(key));
+        ExtendedPDP.PDPDecision second = pdp.decide(request("read"));
+        assertNotSame(first, second);
+        assertFalse(second.isExpired());
+        assertSame(second, pdp.cache.getIfPresent(key));
+        assertTrue(pdp.policyIndex.get("read").contains(key));
+
+        second.expiresAt = now - 1;
+        pdp.purgeExpired();
+        assertNull(pdp.cache.getIfPresent(key));
+    }
+
+    @Test
+    public void expiredDecisionsAreNotReturnedInBatches() throws Exception {
+        ExtendedPDP pdp = new ExtendedPDP(pdpConfig(), 100);
+        pdp.setCacheability(cacheability(Cacheability.HOUR));
+        pdp.evaluateBatch(Arrays.asList(request("read"), request("write")));
+        ExtendedPDP.PDPDecision read = pdp.cache.getIfPresent(key(request("read")));
+        ExtendedPDP.PDPDecision write = pdp.cache.getIfPresent(key(request("write")));
+        read.expiresAt = 0;
+
+        pdp.evaluateBatch(Arrays.asList(request("read"), request("write")));
+        assertNotSame(read, pdp.cache.getIfPresent(key(request("read"))));
+        assertSame(write, pdp.cache.getIfPresent(key(request("write"))));
+    }
+
+    @Test
+    public void uncacheableDecisionsAreNotInserted() throws Exception {
+        ExtendedPDP pdp = new ExtendedPDP(pdpConfig(), 100);
+        // PIP attributes without time to live
+        pdp.setCacheability(cacheability(0));
+        assertTrue(pdp.evaluate(request("read")).contains("Permit"));
+        assertNull(pdp.cache.getIfPresent(key(request("read"))));
+        assertFalse(pdp.policyIndex.containsKey("read"));
+
+        // decisions of policies unknown to the analyzer
+        pdp.setCacheability(new CacheabilityAnalyzer(request -> false, 0));
+        pdp.evaluate(request("read"));
+        assertNull(pdp.cache.getIfPresent(key(request("read"))));
+
+        pdp.setCacheability(null);
+        pdp.evaluate(request("read"));
+        assertNotNull(pdp.cache.getIfPresent(key(request("read"))));
+    }
+
+    /**
+     * @return the cause the future failed with
+     */
+    static Throwable failure(CompletableFuture<?> future) throws Exception {
+        assertTrue(future.isCompletedExceptionally());
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        throw new AssertionError("future didn't fail");
+    }
+
+    static final Executor UNUSED = task -> {
+        throw new AssertionError("cache hits are completed inline");
+    };
+
+    @Test
+    public void evaluationsOverTheLimitAreRejected() throws Exception {
+        BlockingPDP pdp = new BlockingPDP(pdpConfig());
+        pdp.setMaxInFlight(1);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            CompletableFuture<String> blocked = pdp.evaluateAsync(request("read"), executor);
+            assertTrue(pdp.evaluated.await(10, TimeUnit.SECONDS));
+
+            assertTrue(failure(pdp.evaluateAsync(request("write"), executor)) instanceof RejectedExecutionException);
+            pdp.released.countDown();
+            assertTrue(blocked.get(10, TimeUnit.SECONDS).contains("Permit"));
+            assertTrue(pdp.evaluateAsync(request("write"), executor).get(10, TimeUnit.SECONDS).contains("Permit"));
+            assertEquals(1, pdp.inFlight.availablePermits());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failedEvaluationsReleaseTheirPermit() throws Exception {
+        AtomicInteger evaluations = new AtomicInteger();
+        ExtendedPDP pdp = new ExtendedPDP(pdpConfig(), 100) {
+            @Override
+            PDPDecision evaluateWithCache(AbstractRequestCtx requestCtx) {
+                if (evaluations.getAndIncrement() == 0)
+                    throw new IllegalStateException("evaluation failed");
+                return super.evaluateWithCache(requestCtx);
+            }
+        };
+        pdp.setMaxInFlight(1);
+
+        // rejected by the executor
+        Executor rejecting = task -> {
+            throw new RejectedExecutionException("executor shut down");
+        };
+        assertEquals("executor shut down", failure(pdp.evaluateAsync(request("read"), rejecting)).getMessage());
+        assertEquals(1, pdp.inFlight.availablePermits());
+
+        // failing evaluation
+        CompletableFuture<String> failed = pdp.evaluateAsync(request("read"), Runnable::run);
+        assertEquals("evaluation failed", failure(failed).getMessage());
+        assertEquals(1, pdp.inFlight.availablePermits());
+
+        assertTrue(pdp.evaluateAsync(request("read"), Runnable::run).get().contains("Permit"));
+        assertEquals(1, pdp.inFlight.availablePermits());
+    }
+
+    @Test
+    public void cacheHitsCompleteInline() throws Exception {
+        ExtendedPDP pdp = new ExtendedPDP(pdpConfig(), 100);
+        pdp.evaluate(request("read"));
+        pdp.setMaxInFlight(1);
+        // all permits in use, cache hits aren't counted
+        pdp.inFlight.acquire();
+
+        CompletableFuture<String> hit = pdp.evaluateAsync(request("read"), UNUSED);
+        assertTrue(hit.isDone());
+        assertTrue(hit.get().contains("Permit"));
+        assertTrue(failure(pdp.evaluateAsync(request("write"), UNUSED)) instanceof RejectedExecutionException);
+    }
+}
@@ -0,0 +1,134 @@
+package ilhn.xacml.finder;
+
+import ilhn.xacml.util.RandomPolicies;
+import ilhn.xacml.util.TargetCases;
+import ilhn.xacml.util.XACML3StreamParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wso2.balana.AbstractPolicy;
+import org.wso2.balana.PDPConfig;
+import org.wso2.balana.PolicyReference;
+import org.wso2.balana.ctx.xacml3.RequestCtx;
+import org.wso2.balana.finder.PolicyFinder;
+import org.wso2.balana.finder.PolicyFinderResult;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static ilhn.xacml.finder.ProxyFilebasedPolicyFinderModuleTest.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class BitsetPolicyFinderModuleTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void selectsLikeTheProxyModule() throws Exception {
+        for (int seed = 1; seed <= 4; seed++) {
+            // rarely and frequently mandatory attributes, the latter make many targets indeterminate
+            for (int mandatory : new int[] { 40, 6 }) {
+                RandomPolicies random = new RandomPolicies(seed);
+                random.setMandatory(mandatory);
+                File policyDir = folder.newFolder();
+                Map<String, AbstractPolicy> policies = writePolicies(random, policyDir, 60);
+                PDPConfig pdpConfig = RandomPolicies.pdpConfig();
+
+                PolicyFinder proxyFinder =
+                        policyFinder(new ProxyFilebasedPolicyFinderModule(policyDir.getPath(), 0, 1000));
+                PolicyFinder bitsetFinder = policyFinder(new BitsetPolicyFinderModule(policyDir.getPath(), 1000));
+
+                for (int i = 0; i < 500; i++) {
+                    RequestCtx requestCtx = XACML3StreamParser.readRequest(random.request());
+                    String message = "seed " + seed + ", mandatory " + mandatory + ", request " + i;
+                    String expected = selection(proxyFinder.findPolicy(context(requestCtx, pdpConfig)));
+                    assertEquals(message, selection(policies, context(requestCtx, pdpConfig)), expected);
+                    assertEquals(message, expected, selection(bitsetFinder.findPolicy(context(requestCtx, pdpConfig))));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void selectsTargetCasesLikeTheirTargets() throws Exception {
+        PDPConfig pdpConfig = TargetCases.pdpConfig();
+        // one directory per target, so failures name it, and one with all targets
+        Map<String, File> directories = new LinkedHashMap<>();
+        File all = folder.newFolder();
+        for (String name : TargetCases.TARGETS.keySet()) {
+            File policyDir = folder.newFolder();
+            for (File dir : Arrays.asList(policyDir, all))
+                Files.write(new File(dir, name).toPath(), TargetCases.policy(name).getBytes(StandardCharsets.UTF_8));
+            directories.put("target " + name, policyDir);
+        }
+        directories.put("all targets", all);
+
+        for (Map.Entry<String, File> directory : directories.entrySet()) {
+            Map<String, AbstractPolicy> policies = new HashMap<>();
+            for (File file : directory.getValue().listFiles())
+                policies.put(file.getName(), XACML3StreamParser.readPolicy(file));
+            PolicyFinder bitsetFinder = policyFinder(new BitsetPolicyFinderModule(directory.getValue().getPath(), 100));
+            PolicyFinder proxyFinder =
+                    policyFinder(new ProxyFilebasedPolicyFinderModule(directory.getValue().getPath(), 0, 100));
+
+            for (Map.Entry<String, String> request : TargetCases.REQUESTS.entrySet()) {
+                RequestCtx requestCtx = XACML3StreamParser.readRequest(request.getValue());
+                String message = directory.getKey() + ", request " + request.getKey();
+                String expected = selection(policies, context(requestCtx, pdpConfig));
+                assertEquals(message, expected, selection(bitsetFinder.findPolicy(context(requestCtx, pdpConfig))));
+                assertEquals(message, expected, selection(proxyFinder.findPolicy(context(requestCtx, pdpConfig))));
+            }
+        }
+    }
+
+    /**
+     * Writes a policy applying to every request, whose rule has the given condition
+     */
+    static void writePolicy(File policyDir, String id, String condition) throws Exception {
+        Files.write(new File(policyDir, id).toPath(), ("<Policy xmlns=\"" + RandomPolicies.NAMESPACE + "\" PolicyId=\""
+                + id + "\" Version=\"1.0\" RuleCombiningAlgId=\""
+                + "urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:deny-overrides\"><Target/>"
+                + "<Rule RuleId=\"r\" Effect=\"Permit\"><Condition>" + condition + "</Condition></Rule></Policy>")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void unloadablePoliciesMakeTheResultIndeterminate() throws Exception {
+        File policyDir = folder.newFolder();
+        writePolicy(policyDir, "good", "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#boolean\">"
+                + "true</AttributeValue>");
+        // the proxy policy is read, the full policy fails to parse
+        writePolicy(policyDir, "bad", "<Apply FunctionId=\"urn:test:unknown-function\"/>");
+        RandomPolicies random = new RandomPolicies(1);
+        PDPConfig pdpConfig = RandomPolicies.pdpConfig();
+
+        for (AbstractProxyPolicyFinderModule module : Arrays.asList(
+                new ProxyFilebasedPolicyFinderModule(policyDir.getPath(), 100, 100),
+                new BitsetPolicyFinderModule(policyDir.getPath(), 100))) {
+            PolicyFinder finder = policyFinder(module);
+            String name = module.getClass().getSimpleName();
+            assertEquals(name, Collections.singleton("good"), module.getPolicies().keySet());
+
+            for (int i = 0; i < 2; i++) {
+                PolicyFinderResult result = finder.findPolicy(context(XACML3StreamParser.readRequest(random.request()),
+                        pdpConfig));
+                assertEquals(name, "indeterminate", selection(result));
+                assertEquals(name, "couldn't load policy bad", result.getStatus().getMessage());
+            }
+
+            assertNotNull(name, module.findPolicy(URI.create("good"), PolicyReference.POLICY_REFERENCE, null, null)
+                    .getPolicy());
+            assertEquals(name, "indeterminate", selection(
+                    module.findPolicy(URI.create("bad"), PolicyReference.POLICY_REFERENCE, null, null)));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ilhn.xacml.finder;
+
+import ilhn.xacml.util.RandomPolicies;
+import ilhn.xacml.util.XACML3StreamParser;
+import org.junit.Test;
+import org.wso2.balana.PDPConfig;
+import org.wso2.balana.cond.EvaluationResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.ctx.EvaluationCtxFactory;
+import org.wso2.balana.finder.AttributeFinder;
+import org.wso2.balana.finder.AttributeRequest;
+import org.wso2.balana.finder.PolicyFinder;
+
+import java.net.URI;
+import java.util.*;
+
+import static ilhn.xacml.finder.ParallelAttributeFinderTest.CATEGORY;
+import static ilhn.xacml.finder.ParallelAttributeFinderTest.TYPE;
+import static ilhn.xacml.finder.ParallelAttributeFinderTest.request;
+import static ilhn.xacml.finder.ParallelAttributeFinderTest.value;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CachingAttributeFinderModuleTest {
+
+    static final URI SUBJECT_ID = URI.create("urn:oasis:names:tc:xacml:1.0:subject:subject-id");
+
+    static CachingAttributeFinderModule caching(ParallelAttributeFinderTest.SlowModule module, long ttl,
+                                                long negativeTtl) {
+        Map<URI, Set<URI>> identifying = Collections.singletonMap(CATEGORY, Collections.singleton(SUBJECT_ID));
+        return new CachingAttributeFinderModule(module, identifying, ttl, negativeTtl, 100);
+    }
+
+    /**
+     * @return context of a request of the given subject, with an unrelated resource id
+     */
+    static EvaluationCtx context(String subject, String resource) throws Exception {
+        AttributeFinder attributeFinder = new AttributeFinder();
+        attributeFinder.setModules(new ArrayList<>());
+        return EvaluationCtxFactory.getFactory().getEvaluationCtx(XACML3StreamParser.readRequest("<Request xmlns=\""
+                + RandomPolicies.NAMESPACE + "\" CombinedDecision=\"false\" ReturnPolicyIdList=\"false\">"
+                + "<Attributes Category=\"" + CATEGORY + "\"><Attribute AttributeId=\"" + SUBJECT_ID
+                + "\" IncludeInResult=\"false\"><AttributeValue DataType=\"" + TYPE + "\">" + subject
+                + "</AttributeValue></Attribute></Attributes>"
+                + "<Attributes Category=\"urn:oasis:names:tc:xacml:3.0:attribute-category:resource\">"
+                + "<Attribute AttributeId=\"urn:oasis:names:tc:xacml:1.0:resource:resource-id\""
+                + " IncludeInResult=\"false\"><AttributeValue DataType=\"" + TYPE + "\">" + resource
+                + "</AttributeValue></Attribute></Attributes></Request>"),
+                new PDPConfig(attributeFinder, new PolicyFinder(), null));
+    }
+
+    static String find(CachingAttributeFinderModule module, String id, EvaluationCtx context) {
+        return value(module.findAttribute(TYPE, URI.create(id), null, CATEGORY, context));
+    }
+
+    @Test
+    public void valuesExpireAfterTheTtl() throws Exception {
+        ParallelAttributeFinderTest.SlowModule pip = new ParallelAttributeFinderTest.SlowModule("pip", 0, false, "a", "b");
+        CachingAttributeFinderModule module = caching(pip, 50, 0);
+        module.setTtl(URI.create("b"), 0);
+        EvaluationCtx context = context("alice", "r");
+
+        assertEquals("pip", find(module, "a", context));
+        assertEquals("pip", find(module, "a", context));
+        assertEquals(1, pip.calls.get());
+        assertEquals(1, module.hitCount());
+
+        // attribute without time to live
+        find(module, "b", context);
+        find(module, "b", context);
+        assertEquals(3, pip.calls.get());
+
+        Thread.sleep(100);
+        assertEquals("pip", find(module, "a", context));
+        assertEquals(4, pip.calls.get());
+        assertEquals(1, module.expirationCount());
+    }
+
+    @Test
+    public void emptyBagsAreCachedForTheNegativeTtl() throws Exception {
+        ParallelAttributeFinderTest.SlowModule pip = new ParallelAttributeFinderTest.SlowModule("pip", 0, false);
+        EvaluationCtx context = context("alice", "r");
+
+        CachingAttributeFinderModule uncached = caching(pip, 60000, 0);
+        assertEquals("empty", find(uncached, "a", context));
+        assertEquals("empty", find(uncached, "a", context));
+        assertEquals(2, pip.calls.get());
+
+        CachingAttributeFinderModule cached = caching(pip, 60000, 60000);
+        assertEquals("empty", find(cached, "a", context));
+        assertEquals("empty", find(cached, "a", context));
+        assertEquals(3, pip.calls.get());
+        assertEquals(1, cached.negativeHitCount());
+        assertEquals(0, cached.hitCount());
+    }
+
+    @Test
+    public void valuesAreKeyedByTheIdentifyingAttributes() throws Exception {
+        ParallelAttributeFinderTest.SlowModule pip = new ParallelAttributeFinderTest.SlowModule("pip", 0, false, "a");
+        CachingAttributeFinderModule module = caching(pip, 60000, 0);
+
+        find(module, "a", context("alice", "r1"));
+        // other attributes of the request don't matter
+        find(module, "a", context("alice", "r2"));
+        assertEquals(1, pip.calls.get());
+        find(module, "a", context("bob", "r1"));
+        assertEquals(2, pip.calls.get());
+        assertEquals(2, module.estimatedSize());
+    }
+
+    @Test
+    public void missingAttributesAreResolvedInOneBatch() throws Exception {
+        ParallelAttributeFinderTest.SlowModule pip = new ParallelAttributeFinderTest.SlowModule("pip", 0, true, "a", "b");
+        CachingAttributeFinderModule module = caching(pip, 60000, 0);
+        EvaluationCtx context = context("alice", "r");
+        assertTrue(module.isBatchSupported());
+
+        find(module, "a", context);
+        Map<AttributeRequest, EvaluationResult> results = module.findAttributes(
+                Arrays.asList(request("a"), request("b"), request("c")), context);
+        assertEquals("pip", value(results.get(request("a"))));
+        assertEquals("pip", value(results.get(request("b"))));
+        assertEquals("empty", value(results.get(request("c"))));
+        assertEquals(2, pip.calls.get());
+
+        module.findAttributes(Arrays.asList(request("a"), request("b")), context);
+        assertEquals(2, pip.calls.get());
+        assertEquals(3, module.hitCount());
+    }
+}
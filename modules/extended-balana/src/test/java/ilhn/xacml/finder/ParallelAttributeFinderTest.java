@@ -0,0 +1,195 @@
+package ilhn.xacml.finder;
+
+import org.junit.After;
+import org.junit.Test;
+import org.wso2.balana.attr.BagAttribute;
+import org.wso2.balana.attr.StringAttribute;
+import org.wso2.balana.cond.EvaluationResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.ctx.Status;
+import org.wso2.balana.finder.AttributeFinderModule;
+import org.wso2.balana.finder.AttributeRequest;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelAttributeFinderTest {
+
+    static final URI TYPE = URI.create(StringAttribute.identifier);
+    static final URI CATEGORY = URI.create("urn:oasis:names:tc:xacml:1.0:subject-category:access-subject");
+
+    /**
+     * PIP answering after a latency with its name for the ids it knows, and an empty bag for all others
+     */
+    static class SlowModule extends AttributeFinderModule {
+        final String name;
+        final long latency;
+        final boolean batch;
+        final Set<String> ids;
+        final AtomicInteger calls = new AtomicInteger();
+        final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+        SlowModule(String name, long latency, boolean batch, String... ids) {
+            this.name = name;
+            this.latency = latency;
+            this.batch = batch;
+            this.ids = new HashSet<>(Arrays.asList(ids));
+        }
+
+        @Override
+        public boolean isDesignatorSupported() {
+            return true;
+        }
+
+        @Override
+        public boolean isBatchSupported() {
+            return batch;
+        }
+
+        @Override
+        public EvaluationResult findAttribute(URI attributeType, URI attributeId, String issuer, URI category,
+                                              EvaluationCtx context) {
+            calls.incrementAndGet();
+            return lookup(attributeId);
+        }
+
+        @Override
+        public Map<AttributeRequest, EvaluationResult> findAttributes(Collection<AttributeRequest> requests,
+                                                                      EvaluationCtx context) {
+            calls.incrementAndGet();
+            Map<AttributeRequest, EvaluationResult> results = new HashMap<>();
+            for (AttributeRequest request : requests)
+                results.put(request, lookup(request.getId()));
+            return results;
+        }
+
+        EvaluationResult lookup(URI attributeId) {
+            threads.add(Thread.currentThread());
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!ids.contains(attributeId.toString()))
+                return new EvaluationResult(BagAttribute.createEmptyBag(TYPE));
+            return new EvaluationResult(new BagAttribute(TYPE, Collections.singletonList(new StringAttribute(name))));
+        }
+    }
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    ParallelAttributeFinder finder(long timeout, AttributeFinderModule... modules) {
+        ParallelAttributeFinder finder = new ParallelAttributeFinder(executor, timeout);
+        finder.setModules(new ArrayList<>(Arrays.asList(modules)));
+        return finder;
+    }
+
+    static AttributeRequest request(String id) {
+        return new AttributeRequest(TYPE, URI.create(id), null, CATEGORY);
+    }
+
+    /**
+     * @return the value of the result, "empty" or "indeterminate"
+     */
+    static String value(EvaluationResult result) {
+        if (result.indeterminate())
+            return "indeterminate";
+        BagAttribute bag = (BagAttribute) result.getAttributeValue();
+        return bag.isEmpty() ? "empty" : ((StringAttribute) bag.iterator().next()).getValue();
+    }
+
+    @Test
+    public void singleLookupTimesOut() {
+        ParallelAttributeFinder finder = finder(50, new SlowModule("slow", 10000, false, "a"));
+        long start = System.nanoTime();
+        EvaluationResult result = finder.findAttribute(TYPE, URI.create("a"), null, CATEGORY, null);
+
+        assertEquals("indeterminate", value(result));
+        assertEquals(Status.STATUS_PROCESSING_ERROR, result.getStatus().getCode().get(0));
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+    }
+
+    @Test
+    public void timeoutOfTheModuleOverridesTheDefault() {
+        SlowModule module = new SlowModule("slow", 200, false, "a");
+        ParallelAttributeFinder finder = finder(10000, module);
+        finder.setTimeout(module, 20);
+
+        assertEquals("indeterminate", value(finder.findAttribute(TYPE, URI.create("a"), null, CATEGORY, null)));
+    }
+
+    @Test
+    public void singleLookupRunsInlineIfEnabled() {
+        SlowModule module = new SlowModule("slow", 0, false, "a");
+        ParallelAttributeFinder finder = finder(1000, module);
+        assertEquals("slow", value(finder.findAttribute(TYPE, URI.create("a"), null, CATEGORY, null)));
+        assertFalse(module.threads.contains(Thread.currentThread()));
+
+        finder.setInlineSingleLookups(true);
+        assertEquals("slow", value(finder.findAttribute(TYPE, URI.create("a"), null, CATEGORY, null)));
+        assertTrue(module.threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void batchModuleIsAskedOnceForAllAttributes() {
+        SlowModule module = new SlowModule("batch", 10, true, "a", "b");
+        ParallelAttributeFinder finder = finder(1000, module);
+        Map<AttributeRequest, EvaluationResult> results =
+                finder.findAttributes(Arrays.asList(request("a"), request("b"), request("c")), null);
+
+        assertEquals(1, module.calls.get());
+        assertEquals("batch", value(results.get(request("a"))));
+        assertEquals("batch", value(results.get(request("b"))));
+        assertEquals("empty", value(results.get(request("c"))));
+    }
+
+    @Test
+    public void attributesAreResolvedConcurrently() {
+        SlowModule module = new SlowModule("slow", 300, false, "a", "b", "c", "d");
+        ParallelAttributeFinder finder = finder(5000, module);
+        long start = System.nanoTime();
+        Map<AttributeRequest, EvaluationResult> results = finder.findAttributes(
+                Arrays.asList(request("a"), request("b"), request("c"), request("d")), null);
+
+        assertEquals(4, module.calls.get());
+        for (String id : new String[] { "a", "b", "c", "d" })
+            assertEquals("slow", value(results.get(request(id))));
+        assertTrue(System.nanoTime() - start < 1_200_000_000L);
+    }
+
+    @Test
+    public void firstModuleWithValuesWins() {
+        SlowModule first = new SlowModule("first", 0, false, "a");
+        SlowModule second = new SlowModule("second", 0, true, "a", "b");
+        ParallelAttributeFinder finder = finder(1000, first, second);
+        Map<AttributeRequest, EvaluationResult> results =
+                finder.findAttributes(Arrays.asList(request("a"), request("b"), request("c")), null);
+
+        assertEquals("first", value(results.get(request("a"))));
+        assertEquals("second", value(results.get(request("b"))));
+        assertEquals("empty", value(results.get(request("c"))));
+        assertEquals("second", value(finder.findAttribute(TYPE, URI.create("b"), null, CATEGORY, null)));
+    }
+
+    @Test
+    public void timedOutModuleEndsTheSearch() {
+        SlowModule second = new SlowModule("second", 0, false, "a");
+        ParallelAttributeFinder finder = finder(50, new SlowModule("first", 10000, false, "a"), second);
+
+        assertEquals("indeterminate", value(finder.findAttribute(TYPE, URI.create("a"), null, CATEGORY, null)));
+        assertEquals(0, second.calls.get());
+    }
+}
@@ -0,0 +1,240 @@
+package ilhn.xacml.finder;
+
+import ilhn.xacml.util.RandomPolicies;
+import ilhn.xacml.util.XACML3StreamParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wso2.balana.AbstractPolicy;
+import org.wso2.balana.MatchResult;
+import org.wso2.balana.PDPConfig;
+import org.wso2.balana.attr.BagAttribute;
+import org.wso2.balana.attr.StringAttribute;
+import org.wso2.balana.cond.EvaluationResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.ctx.EvaluationCtxFactory;
+import org.wso2.balana.ctx.xacml3.RequestCtx;
+import org.wso2.balana.finder.AttributeFinder;
+import org.wso2.balana.finder.AttributeFinderModule;
+import org.wso2.balana.finder.PolicyFinder;
+import org.wso2.balana.finder.PolicyFinderModule;
+import org.wso2.balana.finder.PolicyFinderResult;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ProxyFilebasedPolicyFinderModuleTest {
+
+    static final String SUBJECT = "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject";
+    static final String SUBJECT_ID = "urn:oasis:names:tc:xacml:1.0:subject:subject-id";
+    static final String ROLE = "urn:test:role";
+    static final String ACTION = "urn:oasis:names:tc:xacml:3.0:attribute-category:action";
+    static final String ACTION_ID = "urn:oasis:names:tc:xacml:1.0:action:action-id";
+
+    /**
+     * PIP looking up the role of the subject by its id, only alice is an admin
+     */
+    static class RoleModule extends AttributeFinderModule {
+        int calls;
+
+        @Override
+        public boolean isDesignatorSupported() {
+            return true;
+        }
+
+        @Override
+        public Set<String> getSupportedCategories() {
+            return Collections.singleton(SUBJECT);
+        }
+
+        @Override
+        public Set<URI> getSupportedIds() {
+            return Collections.singleton(URI.create(ROLE));
+        }
+
+        @Override
+        public EvaluationResult findAttribute(URI attributeType, URI attributeId, String issuer, URI category,
+                                              EvaluationCtx context) {
+            if (!ROLE.equals(attributeId.toString()))
+                return new EvaluationResult(BagAttribute.createEmptyBag(attributeType));
+
+            calls++;
+            BagAttribute ids = (BagAttribute) context.getAttribute(URI.create(StringAttribute.identifier),
+                    URI.create(SUBJECT_ID), null, URI.create(SUBJECT)).getAttributeValue();
+            String role = ids.contains(new StringAttribute("alice")) ? "admin" : "user";
+            return new EvaluationResult(new BagAttribute(attributeType,
+                    Collections.singletonList(new StringAttribute(role))));
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes random policies to the folder, each file is named after its policy
+     */
+    static Map<String, AbstractPolicy> writePolicies(RandomPolicies random, File folder, int count) throws Exception {
+        Map<String, AbstractPolicy> policies = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String id = "P" + i;
+            String policy = random.policy(id, 1 + random.random().nextInt(3), 2);
+            Files.write(new File(folder, id).toPath(), policy.getBytes(StandardCharsets.UTF_8));
+            policies.put(id, XACML3StreamParser.readPolicy(policy));
+        }
+        return policies;
+    }
+
+    static PolicyFinder policyFinder(PolicyFinderModule module) {
+        PolicyFinder policyFinder = new PolicyFinder();
+        policyFinder.setModules(Collections.singleton(module));
+        policyFinder.init();
+        return policyFinder;
+    }
+
+    static EvaluationCtx context(RequestCtx requestCtx, PDPConfig pdpConfig) throws Exception {
+        return EvaluationCtxFactory.getFactory().getEvaluationCtx(requestCtx, pdpConfig);
+    }
+
+    /**
+     * @return "indeterminate" or the sorted ids of the selected policies
+     */
+    static String selection(PolicyFinderResult result) {
+        if (result.getStatus() != null)
+            return "indeterminate";
+        List<String> ids = (result.getPolicyIds() != null) ? new ArrayList<>(result.getPolicyIds()) : new ArrayList<>();
+        Collections.sort(ids);
+        return ids.toString();
+    }
+
+    /**
+     * @return "indeterminate" or the sorted ids of the policies whose targets match
+     */
+    static String selection(Map<String, AbstractPolicy> policies, EvaluationCtx context) {
+        List<String> ids = new ArrayList<>();
+        for (Map.Entry<String, AbstractPolicy> entry : policies.entrySet()) {
+            int match = entry.getValue().getTarget().match(context).getResult();
+            if (match == MatchResult.INDETERMINATE)
+                return "indeterminate";
+            if (match == MatchResult.MATCH)
+                ids.add(entry.getKey());
+        }
+        Collections.sort(ids);
+        return ids.toString();
+    }
+
+    @Test
+    public void selectsTheMatchingPolicies() throws Exception {
+        for (int seed = 1; seed <= 4; seed++) {
+            RandomPolicies random = new RandomPolicies(seed);
+            random.setMandatory(40);
+            File policyDir = folder.newFolder();
+            Map<String, AbstractPolicy> policies = writePolicies(random, policyDir, 40);
+            PDPConfig pdpConfig = RandomPolicies.pdpConfig();
+
+            for (int resultCacheSize : new int[] { 0, 1000 }) {
+                ProxyFilebasedPolicyFinderModule module =
+                        new ProxyFilebasedPolicyFinderModule(policyDir.getPath(), resultCacheSize, 1000);
+                PolicyFinder policyFinder = policyFinder(module);
+
+                for (int i = 0; i < 500; i++) {
+                    RequestCtx requestCtx = XACML3StreamParser.readRequest(random.request());
+                    assertEquals("seed " + seed + ", request " + i,
+                            selection(policies, context(requestCtx, pdpConfig)),
+                            selection(policyFinder.findPolicy(context(requestCtx, pdpConfig))));
+                }
+            }
+        }
+    }
+
+    static String match(String category, String id, String value) {
+        return "<Match MatchId=\"urn:oasis:names:tc:xacml:1.0:function:string-equal\"><AttributeValue DataType=\""
+                + StringAttribute.identifier + "\">" + value + "</AttributeValue><AttributeDesignator AttributeId=\""
+                + id + "\" Category=\"" + category + "\" DataType=\"" + StringAttribute.identifier
+                + "\" MustBePresent=\"false\"/></Match>";
+    }
+
+    static String request(String subject, String action) {
+        return "<Request xmlns=\"" + RandomPolicies.NAMESPACE + "\" CombinedDecision=\"false\""
+                + " ReturnPolicyIdList=\"false\"><Attributes Category=\"" + SUBJECT + "\"><Attribute AttributeId=\""
+                + SUBJECT_ID + "\" IncludeInResult=\"false\"><AttributeValue DataType=\"" + StringAttribute.identifier
+                + "\">" + subject + "</AttributeValue></Attribute></Attributes><Attributes Category=\""
+                + ACTION + "\"><Attribute AttributeId=\"" + ACTION_ID + "\" IncludeInResult=\"false\">"
+                + "<AttributeValue DataType=\"" + StringAttribute.identifier + "\">" + action
+                + "</AttributeValue></Attribute></Attributes></Request>";
+    }
+
+    /**
+     * Writes an admin policy, whose target references the role resolved by the PIP, and a read policy
+     */
+    ProxyFilebasedPolicyFinderModule roleModule(File policyDir) throws Exception {
+        String[][] policies = { { "admin", match(SUBJECT, ROLE, "admin") }, { "read", match(ACTION, ACTION_ID, "read") } };
+        for (String[] policy : policies) {
+            Files.write(new File(policyDir, policy[0]).toPath(), ("<Policy xmlns=\"" + RandomPolicies.NAMESPACE
+                    + "\" PolicyId=\"" + policy[0] + "\" Version=\"1.0\" RuleCombiningAlgId=\""
+                    + "urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:deny-overrides\"><Target><AnyOf><AllOf>"
+                    + policy[1] + "</AllOf></AnyOf></Target><Rule RuleId=\"r\" Effect=\"Permit\"/></Policy>")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        return new ProxyFilebasedPolicyFinderModule(policyDir.getPath(), 1000, 1000);
+    }
+
+    static PDPConfig pdpConfig(AttributeFinderModule... modules) {
+        AttributeFinder attributeFinder = new AttributeFinder();
+        attributeFinder.setModules(new ArrayList<>(Arrays.asList(modules)));
+        return new PDPConfig(attributeFinder, new PolicyFinder(), null);
+    }
+
+    String select(PolicyFinder policyFinder, String subject, String action, PDPConfig pdpConfig) throws Exception {
+        return selection(policyFinder.findPolicy(context(XACML3StreamParser.readRequest(request(subject, action)),
+                pdpConfig)));
+    }
+
+    @Test
+    public void subjectsDontShareSelectionsOfResolvedAttributes() throws Exception {
+        ProxyFilebasedPolicyFinderModule module = roleModule(folder.newFolder());
+        PolicyFinder policyFinder = policyFinder(module);
+        RoleModule pip = new RoleModule();
+        PDPConfig pdpConfig = pdpConfig(pip);
+
+        assertEquals("[admin, read]", select(policyFinder, "alice", "read", pdpConfig));
+        assertEquals("[read]", select(policyFinder, "bob", "read", pdpConfig));
+        assertEquals("[admin, read]", select(policyFinder, "alice", "read", pdpConfig));
+        assertEquals(2, pip.calls);
+        // the role may be resolved by the PIP, so the whole request is the key
+        assertNull(module.keyAttributes(context(XACML3StreamParser.readRequest(request("alice", "read")), pdpConfig)));
+    }
+
+    @Test
+    public void resolverAttributesAreAddedToTheKey() throws Exception {
+        ProxyFilebasedPolicyFinderModule module = roleModule(folder.newFolder());
+        module.setResolverAttributes(Collections.singletonMap(URI.create(SUBJECT),
+                Collections.singleton(URI.create(SUBJECT_ID))));
+        PolicyFinder policyFinder = policyFinder(module);
+        PDPConfig pdpConfig = pdpConfig(new RoleModule());
+
+        assertEquals("[admin, read]", select(policyFinder, "alice", "read", pdpConfig));
+        assertEquals("[read]", select(policyFinder, "bob", "read", pdpConfig));
+        assertEquals(new HashSet<>(Arrays.asList(URI.create(ROLE), URI.create(SUBJECT_ID))),
+                module.keyAttributes(context(XACML3StreamParser.readRequest(request("bob", "read")), pdpConfig))
+                        .get(URI.create(SUBJECT)));
+    }
+
+    @Test
+    public void keyCoversTargetAttributesWithoutResolvingModules() throws Exception {
+        ProxyFilebasedPolicyFinderModule module = roleModule(folder.newFolder());
+        PolicyFinder policyFinder = policyFinder(module);
+        PDPConfig pdpConfig = pdpConfig();
+
+        assertEquals("[read]", select(policyFinder, "alice", "read", pdpConfig));
+        assertEquals("[read]", select(policyFinder, "bob", "read", pdpConfig));
+        // the subject id isn't referenced by any target
+        module.resultCache.cleanUp();
+        assertEquals(1, module.resultCache.estimatedSize());
+    }
+}
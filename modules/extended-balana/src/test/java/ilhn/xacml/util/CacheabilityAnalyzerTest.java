@@ -0,0 +1,157 @@
+package ilhn.xacml.util;
+
+import org.junit.Test;
+import org.wso2.balana.attr.DayTimeDurationAttribute;
+import org.wso2.balana.cond.DateMathFunction;
+import org.wso2.balana.finder.AttributeRequest;
+import org.wso2.balana.finder.impl.CurrentEnvModule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class CacheabilityAnalyzerTest {
+
+    static final String ENVIRONMENT = "urn:oasis:names:tc:xacml:3.0:attribute-category:environment";
+    static final String XS = "http://www.w3.org/2001/XMLSchema#";
+    static final String ROLE = "urn:test:role";
+
+    static final Predicate<AttributeRequest> NO_PIP = request -> false;
+    static final Predicate<AttributeRequest> ROLE_PIP = request -> ROLE.equals(request.getId().toString());
+
+    static String designator(String id, String type) {
+        return "<AttributeDesignator AttributeId=\"" + id + "\" Category=\"" + ENVIRONMENT + "\" DataType=\"" + XS
+                + type + "\" MustBePresent=\"false\"/>";
+    }
+
+    static String value(String type, String value) {
+        return "<AttributeValue DataType=\"" + XS + type + "\">" + value + "</AttributeValue>";
+    }
+
+    static String oneAndOnly(String type, String designator) {
+        return "<Apply FunctionId=\"" + RandomPolicies.FUNCTION + type + "-one-and-only\">" + designator + "</Apply>";
+    }
+
+    /**
+     * @return condition comparing the current time of the given type to the given expression
+     */
+    static String current(String type, String expression) {
+        String id = type.equals("time") ? CurrentEnvModule.ENVIRONMENT_CURRENT_TIME
+                : type.equals("date") ? CurrentEnvModule.ENVIRONMENT_CURRENT_DATE
+                : CurrentEnvModule.ENVIRONMENT_CURRENT_DATETIME;
+        return "<Apply FunctionId=\"" + RandomPolicies.FUNCTION + type + "-greater-than-or-equal\">"
+                + oneAndOnly(type, designator(id, type)) + expression + "</Apply>";
+    }
+
+    /**
+     * @return policy with one rule per condition
+     */
+    static String policy(String... conditions) {
+        StringBuilder rules = new StringBuilder();
+        for (int i = 0; i < conditions.length; i++)
+            rules.append("<Rule RuleId=\"r").append(i).append("\" Effect=\"Permit\"><Condition>")
+                    .append(conditions[i]).append("</Condition></Rule>");
+        return "<Policy xmlns=\"" + RandomPolicies.NAMESPACE + "\" PolicyId=\"p\" Version=\"1.0\""
+                + " RuleCombiningAlgId=\"urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:deny-overrides\">"
+                + "<Target/>" + rules + "</Policy>";
+    }
+
+    static Cacheability analyze(Predicate<AttributeRequest> pipAttributes, long pipTtl, String... conditions)
+            throws Exception {
+        return new CacheabilityAnalyzer(pipAttributes, pipTtl).analyze(XACML3StreamParser.readPolicy(policy(conditions)));
+    }
+
+    static Cacheability analyze(String... conditions) throws Exception {
+        return analyze(NO_PIP, 0, conditions);
+    }
+
+    @Test
+    public void timeLiteralsAreAlignedToTheLargestBucket() throws Exception {
+        assertEquals(Cacheability.DAY, analyze(current("date", value("date", "2026-10-18Z"))).getBucket());
+        assertEquals(Cacheability.HOUR, analyze(current("time", value("time", "09:00:00Z"))).getBucket());
+        assertEquals(Cacheability.MINUTE, analyze(current("time", value("time", "09:30:00Z"))).getBucket());
+        assertEquals(Cacheability.SECOND, analyze(current("time", value("time", "09:30:15Z"))).getBucket());
+        assertEquals(Cacheability.HOUR,
+                analyze(current("dateTime", value("dateTime", "2026-10-18T09:00:00Z"))).getBucket());
+        assertEquals(Cacheability.MINUTE,
+                analyze(current("dateTime", value("dateTime", "2026-10-18T09:45:00Z"))).getBucket());
+    }
+
+    @Test
+    public void smallestBucketOfAllLiteralsApplies() throws Exception {
+        Cacheability cacheability = analyze(current("date", value("date", "2026-10-18Z")),
+                current("time", value("time", "09:30:00Z")), current("time", value("time", "17:00:00Z")));
+        assertEquals(Cacheability.MINUTE, cacheability.getBucket());
+        assertEquals(0, cacheability.getTtl());
+    }
+
+    @Test
+    public void fractionalSecondsAreUncacheable() throws Exception {
+        assertFalse(analyze(current("time", value("time", "09:30:15.5Z"))).isCacheable());
+    }
+
+    @Test
+    public void currentTimeWithoutLiteralsIsUncacheable() throws Exception {
+        // compared to another time attribute
+        assertFalse(analyze(current("time", oneAndOnly("time", designator("urn:test:opening", "time"))))
+                .isCacheable());
+        // shifted by a duration
+        assertFalse(analyze("<Apply FunctionId=\"" + RandomPolicies.FUNCTION + "dateTime-greater-than-or-equal\">"
+                + "<Apply FunctionId=\"" + DateMathFunction.NAME_DATETIME_ADD_DAYTIMEDURATION + "\">"
+                + oneAndOnly("dateTime", designator(CurrentEnvModule.ENVIRONMENT_CURRENT_DATETIME, "dateTime"))
+                + "<AttributeValue DataType=\"" + DayTimeDurationAttribute.identifier + "\">PT1H</AttributeValue>"
+                + "</Apply>" + value("dateTime", "2026-10-18T09:00:00Z")
+                + "</Apply>").isCacheable());
+        // only compared to itself
+        assertFalse(analyze(current("time", oneAndOnly("time",
+                designator(CurrentEnvModule.ENVIRONMENT_CURRENT_TIME, "time")))).isCacheable());
+    }
+
+    @Test
+    public void timeLiteralsWithoutCurrentTimeAreCacheableForever() throws Exception {
+        String condition = "<Apply FunctionId=\"" + RandomPolicies.FUNCTION + "time-greater-than-or-equal\">"
+                + oneAndOnly("time", designator("urn:test:opening", "time")) + value("time", "09:30:15.5Z") + "</Apply>";
+        assertSame(Cacheability.FOREVER, analyze(condition));
+    }
+
+    @Test
+    public void pipAttributesLiveForTheTtl() throws Exception {
+        String role = "<Apply FunctionId=\"" + RandomPolicies.FUNCTION + "string-is-in\">" + value("string", "admin")
+                + designator(ROLE, "string") + "</Apply>";
+
+        assertFalse(analyze(ROLE_PIP, 0, role).isCacheable());
+        assertEquals(5000, analyze(ROLE_PIP, 5000, role).getTtl());
+        assertSame(Cacheability.FOREVER, analyze(NO_PIP, 0, role));
+
+        Cacheability both = analyze(ROLE_PIP, 5000, role, current("time", value("time", "09:30:00Z")));
+        assertEquals(5000, both.getTtl());
+        assertEquals(Cacheability.MINUTE, both.getBucket());
+    }
+
+    @Test
+    public void decisionsOfUnknownPoliciesAreUncacheable() throws Exception {
+        CacheabilityAnalyzer analyzer = new CacheabilityAnalyzer(NO_PIP, 0);
+        analyzer.addPolicy("p", XACML3StreamParser.readPolicy(policy(current("time", value("time", "09:00:00Z")))));
+
+        assertEquals(Cacheability.HOUR, analyzer.of(Collections.singleton("p")).getBucket());
+        assertSame(Cacheability.FOREVER, analyzer.of(Collections.emptyList()));
+        assertFalse(analyzer.of(Arrays.asList("p", "q")).isCacheable());
+    }
+
+    @Test
+    public void expiryIsTheEarlierOfBucketEndAndTtl() {
+        long now = 10 * Cacheability.MINUTE + 15 * Cacheability.SECOND;
+        assertEquals(11 * Cacheability.MINUTE, Cacheability.bucket(Cacheability.MINUTE).expiresAt(now));
+        assertEquals(now + 5000, Cacheability.ttl(5000).expiresAt(now));
+        assertEquals(now + 5000, Cacheability.bucket(Cacheability.MINUTE).combine(Cacheability.ttl(5000)).expiresAt(now));
+        assertEquals(11 * Cacheability.MINUTE,
+                Cacheability.bucket(Cacheability.MINUTE).combine(Cacheability.ttl(Cacheability.HOUR)).expiresAt(now));
+        assertEquals(Long.MAX_VALUE, Cacheability.FOREVER.expiresAt(now));
+        assertEquals(Long.MIN_VALUE, Cacheability.UNCACHEABLE.expiresAt(now));
+        assertSame(Cacheability.UNCACHEABLE, Cacheability.ttl(5000).combine(Cacheability.UNCACHEABLE));
+    }
+}
@@ -0,0 +1,103 @@
+package ilhn.xacml.util;
+
+import org.junit.Test;
+import org.wso2.balana.AbstractPolicy;
+import org.wso2.balana.MatchResult;
+import org.wso2.balana.PDPConfig;
+import org.wso2.balana.ctx.AbstractResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.ctx.EvaluationCtxFactory;
+import org.wso2.balana.ctx.xacml3.RequestCtx;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DecisionDiagramTest {
+
+    /**
+     * @return match result and, for matching targets, decision and status of the evaluation
+     */
+    static String key(AbstractPolicy policy, RequestCtx requestCtx, PDPConfig pdpConfig) throws Exception {
+        EvaluationCtx context = EvaluationCtxFactory.getFactory().getEvaluationCtx(requestCtx, pdpConfig);
+        MatchResult match = policy.match(context);
+        if (match.getResult() != MatchResult.MATCH)
+            return "match " + match.getResult();
+
+        AbstractResult result = policy.evaluate(context);
+        if (result.getStatus() == null)
+            return String.valueOf(result.getDecision());
+        return result.getDecision() + " " + result.getStatus().getCode() + " " + result.getStatus().getMessage();
+    }
+
+    static boolean isCompiled(AbstractPolicy policy) {
+        return policy.getCombiningAlg() instanceof DecisionDiagramRuleCombiningAlg
+                || policy.getCombiningAlg() instanceof DecisionDiagramPolicyCombiningAlg;
+    }
+
+    /**
+     * @return the plain and the compiled policy or policy set
+     */
+    static AbstractPolicy[] parse(String policy) throws Exception {
+        try {
+            XACML3StreamParser.setDecisionDiagrams(false);
+            AbstractPolicy plain = XACML3StreamParser.readPolicyOrPolicySet(policy, null);
+            XACML3StreamParser.setDecisionDiagrams(true);
+            return new AbstractPolicy[] { plain, XACML3StreamParser.readPolicyOrPolicySet(policy, null) };
+        } finally {
+            XACML3StreamParser.setDecisionDiagrams(false);
+        }
+    }
+
+    @Test
+    public void evaluatesTargetCasesLikeThePlainPolicies() throws Exception {
+        PDPConfig pdpConfig = TargetCases.pdpConfig();
+        Map<String, String> policies = new LinkedHashMap<>();
+        for (String name : TargetCases.TARGETS.keySet()) {
+            for (String combiningAlg : RandomPolicies.RULE_COMBINING_ALGS)
+                policies.put("rule " + name + ", " + combiningAlg, TargetCases.paddedPolicy(name, combiningAlg,
+                        DecisionDiagramRuleCombiningAlg.MIN_RULES));
+            for (String combiningAlg : RandomPolicies.POLICY_COMBINING_ALGS)
+                policies.put("policy " + name + ", " + combiningAlg, TargetCases.paddedPolicySet(name, combiningAlg,
+                        DecisionDiagramPolicyCombiningAlg.MIN_POLICIES));
+        }
+
+        for (Map.Entry<String, String> policy : policies.entrySet()) {
+            AbstractPolicy[] parsed = parse(policy.getValue());
+            assertTrue(policy.getKey() + " not compiled", isCompiled(parsed[1]));
+            for (Map.Entry<String, String> request : TargetCases.REQUESTS.entrySet()) {
+                RequestCtx requestCtx = XACML3StreamParser.readRequest(request.getValue());
+                assertEquals(policy.getKey() + ", request " + request.getKey(),
+                        key(parsed[0], requestCtx, pdpConfig), key(parsed[1], requestCtx, pdpConfig));
+            }
+        }
+    }
+
+    @Test
+    public void evaluatesLikeThePlainPolicies() throws Exception {
+        PDPConfig pdpConfig = RandomPolicies.pdpConfig();
+        int compiled = 0;
+        for (int seed = 1; seed <= 3; seed++) {
+            RandomPolicies random = new RandomPolicies(seed);
+            for (int i = 0; i < 60; i++) {
+                String policy = (i % 3 == 0) ? random.policySet("S" + i, 8 + random.random().nextInt(20))
+                        : random.policy("P" + i, 8 + random.random().nextInt(60));
+
+                AbstractPolicy[] parsed = parse(policy);
+                AbstractPolicy plain = parsed[0];
+                AbstractPolicy diagram = parsed[1];
+                if (isCompiled(diagram))
+                    compiled++;
+
+                for (int j = 0; j < 100; j++) {
+                    RequestCtx requestCtx = XACML3StreamParser.readRequest(random.request());
+                    assertEquals("seed " + seed + ", policy " + i + ", request " + j,
+                            key(plain, requestCtx, pdpConfig), key(diagram, requestCtx, pdpConfig));
+                }
+            }
+        }
+        assertTrue("too few policies compiled", compiled > 90);
+    }
+}
@@ -0,0 +1,100 @@
+package ilhn.xacml.util;
+
+import org.junit.Test;
+import org.wso2.balana.PDPConfig;
+import org.wso2.balana.Policy;
+import org.wso2.balana.ctx.AbstractResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.ctx.EvaluationCtxFactory;
+import org.wso2.balana.ctx.xacml3.RequestCtx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DispatchingRuleCombiningAlgTest {
+
+    /**
+     * @return decision and status of the result
+     */
+    static String key(AbstractResult result) {
+        List<String> code = (result.getStatus() != null) ? result.getStatus().getCode() : new ArrayList<>();
+        return result.getDecision() + " " + code;
+    }
+
+    @Test
+    public void combinesLikeTheWrappedAlgorithm() throws Exception {
+        PDPConfig pdpConfig = RandomPolicies.pdpConfig();
+        int dispatching = 0;
+        for (int seed = 1; seed <= 4; seed++) {
+            RandomPolicies random = new RandomPolicies(seed);
+            for (int p = 0; p < 25; p++) {
+                Policy policy;
+                try {
+                    XACML3StreamParser.setRuleDispatch(true);
+                    policy = XACML3StreamParser.readPolicy(random.policy("p" + p,
+                            DispatchingRuleCombiningAlg.MIN_RULES + random.random().nextInt(50)));
+                } finally {
+                    XACML3StreamParser.setRuleDispatch(false);
+                }
+                if (!(policy.getCombiningAlg() instanceof DispatchingRuleCombiningAlg))
+                    continue;
+
+                dispatching++;
+                DispatchingRuleCombiningAlg combiningAlg = (DispatchingRuleCombiningAlg) policy.getCombiningAlg();
+                for (int i = 0; i < 100; i++) {
+                    RequestCtx requestCtx = XACML3StreamParser.readRequest(random.request());
+                    // separate contexts, so the memoized predicates of one don't serve the other
+                    EvaluationCtx context = EvaluationCtxFactory.getFactory().getEvaluationCtx(requestCtx, pdpConfig);
+                    EvaluationCtx plainContext =
+                            EvaluationCtxFactory.getFactory().getEvaluationCtx(requestCtx, pdpConfig);
+                    assertEquals("seed " + seed + ", policy " + p + ", request " + i,
+                            key(combiningAlg.getCombiningAlg().combine(plainContext, null, policy.getChildElements())),
+                            key(combiningAlg.combine(context, null, policy.getChildElements())));
+                }
+            }
+        }
+        assertTrue("too few policies dispatch", dispatching > 50);
+    }
+
+    @Test
+    public void dispatchIsEnabledByTheParser() throws Exception {
+        String policy = new RandomPolicies(1).policy("p", 2 * DispatchingRuleCombiningAlg.MIN_RULES);
+        assertFalse(XACML3StreamParser.readPolicy(policy).getCombiningAlg() instanceof DispatchingRuleCombiningAlg);
+    }
+
+    @Test
+    public void dispatchesTargetCasesLikeTheWrappedAlgorithm() throws Exception {
+        PDPConfig pdpConfig = TargetCases.pdpConfig();
+        int dispatching = 0;
+        for (String name : TargetCases.TARGETS.keySet()) {
+            for (String alg : RandomPolicies.RULE_COMBINING_ALGS) {
+                Policy policy;
+                try {
+                    XACML3StreamParser.setRuleDispatch(true);
+                    policy = XACML3StreamParser.readPolicy(TargetCases.paddedPolicy(name, alg,
+                            DispatchingRuleCombiningAlg.MIN_RULES));
+                } finally {
+                    XACML3StreamParser.setRuleDispatch(false);
+                }
+                if (!(policy.getCombiningAlg() instanceof DispatchingRuleCombiningAlg))
+                    continue;
+
+                dispatching++;
+                DispatchingRuleCombiningAlg combiningAlg = (DispatchingRuleCombiningAlg) policy.getCombiningAlg();
+                for (Map.Entry<String, String> request : TargetCases.REQUESTS.entrySet()) {
+                    assertEquals("rule " + name + ", " + alg + ", request " + request.getKey(),
+                            key(combiningAlg.getCombiningAlg().combine(TargetCases.context(request.getValue(),
+                                    pdpConfig), null, policy.getChildElements())),
+                            key(combiningAlg.combine(TargetCases.context(request.getValue(), pdpConfig), null,
+                                    policy.getChildElements())));
+                }
+            }
+        }
+        assertEquals(RandomPolicies.RULE_COMBINING_ALGS.length * TargetCases.TARGETS.size(), dispatching);
+    }
+}
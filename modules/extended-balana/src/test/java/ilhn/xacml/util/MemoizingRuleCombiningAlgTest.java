@@ -0,0 +1,127 @@
+package ilhn.xacml.util;
+
+import org.junit.Test;
+import org.wso2.balana.PDPConfig;
+import org.wso2.balana.Policy;
+import org.wso2.balana.attr.BagAttribute;
+import org.wso2.balana.attr.StringAttribute;
+import org.wso2.balana.cond.EvaluationResult;
+import org.wso2.balana.ctx.AbstractResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.ctx.EvaluationCtxFactory;
+import org.wso2.balana.finder.AttributeFinder;
+import org.wso2.balana.finder.AttributeFinderModule;
+import org.wso2.balana.finder.PolicyFinder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MemoizingRuleCombiningAlgTest {
+
+    static final String SUBJECT = "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject";
+    static final String ROLE = "urn:test:role";
+    static final String ACTION = "urn:oasis:names:tc:xacml:3.0:attribute-category:action";
+    static final String ACTION_ID = "urn:oasis:names:tc:xacml:1.0:action:action-id";
+
+    /**
+     * PIP resolving every subject to an admin
+     */
+    static class RoleModule extends AttributeFinderModule {
+        int calls;
+
+        @Override
+        public boolean isDesignatorSupported() {
+            return true;
+        }
+
+        @Override
+        public EvaluationResult findAttribute(URI attributeType, URI attributeId, String issuer, URI category,
+                                              EvaluationCtx context) {
+            if (!ROLE.equals(attributeId.toString()))
+                return new EvaluationResult(BagAttribute.createEmptyBag(attributeType));
+            calls++;
+            return new EvaluationResult(new BagAttribute(attributeType,
+                    Collections.singletonList(new StringAttribute("admin"))));
+        }
+    }
+
+    static String rule(String id, String category, String attributeId, String value) {
+        return "<Rule RuleId=\"" + id + "\" Effect=\"Permit\"><Target><AnyOf><AllOf>"
+                + "<Match MatchId=\"" + RandomPolicies.FUNCTION + "string-equal\"><AttributeValue DataType=\""
+                + RandomPolicies.STRING + "\">" + value + "</AttributeValue><AttributeDesignator AttributeId=\""
+                + attributeId + "\" Category=\"" + category + "\" DataType=\"" + RandomPolicies.STRING
+                + "\" MustBePresent=\"false\"/></Match></AllOf></AnyOf></Target></Rule>";
+    }
+
+    /**
+     * Permits reads, and the admin role for any action, the role is only evaluated for other actions
+     */
+    static Policy policy() throws Exception {
+        try {
+            XACML3StreamParser.setRuleMemoSize(100);
+            return XACML3StreamParser.readPolicy("<Policy xmlns=\"" + RandomPolicies.NAMESPACE
+                    + "\" PolicyId=\"p\" Version=\"1.0\""
+                    + " RuleCombiningAlgId=\"urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:first-applicable\">"
+                    + "<Target/>" + rule("read", ACTION, ACTION_ID, "read") + rule("admin", SUBJECT, ROLE, "admin")
+                    + "</Policy>");
+        } finally {
+            XACML3StreamParser.setRuleMemoSize(0);
+        }
+    }
+
+    static String request(String role, String action) {
+        String subject = (role == null) ? "" : "<Attribute AttributeId=\"" + ROLE + "\" IncludeInResult=\"false\">"
+                + "<AttributeValue DataType=\"" + RandomPolicies.STRING + "\">" + role + "</AttributeValue></Attribute>";
+        return "<Request xmlns=\"" + RandomPolicies.NAMESPACE + "\" CombinedDecision=\"false\""
+                + " ReturnPolicyIdList=\"false\"><Attributes Category=\"" + SUBJECT + "\">" + subject
+                + "</Attributes><Attributes Category=\"" + ACTION + "\"><Attribute AttributeId=\"" + ACTION_ID
+                + "\" IncludeInResult=\"false\"><AttributeValue DataType=\"" + RandomPolicies.STRING + "\">" + action
+                + "</AttributeValue></Attribute></Attributes></Request>";
+    }
+
+    static AbstractResult evaluate(Policy policy, String request, PDPConfig pdpConfig) throws Exception {
+        EvaluationCtx context = EvaluationCtxFactory.getFactory()
+                .getEvaluationCtx(XACML3StreamParser.readRequest(request), pdpConfig);
+        return policy.evaluate(context);
+    }
+
+    static PDPConfig pdpConfig(RoleModule module) {
+        AttributeFinder attributeFinder = new AttributeFinder();
+        attributeFinder.setModules(new ArrayList<>(Collections.singletonList(module)));
+        return new PDPConfig(attributeFinder, new PolicyFinder(), null);
+    }
+
+    @Test
+    public void attributesOfTheRequestAreMemoized() throws Exception {
+        Policy policy = policy();
+        assertTrue(policy.getCombiningAlg() instanceof MemoizingRuleCombiningAlg);
+        RoleModule module = new RoleModule();
+        PDPConfig pdpConfig = pdpConfig(module);
+
+        assertEquals(AbstractResult.DECISION_PERMIT, evaluate(policy, request("admin", "write"), pdpConfig).getDecision());
+        assertEquals(AbstractResult.DECISION_PERMIT, evaluate(policy, request("admin", "write"), pdpConfig).getDecision());
+        assertEquals(AbstractResult.DECISION_NOT_APPLICABLE,
+                evaluate(policy, request("user", "write"), pdpConfig).getDecision());
+        assertEquals(1, ((MemoizingRuleCombiningAlg) policy.getCombiningAlg()).stats().hitCount());
+        assertEquals(0, module.calls);
+    }
+
+    @Test
+    public void attributesOfTheAttributeFinderAreNotResolvedForTheKey() throws Exception {
+        Policy policy = policy();
+        RoleModule module = new RoleModule();
+        PDPConfig pdpConfig = pdpConfig(module);
+
+        // the read rule applies first, the role is never needed
+        assertEquals(AbstractResult.DECISION_PERMIT, evaluate(policy, request(null, "read"), pdpConfig).getDecision());
+        assertEquals(0, module.calls);
+        assertEquals(AbstractResult.DECISION_PERMIT, evaluate(policy, request(null, "write"), pdpConfig).getDecision());
+        assertEquals(AbstractResult.DECISION_PERMIT, evaluate(policy, request(null, "write"), pdpConfig).getDecision());
+        assertEquals(2, module.calls);
+        assertEquals(0, ((MemoizingRuleCombiningAlg) policy.getCombiningAlg()).stats().requestCount());
+    }
+}
@@ -0,0 +1,117 @@
+package ilhn.xacml.util;
+
+import org.junit.Test;
+import org.wso2.balana.AbstractPolicy;
+import org.wso2.balana.MatchResult;
+import org.wso2.balana.PDPConfig;
+import org.wso2.balana.Policy;
+import org.wso2.balana.PredicateTable;
+import org.wso2.balana.TargetMatch;
+import org.wso2.balana.ctx.AbstractResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.ctx.EvaluationCtxFactory;
+import org.wso2.balana.ctx.xacml3.RequestCtx;
+import org.wso2.balana.xacml3.Target;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class PredicateTableTest {
+
+    static TargetMatch firstMatch(Policy policy) {
+        return ((Target) policy.getTarget()).getAnyOfSelections().get(0).getAllOfSelections().get(0)
+                .getMatches().get(0);
+    }
+
+    static Policy policy(String id, String match) throws Exception {
+        return XACML3StreamParser.readPolicy("<Policy xmlns=\"" + RandomPolicies.NAMESPACE + "\" PolicyId=\"" + id
+                + "\" Version=\"1.0\""
+                + " RuleCombiningAlgId=\"urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:deny-overrides\">"
+                + "<Target><AnyOf><AllOf>" + match + "</AllOf></AnyOf></Target>"
+                + "<Rule RuleId=\"r\" Effect=\"Permit\"/></Policy>");
+    }
+
+    /**
+     * @return match result and, for matching targets, decision and status of the evaluation
+     */
+    static String key(AbstractPolicy policy, EvaluationCtx context) {
+        MatchResult match = policy.match(context);
+        if (match.getResult() == MatchResult.INDETERMINATE)
+            return "indeterminate " + match.getStatus().getCode();
+        if (match.getResult() == MatchResult.NO_MATCH)
+            return "no match";
+
+        AbstractResult result = policy.evaluate(context);
+        List<String> code = (result.getStatus() != null) ? result.getStatus().getCode() : new ArrayList<>();
+        return result.getDecision() + " " + code;
+    }
+
+    @Test
+    public void identicalMatchesShareAnId() throws Exception {
+        RandomPolicies random = new RandomPolicies(1);
+        String match = "<Match MatchId=\"" + RandomPolicies.FUNCTION + "string-equal\"><AttributeValue DataType=\""
+                + RandomPolicies.STRING + "\">v1</AttributeValue>" + random.designator(0, false) + "</Match>";
+        int id = firstMatch(policy("a", match)).getPredicateId();
+
+        assertNotEquals(PredicateTable.NO_ID, id);
+        assertEquals(id, firstMatch(policy("b", match)).getPredicateId());
+        assertNotEquals(id, firstMatch(policy("c", match.replace(">v1<", ">v2<"))).getPredicateId());
+        assertNotEquals(id, firstMatch(policy("d", match.replace("\"false\"", "\"true\""))).getPredicateId());
+    }
+
+    @Test
+    public void sharedContextEvaluatesLikeFreshContexts() throws Exception {
+        PDPConfig pdpConfig = RandomPolicies.pdpConfig();
+        for (int seed = 1; seed <= 4; seed++) {
+            RandomPolicies random = new RandomPolicies(seed);
+            List<AbstractPolicy> policies = new ArrayList<>();
+            for (int p = 0; p < 30; p++)
+                policies.add(XACML3StreamParser.readPolicy(random.policy("p" + p, 1 + random.random().nextInt(12))));
+            for (int p = 0; p < 10; p++)
+                policies.add(XACML3StreamParser.readPolicySet(random.policySet("s" + p, 1 + random.random().nextInt(6)),
+                        null));
+
+            for (int i = 0; i < 200; i++) {
+                RequestCtx requestCtx = XACML3StreamParser.readRequest(random.request());
+                // evaluating all policies against one context reuses the predicates of the earlier ones
+                EvaluationCtx shared = EvaluationCtxFactory.getFactory().getEvaluationCtx(requestCtx, pdpConfig);
+                for (AbstractPolicy policy : policies) {
+                    EvaluationCtx fresh = EvaluationCtxFactory.getFactory().getEvaluationCtx(requestCtx, pdpConfig);
+                    assertEquals("seed " + seed + ", policy " + policy.getId() + ", request " + i,
+                            key(policy, fresh), key(policy, shared));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sharedContextEvaluatesTargetCasesLikeFreshContexts() throws Exception {
+        PDPConfig pdpConfig = TargetCases.pdpConfig();
+        // the cases as policy targets and as rule targets, identical matches share predicates
+        Map<String, AbstractPolicy> policies = new LinkedHashMap<>();
+        for (String name : TargetCases.TARGETS.keySet()) {
+            policies.put("target " + name, XACML3StreamParser.readPolicy(TargetCases.policy(name)));
+            policies.put("rule " + name, XACML3StreamParser.readPolicy(
+                    TargetCases.paddedPolicy(name, RandomPolicies.RULE_COMBINING_ALGS[0], 3)));
+        }
+
+        int roleA = firstMatch((Policy) policies.get("target role-a")).getPredicateId();
+        assertEquals(roleA, firstMatch((Policy) policies.get("target role-a-or-group-g")).getPredicateId());
+        assertNotEquals(roleA, firstMatch((Policy) policies.get("target role-a-issued-by-x")).getPredicateId());
+        assertNotEquals(roleA, firstMatch((Policy) policies.get("target role-a-mandatory")).getPredicateId());
+
+        for (Map.Entry<String, String> request : TargetCases.REQUESTS.entrySet()) {
+            EvaluationCtx shared = TargetCases.context(request.getValue(), pdpConfig);
+            for (Map.Entry<String, AbstractPolicy> policy : policies.entrySet()) {
+                EvaluationCtx fresh = TargetCases.context(request.getValue(), pdpConfig);
+                assertEquals(policy.getKey() + ", request " + request.getKey(),
+                        key(policy.getValue(), fresh), key(policy.getValue(), shared));
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package ilhn.xacml.util;
+
+import org.wso2.balana.PDPConfig;
+import org.wso2.balana.finder.AttributeFinder;
+import org.wso2.balana.finder.PolicyFinder;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Generates random XACML 3.0 policies, policy sets and requests over a small set of attributes, so
+ * requests frequently match. Targets mix equality matches, which the indexes and decision diagrams
+ * compile, with case insensitive and regular expression matches and mandatory attributes. Requests
+ * occasionally omit attributes, contain two values or the value "Any".
+ */
+public class RandomPolicies {
+
+    public static final String NAMESPACE = "urn:oasis:names:tc:xacml:3.0:core:schema:wd-17";
+
+    static final String FUNCTION = "urn:oasis:names:tc:xacml:1.0:function:";
+    static final String[] CATEGORIES = {
+            "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject",
+            "urn:oasis:names:tc:xacml:3.0:attribute-category:resource",
+            "urn:oasis:names:tc:xacml:3.0:attribute-category:action" };
+    static final String[] RULE_COMBINING_ALGS = {
+            "urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:deny-overrides",
+            "urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:permit-overrides",
+            "urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:first-applicable",
+            "urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:deny-unless-permit",
+            "urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:permit-unless-deny",
+            "urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:ordered-deny-overrides" };
+    static final String[] POLICY_COMBINING_ALGS = {
+            "urn:oasis:names:tc:xacml:3.0:policy-combining-algorithm:deny-overrides",
+            "urn:oasis:names:tc:xacml:3.0:policy-combining-algorithm:permit-overrides",
+            "urn:oasis:names:tc:xacml:1.0:policy-combining-algorithm:first-applicable",
+            "urn:oasis:names:tc:xacml:1.0:policy-combining-algorithm:only-one-applicable",
+            "urn:oasis:names:tc:xacml:3.0:policy-combining-algorithm:deny-unless-permit" };
+    static final int ATTRIBUTES = 5;
+    static final String STRING = "http://www.w3.org/2001/XMLSchema#string";
+    static final String INTEGER = "http://www.w3.org/2001/XMLSchema#integer";
+
+    private final Random random;
+    private int mandatory = 6;
+
+    public RandomPolicies(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * @param oneIn one in how many designators of matches have <code>MustBePresent</code> set,
+     *              0 for none
+     */
+    public void setMandatory(int oneIn) {
+        mandatory = oneIn;
+    }
+
+    /**
+     * @return configuration without attribute finder modules, to create evaluation contexts
+     */
+    public static PDPConfig pdpConfig() {
+        AttributeFinder attributeFinder = new AttributeFinder();
+        attributeFinder.setModules(new ArrayList<>());
+        return new PDPConfig(attributeFinder, new PolicyFinder(), null);
+    }
+
+    public Random random() {
+        return random;
+    }
+
+    /**
+     * @param id policy id
+     * @param rules number of rules
+     * @return policy with a target of up to one <code>AnyOf</code> and rules with up to two
+     */
+    public String policy(String id, int rules) {
+        return policy(id, rules, 1);
+    }
+
+    /**
+     * @param id policy id
+     * @param rules number of rules
+     * @param anyOfs maximum number of <code>AnyOf</code> elements of the policy target
+     * @return policy with rules with up to two <code>AnyOf</code> elements
+     */
+    public String policy(String id, int rules, int anyOfs) {
+        StringBuilder builder = new StringBuilder("<Policy xmlns=\"" + NAMESPACE + "\" PolicyId=\"" + id
+                + "\" RuleCombiningAlgId=\"" + pick(RULE_COMBINING_ALGS) + "\" Version=\"1.0\">");
+        builder.append(target(anyOfs));
+        for (int r = 0; r < rules; r++) {
+            builder.append("<Rule RuleId=\"r").append(r).append("\" Effect=\"")
+                    .append(random.nextBoolean() ? "Permit" : "Deny").append("\">").append(target(2));
+            if (random.nextInt(8) == 0) {
+                builder.append("<Condition><Apply FunctionId=\"" + FUNCTION + "integer-equal\"><Apply FunctionId=\""
+                        + FUNCTION + "integer-one-and-only\">" + designator(3, false) + "</Apply><AttributeValue"
+                        + " DataType=\"" + INTEGER + "\">1</AttributeValue></Apply></Condition>");
+            }
+            builder.append("</Rule>");
+        }
+        return builder.append("</Policy>").toString();
+    }
+
+    /**
+     * @param id policy set id, the ids of its policies are derived from it
+     * @param policies number of policies
+     * @return policy set of policies with up to 12 rules
+     */
+    public String policySet(String id, int policies) {
+        StringBuilder builder = new StringBuilder("<PolicySet xmlns=\"" + NAMESPACE + "\" PolicySetId=\"" + id
+                + "\" PolicyCombiningAlgId=\"" + pick(POLICY_COMBINING_ALGS) + "\" Version=\"1.0\">");
+        builder.append(target(1));
+        for (int p = 0; p < policies; p++)
+            builder.append(policy(id + "-p" + p, 1 + random.nextInt(12)));
+        return builder.append("</PolicySet>").toString();
+    }
+
+    public String request() {
+        StringBuilder builder = new StringBuilder("<Request xmlns=\"" + NAMESPACE + "\" CombinedDecision=\"false\""
+                + " ReturnPolicyIdList=\"false\">");
+        for (int c = 0; c < CATEGORIES.length; c++) {
+            builder.append("<Attributes Category=\"").append(CATEGORIES[c]).append("\">");
+            for (int a = 0; a < ATTRIBUTES; a++) {
+                if (a % CATEGORIES.length != c || random.nextInt(6) == 0)
+                    continue;
+
+                builder.append("<Attribute AttributeId=\"a").append(a).append("\" IncludeInResult=\"false\">");
+                int values = (random.nextInt(12) == 0) ? 2 : 1;
+                for (int i = 0; i < values; i++) {
+                    String value = (random.nextInt(40) == 0 && !isInteger(a)) ? "Any" : value(a);
+                    builder.append("<AttributeValue DataType=\"").append(type(a)).append("\">").append(value)
+                            .append("</AttributeValue>");
+                }
+                builder.append("</Attribute>");
+            }
+            builder.append("</Attributes>");
+        }
+        return builder.append("</Request>").toString();
+    }
+
+    String target(int maxAnyOfs) {
+        StringBuilder builder = new StringBuilder("<Target>");
+        int anyOfs = random.nextInt(maxAnyOfs + 1);
+        for (int i = 0; i < anyOfs; i++) {
+            builder.append("<AnyOf>");
+            int allOfs = 1 + random.nextInt(random.nextInt(3) == 0 ? 3 : 1);
+            for (int j = 0; j < allOfs; j++) {
+                builder.append("<AllOf>");
+                int matches = 1 + random.nextInt(2);
+                for (int k = 0; k < matches; k++)
+                    builder.append(match());
+                builder.append("</AllOf>");
+            }
+            builder.append("</AnyOf>");
+        }
+        return builder.append("</Target>").toString();
+    }
+
+    String match() {
+        int a = random.nextInt(ATTRIBUTES);
+        String function;
+        String value;
+        if (isInteger(a)) {
+            function = FUNCTION + "integer-equal";
+            value = value(a);
+        } else if (random.nextInt(8) == 0) {
+            function = "urn:oasis:names:tc:xacml:3.0:function:string-equal-ignore-case";
+            value = value(a);
+        } else if (random.nextInt(10) == 0) {
+            function = FUNCTION + "string-regexp-match";
+            value = "v[0-2]";
+        } else {
+            function = FUNCTION + "string-equal";
+            value = value(a);
+        }
+        return "<Match MatchId=\"" + function + "\"><AttributeValue DataType=\"" + type(a) + "\">" + value
+                + "</AttributeValue>" + designator(a, mandatory > 0 && random.nextInt(mandatory) == 0) + "</Match>";
+    }
+
+    String designator(int a, boolean mustBePresent) {
+        return "<AttributeDesignator AttributeId=\"a" + a + "\" Category=\"" + CATEGORIES[a % CATEGORIES.length]
+                + "\" DataType=\"" + type(a) + "\" MustBePresent=\"" + mustBePresent + "\"/>";
+    }
+
+    String value(int a) {
+        if (isInteger(a))
+            return String.valueOf(random.nextInt(4));
+        return (random.nextInt(6) == 0 ? "V" : "v") + random.nextInt(5);
+    }
+
+    String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    static boolean isInteger(int a) {
+        return a == 3;
+    }
+
+    static String type(int a) {
+        return isInteger(a) ? INTEGER : STRING;
+    }
+}
@@ -0,0 +1,87 @@
+package ilhn.xacml.util;
+
+import org.junit.Test;
+import org.wso2.balana.ctx.xacml3.RequestCtx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class RequestKeyTest {
+
+    private static final String SUBJECT = "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject";
+    private static final String RESOURCE = "urn:oasis:names:tc:xacml:3.0:attribute-category:resource";
+    private static final String STRING = "http://www.w3.org/2001/XMLSchema#string";
+
+    static RequestKey key(String... attributes) throws Exception {
+        StringBuilder request = new StringBuilder("<Request xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\""
+                + " CombinedDecision=\"false\" ReturnPolicyIdList=\"false\">");
+        for (String a : attributes)
+            request.append(a);
+        RequestCtx requestCtx = XACML3StreamParser.readRequest(request.append("</Request>").toString());
+        return RequestKey.of(requestCtx);
+    }
+
+    static String attributes(String category, String content, String... attributes) {
+        StringBuilder builder = new StringBuilder("<Attributes Category=\"" + category + "\">");
+        if (content != null)
+            builder.append("<Content>").append(content).append("</Content>");
+        for (String a : attributes)
+            builder.append(a);
+        return builder.append("</Attributes>").toString();
+    }
+
+    static String attribute(String id, boolean includeInResult, String... values) {
+        StringBuilder builder = new StringBuilder("<Attribute AttributeId=\"" + id + "\" IncludeInResult=\""
+                + includeInResult + "\">");
+        for (String v : values)
+            builder.append("<AttributeValue DataType=\"" + STRING + "\">").append(v).append("</AttributeValue>");
+        return builder.append("</Attribute>").toString();
+    }
+
+    @Test
+    public void orderOfValuesAttributesAndCategoriesIsIgnored() throws Exception {
+        RequestKey key = key(
+                attributes(SUBJECT, null, attribute("id", false, "alice"), attribute("role", false, "a", "b")),
+                attributes(RESOURCE, null, attribute("path", false, "/x")));
+
+        assertEquals(key, key(
+                attributes(RESOURCE, null, attribute("path", false, "/x")),
+                attributes(SUBJECT, null, attribute("role", false, "b", "a"), attribute("id", false, "alice"))));
+    }
+
+    @Test
+    public void differentValuesDiffer() throws Exception {
+        assertNotEquals(key(attributes(SUBJECT, null, attribute("role", false, "a"))),
+                key(attributes(SUBJECT, null, attribute("role", false, "b"))));
+        assertNotEquals(key(attributes(SUBJECT, null, attribute("role", false, "a"))),
+                key(attributes(RESOURCE, null, attribute("role", false, "a"))));
+    }
+
+    @Test
+    public void duplicateValuesAreKept() throws Exception {
+        // bag-size and the like tell a bag with a duplicate value from one without it
+        assertNotEquals(key(attributes(SUBJECT, null, attribute("role", false, "a", "a"))),
+                key(attributes(SUBJECT, null, attribute("role", false, "a"))));
+        assertEquals(key(attributes(SUBJECT, null, attribute("role", false, "a", "b", "a"))),
+                key(attributes(SUBJECT, null, attribute("role", false, "a", "a", "b"))));
+    }
+
+    @Test
+    public void includeInResultIsPartOfTheKey() throws Exception {
+        // included attributes are returned in the response
+        assertNotEquals(key(attributes(SUBJECT, null, attribute("role", true, "a"))),
+                key(attributes(SUBJECT, null, attribute("role", false, "a"))));
+    }
+
+    @Test
+    public void contentIsPartOfTheKey() throws Exception {
+        RequestKey key = key(attributes(RESOURCE, "<record xmlns=\"urn:test\"><owner>alice</owner></record>",
+                attribute("path", false, "/x")));
+
+        assertEquals(key, key(attributes(RESOURCE, "<record xmlns=\"urn:test\"><owner>alice</owner></record>",
+                attribute("path", false, "/x"))));
+        assertNotEquals(key, key(attributes(RESOURCE, "<record xmlns=\"urn:test\"><owner>bob</owner></record>",
+                attribute("path", false, "/x"))));
+        assertNotEquals(key, key(attributes(RESOURCE, null, attribute("path", false, "/x"))));
+    }
+}
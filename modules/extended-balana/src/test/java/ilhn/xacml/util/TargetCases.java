@@ -0,0 +1,206 @@
+package ilhn.xacml.util;
+
+import org.wso2.balana.PDPConfig;
+import org.wso2.balana.attr.BagAttribute;
+import org.wso2.balana.cond.EvaluationResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.ctx.EvaluationCtxFactory;
+import org.wso2.balana.ctx.Status;
+import org.wso2.balana.finder.AttributeFinder;
+import org.wso2.balana.finder.AttributeFinderModule;
+import org.wso2.balana.finder.PolicyFinder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Named targets and requests covering the matching semantics the target indexes, rule dispatch
+ * and decision diagrams must preserve: empty targets, the value "Any", absent mandatory attributes,
+ * indeterminate designators, multi-valued bags, issuer-qualified designators and case insensitive
+ * matches. The names are valid policy and rule ids, so failures name the target.
+ */
+public class TargetCases {
+
+    static final String SUBJECT = RandomPolicies.CATEGORIES[0];
+    static final String ROLE = "urn:test:role";
+    static final String GROUP = "urn:test:group";
+    /**
+     * attribute the attribute finder of {@link #pdpConfig()} fails to resolve
+     */
+    static final String BROKEN = "urn:test:broken";
+
+    static final String STRING_EQUAL = RandomPolicies.FUNCTION + "string-equal";
+    static final String EQUAL_IGNORE_CASE = "urn:oasis:names:tc:xacml:3.0:function:string-equal-ignore-case";
+    static final String REGEXP_MATCH = RandomPolicies.FUNCTION + "string-regexp-match";
+
+    /**
+     * targets by name
+     */
+    public static final Map<String, String> TARGETS = new LinkedHashMap<>();
+    /**
+     * requests by name
+     */
+    public static final Map<String, String> REQUESTS = new LinkedHashMap<>();
+
+    static {
+        TARGETS.put("any", target());
+        TARGETS.put("role-a", target(anyOf(allOf(match(ROLE, "a")))));
+        TARGETS.put("role-b", target(anyOf(allOf(match(ROLE, "b")))));
+        TARGETS.put("role-a-mandatory", target(anyOf(allOf(match(STRING_EQUAL, ROLE, null, "a", true)))));
+        TARGETS.put("role-A-ignoring-case", target(anyOf(allOf(match(EQUAL_IGNORE_CASE, ROLE, null, "A", false)))));
+        TARGETS.put("role-a-issued-by-x", target(anyOf(allOf(match(STRING_EQUAL, ROLE, "x", "a", false)))));
+        TARGETS.put("role-a-or-group-g", target(anyOf(allOf(match(ROLE, "a")), allOf(match(GROUP, "g")))));
+        TARGETS.put("role-a-and-group-g", target(anyOf(allOf(match(ROLE, "a"), match(GROUP, "g")))));
+        TARGETS.put("role-a-and-any-group-g", target(anyOf(allOf(match(ROLE, "a"))), anyOf(allOf(match(GROUP, "g")))));
+        TARGETS.put("role-regexp", target(anyOf(allOf(match(REGEXP_MATCH, ROLE, null, "^a", false)))));
+        TARGETS.put("broken-b", target(anyOf(allOf(match(BROKEN, "b")))));
+        TARGETS.put("broken-b-or-role-a", target(anyOf(allOf(match(BROKEN, "b")), allOf(match(ROLE, "a")))));
+
+        REQUESTS.put("empty", request());
+        REQUESTS.put("role-a", request(attribute(ROLE, null, "a")));
+        REQUESTS.put("role-b", request(attribute(ROLE, null, "b")));
+        REQUESTS.put("role-A", request(attribute(ROLE, null, "A")));
+        REQUESTS.put("role-Any", request(attribute(ROLE, null, "Any")));
+        REQUESTS.put("roles-b-and-a", request(attribute(ROLE, null, "b", "a")));
+        REQUESTS.put("role-a-issued-by-x", request(attribute(ROLE, "x", "a")));
+        REQUESTS.put("role-a-issued-by-y", request(attribute(ROLE, "y", "a")));
+        REQUESTS.put("roles-a-issued-by-y-and-x", request(attribute(ROLE, "y", "a"), attribute(ROLE, "x", "a")));
+        REQUESTS.put("group-g", request(attribute(GROUP, null, "g")));
+        REQUESTS.put("role-a-group-g", request(attribute(ROLE, null, "a"), attribute(GROUP, null, "g")));
+        REQUESTS.put("role-b-groups-h-and-g", request(attribute(ROLE, null, "b"), attribute(GROUP, null, "h", "g")));
+        REQUESTS.put("broken-b", request(attribute(BROKEN, null, "b")));
+    }
+
+    static String match(String function, String id, String issuer, String value, boolean mustBePresent) {
+        return "<Match MatchId=\"" + function + "\"><AttributeValue DataType=\"" + RandomPolicies.STRING + "\">"
+                + value + "</AttributeValue><AttributeDesignator AttributeId=\"" + id + "\" Category=\"" + SUBJECT
+                + "\" DataType=\"" + RandomPolicies.STRING + "\""
+                + ((issuer != null) ? " Issuer=\"" + issuer + "\"" : "")
+                + " MustBePresent=\"" + mustBePresent + "\"/></Match>";
+    }
+
+    static String match(String id, String value) {
+        return match(STRING_EQUAL, id, null, value, false);
+    }
+
+    static String allOf(String... matches) {
+        return "<AllOf>" + String.join("", matches) + "</AllOf>";
+    }
+
+    static String anyOf(String... allOfs) {
+        return "<AnyOf>" + String.join("", allOfs) + "</AnyOf>";
+    }
+
+    static String target(String... anyOfs) {
+        return "<Target>" + String.join("", anyOfs) + "</Target>";
+    }
+
+    static String attribute(String id, String issuer, String... values) {
+        StringBuilder builder = new StringBuilder("<Attribute AttributeId=\"" + id + "\"");
+        if (issuer != null)
+            builder.append(" Issuer=\"").append(issuer).append("\"");
+        builder.append(" IncludeInResult=\"false\">");
+        for (String value : values)
+            builder.append("<AttributeValue DataType=\"" + RandomPolicies.STRING + "\">").append(value)
+                    .append("</AttributeValue>");
+        return builder.append("</Attribute>").toString();
+    }
+
+    static String request(String... attributes) {
+        return "<Request xmlns=\"" + RandomPolicies.NAMESPACE + "\" CombinedDecision=\"false\""
+                + " ReturnPolicyIdList=\"false\"><Attributes Category=\"" + SUBJECT + "\">"
+                + String.join("", attributes) + "</Attributes></Request>";
+    }
+
+    /**
+     * @return policy with the given target and a permit rule, named after the target
+     */
+    public static String policy(String name) {
+        return "<Policy xmlns=\"" + RandomPolicies.NAMESPACE + "\" PolicyId=\"" + name + "\" Version=\"1.0\""
+                + " RuleCombiningAlgId=\"" + RandomPolicies.RULE_COMBINING_ALGS[0] + "\">" + TARGETS.get(name)
+                + "<Rule RuleId=\"r\" Effect=\"Permit\"/></Policy>";
+    }
+
+    /**
+     * @return rule with the given target and effect, named after the target
+     */
+    public static String rule(String name, String effect) {
+        return "<Rule RuleId=\"" + name + "\" Effect=\"" + effect + "\">" + TARGETS.get(name) + "</Rule>";
+    }
+
+    /**
+     * Returns the given rule among rules for roles no request has, so the policy has enough rules
+     * to be dispatched or compiled into a decision diagram.
+     *
+     * @param name target of the rule
+     * @param combiningAlg rule combining algorithm of the policy
+     * @param rules number of rules of the policy
+     * @return policy named after the target
+     */
+    public static String paddedPolicy(String name, String combiningAlg, int rules) {
+        StringBuilder builder = new StringBuilder("<Policy xmlns=\"" + RandomPolicies.NAMESPACE + "\" PolicyId=\""
+                + name + "\" Version=\"1.0\" RuleCombiningAlgId=\"" + combiningAlg + "\"><Target/>");
+        for (int i = 0; i < rules - 1; i++) {
+            builder.append("<Rule RuleId=\"pad").append(i).append("\" Effect=\"Deny\">")
+                    .append(target(anyOf(allOf(match(ROLE, "pad" + i))))).append("</Rule>");
+            if (i == rules / 2)
+                builder.append(rule(name, "Permit"));
+        }
+        return builder.append("</Policy>").toString();
+    }
+
+    /**
+     * Returns the policy of the given target among policies for roles no request has, so the policy
+     * set has enough policies to be compiled into a decision diagram.
+     *
+     * @param name target of the policy
+     * @param combiningAlg policy combining algorithm of the policy set
+     * @param policies number of policies of the policy set
+     * @return policy set named after the target
+     */
+    public static String paddedPolicySet(String name, String combiningAlg, int policies) {
+        StringBuilder builder = new StringBuilder("<PolicySet xmlns=\"" + RandomPolicies.NAMESPACE
+                + "\" PolicySetId=\"" + name + "\" Version=\"1.0\" PolicyCombiningAlgId=\"" + combiningAlg
+                + "\"><Target/>");
+        for (int i = 0; i < policies - 1; i++) {
+            builder.append("<Policy PolicyId=\"pad").append(i).append("\" Version=\"1.0\" RuleCombiningAlgId=\"")
+                    .append(RandomPolicies.RULE_COMBINING_ALGS[0]).append("\">")
+                    .append(target(anyOf(allOf(match(ROLE, "pad" + i)))))
+                    .append("<Rule RuleId=\"r\" Effect=\"Deny\"/></Policy>");
+            if (i == policies / 2)
+                builder.append(policy(name));
+        }
+        return builder.append("</PolicySet>").toString();
+    }
+
+    /**
+     * @return configuration whose attribute finder fails to resolve {@link #BROKEN}
+     */
+    public static PDPConfig pdpConfig() {
+        AttributeFinderModule module = new AttributeFinderModule() {
+            @Override
+            public boolean isDesignatorSupported() {
+                return true;
+            }
+
+            @Override
+            public EvaluationResult findAttribute(URI attributeType, URI attributeId, String issuer, URI category,
+                                                  EvaluationCtx context) {
+                if (BROKEN.equals(attributeId.toString()))
+                    return new EvaluationResult(new Status(Collections.singletonList(Status.STATUS_PROCESSING_ERROR),
+                            "attribute store unavailable"));
+                return new EvaluationResult(BagAttribute.createEmptyBag(attributeType));
+            }
+        };
+        AttributeFinder attributeFinder = new AttributeFinder();
+        attributeFinder.setModules(new ArrayList<>(Collections.singletonList(module)));
+        return new PDPConfig(attributeFinder, new PolicyFinder(), null);
+    }
+
+    public static EvaluationCtx context(String request, PDPConfig pdpConfig) throws Exception {
+        return EvaluationCtxFactory.getFactory().getEvaluationCtx(XACML3StreamParser.readRequest(request), pdpConfig);
+    }
+}
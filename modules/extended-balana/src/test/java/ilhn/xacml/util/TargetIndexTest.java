@@ -0,0 +1,228 @@
+package ilhn.xacml.util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.balana.MatchResult;
+import org.wso2.balana.PDPConfig;
+import org.wso2.balana.Policy;
+import org.wso2.balana.attr.BagAttribute;
+import org.wso2.balana.attr.StringAttribute;
+import org.wso2.balana.cond.EvaluationResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+import org.wso2.balana.ctx.EvaluationCtxFactory;
+import org.wso2.balana.finder.AttributeFinder;
+import org.wso2.balana.finder.AttributeFinderModule;
+import org.wso2.balana.finder.PolicyFinder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TargetIndexTest {
+
+    private static final String SUBJECT = "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject";
+    private static final String STRING = "http://www.w3.org/2001/XMLSchema#string";
+    private static final String STRING_EQUAL = "urn:oasis:names:tc:xacml:1.0:function:string-equal";
+    private static final String EQUAL_IGNORE_CASE = "urn:oasis:names:tc:xacml:3.0:function:string-equal-ignore-case";
+    private static final String REGEXP_MATCH = "urn:oasis:names:tc:xacml:1.0:function:string-regexp-match";
+
+    private PDPConfig pdpConfig;
+    private TargetIndex<Policy> index;
+    private List<Policy> policies;
+
+    @Before
+    public void setUp() {
+        AttributeFinder attributeFinder = new AttributeFinder();
+        attributeFinder.setModules(new ArrayList<>());
+        pdpConfig = new PDPConfig(attributeFinder, new PolicyFinder(), null);
+        index = new TargetIndex<>();
+        policies = new ArrayList<>();
+    }
+
+    static String match(String function, String id, String value, boolean mustBePresent) {
+        return "<Match MatchId=\"" + function + "\"><AttributeValue DataType=\"" + STRING + "\">" + value
+                + "</AttributeValue><AttributeDesignator AttributeId=\"" + id + "\" Category=\"" + SUBJECT
+                + "\" DataType=\"" + STRING + "\" MustBePresent=\"" + mustBePresent + "\"/></Match>";
+    }
+
+    static String match(String id, String value) {
+        return match(STRING_EQUAL, id, value, false);
+    }
+
+    static String allOf(String... matches) {
+        return "<AllOf>" + String.join("", matches) + "</AllOf>";
+    }
+
+    static String anyOf(String... allOfs) {
+        return "<AnyOf>" + String.join("", allOfs) + "</AnyOf>";
+    }
+
+    void add(String id, String... anyOfs) throws Exception {
+        Policy policy = XACML3StreamParser.readPolicy("<Policy xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\""
+                + " PolicyId=\"" + id + "\" Version=\"1.0\""
+                + " RuleCombiningAlgId=\"urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:deny-overrides\">"
+                + "<Target>" + String.join("", anyOfs) + "</Target>"
+                + "<Rule RuleId=\"r\" Effect=\"Permit\"/></Policy>");
+        index.add(policy, policy.getTarget());
+        policies.add(policy);
+    }
+
+    EvaluationCtx context(String... attributes) throws Exception {
+        StringBuilder request = new StringBuilder("<Request xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\""
+                + " CombinedDecision=\"false\" ReturnPolicyIdList=\"false\"><Attributes Category=\"" + SUBJECT + "\">");
+        for (int i = 0; i < attributes.length; i += 2) {
+            request.append("<Attribute AttributeId=\"").append(attributes[i]).append("\" IncludeInResult=\"false\">")
+                    .append("<AttributeValue DataType=\"" + STRING + "\">").append(attributes[i + 1])
+                    .append("</AttributeValue></Attribute>");
+        }
+        request.append("</Attributes></Request>");
+        return EvaluationCtxFactory.getFactory()
+                .getEvaluationCtx(XACML3StreamParser.readRequest(request.toString()), pdpConfig);
+    }
+
+    /**
+     * Returns the ids of the candidates, after checking that every policy whose target matches
+     * the request is a candidate.
+     */
+    List<String> candidates(String... attributes) throws Exception {
+        EvaluationCtx context = context(attributes);
+        List<Policy> candidates = index.candidates(context);
+        for (Policy policy : policies) {
+            if (policy.getTarget().match(context).getResult() != MatchResult.NO_MATCH)
+                assertTrue(policy.getId() + " may match but is no candidate", candidates.contains(policy));
+        }
+
+        List<String> ids = new ArrayList<>();
+        for (Policy policy : candidates)
+            ids.add(policy.getId().toString());
+        return ids;
+    }
+
+    @Test
+    public void selectsByValue() throws Exception {
+        add("a", anyOf(allOf(match("role", "a"))));
+        add("b", anyOf(allOf(match("role", "b"))));
+        add("ignore-case", anyOf(allOf(match(EQUAL_IGNORE_CASE, "role", "A", false))));
+        add("regexp", anyOf(allOf(match(REGEXP_MATCH, "role", "^a", false))));
+        add("empty");
+
+        assertEquals(2, index.residualSize());
+        assertEquals(Arrays.asList("a", "ignore-case", "regexp", "empty"), candidates("role", "a"));
+        assertEquals(Arrays.asList("b", "regexp", "empty"), candidates("role", "b"));
+        assertEquals(Arrays.asList("regexp", "empty"), candidates("role", "c"));
+    }
+
+    @Test
+    public void anyMatchesEveryValue() throws Exception {
+        add("a", anyOf(allOf(match("role", "a"))));
+        add("b", anyOf(allOf(match("role", "b"))));
+        add("other", anyOf(allOf(match("group", "g"))));
+
+        assertEquals(Arrays.asList("a", "b"), candidates("role", "Any"));
+    }
+
+    @Test
+    public void missingAttributes() throws Exception {
+        add("optional", anyOf(allOf(match(STRING_EQUAL, "role", "a", false))));
+        add("mandatory", anyOf(allOf(match(STRING_EQUAL, "group", "g", true))));
+
+        // missing mandatory attributes make the target indeterminate
+        assertEquals(Arrays.asList("mandatory"), candidates());
+        assertEquals(Arrays.asList("mandatory"), candidates("role", "b"));
+        assertEquals(Arrays.asList("optional"), candidates("role", "a", "group", "h"));
+    }
+
+    @Test
+    public void multipleAllOfs() throws Exception {
+        // role a or group g
+        add("either", anyOf(allOf(match("role", "a")), allOf(match("group", "g"))));
+        // role a and group g, indexed by one of the AnyOfs
+        add("both", anyOf(allOf(match("role", "a"))), anyOf(allOf(match("group", "g"))));
+        // role a and group g within one AllOf
+        add("all", anyOf(allOf(match("role", "a"), match("group", "g"))));
+
+        assertEquals(Arrays.asList("either", "both", "all"), candidates("role", "a", "group", "g"));
+        assertTrue(candidates("role", "a").contains("either"));
+        assertTrue(candidates("group", "g").contains("either"));
+        assertEquals(Arrays.asList(), candidates("role", "b", "group", "h"));
+    }
+
+    @Test
+    public void attributesOfTheAttributeFinderAreNotLookedUp() throws Exception {
+        List<URI> resolved = new ArrayList<>();
+        AttributeFinderModule module = new AttributeFinderModule() {
+            @Override
+            public boolean isDesignatorSupported() {
+                return true;
+            }
+
+            @Override
+            public EvaluationResult findAttribute(URI attributeType, URI attributeId, String issuer, URI category,
+                                                  EvaluationCtx context) {
+                resolved.add(attributeId);
+                return new EvaluationResult(new BagAttribute(attributeType,
+                        Collections.singletonList(new StringAttribute("b"))));
+            }
+        };
+        pdpConfig.getAttributeFinder().setModules(new ArrayList<>(Collections.singletonList(module)));
+        add("a", anyOf(allOf(match("role", "a"))));
+        add("b", anyOf(allOf(match("role", "b"))));
+        add("group", anyOf(allOf(match("group", "g"))));
+
+        // the role may be resolved to any value, the group is given in the request
+        assertEquals("{0, 1}", index.select(context("group", "h")).toString());
+        assertEquals(Collections.emptyList(), resolved);
+        assertEquals(Arrays.asList("a", "b"), candidates("group", "h"));
+        assertEquals(Arrays.asList("a", "group"), candidates("group", "g", "role", "a"));
+    }
+
+    static int matchResult(String target, String request) throws Exception {
+        Policy policy = XACML3StreamParser.readPolicy(TargetCases.policy(target));
+        return policy.getTarget().match(TargetCases.context(TargetCases.REQUESTS.get(request),
+                TargetCases.pdpConfig())).getResult();
+    }
+
+    @Test
+    public void targetCasesHaveTheirSemantics() throws Exception {
+        assertEquals(MatchResult.MATCH, matchResult("any", "empty"));
+        // the request value "Any" equals every value
+        assertEquals(MatchResult.MATCH, matchResult("role-a", "role-Any"));
+        assertEquals(MatchResult.MATCH, matchResult("role-a", "roles-b-and-a"));
+        assertEquals(MatchResult.INDETERMINATE, matchResult("role-a-mandatory", "empty"));
+        assertEquals(MatchResult.MATCH, matchResult("role-A-ignoring-case", "role-a"));
+        assertEquals(MatchResult.MATCH, matchResult("role-a-issued-by-x", "role-a-issued-by-x"));
+        assertEquals(MatchResult.NO_MATCH, matchResult("role-a-issued-by-x", "role-a-issued-by-y"));
+        assertEquals(MatchResult.MATCH, matchResult("role-a-issued-by-x", "roles-a-issued-by-y-and-x"));
+        assertEquals(MatchResult.MATCH, matchResult("role-a", "role-a-issued-by-y"));
+        assertEquals(MatchResult.INDETERMINATE, matchResult("broken-b", "role-a"));
+        assertEquals(MatchResult.MATCH, matchResult("broken-b", "broken-b"));
+        assertEquals(MatchResult.MATCH, matchResult("broken-b-or-role-a", "role-a"));
+    }
+
+    @Test
+    public void candidatesCoverTheMatchingTargets() throws Exception {
+        PDPConfig pdpConfig = TargetCases.pdpConfig();
+        for (String name : TargetCases.TARGETS.keySet()) {
+            Policy policy = XACML3StreamParser.readPolicy(TargetCases.policy(name));
+            index.add(policy, policy.getTarget());
+            policies.add(policy);
+        }
+
+        for (Map.Entry<String, String> request : TargetCases.REQUESTS.entrySet()) {
+            EvaluationCtx context = TargetCases.context(request.getValue(), pdpConfig);
+            List<Policy> candidates = index.candidates(context);
+            for (Policy policy : policies) {
+                MatchResult match = policy.getTarget().match(TargetCases.context(request.getValue(), pdpConfig));
+                if (match.getResult() != MatchResult.NO_MATCH)
+                    assertTrue("target " + policy.getId() + ", request " + request.getKey() + ": "
+                            + match.getResult() + " but no candidate", candidates.contains(policy));
+            }
+        }
+    }
+}